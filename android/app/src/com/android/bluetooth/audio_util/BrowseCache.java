@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.audio_util;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.LruCache;
+import android.util.Pair;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Folder listings of the browsable players, keyed by package name and media ID.
+ *
+ * <p>Some carkits request every item of a folder individually, and reconnecting devices walk the
+ * whole media tree again, while each {@link android.media.browse.MediaBrowser#subscribe} is slow.
+ * The cache is owned by {@link MediaPlayerList}, so it outlives the {@link BrowsedPlayerWrapper}
+ * connections, and is bounded by the estimated size of the listings rather than their count.
+ *
+ * <p>Cached listings are immutable and handed out without a copy, so neither the list nor its
+ * items may be modified. Listings expire after {@link #MAX_AGE_MS} since media browsers are not
+ * observed for changes, and all listings of a package are dropped when the package changes.
+ */
+class BrowseCache {
+    @VisibleForTesting
+    static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+    @VisibleForTesting
+    static final long MAX_AGE_MS = 5 * 60 * 1000;
+
+    // Rough per item cost of the ListItem, Folder or Metadata objects and the list slot
+    private static final int ITEM_OVERHEAD_BYTES = 96;
+
+    private static final class Entry {
+        final List<ListItem> mItems;
+        final int mSize;
+        final long mLoadedAtMs;
+
+        Entry(List<ListItem> items, int size, long loadedAtMs) {
+            mItems = items;
+            mSize = size;
+            mLoadedAtMs = loadedAtMs;
+        }
+    }
+
+    private final int mMaxBytes;
+    private final LruCache<Pair<String, String>, Entry> mEntries;
+
+    @GuardedBy("this")
+    private int mExpiredCount;
+    @GuardedBy("this")
+    private int mSubscribeCount;
+    @GuardedBy("this")
+    private long mSubscribeTotalMs;
+    @GuardedBy("this")
+    private long mSubscribeMaxMs;
+
+    BrowseCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    @VisibleForTesting
+    BrowseCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+        mEntries = new LruCache<Pair<String, String>, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(Pair<String, String> key, Entry entry) {
+                return entry.mSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached listing of a folder, or null if it is not cached or expired. The
+     * returned list must not be modified.
+     */
+    synchronized List<ListItem> get(String packageName, String mediaId) {
+        Pair<String, String> key = new Pair<>(packageName, mediaId);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - entry.mLoadedAtMs > MAX_AGE_MS) {
+            mEntries.remove(key);
+            mExpiredCount++;
+            return null;
+        }
+        return entry.mItems;
+    }
+
+    /**
+     * Cache the listing of a folder. The caller gives up ownership of {@code items} and their
+     * content, which must not be modified anymore.
+     *
+     * @return the immutable listing to hand out
+     */
+    synchronized List<ListItem> put(String packageName, String mediaId, List<ListItem> items) {
+        List<ListItem> listing = Collections.unmodifiableList(new ArrayList<>(items));
+        mEntries.put(new Pair<>(packageName, mediaId),
+                new Entry(listing, estimateSize(listing), SystemClock.elapsedRealtime()));
+        return listing;
+    }
+
+    /** Drop all listings of a package. */
+    synchronized void invalidate(String packageName) {
+        for (Pair<String, String> key : mEntries.snapshot().keySet()) {
+            if (key.first.equals(packageName)) {
+                mEntries.remove(key);
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mEntries.evictAll();
+    }
+
+    /** Record how long loading a listing that was not cached took. */
+    synchronized void recordSubscribeLatency(long latencyMs) {
+        mSubscribeCount++;
+        mSubscribeTotalMs += latencyMs;
+        mSubscribeMaxMs = Math.max(mSubscribeMaxMs, latencyMs);
+    }
+
+    @VisibleForTesting
+    int sizeBytes() {
+        return mEntries.size();
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        int hits = mEntries.hitCount();
+        int lookups = hits + mEntries.missCount();
+        sb.append("Browse cache: " + mEntries.snapshot().size() + " folders, "
+                + mEntries.size() + "/" + mMaxBytes + " bytes\n");
+        sb.append("  hits: " + hits + "/" + lookups
+                + " (" + (lookups == 0 ? 0 : hits * 100 / lookups) + "%)"
+                + ", expired: " + mExpiredCount
+                + ", evictions: " + mEntries.evictionCount() + "\n");
+        sb.append("  subscribes: " + mSubscribeCount
+                + ", average: " + (mSubscribeCount == 0 ? 0 : mSubscribeTotalMs / mSubscribeCount)
+                + "ms, max: " + mSubscribeMaxMs + "ms\n");
+    }
+
+    @VisibleForTesting
+    static int estimateSize(List<ListItem> items) {
+        int size = 0;
+        for (ListItem item : items) {
+            size += ITEM_OVERHEAD_BYTES;
+            if (item.isFolder) {
+                size += sizeOf(item.folder.mediaId) + sizeOf(item.folder.title);
+                continue;
+            }
+            Metadata song = item.song;
+            size += sizeOf(song.mediaId) + sizeOf(song.title) + sizeOf(song.artist)
+                    + sizeOf(song.album) + sizeOf(song.trackNum) + sizeOf(song.numTracks)
+                    + sizeOf(song.genre) + sizeOf(song.duration);
+            Bitmap image = song.image == null ? null : song.image.getImage();
+            if (image != null) {
+                size += image.getAllocationByteCount();
+            }
+        }
+        // An entry larger than the whole cache is simply not kept
+        return Math.max(size, 1);
+    }
+
+    private static int sizeOf(String s) {
+        return s == null ? 0 : 2 * s.length();
+    }
+}
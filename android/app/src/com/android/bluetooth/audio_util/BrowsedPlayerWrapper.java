@@ -27,9 +27,7 @@ import android.os.Message;
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 /*
  * Helper class to create an abstraction layer for the MediaBrowser service that AVRCP can use.
@@ -79,27 +77,6 @@ class BrowsedPlayerWrapper {
     // that says this can't change between connections. Instead always treat empty string as root.
     private String mRoot = "";
 
-    // A linked hash map that keeps the contents of the last X browsed folders.
-    //
-    // NOTE: This is needed since some carkits will repeatedly request each item in a folder
-    // individually, incrementing the index of the requested item by one at a time. Going through
-    // the subscription process for each individual item is incredibly slow so we cache the items
-    // in the folder in order to speed up the process. We still run the risk of one device pushing
-    // out a cached folder that another device was using, but this is highly unlikely since for
-    // this to happen you would need to be connected to two carkits at the same time.
-    //
-    // TODO (apanicke): Dynamically set the number of cached folders equal to the max number
-    // of connected devices because that is the maximum number of folders that can be browsed at
-    // a single time.
-    static final int NUM_CACHED_FOLDERS = 5;
-    LinkedHashMap<String, List<ListItem>> mCachedFolders =
-            new LinkedHashMap<String, List<ListItem>>(NUM_CACHED_FOLDERS) {
-                @Override
-                protected boolean removeEldestEntry(Map.Entry<String, List<ListItem>> eldest) {
-                    return size() > NUM_CACHED_FOLDERS;
-                }
-            };
-
     // TODO (apanicke): Investigate if there is a way to create this just by passing in the
     // MediaBrowser. Right now there is no obvious way to create the browser then update the
     // connection callback without being forced to re-create the object every time.
@@ -237,13 +214,10 @@ class BrowsedPlayerWrapper {
     // TODO (apanicke): Currently we do a full folder lookup even if the remote device requests
     // info for only one item. Add a lookup function that can handle getting info for a single
     // item.
+    //
+    // NOTE: The results are not cached here, see BrowseCache which is shared by all the browsable
+    // players and survives reconnecting to them.
     public boolean getFolderItems(String mediaId, BrowseCallback cb) {
-        if (mCachedFolders.containsKey(mediaId)) {
-            Log.i(TAG, "getFolderItems: Grabbing cached data for mediaId: " + mediaId);
-            cb.run(STATUS_SUCCESS, mediaId, Util.cloneList(mCachedFolders.get(mediaId)));
-            return true;
-        }
-
         if (cb == null) {
             Log.wtf(TAG, "getFolderItems: Trying to connect to " + mPackageName
                     + "with null browse callback");
@@ -464,11 +438,10 @@ class BrowsedPlayerWrapper {
                 }
             }
 
-            mCachedFolders.put(parentId, return_list);
             mTimeoutHandler.removeMessages(TimeoutHandler.MSG_TIMEOUT);
 
-            // Clone the list so that the callee can mutate it without affecting the cached data
-            mBrowseCallback.run(STATUS_SUCCESS, parentId, Util.cloneList(return_list));
+            // The list is freshly built, so the callee owns it and can mutate it
+            mBrowseCallback.run(STATUS_SUCCESS, parentId, return_list);
             mBrowseCallback = null;
             disconnect();
         }
@@ -487,11 +460,7 @@ class BrowsedPlayerWrapper {
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("Browsable Package Name: " + mPackageName + "\n");
-        sb.append("   Cached Media ID's: ");
-        for (String id : mCachedFolders.keySet()) {
-            sb.append("\"" + id + "\", ");
-        }
-        sb.append("\n");
+        sb.append("   Root: \"" + mRoot + "\"\n");
         return sb.toString();
     }
 }
@@ -31,6 +31,7 @@ import android.media.session.MediaSessionManager;
 import android.media.session.PlaybackState;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.text.TextUtils;
 import android.util.Log;
@@ -45,6 +46,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -108,6 +110,9 @@ public class MediaPlayerList {
 
     private BrowsablePlayerConnector mBrowsablePlayerConnector;
 
+    // Folder listings of all the browsable players, with their media ID's already prefixed
+    private final BrowseCache mBrowseCache = new BrowseCache();
+
     private MediaPlayerSettingsEventListener mPlayerSettingsListener;
 
     public interface MediaUpdateCallback {
@@ -232,10 +237,11 @@ public class MediaPlayerList {
 
                     mBrowsablePlayers.put(mMediaPlayerIds.get(wrapper.getPackageName()), wrapper);
 
-                    wrapper.getFolderItems(wrapper.getRootId(),
-                            (int status, String mediaId, List<ListItem> results) -> {
-                                d("Got the contents for: " + mediaId + " : num results="
-                                        + results.size());
+                    getBrowsedFolderItems(mMediaPlayerIds.get(wrapper.getPackageName()), wrapper,
+                            wrapper.getRootId(), (List<ListItem> results) -> {
+                                d("Got the root contents for: " + wrapper.getPackageName()
+                                        + " : num results="
+                                        + (results == null ? 0 : results.size()));
                             });
                 }
 
@@ -268,6 +274,7 @@ public class MediaPlayerList {
         for (BrowsedPlayerWrapper player : mBrowsablePlayers.values()) {
             player.disconnect();
         }
+        mBrowseCache.clear();
         mBrowsablePlayers.clear();
     }
 
@@ -504,21 +511,8 @@ public class MediaPlayerList {
                 itemId = wrapper.getRootId();
             }
 
-            wrapper.getFolderItems(itemId, (status, id, results) -> {
-                if (status != BrowsedPlayerWrapper.STATUS_SUCCESS) {
-                    cb.run(mediaId, new ArrayList<ListItem>());
-                    return;
-                }
-
-                String playerPrefix = String.format("%02d", playerIndex);
-                for (ListItem item : results) {
-                    if (item.isFolder) {
-                        item.folder.mediaId = playerPrefix.concat(item.folder.mediaId);
-                    } else {
-                        item.song.mediaId = playerPrefix.concat(item.song.mediaId);
-                    }
-                }
-                cb.run(mediaId, results);
+            getBrowsedFolderItems(playerIndex, wrapper, itemId, (List<ListItem> results) -> {
+                cb.run(mediaId, results == null ? new ArrayList<ListItem>() : results);
             });
             return;
         } else {
@@ -526,6 +520,45 @@ public class MediaPlayerList {
         }
     }
 
+    /**
+     * Get the contents of a folder of a browsable player, with the media ID's of the items
+     * prefixed by the player ID. Listings are served from {@link BrowseCache} when possible, in
+     * which case the returned list is shared and must not be modified.
+     *
+     * @param cb called with the folder contents, or null if they could not be loaded
+     */
+    private void getBrowsedFolderItems(int playerIndex, BrowsedPlayerWrapper wrapper,
+            String itemId, Consumer<List<ListItem>> cb) {
+        String packageName = wrapper.getPackageName();
+        String playerPrefix = String.format("%02d", playerIndex);
+        // Key on the prefixed ID so a player getting another ID never reuses stale prefixes
+        String cacheId = playerPrefix.concat(itemId);
+        List<ListItem> cached = mBrowseCache.get(packageName, cacheId);
+        if (cached != null) {
+            d("getBrowsedFolderItems: cached contents for " + packageName + ": " + itemId);
+            cb.accept(cached);
+            return;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        wrapper.getFolderItems(itemId, (status, id, results) -> {
+            if (status != BrowsedPlayerWrapper.STATUS_SUCCESS) {
+                cb.accept(null);
+                return;
+            }
+            mBrowseCache.recordSubscribeLatency(SystemClock.elapsedRealtime() - startTime);
+
+            for (ListItem item : results) {
+                if (item.isFolder) {
+                    item.folder.mediaId = playerPrefix.concat(item.folder.mediaId);
+                } else {
+                    item.song.mediaId = playerPrefix.concat(item.song.mediaId);
+                }
+            }
+            cb.accept(mBrowseCache.put(packageName, cacheId, results));
+        });
+    }
+
     @VisibleForTesting
     int addMediaPlayer(MediaController controller) {
         // Each new player has an ID of 1 plus the highest ID. The ID 0 is reserved to signify that
@@ -755,6 +788,13 @@ public class MediaPlayerList {
             String action = intent.getAction();
             Log.v(TAG, "mPackageChangedBroadcastReceiver: action: " + action);
 
+            // Any change to the package may change what its media browser returns, including
+            // updates which are only seen as a replacing removal and addition
+            String changedPackage = intent.getData().getSchemeSpecificPart();
+            if (changedPackage != null) {
+                mBrowseCache.invalidate(changedPackage);
+            }
+
             if (action.equals(Intent.ACTION_PACKAGE_REMOVED)
                     || action.equals(Intent.ACTION_PACKAGE_DATA_CLEARED)) {
                 if (intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) return;
@@ -952,6 +992,8 @@ public class MediaPlayerList {
             sb.append(player.toString().replaceAll("(?m)^", "  "));
             sb.append("\n");
         }
+        mBrowseCache.dump(sb);
+        sb.append("\n");
 
         mActivePlayerLogger.dump(sb);
         sb.append("\n");
@@ -25,6 +25,7 @@ import android.util.Log;
 
 import com.android.obex.ResponseCodes;
 
+import java.io.File;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -336,6 +337,17 @@ public class AvrcpCoverArtManager {
         return mCoverArtStorage.getImage(device, imageUuid);
     }
 
+    /**
+     * Get the file a downloaded image was moved to when it was evicted from memory
+     *
+     * @param device The remote Bluetooth device associated with the image
+     * @param imageUuid The UUID associated with the image you wish to retrieve
+     * @return The file holding the compressed image, null if the image is not on disk
+     */
+    public File getSpilledImageFile(BluetoothDevice device, String imageUuid) {
+        return mCoverArtStorage.getSpilledImageFile(device, imageUuid);
+    }
+
     /**
      * Remove a specific downloaded image if it exists
      *
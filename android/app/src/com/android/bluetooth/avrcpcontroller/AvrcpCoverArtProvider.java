@@ -26,6 +26,7 @@ import android.net.Uri;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -73,7 +74,7 @@ public class AvrcpCoverArtProvider extends ContentProvider {
         return uri;
     }
 
-    private Bitmap getImage(BluetoothDevice device, String imageUuid) {
+    private AvrcpCoverArtManager getCoverArtManager() {
         AvrcpControllerService service = AvrcpControllerService.getAvrcpControllerService();
         if (service == null) {
             debug("Failed to get service, cover art not available");
@@ -85,13 +86,28 @@ public class AvrcpCoverArtProvider extends ContentProvider {
             debug("Failed to get cover art manager. Cover art may not be enabled.");
             return null;
         }
-        return manager.getImage(device, imageUuid);
+        return manager;
     }
 
     private ParcelFileDescriptor getImageDescriptor(BluetoothDevice device, String imageUuid)
             throws FileNotFoundException, IOException {
         debug("getImageDescriptor(" + device + ", " + imageUuid + ")");
-        Bitmap image = getImage(device, imageUuid);
+        AvrcpCoverArtManager manager = getCoverArtManager();
+        if (manager == null) {
+            throw new FileNotFoundException();
+        }
+
+        // Images evicted from memory are already compressed on disk, serve them as they are
+        File file = manager.getSpilledImageFile(device, imageUuid);
+        if (file != null) {
+            try {
+                return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+            } catch (FileNotFoundException e) {
+                debug("Spilled image went away, falling back to memory");
+            }
+        }
+
+        Bitmap image = manager.getImage(device, imageUuid);
         if (image == null) {
             debug("Could not get requested image");
             throw new FileNotFoundException();
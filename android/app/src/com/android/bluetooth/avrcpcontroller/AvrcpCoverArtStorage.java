@@ -19,35 +19,91 @@ package com.android.bluetooth.avrcpcontroller;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.util.Log;
+import android.util.LruCache;
+import android.util.Pair;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An abstraction of the cover art image storage mechanism.
+ *
+ * Decoded images are kept in memory up to a byte budget. When the budget is exceeded the least
+ * recently used images are compressed into an app-private cache directory and decoded again on
+ * demand, so an evicted image never has to be downloaded from the remote device again.
  */
 public class AvrcpCoverArtStorage {
     private static final String TAG = "AvrcpCoverArtStorage";
     private static final boolean DBG = Log.isLoggable(TAG, Log.DEBUG);
 
+    // Room for a handful of full size images or a screen full of thumbnails
+    @VisibleForTesting
+    static final int DEFAULT_MEMORY_CACHE_BYTES = 8 * 1024 * 1024;
+
+    private static final String DISK_CACHE_DIRECTORY = "avrcp_cover_art";
+    private static final Bitmap.CompressFormat DISK_CACHE_FORMAT = Bitmap.CompressFormat.PNG;
+
     private final Context mContext;
+    private final File mDiskCacheDir;
 
     /* Each device gets its own place to land images. This makes it easier to clean things up on a
      * per device basis. This also allows us to be confident that acting on one device will not
      * impact the images of another.
      *
-     * The "landing place" is simply a map that will direct a given UUID to the proper bitmap image
+     * The "landing place" is simply the set of UUIDs stored for the device, in memory or on disk.
      */
-    private final Map<BluetoothDevice, Map<String, Bitmap>> mDeviceImages =
-            new ConcurrentHashMap<>(1);
+    private final Map<BluetoothDevice, Set<String>> mDeviceImages = new ConcurrentHashMap<>(1);
+
+    // Decoded images, keyed by device and UUID
+    private final LruCache<Pair<BluetoothDevice, String>, Bitmap> mMemoryCache;
+
+    // Serializes spilling images to disk with reading and deleting them
+    private final Object mDiskLock = new Object();
+
+    private final AtomicInteger mMemoryHits = new AtomicInteger();
+    private final AtomicInteger mDiskHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    @GuardedBy("mDiskLock")
+    private int mEvictions;
+    @GuardedBy("mDiskLock")
+    private int mSpillFailures;
 
     /**
      * Create and initialize this Cover Art storage interface
      */
     public AvrcpCoverArtStorage(Context context) {
+        this(context, DEFAULT_MEMORY_CACHE_BYTES);
+    }
+
+    @VisibleForTesting
+    AvrcpCoverArtStorage(Context context, int maxMemoryBytes) {
         mContext = context;
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIRECTORY);
+        mMemoryCache = new LruCache<Pair<BluetoothDevice, String>, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(Pair<BluetoothDevice, String> key, Bitmap image) {
+                return image.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Pair<BluetoothDevice, String> key,
+                    Bitmap oldImage, Bitmap newImage) {
+                if (evicted) {
+                    spillImage(key, oldImage);
+                }
+            }
+        };
     }
 
     /**
@@ -58,9 +114,9 @@ public class AvrcpCoverArtStorage {
      */
     public boolean doesImageExist(BluetoothDevice device, String imageUuid) {
         if (device == null || imageUuid == null || "".equals(imageUuid)) return false;
-        Map<String, Bitmap> images = mDeviceImages.get(device);
+        Set<String> images = mDeviceImages.get(device);
         if (images == null) return false;
-        return images.containsKey(imageUuid);
+        return images.contains(imageUuid);
     }
 
     /**
@@ -71,10 +127,49 @@ public class AvrcpCoverArtStorage {
      * @return A Bitmap object of the image
      */
     public Bitmap getImage(BluetoothDevice device, String imageUuid) {
-        if (device == null || imageUuid == null || "".equals(imageUuid)) return null;
-        Map<String, Bitmap> images = mDeviceImages.get(device);
-        if (images == null) return null;
-        return images.get(imageUuid);
+        if (!doesImageExist(device, imageUuid)) return null;
+        Pair<BluetoothDevice, String> key = getKey(device, imageUuid);
+        Bitmap image = mMemoryCache.get(key);
+        if (image != null) {
+            mMemoryHits.incrementAndGet();
+            return image;
+        }
+
+        synchronized (mDiskLock) {
+            File file = getImageFile(key);
+            image = file.exists() ? BitmapFactory.decodeFile(file.getPath()) : null;
+        }
+        if (image == null) {
+            mMisses.incrementAndGet();
+            debug("Image '" + imageUuid + "' missing from memory and disk");
+            return null;
+        }
+        mDiskHits.incrementAndGet();
+        // Bring it back into memory. Its disk copy stays, in case it is evicted again.
+        if (doesImageExist(device, imageUuid)) {
+            mMemoryCache.put(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * Get the file an image was spilled to, if it was evicted from memory. The file can be served
+     * as is, without decoding the image.
+     *
+     * @param device - The device the images was downloaded from
+     * @param imageUuid - The UUID that identifies the image
+     * @return The file holding the compressed image, or null if the image is not on disk
+     */
+    public File getSpilledImageFile(BluetoothDevice device, String imageUuid) {
+        if (!doesImageExist(device, imageUuid)) return null;
+        Pair<BluetoothDevice, String> key = getKey(device, imageUuid);
+        if (mMemoryCache.get(key) != null) return null;
+        synchronized (mDiskLock) {
+            File file = getImageFile(key);
+            if (!file.exists()) return null;
+            mDiskHits.incrementAndGet();
+            return file;
+        }
     }
 
     /**
@@ -91,16 +186,10 @@ public class AvrcpCoverArtStorage {
             return null;
         }
 
-        // A Thread safe way of creating a new UUID->Image set for a device. The putIfAbsent()
-        // function will return the value of the key if it wasn't absent. If it returns null, then
-        // there was no value there and we are to assume the reference we passed in was added.
-        Map<String, Bitmap> newImageSet = new ConcurrentHashMap<String, Bitmap>(1);
-        Map<String, Bitmap> images = mDeviceImages.putIfAbsent(device, newImageSet);
-        if (images == null) {
-            newImageSet.put(imageUuid, image);
-        } else {
-            images.put(imageUuid, image);
-        }
+        mDeviceImages.computeIfAbsent(device, d -> ConcurrentHashMap.newKeySet())
+                .add(imageUuid);
+        // Inserting may evict, and spill, other images
+        mMemoryCache.put(getKey(device, imageUuid), image);
 
         Uri uri = AvrcpCoverArtProvider.getImageUri(device, imageUuid);
         mContext.getContentResolver().notifyChange(uri, null);
@@ -118,7 +207,7 @@ public class AvrcpCoverArtStorage {
         debug("Removing image '" + imageUuid + "' from device " + device);
         if (device == null || imageUuid == null || "".equals(imageUuid)) return;
 
-        Map<String, Bitmap> images = mDeviceImages.get(device);
+        Set<String> images = mDeviceImages.get(device);
         if (images == null) {
             return;
         }
@@ -127,6 +216,11 @@ public class AvrcpCoverArtStorage {
         if (images.size() == 0) {
             mDeviceImages.remove(device);
         }
+        Pair<BluetoothDevice, String> key = getKey(device, imageUuid);
+        mMemoryCache.remove(key);
+        synchronized (mDiskLock) {
+            getImageFile(key).delete();
+        }
 
         debug("Image '" + imageUuid + "' removed for device '" + device + "'");
     }
@@ -139,7 +233,15 @@ public class AvrcpCoverArtStorage {
     public void removeImagesForDevice(BluetoothDevice device) {
         if (device == null) return;
         debug("Remove cover art for device " + device);
-        mDeviceImages.remove(device);
+        Set<String> images = mDeviceImages.remove(device);
+        if (images != null) {
+            for (String imageUuid : images) {
+                mMemoryCache.remove(getKey(device, imageUuid));
+            }
+        }
+        synchronized (mDiskLock) {
+            deleteRecursively(new File(mDiskCacheDir, getDeviceDirectoryName(device)));
+        }
     }
 
     /**
@@ -148,22 +250,115 @@ public class AvrcpCoverArtStorage {
     public void clear() {
         debug("Clearing all images");
         mDeviceImages.clear();
+        mMemoryCache.evictAll();
+        synchronized (mDiskLock) {
+            // Also drops anything left behind by a previous process
+            deleteRecursively(mDiskCacheDir);
+        }
     }
 
     @Override
     public String toString() {
         String s = "CoverArtStorage:\n";
+        synchronized (mDiskLock) {
+            s += "    Memory: " + mMemoryCache.size() + "/" + mMemoryCache.maxSize()
+                    + " bytes, memory hits: " + mMemoryHits.get() + ", disk hits: "
+                    + mDiskHits.get() + ", misses: " + mMisses.get() + ", evictions: "
+                    + mEvictions + ", spill failures: " + mSpillFailures + "\n";
+        }
+        Set<Pair<BluetoothDevice, String>> inMemory = mMemoryCache.snapshot().keySet();
         for (BluetoothDevice device : mDeviceImages.keySet()) {
-            Map<String, Bitmap> images = mDeviceImages.get(device);
+            Set<String> images = mDeviceImages.get(device);
+            if (images == null) continue;
             s += "  " + device + " (" + images.size() + "):";
-            for (String uuid : images.keySet()) {
-                s += "\n    " + uuid;
+            for (String uuid : images) {
+                String where = inMemory.contains(getKey(device, uuid)) ? "memory" : "disk";
+                s += "\n    " + uuid + " (" + where + ")";
             }
             s += "\n";
         }
         return s;
     }
 
+    @VisibleForTesting
+    int getMemoryHitCount() {
+        return mMemoryHits.get();
+    }
+
+    @VisibleForTesting
+    int getDiskHitCount() {
+        return mDiskHits.get();
+    }
+
+    @VisibleForTesting
+    int getEvictionCount() {
+        synchronized (mDiskLock) {
+            return mEvictions;
+        }
+    }
+
+    /**
+     * Write an image evicted from memory to disk, unless it was removed from storage meanwhile.
+     * Images never change for a given handle, so an image already spilled once is not written
+     * again.
+     */
+    private void spillImage(Pair<BluetoothDevice, String> key, Bitmap image) {
+        synchronized (mDiskLock) {
+            if (!doesImageExist(key.first, key.second)) return;
+            mEvictions++;
+            File file = getImageFile(key);
+            if (file.exists()) {
+                debug("Image " + key + " evicted, already on disk");
+                return;
+            }
+            File directory = file.getParentFile();
+            if (!directory.exists() && !directory.mkdirs()) {
+                mSpillFailures++;
+                error("Cannot create cover art cache directory " + directory);
+                return;
+            }
+            // Written aside first, so that an existing file is always a complete image
+            File partial = new File(directory, key.second + ".tmp");
+            boolean written;
+            try (FileOutputStream out = new FileOutputStream(partial)) {
+                written = image.compress(DISK_CACHE_FORMAT, 100, out);
+            } catch (IOException e) {
+                error("Failed to spill image " + key + ": " + e);
+                written = false;
+            }
+            if (!written || !partial.renameTo(file)) {
+                mSpillFailures++;
+                error("Failed to spill image " + key);
+                partial.delete();
+                return;
+            }
+            debug("Image " + key + " evicted to disk");
+        }
+    }
+
+    private File getImageFile(Pair<BluetoothDevice, String> key) {
+        return new File(new File(mDiskCacheDir, getDeviceDirectoryName(key.first)), key.second);
+    }
+
+    private static Pair<BluetoothDevice, String> getKey(BluetoothDevice device,
+            String imageUuid) {
+        return new Pair<>(device, imageUuid);
+    }
+
+    private static String getDeviceDirectoryName(BluetoothDevice device) {
+        return device.getAddress().replace(":", "");
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
     private void debug(String msg) {
         if (DBG) {
             Log.d(TAG, msg);
@@ -46,6 +46,8 @@ import android.os.Message;
 import android.os.ParcelUuid;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.sysprop.BluetoothProperties;
 import android.util.Log;
 import android.util.Pair;
@@ -57,6 +59,7 @@ import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.bluetooth.csip.CsipSetCoordinatorService;
 import com.android.bluetooth.le_audio.LeAudioService;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
@@ -75,12 +78,24 @@ public class BassClientService extends ProfileService {
     private static final boolean DBG = true;
     private static final String TAG = BassClientService.class.getSimpleName();
     private static final int MAX_BASS_CLIENT_STATE_MACHINES = 10;
+    // Found sources are handed to the sinks for PA sync at most this often
+    private static final int SOURCE_DISPATCH_INTERVAL_MS = 2000;
+    // Maximum number of sources PA synced to at once, each by a different sink
+    private static final String PA_SYNC_SLOTS_PROPERTY = "persist.bluetooth.bass.pa_sync_slots";
+    private static final int DEFAULT_PA_SYNC_SLOTS = 4;
 
     private static BassClientService sService;
 
     private final Map<BluetoothDevice, BassClientStateMachine> mStateMachines = new HashMap<>();
     private final Object mSearchScanCallbackLock = new Object();
-    private final Map<Integer, ScanResult> mScanBroadcasts = new HashMap<>();
+    @GuardedBy("mSearchScanCallbackLock")
+    private final BassSourceDiscovery mSourceDiscovery = new BassSourceDiscovery();
+    @GuardedBy("mSearchScanCallbackLock")
+    private List<ScanFilter> mSearchScanFilters;
+    @GuardedBy("mSearchScanCallbackLock")
+    private boolean mSearchScanLowPower;
+    private volatile Handler mSourceDispatchHandler;
+    private int mPaSyncSlots;
 
     private final Map<BluetoothDevice, List<Pair<Integer, Object>>> mPendingGroupOp =
             new ConcurrentHashMap<>();
@@ -254,6 +269,9 @@ public class BassClientService extends ProfileService {
         mStateMachines.clear();
         mStateMachinesThread = new HandlerThread("BassClientService.StateMachines");
         mStateMachinesThread.start();
+        mSourceDispatchHandler = new Handler(mStateMachinesThread.getLooper());
+        mPaSyncSlots = getPaSyncSlots(
+                SystemProperties.getInt(PA_SYNC_SLOTS_PROPERTY, DEFAULT_PA_SYNC_SLOTS));
         mCallbackHandlerThread = new HandlerThread(TAG);
         mCallbackHandlerThread.start();
         mCallbacks = new Callbacks(mCallbackHandlerThread.getLooper());
@@ -314,6 +332,28 @@ public class BassClientService extends ProfileService {
             mCallbackHandlerThread.quitSafely();
             mCallbackHandlerThread = null;
         }
+        // Stop the search before the dispatch handler goes away, so that no late scan result
+        // posts to it.
+        synchronized (mSearchScanCallbackLock) {
+            if (mSearchScanCallback != null && mBluetoothAdapter != null) {
+                try {
+                    BassObjectsFactory.getInstance()
+                            .getBluetoothLeScannerWrapper(mBluetoothAdapter)
+                            .stopScan(mSearchScanCallback);
+                } catch (IllegalStateException e) {
+                    // The adapter is already turning off, the scan is stopped with it
+                    Log.w(TAG, "stop: cannot stop search scan: " + e);
+                }
+            }
+            mSearchScanCallback = null;
+            mSourceDiscovery.clear(SystemClock.elapsedRealtime());
+            mSearchScanFilters = null;
+            mSearchScanLowPower = false;
+        }
+        if (mSourceDispatchHandler != null) {
+            mSourceDispatchHandler.removeCallbacksAndMessages(null);
+            mSourceDispatchHandler = null;
+        }
         if (mStateMachinesThread != null) {
             mStateMachinesThread.quitSafely();
             mStateMachinesThread = null;
@@ -929,33 +969,39 @@ public class BassClientService extends ProfileService {
                         return;
                     }
                     log( "Broadcast Source Found:" + result.getDevice());
-                    byte[] broadcastIdArray = listOfUuids.get(BassConstants.BAAS_UUID);
-                    int broadcastId = (int)(((broadcastIdArray[2] & 0xff) << 16)
-                            | ((broadcastIdArray[1] & 0xff) << 8)
-                            | (broadcastIdArray[0] & 0xff));
-                    if (mScanBroadcasts.get(broadcastId) == null) {
+                    int broadcastId = BassUtils.parseBroadcastId(
+                            listOfUuids.get(BassConstants.BAAS_UUID));
+                    boolean isPublicBroadcast =
+                            listOfUuids.containsKey(BassConstants.PUBLIC_BROADCAST_UUID);
+                    boolean hasName = scanRecord.getAdvertisingDataMap()
+                            .containsKey(BassConstants.BCAST_NAME_AD_TYPE);
+                    synchronized (mSearchScanCallbackLock) {
+                        if (mSearchScanCallback != this) {
+                            return;
+                        }
+                        if (!mSourceDiscovery.update(broadcastId, result, isPublicBroadcast,
+                                hasName, SystemClock.elapsedRealtime())) {
+                            return;
+                        }
                         log("selectBroadcastSource: broadcastId " + broadcastId);
-                        mScanBroadcasts.put(broadcastId, result);
-                        synchronized (mStateMachines) {
-                            for (BassClientStateMachine sm : mStateMachines.values()) {
-                                if (sm.isConnected()) {
-                                    selectSource(sm.getDevice(), result, false);
-                                }
-                            }
+                        if (mSearchScanLowPower) {
+                            restartSearchScan(false);
                         }
                     }
+                    // Dispatch the new source now rather than at the next periodic dispatch
+                    Handler handler = mSourceDispatchHandler;
+                    if (handler != null) {
+                        handler.removeCallbacks(mDispatchFoundSources);
+                        handler.post(mDispatchFoundSources);
+                    }
                 }
 
                 public void onScanFailed(int errorCode) {
                     Log.e(TAG, "Scan Failure:" + errorCode);
                 }
             };
-            mScanBroadcasts.clear();
-            ScanSettings settings = new ScanSettings.Builder().setCallbackType(
-                    ScanSettings.CALLBACK_TYPE_ALL_MATCHES)
-                    .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
-                    .setLegacy(false)
-                    .build();
+            mSourceDiscovery.clear(SystemClock.elapsedRealtime());
+            mSearchScanLowPower = false;
             if (filters == null) {
                 filters = new ArrayList<ScanFilter>();
             }
@@ -967,9 +1013,91 @@ public class BassClientService extends ProfileService {
                         .setServiceData(BassConstants.BAAS_UUID,
                                 serviceData, serviceDataMask).build());
             }
-            scanner.startScan(filters, settings, mSearchScanCallback);
+            mSearchScanFilters = filters;
+            scanner.startScan(filters, getSearchScanSettings(false), mSearchScanCallback);
             mCallbacks.notifySearchStarted(BluetoothStatusCodes.REASON_LOCAL_APP_REQUEST);
         }
+        Handler handler = mSourceDispatchHandler;
+        if (handler != null) {
+            handler.postDelayed(mDispatchFoundSources, SOURCE_DISPATCH_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Returns the number of PA syncs to start at once for the configured {@code slots}: the
+     * default if it is not positive, as no source would ever be dispatched.
+     */
+    @VisibleForTesting
+    static int getPaSyncSlots(int slots) {
+        if (slots <= 0) {
+            Log.w(TAG, "Invalid " + PA_SYNC_SLOTS_PROPERTY + " " + slots + ", using "
+                    + DEFAULT_PA_SYNC_SLOTS);
+            return DEFAULT_PA_SYNC_SLOTS;
+        }
+        return slots;
+    }
+
+    private static ScanSettings getSearchScanSettings(boolean lowPower) {
+        return new ScanSettings.Builder().setCallbackType(
+                ScanSettings.CALLBACK_TYPE_ALL_MATCHES)
+                .setScanMode(lowPower ? ScanSettings.SCAN_MODE_LOW_POWER
+                        : ScanSettings.SCAN_MODE_LOW_LATENCY)
+                .setLegacy(false)
+                .build();
+    }
+
+    @GuardedBy("mSearchScanCallbackLock")
+    private void restartSearchScan(boolean lowPower) {
+        BluetoothLeScannerWrapper scanner = BassObjectsFactory.getInstance()
+                .getBluetoothLeScannerWrapper(mBluetoothAdapter);
+        if (scanner == null || mSearchScanCallback == null) {
+            return;
+        }
+        log("restartSearchScan: lowPower=" + lowPower);
+        scanner.stopScan(mSearchScanCallback);
+        scanner.startScan(mSearchScanFilters, getSearchScanSettings(lowPower),
+                mSearchScanCallback);
+        mSearchScanLowPower = lowPower;
+    }
+
+    private final Runnable mDispatchFoundSources = this::dispatchFoundSources;
+
+    /**
+     * Hand the best found sources not synced to yet to the connected sinks, one per sink and
+     * at most {@link #PA_SYNC_SLOTS_PROPERTY} at once, so the syncs do not cancel each other.
+     * Repeats every {@link #SOURCE_DISPATCH_INTERVAL_MS} while searching, and switches to a low
+     * power scan once no new source was found for a while.
+     */
+    @VisibleForTesting
+    void dispatchFoundSources() {
+        List<BluetoothDevice> sinks = new ArrayList<>();
+        synchronized (mStateMachines) {
+            for (BassClientStateMachine sm : mStateMachines.values()) {
+                if (sm.isConnected()) {
+                    sinks.add(sm.getDevice());
+                }
+            }
+        }
+        List<ScanResult> sources;
+        synchronized (mSearchScanCallbackLock) {
+            if (mSearchScanCallback == null) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            sources = mSourceDiscovery.pollBest(Math.min(sinks.size(), mPaSyncSlots), now);
+            if (sources.isEmpty() && !mSearchScanLowPower && mSourceDiscovery.isStable(now)) {
+                restartSearchScan(true);
+            }
+            Handler handler = mSourceDispatchHandler;
+            if (handler != null
+                    && (!mSearchScanLowPower || mSourceDiscovery.hasPending())) {
+                handler.removeCallbacks(mDispatchFoundSources);
+                handler.postDelayed(mDispatchFoundSources, SOURCE_DISPATCH_INTERVAL_MS);
+            }
+        }
+        for (int i = 0; i < sources.size(); i++) {
+            selectSource(sinks.get(i), sources.get(i), false);
+        }
     }
 
     /**
@@ -996,7 +1124,13 @@ public class BassClientService extends ProfileService {
             scanner.stopScan(mSearchScanCallback);
             mSearchScanCallback = null;
             mCallbacks.notifySearchStopped(BluetoothStatusCodes.REASON_LOCAL_APP_REQUEST);
-            mScanBroadcasts.clear();
+            mSourceDiscovery.clear(SystemClock.elapsedRealtime());
+            mSearchScanFilters = null;
+            mSearchScanLowPower = false;
+        }
+        Handler handler = mSourceDispatchHandler;
+        if (handler != null) {
+            handler.removeCallbacks(mDispatchFoundSources);
         }
     }
 
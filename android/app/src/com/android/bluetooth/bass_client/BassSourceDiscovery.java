@@ -0,0 +1,140 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.bass_client;
+
+import android.bluetooth.le.ScanResult;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Broadcast sources found while searching on behalf of the sinks, and which of them to
+ * periodic advertising sync to next.
+ *
+ * <p>Sources are deduplicated by broadcast id and bounded to {@link #MAX_SOURCES}, evicting the
+ * least recently seen one. Sources that were not synced to yet are handed out best first:
+ * recently seen before stale, public broadcasts before others, named before unnamed, then by
+ * RSSI. Not thread safe.
+ */
+class BassSourceDiscovery {
+    @VisibleForTesting
+    static final int MAX_SOURCES = 64;
+    // Sources not seen for this long rank below the ones seen more recently
+    @VisibleForTesting
+    static final long RECENTLY_SEEN_MS = 5000;
+    // The source set is stable once no new source was found for this long
+    @VisibleForTesting
+    static final long STABLE_PERIOD_MS = 10000;
+
+    private static class Source {
+        ScanResult mResult;
+        boolean mIsPublicBroadcast;
+        boolean mHasName;
+        long mLastSeenMs;
+        boolean mSelected;
+    }
+
+    // Access ordered, so the eldest entry is the least recently seen source
+    private final LinkedHashMap<Integer, Source> mSources =
+            new LinkedHashMap<Integer, Source>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Source> eldest) {
+                    return size() > MAX_SOURCES;
+                }
+            };
+    private long mLastNewSourceMs;
+
+    /**
+     * Record a scan result of the source with the given broadcast id.
+     *
+     * @return true if the source was not known yet
+     */
+    boolean update(int broadcastId, ScanResult result, boolean isPublicBroadcast,
+            boolean hasName, long nowMs) {
+        Source source = mSources.get(broadcastId);
+        boolean isNew = source == null;
+        if (isNew) {
+            source = new Source();
+            mSources.put(broadcastId, source);
+            mLastNewSourceMs = nowMs;
+        }
+        source.mResult = result;
+        source.mIsPublicBroadcast |= isPublicBroadcast;
+        source.mHasName |= hasName;
+        source.mLastSeenMs = nowMs;
+        return isNew;
+    }
+
+    /**
+     * Returns up to {@code count} of the best sources not returned before, and marks them as
+     * selected.
+     */
+    List<ScanResult> pollBest(int count, long nowMs) {
+        List<Source> pending = new ArrayList<>();
+        for (Source source : mSources.values()) {
+            if (!source.mSelected) {
+                pending.add(source);
+            }
+        }
+        pending.sort(Comparator
+                .comparing((Source s) -> nowMs - s.mLastSeenMs > RECENTLY_SEEN_MS)
+                .thenComparing(s -> !s.mIsPublicBroadcast)
+                .thenComparing(s -> !s.mHasName)
+                .thenComparing(s -> -s.mResult.getRssi()));
+
+        List<ScanResult> best = new ArrayList<>();
+        for (int i = 0; i < Math.min(count, pending.size()); i++) {
+            Source source = pending.get(i);
+            source.mSelected = true;
+            best.add(source.mResult);
+        }
+        return best;
+    }
+
+    /** Returns true if there are sources not returned by {@link #pollBest} yet. */
+    boolean hasPending() {
+        for (Source source : mSources.values()) {
+            if (!source.mSelected) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if all sources were selected and no new source was found for
+     * {@link #STABLE_PERIOD_MS}.
+     */
+    boolean isStable(long nowMs) {
+        return !hasPending() && nowMs - mLastNewSourceMs >= STABLE_PERIOD_MS;
+    }
+
+    int size() {
+        return mSources.size();
+    }
+
+    /** Forget all sources, and restart the stable period at {@code nowMs}. */
+    void clear(long nowMs) {
+        mSources.clear();
+        mLastNewSourceMs = nowMs;
+    }
+}
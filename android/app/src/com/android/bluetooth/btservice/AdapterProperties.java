@@ -67,9 +67,13 @@ import com.google.common.collect.EvictingQueue;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 class AdapterProperties {
     private static final boolean DBG = true;
@@ -98,6 +102,10 @@ class AdapterProperties {
 
     private CopyOnWriteArrayList<BluetoothDevice> mBondedDevices =
             new CopyOnWriteArrayList<BluetoothDevice>();
+    // Immutable view of mBondedDevices, republished on every change of the list
+    private volatile BondedDevicesSnapshot mBondedDevicesSnapshot = BondedDevicesSnapshot.EMPTY;
+    private final AtomicLong mBondedDevicesChangeCount = new AtomicLong();
+    private final AtomicLong mBondedDevicesQueryCount = new AtomicLong();
 
     private static final int SCAN_MODE_CHANGES_MAX_SIZE = 10;
     private EvictingQueue<String> mScanModeChanges;
@@ -274,6 +282,7 @@ class AdapterProperties {
         }
         mService = null;
         mBondedDevices.clear();
+        publishBondedDevices();
         mScanModeChanges.clear();
         invalidateBluetoothCaches();
         mAllowlistedPlayers.clear();
@@ -593,18 +602,48 @@ class AdapterProperties {
         return mService.setBufferLengthMillisNative(codec, size);
     }
 
+    private static final class BondedDevicesSnapshot {
+        static final BondedDevicesSnapshot EMPTY =
+                new BondedDevicesSnapshot(new BluetoothDevice[0], Collections.emptySet());
+
+        final BluetoothDevice[] mDevices;
+        final Set<String> mAddresses;
+
+        BondedDevicesSnapshot(BluetoothDevice[] devices, Set<String> addresses) {
+            mDevices = devices;
+            mAddresses = addresses;
+        }
+    }
+
     /**
-     * @return the mBondedDevices
+     * @return the bonded devices. The array is shared by all callers until the next bond state
+     * change and must not be modified.
      */
     BluetoothDevice[] getBondedDevices() {
-        BluetoothDevice[] bondedDeviceList = new BluetoothDevice[0];
-        try {
-            bondedDeviceList = mBondedDevices.toArray(bondedDeviceList);
-        } catch (ArrayStoreException ee) {
-            errorLog("Error retrieving bonded device array");
+        mBondedDevicesQueryCount.incrementAndGet();
+        return mBondedDevicesSnapshot.mDevices;
+    }
+
+    /**
+     * @return true if the device with the given address is bonded
+     */
+    boolean isBonded(String address) {
+        mBondedDevicesQueryCount.incrementAndGet();
+        return address != null && mBondedDevicesSnapshot.mAddresses.contains(address);
+    }
+
+    private void publishBondedDevices() {
+        synchronized (mBondedDevices) {
+            BluetoothDevice[] devices = mBondedDevices.toArray(new BluetoothDevice[0]);
+            Set<String> addresses = new HashSet<>();
+            for (BluetoothDevice device : devices) {
+                addresses.add(device.getAddress());
+            }
+            mBondedDevicesSnapshot = new BondedDevicesSnapshot(devices,
+                    Collections.unmodifiableSet(addresses));
+            mBondedDevicesChangeCount.incrementAndGet();
         }
-        infoLog("getBondedDevices: length=" + bondedDeviceList.length);
-        return bondedDeviceList;
+        debugLog("publishBondedDevices: length=" + mBondedDevicesSnapshot.mDevices.length);
     }
 
     // This function shall be invoked from BondStateMachine whenever the bond
@@ -630,11 +669,13 @@ class AdapterProperties {
                     debugLog("Adding bonded device:" + device);
                     mBondedDevices.add(device);
                     cleanupPrevBondRecordsFor(device);
+                    publishBondedDevices();
                 }
             } else if (state == BluetoothDevice.BOND_NONE) {
                 // remove device from list
                 if (mBondedDevices.remove(device)) {
                     debugLog("Removing bonded device:" + device);
+                    publishBondedDevices();
                 } else {
                     debugLog("Failed to remove device: " + device);
                 }
@@ -1156,6 +1197,9 @@ class AdapterProperties {
             Intent intent;
             if (state == AbstractionLayer.BT_DISCOVERY_STOPPED) {
                 mDiscovering = false;
+                if (mRemoteDevices != null) {
+                    mRemoteDevices.flushPendingDeviceFoundIntents();
+                }
                 mService.clearDiscoveringPackages();
                 mDiscoveryEndMs = System.currentTimeMillis();
                 intent = new Intent(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
@@ -1196,7 +1240,9 @@ class AdapterProperties {
         writer.println("  " + "Discovering: " + mDiscovering);
         writer.println("  " + "DiscoveryEndMs: " + mDiscoveryEndMs);
 
-        writer.println("  " + "Bonded devices:");
+        writer.println("  " + "Bonded devices: " + mBondedDevicesSnapshot.mDevices.length
+                + " (changes: " + mBondedDevicesChangeCount.get()
+                + ", queries: " + mBondedDevicesQueryCount.get() + ")");
         StringBuilder sb = new StringBuilder();
         for (BluetoothDevice device : mBondedDevices) {
             String address = device.getAddress();
@@ -139,6 +139,7 @@ import com.android.bluetooth.pbapclient.PbapClientService;
 import com.android.bluetooth.sap.SapService;
 import com.android.bluetooth.sdp.SdpManager;
 import com.android.bluetooth.telephony.BluetoothInCallService;
+import com.android.bluetooth.util.ContactNameCache;
 import com.android.bluetooth.vc.VolumeControlService;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
@@ -619,6 +620,7 @@ public class AdapterService extends Service {
 
         mDatabaseManager = new DatabaseManager(this);
         mDatabaseManager.start(MetadataDatabase.createDatabase(this));
+        ContactNameCache.init(this);
 
         boolean isAutomotiveDevice = getApplicationContext().getPackageManager().hasSystemFeature(
                 PackageManager.FEATURE_AUTOMOTIVE);
@@ -1153,6 +1155,7 @@ public class AdapterService extends Service {
         if (mDatabaseManager != null) {
             mDatabaseManager.cleanup();
         }
+        ContactNameCache.cleanup();
 
         if (mAdapterStateMachine != null) {
             mAdapterStateMachine.doQuit();
@@ -5180,6 +5183,17 @@ public class AdapterService extends Service {
         return mAdapterProperties.getBondedDevices();
     }
 
+    /**
+     * Check whether the device with the given address is bonded, without copying the bonded
+     * devices.
+     *
+     * @param address the device address, in the "XX:XX:XX:XX:XX:XX" format
+     * @return true if the device is bonded
+     */
+    public boolean isBonded(String address) {
+        return mAdapterProperties.isBonded(address);
+    }
+
     /**
      * Get the database manager to access Bluetooth storage
      *
@@ -6494,6 +6508,7 @@ public class AdapterService extends Service {
         }
         mSilenceDeviceManager.dump(fd, writer, args);
         mDatabaseManager.dump(writer);
+        ContactNameCache.dump(sb);
 
         writer.write(sb.toString());
         writer.flush();
@@ -6911,6 +6926,9 @@ public class AdapterService extends Service {
         if (mBtCompanionManager != null) {
             mBtCompanionManager.onBondStateChanged(device, state);
         }
+        if (mSdpManager != null) {
+            mSdpManager.invalidateRecords(device);
+        }
     }
 
     /**
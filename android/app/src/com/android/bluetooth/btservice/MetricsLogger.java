@@ -33,7 +33,7 @@ import com.android.modules.utils.build.SdkLevel;
 
 import com.google.common.hash.BloomFilter;
 import com.google.common.hash.Funnels;
-import com.google.common.hash.Hashing;
+import com.google.common.hash.HashCode;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -42,7 +42,9 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.regex.Pattern;
 
 /**
  * Class of Bluetooth Metrics
@@ -58,6 +60,8 @@ public class MetricsLogger {
     // 6 hours timeout for counter metrics
     private static final long BLUETOOTH_COUNTER_METRICS_ACTION_DURATION_MILLIS = 6L * 3600L * 1000L;
     private static final int MAX_WORDS_ALLOWED_IN_DEVICE_NAME = 7;
+    private static final Pattern MULTIPLE_SPACES = Pattern.compile(" +");
+    private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^a-zA-Z0-9 ]");
 
     private static final HashMap<ProfileId, Integer> sProfileConnectionCounts = new HashMap<>();
 
@@ -275,38 +279,58 @@ public class MetricsLogger {
         }
 
         // remove more than one spaces in a row
-        deviceName = deviceName.trim().replaceAll(" +", " ");
+        deviceName = MULTIPLE_SPACES.matcher(deviceName.trim()).replaceAll(" ");
         // remove non alphanumeric characters and spaces, and transform to lower cases.
-        String[] words = deviceName.replaceAll(
-                "[^a-zA-Z0-9 ]", "").toLowerCase().split(" ");
+        String[] words = NON_ALPHANUMERIC.matcher(deviceName).replaceAll("")
+                .toLowerCase().split(" ");
 
         if (words.length > MAX_WORDS_ALLOWED_IN_DEVICE_NAME) {
             // Validity checking here to avoid excessively long sequences
             return false;
         }
-        // find the longest matched substring
-        String matchedString = "";
-        byte[] matchedSha256 = null;
-        for (int start = 0; start < words.length; start++) {
 
-            String toBeMatched = "";
+        // Every contiguous word sequence is a candidate, in (start, end) order
+        int candidateCount = words.length * (words.length + 1) / 2;
+        String[] candidates = new String[candidateCount];
+        int index = 0;
+        StringBuilder toBeMatched = new StringBuilder(deviceName.length());
+        for (int start = 0; start < words.length; start++) {
+            toBeMatched.setLength(0);
             for (int end = start; end < words.length; end++) {
-                toBeMatched += words[end];
+                toBeMatched.append(words[end]);
+                String candidate = toBeMatched.toString();
                 // TODO(b/280868296): Refactor to log even if bloom filter isn't initialized.
                 if (SdkLevel.isAtLeastU()) {
                     BtRestrictedStatsLog.write(RESTRICTED_BLUETOOTH_DEVICE_NAME_REPORTED,
-                            toBeMatched);
-                }
-                byte[] sha256 = getSha256(toBeMatched);
-                if (sha256 == null) {
-                    continue;
+                            candidate);
                 }
+                candidates[index++] = candidate;
+            }
+        }
 
-                if (mBloomFilter.mightContain(sha256)
-                        && toBeMatched.length() > matchedString.length()) {
-                    matchedString = toBeMatched;
-                    matchedSha256 = sha256;
-                }
+        // find the longest matched substring, the first one in (start, end) order on ties.
+        // Trying the longest candidates first, in a stable sort, stops hashing at the first match.
+        Integer[] order = new Integer[candidateCount];
+        for (int i = 0; i < candidateCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> candidates[b].length() - candidates[a].length());
+        MessageDigest digest = getSha256Digest();
+        if (digest == null) {
+            return false;
+        }
+        String matchedString = null;
+        byte[] matchedSha256 = null;
+        for (int i : order) {
+            String candidate = candidates[i];
+            if (candidate.isEmpty()) {
+                break;
+            }
+            byte[] sha256 = digest.digest(candidate.getBytes(StandardCharsets.UTF_8));
+            if (mBloomFilter.mightContain(sha256)) {
+                matchedString = candidate;
+                matchedSha256 = sha256;
+                break;
             }
         }
 
@@ -317,7 +341,7 @@ public class MetricsLogger {
         statslogBluetoothDeviceNames(
                 metricId,
                 matchedString,
-                Hashing.sha256().hashString(matchedString, StandardCharsets.UTF_8).toString());
+                HashCode.fromBytes(matchedSha256).toString());
         return true;
     }
 
@@ -329,13 +353,19 @@ public class MetricsLogger {
     }
 
     protected static byte[] getSha256(String name) {
-        MessageDigest digest = null;
+        MessageDigest digest = getSha256Digest();
+        if (digest == null) {
+            return null;
+        }
+        return digest.digest(name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MessageDigest getSha256Digest() {
         try {
-            digest = MessageDigest.getInstance("SHA-256");
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
             Log.w(TAG, "No SHA-256 in MessageDigest");
             return null;
         }
-        return digest.digest(name.getBytes(StandardCharsets.UTF_8));
     }
 }
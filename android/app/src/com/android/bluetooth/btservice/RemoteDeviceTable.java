@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.util.LongSparseArray;
+
+import java.util.function.Predicate;
+
+/**
+ * Table of remote device entries keyed by the 48-bit device address packed into a long, so the
+ * JNI callbacks can look devices up without formatting their address into a String.
+ *
+ * <p>Entries are evicted in insertion order once more than the configured number of entries were
+ * added, except for pinned entries (e.g. bonded devices), which are kept without consulting
+ * anything but the entry itself. Not thread safe.
+ */
+class RemoteDeviceTable<V> {
+    /** Never the key of a valid address. */
+    static final long INVALID_KEY = -1;
+
+    private final LongSparseArray<V> mEntries = new LongSparseArray<>();
+    private final Predicate<V> mIsPinned;
+    private final int mMaxEntries;
+
+    // Ring buffer of the keys in insertion order, used to pick the entry to evict
+    private final long[] mQueue;
+    private int mQueueHead;
+    private int mQueueSize;
+
+    RemoteDeviceTable(int maxEntries, Predicate<V> isPinned) {
+        mMaxEntries = maxEntries;
+        mIsPinned = isPinned;
+        mQueue = new long[maxEntries + 1];
+    }
+
+    V get(long key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * Add or replace the entry of {@code key}. Adding a new entry may evict the oldest one.
+     *
+     * @return the replaced entry, or null if the entry is new
+     */
+    V put(long key, V value) {
+        V previous = mEntries.get(key);
+        mEntries.put(key, value);
+        if (previous != null) {
+            return previous;
+        }
+        mQueue[(mQueueHead + mQueueSize) % mQueue.length] = key;
+        mQueueSize++;
+        if (mQueueSize > mMaxEntries) {
+            long oldestKey = mQueue[mQueueHead];
+            mQueueHead = (mQueueHead + 1) % mQueue.length;
+            mQueueSize--;
+            V oldest = mEntries.get(oldestKey);
+            if (oldest != null && !mIsPinned.test(oldest)) {
+                mEntries.remove(oldestKey);
+            }
+        }
+        return null;
+    }
+
+    void remove(long key) {
+        mEntries.remove(key);
+    }
+
+    void clear() {
+        mEntries.clear();
+        mQueueHead = 0;
+        mQueueSize = 0;
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    V valueAt(int index) {
+        return mEntries.valueAt(index);
+    }
+
+    /** Returns the key of a 6 byte device address. */
+    static long toKey(byte[] address) {
+        if (address == null || address.length != 6) {
+            return INVALID_KEY;
+        }
+        long key = 0;
+        for (byte b : address) {
+            key = (key << 8) | (b & 0xFF);
+        }
+        return key;
+    }
+
+    /** Returns the key of a device address in the "XX:XX:XX:XX:XX:XX" format. */
+    static long toKey(String address) {
+        if (address == null || address.length() != 17) {
+            return INVALID_KEY;
+        }
+        long key = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    return INVALID_KEY;
+                }
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return INVALID_KEY;
+            }
+            key = (key << 4) | digit;
+        }
+        return key;
+    }
+}
@@ -44,18 +44,20 @@ import android.os.ParcelUuid;
 import android.os.RemoteException;
 import android.os.SystemProperties;
 import android.util.Log;
+import android.util.LongSparseArray;
 
 import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.R;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.bas.BatteryService;
 import com.android.bluetooth.hfp.HeadsetHalConstants;
+import com.android.bluetooth.sdp.SdpManager;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Predicate;
@@ -66,6 +68,12 @@ final class RemoteDevices {
 
     // Maximum number of device properties to remember
     private static final int MAX_DEVICE_QUEUE_SIZE = 200;
+    // Overrides the number of unbonded devices to remember, e.g. for crowded environments
+    private static final String MAX_DEVICE_QUEUE_SIZE_PROPERTY =
+            "persist.bluetooth.remote_device_cache_size";
+    // Upper bound of the override, the queue is allocated up front
+    @VisibleForTesting
+    static final int MAX_DEVICE_QUEUE_SIZE_LIMIT = 5000;
 
     private BluetoothAdapter mAdapter;
     private AdapterService mAdapterService;
@@ -74,11 +82,22 @@ final class RemoteDevices {
 
     private static final int UUID_INTENT_DELAY = 6000;
     private static final int MESSAGE_UUID_INTENT = 1;
+    private static final int MESSAGE_DEVICE_FOUND_INTENT = 2;
     private static final String LOG_SOURCE_DIS = "DIS";
 
-    private final HashMap<String, DeviceProperties> mDevices;
-    private final HashMap<String, String> mDualDevicesMap;
-    private ArrayDeque<String> mDeviceQueue;
+    // Window in ms to coalesce the ACTION_FOUND intents of a device in, 0 sends them right away
+    private static final String DEVICE_FOUND_COALESCE_WINDOW_PROPERTY =
+            "persist.bluetooth.device_found_coalesce_window_ms";
+    @VisibleForTesting
+    int mDeviceFoundCoalesceWindowMs;
+    // Devices found since the last ACTION_FOUND flush, in the order they were first found
+    @GuardedBy("mPendingFoundDevices")
+    private final LinkedHashSet<BluetoothDevice> mPendingFoundDevices = new LinkedHashSet<>();
+
+    // Keyed by RemoteDeviceTable.toKey(address), bonded devices are never evicted
+    private final RemoteDeviceTable<DeviceProperties> mDevices;
+    // Identity address key -> key of the address the device was added with
+    private final LongSparseArray<Long> mDualDevicesMap;
 
     /**
      * Bluetooth HFP v1.8 specifies the Battery Charge indicator of AG can take values from
@@ -126,6 +145,9 @@ final class RemoteDevices {
                                 BluetoothProtoEnums.SDP_NOT_SENDING_DELAYED_UUID, 1);
                     }
                     break;
+                case MESSAGE_DEVICE_FOUND_INTENT:
+                    sendPendingDeviceFoundIntents();
+                    break;
             }
         }
     }
@@ -179,10 +201,14 @@ final class RemoteDevices {
         mAdapter = ((Context) service).getSystemService(BluetoothManager.class).getAdapter();
         mAdapterService = service;
         mSdpTracker = new ArrayList<BluetoothDevice>();
-        mDevices = new HashMap<String, DeviceProperties>();
-        mDualDevicesMap = new HashMap<String, String>();
-        mDeviceQueue = new ArrayDeque<>();
+        mDevices = new RemoteDeviceTable<>(
+                getMaxDeviceQueueSize(SystemProperties.getInt(MAX_DEVICE_QUEUE_SIZE_PROPERTY,
+                        MAX_DEVICE_QUEUE_SIZE)),
+                prop -> prop.getBondState() == BluetoothDevice.BOND_BONDED);
+        mDualDevicesMap = new LongSparseArray<>();
         mHandler = new RemoteDevicesHandler(looper);
+        mDeviceFoundCoalesceWindowMs =
+                SystemProperties.getInt(DEVICE_FOUND_COALESCE_WINDOW_PROPERTY, 0);
     }
 
     /**
@@ -223,14 +249,19 @@ final class RemoteDevices {
             mSdpTracker.clear();
         }
 
+        synchronized (mPendingFoundDevices) {
+            mPendingFoundDevices.clear();
+        }
+        mHandler.removeMessages(MESSAGE_DEVICE_FOUND_INTENT);
+
         synchronized (mDevices) {
             if (mDevices != null) {
                 debugLog("reset(): Broadcasting ACL_DISCONNECTED");
 
-                mDevices.forEach((address, deviceProperties) -> {
-                    BluetoothDevice bluetoothDevice = deviceProperties.getDevice();
+                for (int i = 0; i < mDevices.size(); i++) {
+                    BluetoothDevice bluetoothDevice = mDevices.valueAt(i).getDevice();
 
-                    debugLog("reset(): address=" + address + ", connected="
+                    debugLog("reset(): address=" + bluetoothDevice.getAddress() + ", connected="
                             + bluetoothDevice.isConnected());
 
                     if (bluetoothDevice.isConnected()) {
@@ -240,18 +271,12 @@ final class RemoteDevices {
                                 | Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
                         mAdapterService.sendBroadcast(intent, BLUETOOTH_CONNECT);
                     }
-                });
+                }
                 mDevices.clear();
             }
-        }
 
-        if (mDualDevicesMap != null) {
             mDualDevicesMap.clear();
         }
-
-        if (mDeviceQueue != null) {
-            mDeviceQueue.clear();
-        }
     }
 
     @Override
@@ -261,28 +286,31 @@ final class RemoteDevices {
 
     DeviceProperties getDeviceProperties(BluetoothDevice device) {
         synchronized (mDevices) {
-            String address = mDualDevicesMap.get(device.getAddress());
-            // If the device is not in the dual map, use its original address
-            if (address == null || mDevices.get(address) == null) {
-                address = device.getAddress();
-            }
-            return mDevices.get(address);
+            return mDevices.get(getMainKey(RemoteDeviceTable.toKey(device.getAddress())));
         }
     }
 
     BluetoothDevice getDevice(byte[] address) {
-        String addressString = Utils.getAddressStringFromByte(address);
-        String deviceAddress = mDualDevicesMap.get(addressString);
-        // If the device is not in the dual map, use its original address
-        if (deviceAddress == null || mDevices.get(deviceAddress) == null) {
-            deviceAddress = addressString;
+        synchronized (mDevices) {
+            DeviceProperties prop = mDevices.get(getMainKey(RemoteDeviceTable.toKey(address)));
+            if (prop != null) {
+                return prop.getDevice();
+            }
+            return null;
         }
+    }
 
-        DeviceProperties prop = mDevices.get(deviceAddress);
-        if (prop != null) {
-            return prop.getDevice();
+    /**
+     * Returns the key the device with address {@code key} was added with, which differs for the
+     * identity address of a consolidated dual mode device.
+     */
+    private long getMainKey(long key) {
+        Long mainKey = mDualDevicesMap.get(key);
+        // If the device is not in the dual map, use its original address
+        if (mainKey == null || mDevices.get(mainKey) == null) {
+            return key;
         }
-        return null;
+        return mainKey;
     }
 
     @VisibleForTesting
@@ -291,22 +319,7 @@ final class RemoteDevices {
             DeviceProperties prop = new DeviceProperties();
             prop.setDevice(mAdapter.getRemoteDevice(Utils.getAddressStringFromByte(address)));
             prop.setAddress(address);
-            String key = Utils.getAddressStringFromByte(address);
-            DeviceProperties pv = mDevices.put(key, prop);
-
-            if (pv == null) {
-                mDeviceQueue.offer(key);
-                if (mDeviceQueue.size() > MAX_DEVICE_QUEUE_SIZE) {
-                    String deleteKey = mDeviceQueue.poll();
-                    for (BluetoothDevice device : mAdapterService.getBondedDevices()) {
-                        if (device.getAddress().equals(deleteKey)) {
-                            return prop;
-                        }
-                    }
-                    debugLog("Removing device " + deleteKey + " from property map");
-                    mDevices.remove(deleteKey);
-                }
-            }
+            mDevices.put(RemoteDeviceTable.toKey(address), prop);
             return prop;
         }
     }
@@ -878,6 +891,10 @@ final class RemoteDevices {
                                 break;
                             }
                             deviceProperties.setName(newName);
+                            if (isDeviceFoundPending(bdDevice)) {
+                                debugLog("Name update merged into pending ACTION_FOUND");
+                                break;
+                            }
                             intent = new Intent(BluetoothDevice.ACTION_NAME_CHANGED);
                             intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bdDevice);
                             intent.putExtra(BluetoothDevice.EXTRA_NAME, deviceProperties.getName());
@@ -903,6 +920,10 @@ final class RemoteDevices {
                                 break;
                             }
                             deviceProperties.setBluetoothClass(newBluetoothClass);
+                            if (isDeviceFoundPending(bdDevice)) {
+                                debugLog("Class update merged into pending ACTION_FOUND");
+                                break;
+                            }
                             intent = new Intent(BluetoothDevice.ACTION_CLASS_CHANGED);
                             intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bdDevice);
                             intent.putExtra(BluetoothDevice.EXTRA_CLASS,
@@ -988,6 +1009,68 @@ final class RemoteDevices {
             errorLog("Device Properties is null for Device:" + device);
             return;
         }
+
+        if (mDeviceFoundCoalesceWindowMs > 0) {
+            synchronized (mPendingFoundDevices) {
+                // Repeated reports within the window are sent once, with the latest properties
+                if (mPendingFoundDevices.isEmpty()) {
+                    mHandler.sendEmptyMessageDelayed(MESSAGE_DEVICE_FOUND_INTENT,
+                            mDeviceFoundCoalesceWindowMs);
+                }
+                mPendingFoundDevices.add(device);
+            }
+            return;
+        }
+        sendDeviceFoundIntent(device, deviceProp);
+    }
+
+    private boolean isDeviceFoundPending(BluetoothDevice device) {
+        synchronized (mPendingFoundDevices) {
+            return mPendingFoundDevices.contains(device);
+        }
+    }
+
+    /**
+     * Returns the number of unbonded devices to remember for the configured {@code size}: the
+     * default if it is not positive, at most {@link #MAX_DEVICE_QUEUE_SIZE_LIMIT}.
+     */
+    @VisibleForTesting
+    static int getMaxDeviceQueueSize(int size) {
+        if (size <= 0) {
+            Log.w(TAG, "Invalid " + MAX_DEVICE_QUEUE_SIZE_PROPERTY + " " + size
+                    + ", using " + MAX_DEVICE_QUEUE_SIZE);
+            return MAX_DEVICE_QUEUE_SIZE;
+        }
+        return Math.min(size, MAX_DEVICE_QUEUE_SIZE_LIMIT);
+    }
+
+    /**
+     * Send the coalesced ACTION_FOUND intents right away, to be called when discovery stops so
+     * that they reach the discovering packages before ACTION_DISCOVERY_FINISHED.
+     */
+    void flushPendingDeviceFoundIntents() {
+        mHandler.removeMessages(MESSAGE_DEVICE_FOUND_INTENT);
+        sendPendingDeviceFoundIntents();
+    }
+
+    private void sendPendingDeviceFoundIntents() {
+        ArrayList<BluetoothDevice> devices;
+        synchronized (mPendingFoundDevices) {
+            devices = new ArrayList<>(mPendingFoundDevices);
+            mPendingFoundDevices.clear();
+        }
+        debugLog("sendPendingDeviceFoundIntents: " + devices.size() + " devices");
+        for (BluetoothDevice device : devices) {
+            DeviceProperties deviceProp = getDeviceProperties(device);
+            if (deviceProp == null) {
+                // Evicted or reset while pending
+                continue;
+            }
+            sendDeviceFoundIntent(device, deviceProp);
+        }
+    }
+
+    private void sendDeviceFoundIntent(BluetoothDevice device, DeviceProperties deviceProp) {
         boolean restrict_device_found =
                 SystemProperties.getBoolean("bluetooth.restrict_discovered_device.enabled", false);
         if (restrict_device_found && (deviceProp.mName == null || deviceProp.mName.isEmpty())) {
@@ -1044,7 +1127,10 @@ final class RemoteDevices {
         deviceProperties.setIsConsolidated(true);
         deviceProperties.setDeviceType(BluetoothDevice.DEVICE_TYPE_DUAL);
         deviceProperties.setIdentityAddress(Utils.getAddressStringFromByte(secondaryAddress));
-        mDualDevicesMap.put(deviceProperties.getIdentityAddress(), Utils.getAddressStringFromByte(mainAddress));
+        synchronized (mDevices) {
+            mDualDevicesMap.put(RemoteDeviceTable.toKey(secondaryAddress),
+                    RemoteDeviceTable.toKey(mainAddress));
+        }
     }
 
     /**
@@ -1126,8 +1212,9 @@ final class RemoteDevices {
                 Utils.sendBroadcast(mAdapterService, intent, BLUETOOTH_CONNECT,
                         Utils.getTempAllowlistBroadcastOptions());
             } else if (device.getBondState() == BluetoothDevice.BOND_NONE) {
-                String key = Utils.getAddressStringFromByte(address);
-                mDevices.remove(key);
+                synchronized (mDevices) {
+                    mDevices.remove(RemoteDeviceTable.toKey(address));
+                }
             }
             if (state == BluetoothAdapter.STATE_ON || state == BluetoothAdapter.STATE_TURNING_OFF) {
                 intent = new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED);
@@ -1136,6 +1223,11 @@ final class RemoteDevices {
                     || state == BluetoothAdapter.STATE_BLE_TURNING_OFF) {
                 intent = new Intent(BluetoothAdapter.ACTION_BLE_ACL_DISCONNECTED);
             }
+            // The SDP records of the device may change while it is not connected
+            SdpManager sdpManager = SdpManager.getDefaultManager();
+            if (sdpManager != null && transportLinkType != BluetoothDevice.TRANSPORT_LE) {
+                sdpManager.invalidateRecords(device);
+            }
             // Reset battery level on complete disconnection
             if (mAdapterService.getConnectionState(device) == 0) {
                 BatteryService batteryService = BatteryService.getBatteryService();
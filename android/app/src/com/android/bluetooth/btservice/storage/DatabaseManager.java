@@ -36,6 +36,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 
@@ -51,6 +52,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -74,16 +76,37 @@ public class DatabaseManager {
 
     @VisibleForTesting
     final Map<String, Metadata> mMetadataCache = new HashMap<>();
+    // Devices of mMetadataCache by descending last_active_time, guarded by mMetadataCache.
+    private final RecentDeviceList mRecentDevices = new RecentDeviceList();
     private final Semaphore mSemaphore = new Semaphore(1);
     private static final int METADATA_CHANGED_LOG_MAX_SIZE = 20;
     private final EvictingQueue<String> mMetadataChangedLog;
 
     private static final int LOAD_DATABASE_TIMEOUT = 500; // milliseconds
     private static final int MSG_LOAD_DATABASE = 0;
-    private static final int MSG_UPDATE_DATABASE = 1;
+    private static final int MSG_FLUSH_DATABASE = 1;
     private static final int MSG_DELETE_DATABASE = 2;
     private static final int MSG_CLEAR_DATABASE = 100;
     private static final String LOCAL_STORAGE = "LocalStorage";
+    // Upper bound on how long a dirty Metadata row waits before it is written to the database.
+    private static final long DEFAULT_FLUSH_DELAY_MS = 500;
+
+    // Dirty rows waiting to be written, keyed by address. Later updates to the same address
+    // replace the pending entry so a burst of changes results in a single row write.
+    @GuardedBy("mPendingUpdates")
+    private final Map<String, Metadata> mPendingUpdates = new LinkedHashMap<>();
+    @GuardedBy("mPendingUpdates")
+    private long mFlushDelayMillis = DEFAULT_FLUSH_DELAY_MS;
+    @GuardedBy("mPendingUpdates")
+    private long mFlushCount = 0;
+    @GuardedBy("mPendingUpdates")
+    private long mFlushedRowCount = 0;
+    @GuardedBy("mPendingUpdates")
+    private long mCoalescedWriteCount = 0;
+    @GuardedBy("mPendingUpdates")
+    private long mLastFlushLatencyMillis = 0;
+    @GuardedBy("mPendingUpdates")
+    private long mMaxFlushLatencyMillis = 0;
 
     private static final String
             LEGACY_HEADSET_PRIORITY_PREFIX = "bluetooth_headset_priority_";
@@ -142,11 +165,8 @@ public class DatabaseManager {
                     }
                     break;
                 }
-                case MSG_UPDATE_DATABASE: {
-                    Metadata data = (Metadata) msg.obj;
-                    synchronized (mDatabaseLock) {
-                        mDatabase.insert(data);
-                    }
+                case MSG_FLUSH_DATABASE: {
+                    flushPendingUpdates();
                     break;
                 }
                 case MSG_DELETE_DATABASE: {
@@ -210,6 +230,7 @@ public class DatabaseManager {
                 Metadata metadata = mMetadataCache.get(address);
                 if (metadata != null) {
                     mMetadataCache.remove(address);
+                    mRecentDevices.remove(address);
                     deleteDatabase(metadata);
                 }
             }
@@ -617,6 +638,7 @@ public class DatabaseManager {
             synchronized (MetadataDatabase.class) {
                 metadata.last_active_time = MetadataDatabase.sCurrentConnectionNumber++;
             }
+            mRecentDevices.moveToFront(address);
 
             // Only update is_active_a2dp_device if an a2dp device is connected
             if (isA2dpDevice) {
@@ -682,21 +704,9 @@ public class DatabaseManager {
      * in order of most recently connected
      */
     public List<BluetoothDevice> getMostRecentlyConnectedDevices() {
-        List<BluetoothDevice> mostRecentlyConnectedDevices = new ArrayList<>();
         synchronized (mMetadataCache) {
-            List<Metadata> sortedMetadata = new ArrayList<>(mMetadataCache.values());
-            sortedMetadata.sort((o1, o2) -> Long.compare(o2.last_active_time, o1.last_active_time));
-            for (Metadata metadata : sortedMetadata) {
-                try {
-                    mostRecentlyConnectedDevices.add(BluetoothAdapter.getDefaultAdapter()
-                            .getRemoteDevice(metadata.getAddress()));
-                } catch (IllegalArgumentException ex) {
-                    Log.d(TAG, "getBondedDevicesOrdered: Invalid address for "
-                               + "device " + metadata.getAnonymizedAddress());
-                }
-            }
+            return mRecentDevices.getDevices();
         }
-        return mostRecentlyConnectedDevices;
     }
 
     /**
@@ -738,20 +748,13 @@ public class DatabaseManager {
      */
     public BluetoothDevice getMostRecentlyConnectedA2dpDevice() {
         synchronized (mMetadataCache) {
-            for (Map.Entry<String, Metadata> entry : mMetadataCache.entrySet()) {
-                Metadata metadata = entry.getValue();
-                if (metadata.is_active_a2dp_device) {
-                    try {
-                        return BluetoothAdapter.getDefaultAdapter().getRemoteDevice(
-                                metadata.getAddress());
-                    } catch (IllegalArgumentException ex) {
-                        Log.d(TAG, "getMostRecentlyConnectedA2dpDevice: Invalid address for "
-                                   + "device " + metadata.getAnonymizedAddress());
-                    }
-                }
-            }
+            // The active a2dp device is normally the most recently connected one, so the walk
+            // stops after a few entries.
+            return mRecentDevices.findFirst(address -> {
+                Metadata metadata = mMetadataCache.get(address);
+                return metadata != null && metadata.is_active_a2dp_device;
+            });
         }
-        return null;
     }
 
     /**
@@ -966,6 +969,10 @@ public class DatabaseManager {
      */
     public void factoryReset() {
         Log.w(TAG, "factoryReset");
+        synchronized (mPendingUpdates) {
+            mPendingUpdates.clear();
+            mHandler.removeMessages(MSG_FLUSH_DATABASE);
+        }
         Message message = mHandler.obtainMessage(MSG_CLEAR_DATABASE);
         mHandler.sendMessage(message);
     }
@@ -977,28 +984,33 @@ public class DatabaseManager {
         removeUnusedMetadata();
         mAdapterService.unregisterReceiver(mReceiver);
         if (mHandlerThread != null) {
+            // Write out whatever is still pending before the handler thread goes away.
+            mHandler.removeMessages(MSG_FLUSH_DATABASE);
+            flushPendingUpdates();
             mHandlerThread.quit();
             mHandlerThread = null;
         }
-        mMetadataCache.clear();
+        synchronized (mMetadataCache) {
+            mMetadataCache.clear();
+            mRecentDevices.clear();
+        }
     }
 
     void createMetadata(String address, boolean isActiveA2dpDevice) {
         Metadata data = new Metadata(address);
         data.is_active_a2dp_device = isActiveA2dpDevice;
         mMetadataCache.put(address, data);
+        // New metadata always gets the latest last_active_time
+        mRecentDevices.moveToFront(address);
         updateDatabase(data);
         logMetadataChange(data, "Metadata created");
     }
 
     @VisibleForTesting
     void removeUnusedMetadata() {
-        BluetoothDevice[] bondedDevices = mAdapterService.getBondedDevices();
         synchronized (mMetadataCache) {
             mMetadataCache.forEach((address, metadata) -> {
-                if (!address.equals(LOCAL_STORAGE)
-                        && !Arrays.asList(bondedDevices).stream().anyMatch(device ->
-                        address.equals(device.getAddress()))) {
+                if (!address.equals(LOCAL_STORAGE) && !mAdapterService.isBonded(address)) {
                     List<Integer> list = metadata.getChangedCustomizedMeta();
                     for (int key : list) {
                         mAdapterService.metadataChanged(address, key, null);
@@ -1023,10 +1035,12 @@ public class DatabaseManager {
                 return;
             }
             mMigratedFromSettingsGlobal = true;
+            // The list is loaded by descending last_active_time
             for (Metadata data : list) {
                 String address = data.getAddress();
                 Log.v(TAG, "cacheMetadata: found device " + data.getAnonymizedAddress());
                 mMetadataCache.put(address, data);
+                mRecentDevices.moveToBack(address);
             }
             Log.i(TAG, "cacheMetadata: Database is ready");
         }
@@ -1114,6 +1128,7 @@ public class DatabaseManager {
             data.a2dpSupportsOptionalCodecs = a2dpSupportsOptionalCodec;
             data.a2dpOptionalCodecsEnabled = a2dpOptionalCodecEnabled;
             mMetadataCache.put(address, data);
+            mRecentDevices.moveToFront(address);
             updateDatabase(data);
         }
 
@@ -1233,9 +1248,58 @@ public class DatabaseManager {
             return;
         }
         Log.d(TAG, "updateDatabase " + data.getAnonymizedAddress());
-        Message message = mHandler.obtainMessage(MSG_UPDATE_DATABASE);
-        message.obj = data;
-        mHandler.sendMessage(message);
+        synchronized (mPendingUpdates) {
+            if (mPendingUpdates.put(data.getAddress(), data) != null) {
+                mCoalescedWriteCount++;
+            }
+            // The first dirty row schedules the flush; later ones ride along with it so that a
+            // row never waits longer than the flush delay.
+            if (!mHandler.hasMessages(MSG_FLUSH_DATABASE)) {
+                mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_FLUSH_DATABASE),
+                        mFlushDelayMillis);
+            }
+        }
+    }
+
+    /**
+     * Write all pending {@link Metadata} rows to the database in a single transaction.
+     */
+    @VisibleForTesting
+    void flushPendingUpdates() {
+        Metadata[] pending;
+        synchronized (mPendingUpdates) {
+            if (mPendingUpdates.isEmpty()) {
+                return;
+            }
+            pending = mPendingUpdates.values().toArray(new Metadata[0]);
+            mPendingUpdates.clear();
+        }
+        long startTime = SystemClock.elapsedRealtime();
+        synchronized (mDatabaseLock) {
+            if (mDatabase == null) {
+                Log.e(TAG, "flushPendingUpdates: database is null");
+                return;
+            }
+            mDatabase.insert(pending);
+        }
+        long latency = SystemClock.elapsedRealtime() - startTime;
+        Log.d(TAG, "flushPendingUpdates: wrote " + pending.length + " rows in " + latency + "ms");
+        synchronized (mPendingUpdates) {
+            mFlushCount++;
+            mFlushedRowCount += pending.length;
+            mLastFlushLatencyMillis = latency;
+            mMaxFlushLatencyMillis = Math.max(mMaxFlushLatencyMillis, latency);
+        }
+    }
+
+    /**
+     * Set the maximum time a dirty {@link Metadata} row waits before being written.
+     */
+    @VisibleForTesting
+    void setFlushDelayMillis(long delayMillis) {
+        synchronized (mPendingUpdates) {
+            mFlushDelayMillis = delayMillis;
+        }
     }
 
     @VisibleForTesting
@@ -1246,6 +1310,10 @@ public class DatabaseManager {
             return;
         }
         logMetadataChange(data, "Metadata deleted");
+        synchronized (mPendingUpdates) {
+            // A pending write must not resurrect the row after it has been deleted.
+            mPendingUpdates.remove(address);
+        }
         Message message = mHandler.obtainMessage(MSG_DELETE_DATABASE);
         message.obj = data.getAddress();
         mHandler.sendMessage(message);
@@ -1304,6 +1372,16 @@ public class DatabaseManager {
         for (String log : mMetadataChangedLog) {
             writer.println("    " + log);
         }
+        synchronized (mPendingUpdates) {
+            writer.println("  Write-behind:");
+            writer.println("    Flush delay: " + mFlushDelayMillis + "ms");
+            writer.println("    Pending rows: " + mPendingUpdates.size());
+            writer.println("    Flushes: " + mFlushCount);
+            writer.println("    Rows written: " + mFlushedRowCount);
+            writer.println("    Coalesced writes: " + mCoalescedWriteCount);
+            writer.println("    Last flush latency: " + mLastFlushLatencyMillis + "ms");
+            writer.println("    Max flush latency: " + mMaxFlushLatencyMillis + "ms");
+        }
         writer.println("\nMetadata:");
         for (Map.Entry<String, Metadata> entry : mMetadataCache.entrySet()) {
             if (entry.getKey().equals(LOCAL_STORAGE)) {
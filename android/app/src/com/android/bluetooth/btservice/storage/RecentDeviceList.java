@@ -0,0 +1,160 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice.storage;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Devices with {@link Metadata} ordered from most to least recently connected, i.e. by descending
+ * {@code last_active_time}.
+ *
+ * <p>A connection always assigns the highest {@code last_active_time} so promoting a device is a
+ * move to the front of a doubly linked list, and ordered queries never need to sort. The
+ * {@link BluetoothDevice} of each entry is created once and reused by every query.
+ *
+ * <p>Not thread safe; {@link DatabaseManager} guards it with its metadata cache lock.
+ */
+class RecentDeviceList {
+    private static class Node {
+        final BluetoothDevice mDevice;
+        Node mPrev;
+        Node mNext;
+
+        Node(BluetoothDevice device) {
+            mDevice = device;
+        }
+    }
+
+    private final Map<String, Node> mNodes = new HashMap<>();
+    private Node mHead;
+    private Node mTail;
+
+    /**
+     * Make {@code address} the most recently connected device, adding it if needed. Addresses
+     * that are not valid Bluetooth addresses, such as the local storage entry, are ignored.
+     */
+    void moveToFront(String address) {
+        Node node = getOrCreateNode(address);
+        if (node == null || node == mHead) {
+            return;
+        }
+        unlink(node);
+        node.mNext = mHead;
+        if (mHead != null) {
+            mHead.mPrev = node;
+        }
+        mHead = node;
+        if (mTail == null) {
+            mTail = node;
+        }
+    }
+
+    /**
+     * Make {@code address} the least recently connected device, adding it if needed. Used to
+     * populate the list from entries already sorted by descending {@code last_active_time}.
+     */
+    void moveToBack(String address) {
+        Node node = getOrCreateNode(address);
+        if (node == null || node == mTail) {
+            return;
+        }
+        unlink(node);
+        node.mPrev = mTail;
+        if (mTail != null) {
+            mTail.mNext = node;
+        }
+        mTail = node;
+        if (mHead == null) {
+            mHead = node;
+        }
+    }
+
+    /** Remove {@code address} from the list if present. */
+    void remove(String address) {
+        Node node = mNodes.remove(address);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    void clear() {
+        mNodes.clear();
+        mHead = null;
+        mTail = null;
+    }
+
+    int size() {
+        return mNodes.size();
+    }
+
+    /** Returns the devices ordered from most to least recently connected. */
+    List<BluetoothDevice> getDevices() {
+        List<BluetoothDevice> devices = new ArrayList<>(mNodes.size());
+        for (Node node = mHead; node != null; node = node.mNext) {
+            devices.add(node.mDevice);
+        }
+        return devices;
+    }
+
+    /**
+     * Returns the most recently connected device whose address satisfies {@code predicate}, or
+     * null if there is none. Only the devices ahead of the match are visited.
+     */
+    BluetoothDevice findFirst(Predicate<String> predicate) {
+        for (Node node = mHead; node != null; node = node.mNext) {
+            if (predicate.test(node.mDevice.getAddress())) {
+                return node.mDevice;
+            }
+        }
+        return null;
+    }
+
+    private Node getOrCreateNode(String address) {
+        Node node = mNodes.get(address);
+        if (node != null) {
+            return node;
+        }
+        if (!BluetoothAdapter.checkBluetoothAddress(address)) {
+            return null;
+        }
+        node = new Node(BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address));
+        mNodes.put(address, node);
+        return node;
+    }
+
+    private void unlink(Node node) {
+        if (node.mPrev != null) {
+            node.mPrev.mNext = node.mNext;
+        } else if (mHead == node) {
+            mHead = node.mNext;
+        }
+        if (node.mNext != null) {
+            node.mNext.mPrev = node.mPrev;
+        } else if (mTail == node) {
+            mTail = node.mPrev;
+        }
+        node.mPrev = null;
+        node.mNext = null;
+    }
+}
@@ -29,10 +29,13 @@ import android.os.IBinder;
 import android.os.IInterface;
 import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.gatt.GattService.AdvertiserMap;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.Collections;
@@ -49,11 +52,19 @@ public class AdvertiseManager {
     private static final boolean DBG = GattServiceConfig.DBG;
     private static final String TAG = GattServiceConfig.TAG_PREFIX + "AdvertiseManager";
 
+    // Kinds of advertising set data
+    private static final int ADVERTISING_DATA = 0;
+    private static final int SCAN_RESPONSE_DATA = 1;
+    private static final int PERIODIC_DATA = 2;
+
     private final GattService mService;
     private final AdapterService mAdapterService;
     private final AdvertiserMap mAdvertiserMap;
     private Handler mHandler;
     Map<IBinder, AdvertiserInfo> mAdvertisers = Collections.synchronizedMap(new HashMap<>());
+    // Index of mAdvertisers by advertiser or registration id, rebuilt on every change so that the
+    // native callbacks can look advertisers up without locking
+    private volatile SparseArray<AdvertiserInfo> mAdvertisersById = new SparseArray<>();
     static int sTempRegistrationId = -1;
 
     /**
@@ -84,7 +95,10 @@ public class AdvertiseManager {
             Log.d(TAG, "cleanup()");
         }
         cleanupNative();
-        mAdvertisers.clear();
+        synchronized (mAdvertisers) {
+            mAdvertisers.clear();
+            updateAdvertiserIndex();
+        }
         sTempRegistrationId = -1;
 
         if (mHandler != null) {
@@ -101,9 +115,12 @@ public class AdvertiseManager {
     class AdvertiserInfo {
         /* When id is negative, the registration is ongoing. When the registration finishes, id
          * becomes equal to advertiser_id */
-        public Integer id;
+        public volatile Integer id;
         public AdvertisingSetDeathRecipient deathRecipient;
         public IAdvertisingSetCallback callback;
+        final DataUpdate advertisingData = new DataUpdate();
+        final DataUpdate scanResponseData = new DataUpdate();
+        final DataUpdate periodicData = new DataUpdate();
 
         AdvertiserInfo(Integer id, AdvertisingSetDeathRecipient deathRecipient,
                 IAdvertisingSetCallback callback) {
@@ -113,6 +130,106 @@ public class AdvertiseManager {
         }
     }
 
+    /**
+     * Updates of one kind of data of an advertising set. Only one update at a time is sent to the
+     * stack: the ones requested meanwhile are coalesced into the latest, which is sent once the
+     * stack reports the previous one done, and all of them get its status.
+     *
+     * <p>An update the stack does not report done within {@link #TIMEOUT_MS} is failed and
+     * forgotten, see {@link #timeOut}, so that a lost completion does not hold back the updates
+     * requested after it nor shift the following completions onto the wrong update.
+     */
+    @VisibleForTesting
+    static class DataUpdate {
+        // Sent updates the stack did not report done after this long are failed
+        @VisibleForTesting
+        static final long TIMEOUT_MS = 2000;
+
+        /** Returned by {@link #request} when the data is coalesced instead of sent. */
+        static final int NOT_SENT = -1;
+
+        /** Outcome of an update reported done by the stack, or timed out. */
+        static class Completion {
+            /** Number of requests the update carried, each one gets a callback. */
+            final int requests;
+            /** Time between sending the update and its completion, or -1 if not known. */
+            final long latencyMs;
+            /** Coalesced data to send next, if any. */
+            final byte[] next;
+            /** Id of the update carrying {@link #next}. */
+            final int nextSendId;
+
+            Completion(int requests, long latencyMs, byte[] next, int nextSendId) {
+                this.requests = requests;
+                this.latencyMs = latencyMs;
+                this.next = next;
+                this.nextSendId = nextSendId;
+            }
+        }
+
+        private int mSendId;
+        private int mInFlightRequests;
+        private long mSentAtMs;
+        private byte[] mPendingData;
+        private int mPendingRequests;
+
+        /**
+         * Returns the id of the update to send {@code data} with now, or {@link #NOT_SENT} if it
+         * is coalesced with later requests.
+         */
+        synchronized int request(byte[] data, long nowMs) {
+            if (mInFlightRequests > 0) {
+                mPendingData = data;
+                mPendingRequests++;
+                return NOT_SENT;
+            }
+            return send(1, nowMs);
+        }
+
+        /**
+         * Account for the update in flight being reported done. Returns no request if no update
+         * is in flight, e.g. the late completion of an update that timed out.
+         */
+        synchronized Completion complete(long nowMs) {
+            if (mInFlightRequests == 0) {
+                return new Completion(0, -1, null, NOT_SENT);
+            }
+            return finish(nowMs - mSentAtMs, nowMs);
+        }
+
+        /**
+         * Fail update {@code sendId} if it is still in flight. Returns null if it was reported
+         * done meanwhile.
+         */
+        synchronized Completion timeOut(int sendId, long nowMs) {
+            if (mInFlightRequests == 0 || sendId != mSendId) {
+                return null;
+            }
+            return finish(-1, nowMs);
+        }
+
+        @GuardedBy("this")
+        private Completion finish(long latencyMs, long nowMs) {
+            int requests = mInFlightRequests;
+            mInFlightRequests = 0;
+            byte[] next = mPendingData;
+            int nextSendId = NOT_SENT;
+            if (mPendingRequests > 0) {
+                nextSendId = send(mPendingRequests, nowMs);
+            }
+            mPendingData = null;
+            mPendingRequests = 0;
+            return new Completion(requests, latencyMs, next, nextSendId);
+        }
+
+        @GuardedBy("this")
+        private int send(int requests, long nowMs) {
+            mInFlightRequests = requests;
+            mSentAtMs = nowMs;
+            return ++mSendId;
+        }
+    }
+
     IBinder toBinder(IAdvertisingSetCallback e) {
         return ((IInterface) e).asBinder();
     }
@@ -133,15 +250,17 @@ public class AdvertiseManager {
         }
     }
 
-    Map.Entry<IBinder, AdvertiserInfo> findAdvertiser(int advertiserId) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = null;
-        for (Map.Entry<IBinder, AdvertiserInfo> e : mAdvertisers.entrySet()) {
-            if (e.getValue().id == advertiserId) {
-                entry = e;
-                break;
-            }
+    AdvertiserInfo findAdvertiser(int advertiserId) {
+        return mAdvertisersById.get(advertiserId);
+    }
+
+    /** Rebuild {@link #mAdvertisersById}. Caller must hold {@link #mAdvertisers}. */
+    private void updateAdvertiserIndex() {
+        SparseArray<AdvertiserInfo> index = new SparseArray<>(mAdvertisers.size());
+        for (AdvertiserInfo info : mAdvertisers.values()) {
+            index.put(info.id, info);
         }
-        return entry;
+        mAdvertisersById = index;
     }
 
     void onAdvertisingSetStarted(int regId, int advertiserId, int txPower, int status)
@@ -152,25 +271,30 @@ public class AdvertiseManager {
                             + ", status=" + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(regId);
+        AdvertiserInfo info = findAdvertiser(regId);
 
-        if (entry == null) {
+        if (info == null) {
             Log.i(TAG, "onAdvertisingSetStarted() - no callback found for regId " + regId);
             // Advertising set was stopped before it was properly registered.
             stopAdvertisingSetNative(advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         if (status == 0) {
-            entry.setValue(
-                    new AdvertiserInfo(advertiserId, entry.getValue().deathRecipient, callback));
+            synchronized (mAdvertisers) {
+                info.id = advertiserId;
+                updateAdvertiserIndex();
+            }
 
             mAdvertiserMap.setAdvertiserIdByRegId(regId, advertiserId);
         } else {
-            IBinder binder = entry.getKey();
-            binder.unlinkToDeath(entry.getValue().deathRecipient, 0);
-            mAdvertisers.remove(binder);
+            IBinder binder = toBinder(callback);
+            binder.unlinkToDeath(info.deathRecipient, 0);
+            synchronized (mAdvertisers) {
+                mAdvertisers.remove(binder);
+                updateAdvertiserIndex();
+            }
 
             AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(regId);
             if (stats != null) {
@@ -189,14 +313,14 @@ public class AdvertiseManager {
                     + enable + ", status=" + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(TAG, "onAdvertisingSetEnable() - no callback found for advertiserId "
                     + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         callback.onAdvertisingEnabled(advertiserId, enable, status);
 
         if (!enable && status != 0) {
@@ -242,7 +366,10 @@ public class AdvertiseManager {
                     AdvertiseHelper.advertiseDataToBytes(periodicData, deviceName);
 
             int cbId = --sTempRegistrationId;
-            mAdvertisers.put(binder, new AdvertiserInfo(cbId, deathRecipient, callback));
+            synchronized (mAdvertisers) {
+                mAdvertisers.put(binder, new AdvertiserInfo(cbId, deathRecipient, callback));
+                updateAdvertiserIndex();
+            }
 
             if (DBG) {
                 Log.d(TAG, "startAdvertisingSet() - reg_id=" + cbId + ", callback: " + binder);
@@ -273,19 +400,19 @@ public class AdvertiseManager {
             Log.d(TAG, "onOwnAddressRead() advertiserId=" + advertiserId);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "onOwnAddressRead() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         callback.onOwnAddressRead(advertiserId, addressType, address);
     }
 
     void getOwnAddress(int advertiserId) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "getOwnAddress() - bad advertiserId " + advertiserId);
             return;
         }
@@ -298,7 +425,11 @@ public class AdvertiseManager {
             Log.d(TAG, "stopAdvertisingSet() " + binder);
         }
 
-        AdvertiserInfo adv = mAdvertisers.remove(binder);
+        AdvertiserInfo adv;
+        synchronized (mAdvertisers) {
+            adv = mAdvertisers.remove(binder);
+            updateAdvertiserIndex();
+        }
         if (adv == null) {
             Log.e(TAG, "stopAdvertisingSet() - no client found for callback");
             return;
@@ -325,8 +456,8 @@ public class AdvertiseManager {
     }
 
     void enableAdvertisingSet(int advertiserId, boolean enable, int duration, int maxExtAdvEvents) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "enableAdvertisingSet() - bad advertiserId " + advertiserId);
             return;
         }
@@ -337,20 +468,20 @@ public class AdvertiseManager {
     }
 
     void setAdvertisingData(int advertiserId, AdvertiseData data) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "setAdvertisingData() - bad advertiserId " + advertiserId);
             return;
         }
         String deviceName = AdapterService.getAdapterService().getName();
         try {
-            setAdvertisingDataNative(advertiserId,
+            requestDataUpdate(info, advertiserId, ADVERTISING_DATA,
                     AdvertiseHelper.advertiseDataToBytes(data, deviceName));
 
             mAdvertiserMap.setAdvertisingData(advertiserId, data);
         } catch (IllegalArgumentException e) {
             try {
-                onAdvertisingDataSet(advertiserId,
+                info.callback.onAdvertisingDataSet(advertiserId,
                         AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
             } catch (Exception exception) {
                 Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
@@ -359,20 +490,20 @@ public class AdvertiseManager {
     }
 
     void setScanResponseData(int advertiserId, AdvertiseData data) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "setScanResponseData() - bad advertiserId " + advertiserId);
             return;
         }
         String deviceName = AdapterService.getAdapterService().getName();
         try {
-            setScanResponseDataNative(advertiserId,
+            requestDataUpdate(info, advertiserId, SCAN_RESPONSE_DATA,
                     AdvertiseHelper.advertiseDataToBytes(data, deviceName));
 
             mAdvertiserMap.setScanResponseData(advertiserId, data);
         } catch (IllegalArgumentException e) {
             try {
-                onScanResponseDataSet(advertiserId,
+                info.callback.onScanResponseDataSet(advertiserId,
                         AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
             } catch (Exception exception) {
                 Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
@@ -380,9 +511,126 @@ public class AdvertiseManager {
         }
     }
 
+    private DataUpdate getDataUpdate(AdvertiserInfo info, int kind) {
+        switch (kind) {
+            case SCAN_RESPONSE_DATA:
+                return info.scanResponseData;
+            case PERIODIC_DATA:
+                return info.periodicData;
+            default:
+                return info.advertisingData;
+        }
+    }
+
+    private void setDataNative(int advertiserId, int kind, byte[] data) {
+        switch (kind) {
+            case SCAN_RESPONSE_DATA:
+                setScanResponseDataNative(advertiserId, data);
+                break;
+            case PERIODIC_DATA:
+                setPeriodicAdvertisingDataNative(advertiserId, data);
+                break;
+            default:
+                setAdvertisingDataNative(advertiserId, data);
+                break;
+        }
+    }
+
+    // Beacons and broadcast announcements may update their data faster than the controller
+    // applies it, only the latest data matters then.
+    private void requestDataUpdate(AdvertiserInfo info, int advertiserId, int kind, byte[] data) {
+        int sendId = getDataUpdate(info, kind).request(data, SystemClock.elapsedRealtime());
+        AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(advertiserId);
+        if (stats != null) {
+            stats.recordDataUpdate(sendId == DataUpdate.NOT_SENT);
+        }
+        if (sendId != DataUpdate.NOT_SENT) {
+            sendDataUpdate(info, advertiserId, kind, data, sendId);
+        } else if (DBG) {
+            Log.d(TAG, "requestDataUpdate() - coalesced update of kind " + kind
+                    + " for advertiserId=" + advertiserId);
+        }
+    }
+
+    private void sendDataUpdate(AdvertiserInfo info, int advertiserId, int kind, byte[] data,
+            int sendId) {
+        DataUpdate update = getDataUpdate(info, kind);
+        Handler handler = mHandler;
+        if (handler != null) {
+            handler.removeCallbacksAndMessages(update);
+            handler.postDelayed(() -> onDataUpdateTimeout(info, advertiserId, kind, sendId),
+                    update, DataUpdate.TIMEOUT_MS);
+        }
+        setDataNative(advertiserId, kind, data);
+    }
+
+    private void onDataUpdateTimeout(AdvertiserInfo info, int advertiserId, int kind,
+            int sendId) {
+        if (findAdvertiser(advertiserId) != info) {
+            return;
+        }
+        DataUpdate.Completion completion =
+                getDataUpdate(info, kind).timeOut(sendId, SystemClock.elapsedRealtime());
+        if (completion == null) {
+            return;
+        }
+        Log.w(TAG, "onDataUpdateTimeout() - update of kind " + kind + " for advertiserId="
+                + advertiserId + " not reported done");
+        if (completion.next != null) {
+            sendDataUpdate(info, advertiserId, kind, completion.next, completion.nextSendId);
+        }
+        try {
+            notifyDataSet(info.callback, kind, advertiserId,
+                    AdvertiseCallback.ADVERTISE_FAILED_INTERNAL_ERROR, completion.requests);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(e));
+        }
+    }
+
+    private static void notifyDataSet(IAdvertisingSetCallback callback, int kind,
+            int advertiserId, int status, int requests) throws RemoteException {
+        for (int i = 0; i < requests; i++) {
+            switch (kind) {
+                case SCAN_RESPONSE_DATA:
+                    callback.onScanResponseDataSet(advertiserId, status);
+                    break;
+                case PERIODIC_DATA:
+                    callback.onPeriodicAdvertisingDataSet(advertiserId, status);
+                    break;
+                default:
+                    callback.onAdvertisingDataSet(advertiserId, status);
+                    break;
+            }
+        }
+    }
+
+    /** Returns the number of requests answered by the data update the stack reported done. */
+    private int completeDataUpdate(int advertiserId, AdvertiserInfo info, int kind) {
+        DataUpdate update = getDataUpdate(info, kind);
+        DataUpdate.Completion completion = update.complete(SystemClock.elapsedRealtime());
+        Handler handler = mHandler;
+        if (handler != null && completion.requests > 0) {
+            handler.removeCallbacksAndMessages(update);
+        }
+        if (completion.requests == 0) {
+            Log.w(TAG, "completeDataUpdate() - no update of kind " + kind
+                    + " in flight for advertiserId=" + advertiserId);
+        }
+        if (completion.latencyMs >= 0) {
+            AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(advertiserId);
+            if (stats != null) {
+                stats.recordDataSetLatency(completion.latencyMs);
+            }
+        }
+        if (completion.next != null) {
+            sendDataUpdate(info, advertiserId, kind, completion.next, completion.nextSendId);
+        }
+        return completion.requests;
+    }
+
     void setAdvertisingParameters(int advertiserId, AdvertisingSetParameters parameters) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "setAdvertisingParameters() - bad advertiserId " + advertiserId);
             return;
         }
@@ -393,8 +641,8 @@ public class AdvertiseManager {
 
     void setPeriodicAdvertisingParameters(int advertiserId,
             PeriodicAdvertisingParameters parameters) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "setPeriodicAdvertisingParameters() - bad advertiserId " + advertiserId);
             return;
         }
@@ -404,20 +652,20 @@ public class AdvertiseManager {
     }
 
     void setPeriodicAdvertisingData(int advertiserId, AdvertiseData data) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "setPeriodicAdvertisingData() - bad advertiserId " + advertiserId);
             return;
         }
         String deviceName = AdapterService.getAdapterService().getName();
         try {
-            setPeriodicAdvertisingDataNative(advertiserId,
+            requestDataUpdate(info, advertiserId, PERIODIC_DATA,
                     AdvertiseHelper.advertiseDataToBytes(data, deviceName));
 
             mAdvertiserMap.setPeriodicAdvertisingData(advertiserId, data);
         } catch (IllegalArgumentException e) {
             try {
-                onPeriodicAdvertisingDataSet(advertiserId,
+                info.callback.onPeriodicAdvertisingDataSet(advertiserId,
                         AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
             } catch (Exception exception) {
                 Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
@@ -426,8 +674,8 @@ public class AdvertiseManager {
     }
 
     void setPeriodicAdvertisingEnable(int advertiserId, boolean enable) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "setPeriodicAdvertisingEnable() - bad advertiserId " + advertiserId);
             return;
         }
@@ -440,14 +688,14 @@ public class AdvertiseManager {
                     "onAdvertisingDataSet() advertiserId=" + advertiserId + ", status=" + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(TAG, "onAdvertisingDataSet() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
-        callback.onAdvertisingDataSet(advertiserId, status);
+        int requests = completeDataUpdate(advertiserId, info, ADVERTISING_DATA);
+        notifyDataSet(info.callback, ADVERTISING_DATA, advertiserId, status, requests);
     }
 
     void onScanResponseDataSet(int advertiserId, int status) throws Exception {
@@ -456,14 +704,14 @@ public class AdvertiseManager {
                     "onScanResponseDataSet() advertiserId=" + advertiserId + ", status=" + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(TAG, "onScanResponseDataSet() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
-        callback.onScanResponseDataSet(advertiserId, status);
+        int requests = completeDataUpdate(advertiserId, info, SCAN_RESPONSE_DATA);
+        notifyDataSet(info.callback, SCAN_RESPONSE_DATA, advertiserId, status, requests);
     }
 
     void onAdvertisingParametersUpdated(int advertiserId, int txPower, int status)
@@ -474,13 +722,13 @@ public class AdvertiseManager {
                             + txPower + ", status=" + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(TAG, "onAdvertisingParametersUpdated() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         callback.onAdvertisingParametersUpdated(advertiserId, txPower, status);
     }
 
@@ -490,14 +738,14 @@ public class AdvertiseManager {
                     + ", status=" + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(TAG,
                     "onPeriodicAdvertisingParametersUpdated() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         callback.onPeriodicAdvertisingParametersUpdated(advertiserId, status);
     }
 
@@ -507,14 +755,14 @@ public class AdvertiseManager {
                     + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(TAG, "onPeriodicAdvertisingDataSet() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
-        callback.onPeriodicAdvertisingDataSet(advertiserId, status);
+        int requests = completeDataUpdate(advertiserId, info, PERIODIC_DATA);
+        notifyDataSet(info.callback, PERIODIC_DATA, advertiserId, status, requests);
     }
 
     void onPeriodicAdvertisingEnabled(int advertiserId, boolean enable, int status)
@@ -524,13 +772,13 @@ public class AdvertiseManager {
                     + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(TAG, "onAdvertisingSetEnable() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         callback.onPeriodicAdvertisingEnabled(advertiserId, enable, status);
 
         AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(advertiserId);
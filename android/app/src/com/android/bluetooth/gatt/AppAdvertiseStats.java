@@ -101,6 +101,13 @@ public class AppAdvertiseStats {
     private AppAdvertiserData mPeriodicAdvertisingData = null;
     private boolean mPeriodicIncludeTxPower = false;
     private int mPeriodicInterval = 0;
+    // Advertising, scan response and periodic data updates
+    private Instant mFirstDataUpdateTime = null;
+    private int mDataUpdateCount = 0;
+    private int mCoalescedDataUpdateCount = 0;
+    private int mDataSetCount = 0;
+    private long mDataSetTotalLatencyMs = 0;
+    private long mDataSetMaxLatencyMs = 0;
     public ArrayList<AppAdvertiserRecord> mAdvertiserRecords =
             new ArrayList<AppAdvertiserRecord>();
 
@@ -288,6 +295,28 @@ public class AppAdvertiseStats {
         }
     }
 
+    /**
+     * Record a data update requested by the app.
+     *
+     * @param coalesced whether it was merged into a later update rather than sent to the stack
+     */
+    synchronized void recordDataUpdate(boolean coalesced) {
+        if (mFirstDataUpdateTime == null) {
+            mFirstDataUpdateTime = Instant.now();
+        }
+        mDataUpdateCount++;
+        if (coalesced) {
+            mCoalescedDataUpdateCount++;
+        }
+    }
+
+    /** Record the time the stack took to apply a data update. */
+    synchronized void recordDataSetLatency(long latencyMs) {
+        mDataSetCount++;
+        mDataSetTotalLatencyMs += latencyMs;
+        mDataSetMaxLatencyMs = Math.max(mDataSetMaxLatencyMs, latencyMs);
+    }
+
     void onPeriodicAdvertiseEnabled(boolean enable) {
         mPeriodicAdvertisingEnabled = enable;
     }
@@ -467,9 +496,28 @@ public class AppAdvertiseStats {
             dumpAppAdvertiserData(sb, stats.mPeriodicAdvertisingData);
         }
 
+        dumpDataUpdates(sb, stats);
+
         sb.append("\n");
     }
 
+    private static void dumpDataUpdates(StringBuilder sb, AppAdvertiseStats stats) {
+        synchronized (stats) {
+            if (stats.mDataUpdateCount == 0) {
+                return;
+            }
+            long elapsedMs = Math.max(1,
+                    Duration.between(stats.mFirstDataUpdateTime, Instant.now()).toMillis());
+            sb.append("\n      └Data updates                                     : "
+                    + stats.mDataUpdateCount + " (" + stats.mCoalescedDataUpdateCount
+                    + " coalesced, " + (stats.mDataUpdateCount * 60000L / elapsedMs) + "/min)");
+            sb.append("\n        └Data set latency                               : avg "
+                    + (stats.mDataSetCount == 0 ? 0
+                            : stats.mDataSetTotalLatencyMs / stats.mDataSetCount)
+                    + "ms, max " + stats.mDataSetMaxLatencyMs + "ms");
+        }
+    }
+
     static void dumpToString(StringBuilder sb, AppAdvertiseStats stats) {
         Instant currentTime = Instant.now();
 
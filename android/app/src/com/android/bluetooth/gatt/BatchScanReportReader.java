@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes the records of a batch scan report one at a time, straight from the report buffer, so
+ * that the results of a large report do not all have to be held at once.
+ *
+ * <p>Truncated records are {@link #TRUNCATED_RECORD_SIZE} bytes long: address (little endian),
+ * address type, tx power, rssi and timestamp. Full records add the length and content of the
+ * advertising packet, then of the scan response packet. Decoding stops at the first record that
+ * does not fit in the buffer.
+ */
+class BatchScanReportReader implements Iterator<ScanResult> {
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "BatchScanReportReader";
+
+    static final int TRUNCATED_RECORD_SIZE = 11;
+
+    private static final int ADDRESS_SIZE = 6;
+    private static final int RSSI_OFFSET = 8;
+    private static final int TIMESTAMP_OFFSET = 9;
+    // Timestamps are in units of 50 ms
+    private static final long TIMESTAMP_UNIT_MS = 50;
+    private static final ScanRecord EMPTY_SCAN_RECORD = ScanRecord.parseFromBytes(new byte[0]);
+
+    private final BluetoothAdapter mAdapter = BluetoothAdapter.getDefaultAdapter();
+    private final boolean mTruncated;
+    private final int mNumRecords;
+    private final byte[] mData;
+    private final long mNowNanos;
+    private int mPosition;
+    private int mRecordCount;
+
+    /**
+     * @param truncated whether the report holds truncated records
+     * @param nowNanos the time the report was received, record timestamps are relative to it
+     */
+    BatchScanReportReader(boolean truncated, int numRecords, byte[] data, long nowNanos) {
+        mTruncated = truncated;
+        mNumRecords = numRecords;
+        mData = data == null ? new byte[0] : data;
+        mNowNanos = nowNanos;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (mTruncated && mRecordCount >= mNumRecords) {
+            return false;
+        }
+        int end = recordEnd();
+        if (end < 0 && mPosition < mData.length) {
+            Log.w(TAG, "Malformed batch scan report, " + (mData.length - mPosition)
+                    + " bytes left after " + mRecordCount + " records");
+            mPosition = mData.length;
+        }
+        return end >= 0;
+    }
+
+    @Override
+    public ScanResult next() {
+        int end = recordEnd();
+        if (end < 0 || (mTruncated && mRecordCount >= mNumRecords)) {
+            throw new NoSuchElementException();
+        }
+        int start = mPosition;
+        byte[] address = new byte[ADDRESS_SIZE];
+        for (int i = 0; i < ADDRESS_SIZE; i++) {
+            address[i] = mData[start + ADDRESS_SIZE - 1 - i];
+        }
+        BluetoothDevice device = mAdapter.getRemoteDevice(address);
+        int rssi = mData[start + RSSI_OFFSET];
+        long timestampNanos = mNowNanos - parseTimestampNanos(mData, start + TIMESTAMP_OFFSET);
+
+        ScanRecord scanRecord = EMPTY_SCAN_RECORD;
+        if (!mTruncated) {
+            // Combine advertise packet and scan response packet.
+            int advertiseStart = start + TRUNCATED_RECORD_SIZE + 1;
+            int advertiseLen = mData[advertiseStart - 1] & 0xFF;
+            int scanResponseStart = advertiseStart + advertiseLen + 1;
+            int scanResponseLen = mData[scanResponseStart - 1] & 0xFF;
+            byte[] bytes = new byte[advertiseLen + scanResponseLen];
+            System.arraycopy(mData, advertiseStart, bytes, 0, advertiseLen);
+            System.arraycopy(mData, scanResponseStart, bytes, advertiseLen, scanResponseLen);
+            scanRecord = ScanRecord.parseFromBytes(bytes);
+        }
+        mPosition = end;
+        mRecordCount++;
+        return new ScanResult(device, scanRecord, rssi, timestampNanos);
+    }
+
+    /** Returns the end of the record at the current position, or -1 if there is none. */
+    private int recordEnd() {
+        int end = mPosition + TRUNCATED_RECORD_SIZE;
+        if (mTruncated || end > mData.length) {
+            return end > mData.length ? -1 : end;
+        }
+        // Advertising packet
+        end += 1;
+        if (end > mData.length) {
+            return -1;
+        }
+        end += mData[end - 1] & 0xFF;
+        // Scan response packet
+        end += 1;
+        if (end > mData.length) {
+            return -1;
+        }
+        end += mData[end - 1] & 0xFF;
+        return end > mData.length ? -1 : end;
+    }
+
+    /** Returns the little endian 2 bytes timestamp at {@code offset} in nanoseconds. */
+    static long parseTimestampNanos(byte[] data, int offset) {
+        long timestampUnit = (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+        return TimeUnit.MILLISECONDS.toNanos(timestampUnit * TIMESTAMP_UNIT_MS);
+    }
+}
@@ -76,6 +76,7 @@ import android.provider.Settings;
 import android.sysprop.BluetoothProperties;
 import android.text.format.DateUtils;
 import android.util.Log;
+import android.util.SparseIntArray;
 
 import com.android.bluetooth.BluetoothMetricsProto;
 import com.android.bluetooth.BluetoothStatsLog;
@@ -87,7 +88,6 @@ import com.android.bluetooth.btservice.BluetoothAdapterProxy;
 import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.CompanionManager;
 import com.android.bluetooth.btservice.ProfileService;
-import com.android.bluetooth.util.NumberUtils;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
@@ -100,10 +100,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 /**
@@ -123,7 +123,10 @@ public class GattService extends ProfileService {
 
     private static final int MAC_ADDRESS_LENGTH = 6;
     // Batch scan related constants.
-    private static final int TRUNCATED_RESULT_SIZE = 11;
+    // Estimated size of the batch scan results sent to a client at once, and of a result
+    // without its advertising data
+    private static final int BATCH_SCAN_CHUNK_BYTES = 64 * 1024;
+    private static final int BATCH_SCAN_RESULT_OVERHEAD_BYTES = 128;
     private static final int TIME_STAMP_LENGTH = 2;
 
     private enum MatchOrigin {
@@ -1945,7 +1948,11 @@ public class GattService extends ProfileService {
         }
 
 
-        byte[] legacyAdvData = Arrays.copyOfRange(advData, 0, 62);
+        // Parsed lazily and shared by every client this report is delivered to.
+        SharedScanResult sharedResult = null;
+        ScanFilterIndex filterIndex = mScanManager.getScanFilterIndex();
+        SparseIntArray legacyMatches = null;
+        SparseIntArray extendedMatches = null;
 
         for (ScanClient client : mScanManager.getRegularScanQueue()) {
             ScannerMap.App app = mScannerMap.getById(client.scannerId);
@@ -1956,32 +1963,25 @@ public class GattService extends ProfileService {
                 continue;
             }
 
-            BluetoothDevice device =
-                BluetoothAdapter.getDefaultAdapter().getRemoteLeDevice(address, addressType);
-
             ScanSettings settings = client.settings;
-            byte[] scanRecordData;
             // This is for compability with applications that assume fixed size scan data.
-            if (settings.getLegacy()) {
-                if ((eventType & ET_LEGACY_MASK) == 0) {
-                    // If this is legacy scan, but nonlegacy result - skip.
-                    if (VDBG) {
-                        Log.d(TAG, "Legacy scan, non legacy result; skip.");
-                    }
-                    continue;
-                } else {
-                    // Some apps are used to fixed-size advertise data.
-                    scanRecordData = legacyAdvData;
+            if (settings.getLegacy() && (eventType & ET_LEGACY_MASK) == 0) {
+                // If this is legacy scan, but nonlegacy result - skip.
+                if (VDBG) {
+                    Log.d(TAG, "Legacy scan, non legacy result; skip.");
                 }
-            } else {
-                scanRecordData = advData;
+                continue;
             }
 
-            ScanRecord scanRecord = ScanRecord.parseFromBytes(scanRecordData);
-            ScanResult result =
-                    new ScanResult(device, eventType, primaryPhy, secondaryPhy, advertisingSid,
-                            txPower, rssi, periodicAdvInt, scanRecord,
-                            SystemClock.elapsedRealtimeNanos());
+            if (sharedResult == null) {
+                BluetoothDevice device = BluetoothAdapter.getDefaultAdapter()
+                        .getRemoteLeDevice(address, addressType);
+                sharedResult = new SharedScanResult(device, eventType, primaryPhy, secondaryPhy,
+                        advertisingSid, txPower, rssi, periodicAdvInt, advData,
+                        SystemClock.elapsedRealtimeNanos());
+            }
+            boolean legacy = settings.getLegacy();
+            ScanResult result = sharedResult.getResult(legacy);
 
             if (client.hasDisavowedLocation) {
                 if (mLocationDenylistPredicate.test(result)) {
@@ -2006,7 +2006,25 @@ public class GattService extends ProfileService {
                     result = sanitized;
                 }
             }
-            MatchResult matchResult = matchesFilters(client, result, originalAddress);
+            MatchResult matchResult;
+            if (filterIndex.isIndexed(client) && result == sharedResult.getResult(legacy)) {
+                // Run the compiled filters once per view and share the outcome between clients.
+                SparseIntArray matches;
+                if (legacy) {
+                    if (legacyMatches == null) {
+                        legacyMatches = filterIndex.match(result, originalAddress);
+                    }
+                    matches = legacyMatches;
+                } else {
+                    if (extendedMatches == null) {
+                        extendedMatches = filterIndex.match(result, originalAddress);
+                    }
+                    matches = extendedMatches;
+                }
+                matchResult = toMatchResult(matches.get(client.scannerId));
+            } else {
+                matchResult = matchesFilters(client, result, originalAddress);
+            }
             if (!hasPermission || !matchResult.getMatches()) {
                 if (VDBG) {
                     Log.d(TAG, "Skipping client: permission="
@@ -2118,6 +2136,17 @@ public class GattService extends ProfileService {
         return client.hasLocationPermission && !Utils.blockedByLocationOff(this, client.userHandle);
     }
 
+    private static MatchResult toMatchResult(int indexMatch) {
+        switch (indexMatch) {
+            case ScanFilterIndex.MATCH:
+                return new MatchResult(true, MatchOrigin.PSEUDO_ADDRESS);
+            case ScanFilterIndex.MATCH_ORIGINAL_ADDRESS:
+                return new MatchResult(true, MatchOrigin.ORIGINAL_ADDRESS);
+            default:
+                return new MatchResult(false, MatchOrigin.PSEUDO_ADDRESS);
+        }
+    }
+
     // Check if a scan record matches a specific filters.
     private MatchResult matchesFilters(ScanClient client, ScanResult scanResult) {
         return matchesFilters(client, scanResult, null);
@@ -2709,61 +2738,125 @@ public class GattService extends ProfileService {
                     + ", reportType=" + reportType + ", numRecords=" + numRecords);
         }
 
-        Set<ScanResult> results = parseBatchScanResults(numRecords, reportType, recordData);
-        if (reportType == ScanManager.SCAN_RESULT_TYPE_TRUNCATED) {
+        // Each record is decoded once and handed to every client, which gets its results in
+        // chunks as they are decoded rather than after the whole report was parsed.
+        List<BatchScanDelivery> deliveries = new ArrayList<>();
+        boolean truncated = reportType == ScanManager.SCAN_RESULT_TYPE_TRUNCATED;
+        if (truncated) {
             // We only support single client for truncated mode.
             ScannerMap.App app = mScannerMap.getById(scannerId);
-            if (app == null) {
-                return;
+            ScanClient client = findBatchScanClientById(scannerId);
+            if (app != null && client != null) {
+                deliveries.add(new BatchScanDelivery(app, client, true));
             }
+        } else {
+            for (ScanClient client : mScanManager.getFullBatchScanQueue()) {
+                ScannerMap.App app = mScannerMap.getById(client.scannerId);
+                if (app != null) {
+                    deliveries.add(new BatchScanDelivery(app, client, false));
+                }
+            }
+        }
 
-            ScanClient client = findBatchScanClientById(scannerId);
-            if (client == null) {
-                return;
+        if (numRecords > 0 && !deliveries.isEmpty()) {
+            BatchScanReportReader reader = new BatchScanReportReader(truncated, numRecords,
+                    recordData, SystemClock.elapsedRealtimeNanos());
+            while (reader.hasNext()) {
+                ScanResult result = reader.next();
+                boolean delivering = false;
+                for (BatchScanDelivery delivery : deliveries) {
+                    delivering |= delivery.offer(result);
+                }
+                if (!delivering) {
+                    break;
+                }
             }
+        }
+        for (BatchScanDelivery delivery : deliveries) {
+            delivery.finish();
+        }
+        mScanManager.callbackDone(scannerId, status);
+    }
 
-            ArrayList<ScanResult> permittedResults;
+    /**
+     * Batch scan results of one client, sent in chunks of at most {@link #BATCH_SCAN_CHUNK_BYTES}
+     * estimated bytes to stay well below the binder transaction limit.
+     */
+    private class BatchScanDelivery {
+        private final ScannerMap.App mApp;
+        private final ScanClient mClient;
+        // Truncated results have no advertising data to match the filters against, and are the
+        // only ones checked against the location denylist
+        private final boolean mTruncated;
+        // Upper case addresses the client may get results of, or null for all of them
+        private final Set<String> mPermittedAddresses;
+        private ArrayList<ScanResult> mChunk = new ArrayList<>();
+        private int mChunkBytes;
+        private boolean mHasPermittedResults;
+        private boolean mSent;
+        private boolean mFailed;
+
+        BatchScanDelivery(ScannerMap.App app, ScanClient client, boolean truncated) {
+            mApp = app;
+            mClient = client;
+            mTruncated = truncated;
             if (hasScanResultPermission(client)) {
-                permittedResults = new ArrayList<ScanResult>(results);
+                mPermittedAddresses = null;
+                // Clients with permission are always answered, even with no result
+                mHasPermittedResults = true;
             } else {
-                permittedResults = new ArrayList<ScanResult>();
-                for (ScanResult scanResult : results) {
-                    for (String associatedDevice : client.associatedDevices) {
-                        if (associatedDevice.equalsIgnoreCase(scanResult.getDevice()
-                                    .getAddress())) {
-                            permittedResults.add(scanResult);
-                        }
-                    }
-                }
-                if (permittedResults.isEmpty()) {
-                    return;
+                mPermittedAddresses = new HashSet<>();
+                for (String associatedDevice : client.associatedDevices) {
+                    mPermittedAddresses.add(associatedDevice.toUpperCase(Locale.ROOT));
                 }
             }
+        }
 
-            if (client.hasDisavowedLocation) {
-                permittedResults.removeIf(mLocationDenylistPredicate);
+        /** Returns whether the client still takes results. */
+        boolean offer(ScanResult result) {
+            if (mFailed) {
+                return false;
             }
-
-            if (app.callback != null) {
-                app.callback.onBatchScanResults(permittedResults);
-            } else {
-                // PendingIntent based
-                try {
-                    sendResultsByPendingIntent(app.info, permittedResults,
-                            ScanSettings.CALLBACK_TYPE_ALL_MATCHES);
-                } catch (PendingIntent.CanceledException e) {
+            if (mPermittedAddresses != null) {
+                if (!mPermittedAddresses.contains(result.getDevice().getAddress())) {
+                    return true;
                 }
+                mHasPermittedResults = true;
             }
-        } else {
-            for (ScanClient client : mScanManager.getFullBatchScanQueue()) {
-                // Deliver results for each client.
-                deliverBatchScan(client, results);
+            if (mTruncated && mClient.hasDisavowedLocation
+                    && mLocationDenylistPredicate.test(result)) {
+                return true;
             }
+            if (!mTruncated && !matchesFilters(mClient, result).getMatches()) {
+                return true;
+            }
+            mChunk.add(result);
+            ScanRecord scanRecord = result.getScanRecord();
+            mChunkBytes += BATCH_SCAN_RESULT_OVERHEAD_BYTES
+                    + (scanRecord == null ? 0 : scanRecord.getBytes().length);
+            if (mChunkBytes >= BATCH_SCAN_CHUNK_BYTES) {
+                send();
+            }
+            return !mFailed;
+        }
+
+        void finish() {
+            if (!mFailed && (!mChunk.isEmpty() || (!mSent && mHasPermittedResults))) {
+                send();
+            }
+        }
+
+        private void send() {
+            ArrayList<ScanResult> chunk = mChunk;
+            mChunk = new ArrayList<>();
+            mChunkBytes = 0;
+            mSent = true;
+            mFailed = !sendBatchScanResults(mApp, mClient, chunk);
         }
-        mScanManager.callbackDone(scannerId, status);
     }
 
-    private void sendBatchScanResults(ScannerMap.App app, ScanClient client,
+    /** Returns false if the client could not be reached and was removed. */
+    private boolean sendBatchScanResults(ScannerMap.App app, ScanClient client,
             ArrayList<ScanResult> results) {
         try {
             if (app.callback != null) {
@@ -2789,146 +2882,14 @@ public class GattService extends ProfileService {
             Log.e(TAG, "Exception: " + e);
             mScannerMap.remove(client.scannerId);
             mScanManager.stopScan(client.scannerId);
+            return false;
         }
-    }
-
-    // Check and deliver scan results for different scan clients.
-    private void deliverBatchScan(ScanClient client, Set<ScanResult> allResults)
-            throws RemoteException {
-        ScannerMap.App app = mScannerMap.getById(client.scannerId);
-        if (app == null) {
-            return;
-        }
-
-        ArrayList<ScanResult> permittedResults;
-        if (hasScanResultPermission(client)) {
-            permittedResults = new ArrayList<ScanResult>(allResults);
-        } else {
-            permittedResults = new ArrayList<ScanResult>();
-            for (ScanResult scanResult : allResults) {
-                for (String associatedDevice : client.associatedDevices) {
-                    if (associatedDevice.equalsIgnoreCase(scanResult.getDevice().getAddress())) {
-                        permittedResults.add(scanResult);
-                    }
-                }
-            }
-            if (permittedResults.isEmpty()) {
-                return;
-            }
-        }
-
-        if (client.filters == null || client.filters.isEmpty()) {
-            sendBatchScanResults(app, client, permittedResults);
-            // TODO: Question to reviewer: Shouldn't there be a return here?
-        }
-        // Reconstruct the scan results.
-        ArrayList<ScanResult> results = new ArrayList<ScanResult>();
-        for (ScanResult scanResult : permittedResults) {
-            if (matchesFilters(client, scanResult).getMatches()) {
-                results.add(scanResult);
-            }
-        }
-        sendBatchScanResults(app, client, results);
-    }
-
-    private Set<ScanResult> parseBatchScanResults(int numRecords, int reportType,
-            byte[] batchRecord) {
-        if (numRecords == 0) {
-            return Collections.emptySet();
-        }
-        if (DBG) {
-            Log.d(TAG, "current time is " + SystemClock.elapsedRealtimeNanos());
-        }
-        if (reportType == ScanManager.SCAN_RESULT_TYPE_TRUNCATED) {
-            return parseTruncatedResults(numRecords, batchRecord);
-        } else {
-            return parseFullResults(numRecords, batchRecord);
-        }
-    }
-
-    private Set<ScanResult> parseTruncatedResults(int numRecords, byte[] batchRecord) {
-        if (DBG) {
-            Log.d(TAG, "batch record " + Arrays.toString(batchRecord));
-        }
-        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
-        long now = SystemClock.elapsedRealtimeNanos();
-        for (int i = 0; i < numRecords; ++i) {
-            byte[] record =
-                    extractBytes(batchRecord, i * TRUNCATED_RESULT_SIZE, TRUNCATED_RESULT_SIZE);
-            byte[] address = extractBytes(record, 0, 6);
-            reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-            int rssi = record[8];
-            long timestampNanos = now - parseTimestampNanos(extractBytes(record, 9, 2));
-            results.add(new ScanResult(device, ScanRecord.parseFromBytes(new byte[0]), rssi,
-                    timestampNanos));
-        }
-        return results;
+        return true;
     }
 
     @VisibleForTesting
     long parseTimestampNanos(byte[] data) {
-        long timestampUnit = NumberUtils.littleEndianByteArrayToInt(data);
-        // Timestamp is in every 50 ms.
-        return TimeUnit.MILLISECONDS.toNanos(timestampUnit * 50);
-    }
-
-    private Set<ScanResult> parseFullResults(int numRecords, byte[] batchRecord) {
-        if (DBG) {
-            Log.d(TAG, "Batch record : " + Arrays.toString(batchRecord));
-        }
-        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
-        int position = 0;
-        long now = SystemClock.elapsedRealtimeNanos();
-        while (position < batchRecord.length) {
-            byte[] address = extractBytes(batchRecord, position, 6);
-            // TODO: remove temp hack.
-            reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-            position += 6;
-            // Skip address type.
-            position++;
-            // Skip tx power level.
-            position++;
-            int rssi = batchRecord[position++];
-            long timestampNanos = now - parseTimestampNanos(extractBytes(batchRecord, position, 2));
-            position += 2;
-
-            // Combine advertise packet and scan response packet.
-            int advertisePacketLen = batchRecord[position++];
-            byte[] advertiseBytes = extractBytes(batchRecord, position, advertisePacketLen);
-            position += advertisePacketLen;
-            int scanResponsePacketLen = batchRecord[position++];
-            byte[] scanResponseBytes = extractBytes(batchRecord, position, scanResponsePacketLen);
-            position += scanResponsePacketLen;
-            byte[] scanRecord = new byte[advertisePacketLen + scanResponsePacketLen];
-            System.arraycopy(advertiseBytes, 0, scanRecord, 0, advertisePacketLen);
-            System.arraycopy(scanResponseBytes, 0, scanRecord, advertisePacketLen,
-                    scanResponsePacketLen);
-            if (DBG) {
-                Log.d(TAG, "ScanRecord : " + Arrays.toString(scanRecord));
-            }
-            results.add(new ScanResult(device, ScanRecord.parseFromBytes(scanRecord), rssi,
-                    timestampNanos));
-        }
-        return results;
-    }
-
-    // Reverse byte array.
-    private void reverse(byte[] address) {
-        int len = address.length;
-        for (int i = 0; i < len / 2; ++i) {
-            byte b = address[i];
-            address[i] = address[len - 1 - i];
-            address[len - 1 - i] = b;
-        }
-    }
-
-    // Helper method to extract bytes from byte array.
-    private static byte[] extractBytes(byte[] scanRecord, int start, int length) {
-        byte[] bytes = new byte[length];
-        System.arraycopy(scanRecord, start, bytes, 0, length);
-        return bytes;
+        return BatchScanReportReader.parseTimestampNanos(data, 0);
     }
 
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_SCAN)
@@ -4972,6 +4933,16 @@ public class GattService extends ProfileService {
         sb.append("GATT Advertiser Map\n");
         mAdvertiserMap.dumpAdvertiser(sb);
 
+        if (mScanManager != null) {
+            sb.append("GATT Scan Manager\n");
+            mScanManager.dump(sb);
+        }
+
+        if (mPeriodicScanManager != null) {
+            sb.append("GATT Periodic Scan Manager\n");
+            mPeriodicScanManager.dump(sb);
+        }
+
         sb.append("GATT Client Map\n");
         mClientMap.dump(sb);
 
@@ -25,15 +25,20 @@ import android.bluetooth.le.ScanResult;
 import android.os.IBinder;
 import android.os.IInterface;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages Bluetooth LE Periodic scans
@@ -47,10 +52,15 @@ public class PeriodicScanManager {
 
     private final BluetoothAdapter mAdapter;
     Map<IBinder, SyncInfo> mSyncs = new ConcurrentHashMap<>();
+    // Index of mSyncs by sync handle (or registration id while the sync is pending), rebuilt
+    // whenever mSyncs changes so the report callbacks can look up their syncs without iterating
+    // or allocating. Never modified once published.
+    private volatile SparseArray<SyncHandleInfo> mSyncsByHandle = new SparseArray<>();
     Map<IBinder, SyncTransferInfo> mSyncTransfers = Collections.synchronizedMap(new HashMap<>());
     static int sTempRegistrationId = -1;
     private static final int PA_SOURCE_LOCAL = 1;
     private static final int PA_SOURCE_REMOTE = 2;
+    private static final SyncInfo[] NO_SYNCS = new SyncInfo[0];
     /**
      * Constructor of {@link SyncManager}.
      */
@@ -70,7 +80,10 @@ public class PeriodicScanManager {
             Log.d(TAG, "cleanup()");
         }
         cleanupNative();
-        mSyncs.clear();
+        synchronized (mSyncs) {
+            mSyncs.clear();
+            updateSyncIndex();
+        }
         sTempRegistrationId = -1;
     }
 
@@ -109,6 +122,54 @@ public class PeriodicScanManager {
         }
     }
 
+    /** Syncs sharing a sync handle, and the periodic advertising reports received for them. */
+    static class SyncHandleInfo {
+        final SyncInfo[] syncs;
+        final AtomicLong reportCount;
+        final long indexedAtMs;
+
+        SyncHandleInfo(SyncInfo[] syncs, AtomicLong reportCount, long indexedAtMs) {
+            this.syncs = syncs;
+            this.reportCount = reportCount;
+            this.indexedAtMs = indexedAtMs;
+        }
+    }
+
+    /**
+     * Rebuild {@link #mSyncsByHandle} from {@link #mSyncs}, keeping the report counters of the
+     * sync handles still in use. Caller must hold {@link #mSyncs}.
+     */
+    private void updateSyncIndex() {
+        SparseArray<List<SyncInfo>> syncsByHandle = new SparseArray<>();
+        for (SyncInfo sync : mSyncs.values()) {
+            List<SyncInfo> syncs = syncsByHandle.get(sync.id);
+            if (syncs == null) {
+                syncs = new ArrayList<>();
+                syncsByHandle.put(sync.id, syncs);
+            }
+            syncs.add(sync);
+        }
+
+        SparseArray<SyncHandleInfo> previous = mSyncsByHandle;
+        SparseArray<SyncHandleInfo> index = new SparseArray<>(syncsByHandle.size());
+        for (int i = 0; i < syncsByHandle.size(); i++) {
+            int handle = syncsByHandle.keyAt(i);
+            SyncInfo[] syncs = syncsByHandle.valueAt(i).toArray(new SyncInfo[0]);
+            SyncHandleInfo info = previous.get(handle);
+            index.put(handle, info != null
+                    ? new SyncHandleInfo(syncs, info.reportCount, info.indexedAtMs)
+                    : new SyncHandleInfo(syncs, new AtomicLong(), SystemClock.elapsedRealtime()));
+        }
+        mSyncsByHandle = index;
+    }
+
+    /** Returns the syncs of a sync handle or registration id. The array must not be modified. */
+    @VisibleForTesting
+    SyncInfo[] getSyncs(int syncHandle) {
+        SyncHandleInfo info = mSyncsByHandle.get(syncHandle);
+        return info != null ? info.syncs : NO_SYNCS;
+    }
+
     Map.Entry<IBinder, SyncTransferInfo> findSyncTransfer(String address) {
         Map.Entry<IBinder, SyncTransferInfo> entry = null;
         for (Map.Entry<IBinder, SyncTransferInfo> e : mSyncTransfers.entrySet()) {
@@ -161,23 +222,6 @@ public class PeriodicScanManager {
         return entry;
     }
 
-    Map<IBinder, SyncInfo> findAllSync(int syncHandle) {
-        Map<IBinder, SyncInfo> syncMap = new HashMap<IBinder, SyncInfo>();
-        for (Map.Entry<IBinder, SyncInfo> e : mSyncs.entrySet()) {
-            if (e.getValue().id != syncHandle) {
-                continue;
-            }
-            syncMap.put(e.getKey(), new SyncInfo(e.getValue().id,
-                                                 e.getValue().advSid,
-                                                 e.getValue().address,
-                                                 e.getValue().skip,
-                                                 e.getValue().timeout,
-                                                 e.getValue().deathRecipient,
-                                                 e.getValue().callback));
-        }
-        return syncMap;
-    }
-
     void onSyncStarted(int regId, int syncHandle, int sid, int addressType, String address, int phy,
             int interval, int status) throws Exception {
         if (DBG) {
@@ -185,8 +229,7 @@ public class PeriodicScanManager {
                     "onSyncStarted() - regId=" + regId + ", syncHandle=" + syncHandle + ", status="
                             + status);
         }
-        Map<IBinder, SyncInfo> syncMap = findAllSync(regId);
-        if (syncMap.size() == 0) {
+        if (getSyncs(regId).length == 0) {
             Log.d(TAG, "onSyncStarted() - no callback found for regId " + regId);
             stopSyncNative(syncHandle);
             return;
@@ -203,18 +246,28 @@ public class PeriodicScanManager {
                     e.setValue(new SyncInfo(syncHandle, sid, address, e.getValue().skip,
                                             e.getValue().timeout, e.getValue().deathRecipient,
                                             callback));
-                    callback.onSyncEstablished(syncHandle, mAdapter.getRemoteDevice(address),
-                                               sid, e.getValue().skip, e.getValue().timeout,
-                                               status);
+                    notifySyncEstablished(callback, syncHandle, sid, address, e.getValue(),
+                            status);
                 } else {
-                    callback.onSyncEstablished(syncHandle, mAdapter.getRemoteDevice(address),
-                                               sid, e.getValue().skip, e.getValue().timeout,
-                                               status);
+                    notifySyncEstablished(callback, syncHandle, sid, address, e.getValue(),
+                            status);
                     IBinder binder = e.getKey();
                     binder.unlinkToDeath(e.getValue().deathRecipient, 0);
                     mSyncs.remove(binder);
                 }
             }
+            updateSyncIndex();
+        }
+    }
+
+    // A dead client must not keep the sync index from being updated for the others
+    private void notifySyncEstablished(IPeriodicAdvertisingCallback callback, int syncHandle,
+            int sid, String address, SyncInfo sync, int status) {
+        try {
+            callback.onSyncEstablished(syncHandle, mAdapter.getRemoteDevice(address), sid,
+                    sync.skip, sync.timeout, status);
+        } catch (RemoteException e) {
+            Log.e(TAG, "onSyncStarted() - failed to callback: " + e);
         }
     }
 
@@ -224,17 +277,17 @@ public class PeriodicScanManager {
             Log.d(TAG, "onSyncReport() - syncHandle=" + syncHandle);
         }
 
-        Map<IBinder, SyncInfo> syncMap = findAllSync(syncHandle);
-        if (syncMap.isEmpty()) {
+        SyncHandleInfo info = mSyncsByHandle.get(syncHandle);
+        if (info == null) {
             Log.i(TAG, "onSyncReport() - no callback found for syncHandle " + syncHandle);
             return;
         }
-        for (Map.Entry<IBinder, SyncInfo> e :syncMap.entrySet()) {
-            IPeriodicAdvertisingCallback callback = e.getValue().callback;
-            PeriodicAdvertisingReport report =
-                    new PeriodicAdvertisingReport(syncHandle, txPower, rssi, dataStatus,
-                            ScanRecord.parseFromBytes(data));
-            callback.onPeriodicAdvertisingReport(report);
+        info.reportCount.incrementAndGet();
+        // Reports are immutable, so all the callbacks synced to the same train share one
+        PeriodicAdvertisingReport report = new PeriodicAdvertisingReport(syncHandle, txPower,
+                rssi, dataStatus, ScanRecord.parseFromBytes(data));
+        for (SyncInfo sync : info.syncs) {
+            sync.callback.onPeriodicAdvertisingReport(report);
         }
     }
 
@@ -242,19 +295,19 @@ public class PeriodicScanManager {
         if (DBG) {
             Log.d(TAG, "onSyncLost() - syncHandle=" + syncHandle);
         }
-        Map<IBinder, SyncInfo> syncMap = findAllSync(syncHandle);
-        if (syncMap.isEmpty()) {
+        SyncInfo[] syncs = getSyncs(syncHandle);
+        if (syncs.length == 0) {
             Log.i(TAG, "onSyncLost() - no callback found for syncHandle " + syncHandle);
             return;
         }
-        for (Map.Entry<IBinder, SyncInfo> e :syncMap.entrySet()) {
-            IPeriodicAdvertisingCallback callback = e.getValue().callback;
-            IBinder binder = toBinder(callback);
-            synchronized (mSyncs) {
-                mSyncs.remove(binder);
+        synchronized (mSyncs) {
+            for (SyncInfo sync : syncs) {
+                mSyncs.remove(toBinder(sync.callback));
             }
-            callback.onSyncLost(syncHandle);
-
+            updateSyncIndex();
+        }
+        for (SyncInfo sync : syncs) {
+            sync.callback.onSyncLost(syncHandle);
         }
     }
 
@@ -264,14 +317,13 @@ public class PeriodicScanManager {
             Log.d(TAG, "onBigInfoReport() - syncHandle=" + syncHandle +
                     " , encrypted=" + encrypted);
         }
-        Map<IBinder, SyncInfo> syncMap = findAllSync(syncHandle);
-        if (syncMap.isEmpty()) {
+        SyncInfo[] syncs = getSyncs(syncHandle);
+        if (syncs.length == 0) {
             Log.i(TAG, "onBigInfoReport() - no callback found for syncHandle " + syncHandle);
             return;
         }
-        for (Map.Entry<IBinder, SyncInfo> e : syncMap.entrySet()) {
-            IPeriodicAdvertisingCallback callback = e.getValue().callback;
-            callback.onBigInfoAdvertisingReport(syncHandle, encrypted);
+        for (SyncInfo sync : syncs) {
+            sync.callback.onBigInfoAdvertisingReport(syncHandle, encrypted);
         }
     }
 
@@ -300,6 +352,7 @@ public class PeriodicScanManager {
                 mSyncs.put(binder, new SyncInfo(entry.getValue().id, sid, address,
                         entry.getValue().skip, entry.getValue().timeout, deathRecipient,
                         callback));
+                updateSyncIndex();
                 if (entry.getValue().id >= 0) {
                     try {
                         callback.onSyncEstablished(entry.getValue().id,
@@ -317,8 +370,11 @@ public class PeriodicScanManager {
         }
 
         int cbId = --sTempRegistrationId;
-        mSyncs.put(binder, new SyncInfo(cbId, sid, address, skip, timeout,
-                deathRecipient, callback));
+        synchronized (mSyncs) {
+            mSyncs.put(binder, new SyncInfo(cbId, sid, address, skip, timeout,
+                    deathRecipient, callback));
+            updateSyncIndex();
+        }
 
         if (DBG) {
             Log.d(TAG, "startSync() - reg_id=" + cbId + ", callback: " + binder);
@@ -334,6 +390,7 @@ public class PeriodicScanManager {
         SyncInfo sync = null;
         synchronized (mSyncs) {
             sync = mSyncs.remove(binder);
+            updateSyncIndex();
         }
         if (sync == null) {
             Log.e(TAG, "stopSync() - no client found for callback");
@@ -403,6 +460,24 @@ public class PeriodicScanManager {
         transferSetInfoNative(PA_SOURCE_LOCAL, bda.getAddress(), serviceData, advHandle);
     }
 
+    void dump(StringBuilder sb) {
+        SparseArray<SyncHandleInfo> syncsByHandle = mSyncsByHandle;
+        long now = SystemClock.elapsedRealtime();
+        sb.append("  Periodic syncs: " + syncsByHandle.size() + "\n");
+        for (int i = 0; i < syncsByHandle.size(); i++) {
+            SyncHandleInfo info = syncsByHandle.valueAt(i);
+            SyncInfo sync = info.syncs[0];
+            long reports = info.reportCount.get();
+            long elapsedMs = Math.max(now - info.indexedAtMs, 1);
+            sb.append("    handle: " + syncsByHandle.keyAt(i)
+                    + ", address: " + sync.address
+                    + ", sid: " + sync.advSid
+                    + ", callbacks: " + info.syncs.length
+                    + ", reports: " + reports
+                    + String.format(", reports/s: %.1f", reports * 1000.0 / elapsedMs) + "\n");
+        }
+    }
+
     static {
         classInitNative();
     }
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable index over the {@link ScanFilter}s of a set of {@link ScanClient}s.
+ *
+ * <p>Each filter is filed under the most selective exact key it carries: device address,
+ * manufacturer id, service data UUID, service UUID or service solicitation UUID (UUID keys are
+ * only used when the filter has no UUID mask). The keys of an advertisement are extracted once,
+ * and only the filters filed under one of them, plus the filters with no usable key, are verified
+ * with {@link ScanFilter#matches}. 16 and 32-bit UUIDs are expanded to 128-bit ones by
+ * {@link ScanRecord} so a single map covers all three sizes.
+ *
+ * <p>Instances are rebuilt by {@link ScanManager} whenever the regular scan queue changes and
+ * can be read from any thread.
+ */
+class ScanFilterIndex {
+    /** The advertisement matched one of the client filters. */
+    static final int MATCH = 1;
+    /** The advertisement only matched the device address of a filter via its original address. */
+    static final int MATCH_ORIGINAL_ADDRESS = 2;
+
+    static final ScanFilterIndex EMPTY = new ScanFilterIndex(Collections.emptyList());
+
+    private static class Entry {
+        final ScanClient mClient;
+        final ScanFilter mFilter;
+        // Position of the filter in the filters of the client
+        final int mPosition;
+
+        Entry(ScanClient client, ScanFilter filter, int position) {
+            mClient = client;
+            mFilter = filter;
+            mPosition = position;
+        }
+    }
+
+    private final Set<ScanClient> mIndexedClients =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<String, List<Entry>> mByAddress = new HashMap<>();
+    private final SparseArray<List<Entry>> mByManufacturerId = new SparseArray<>();
+    private final Map<ParcelUuid, List<Entry>> mByServiceDataUuid = new HashMap<>();
+    private final Map<ParcelUuid, List<Entry>> mByServiceUuid = new HashMap<>();
+    private final Map<ParcelUuid, List<Entry>> mBySolicitationUuid = new HashMap<>();
+    private final List<Entry> mUnkeyed = new ArrayList<>();
+    private int mFilterCount;
+
+    private ScanFilterIndex(Collection<ScanClient> clients) {
+        for (ScanClient client : clients) {
+            // Clients without filters match everything and need no index.
+            if (client.filters == null || client.filters.isEmpty()) {
+                continue;
+            }
+            mIndexedClients.add(client);
+            for (int i = 0; i < client.filters.size(); i++) {
+                addFilter(new Entry(client, client.filters.get(i), i));
+            }
+        }
+    }
+
+    /** Compiles the filters of {@code clients} into a new index. */
+    static ScanFilterIndex build(Collection<ScanClient> clients) {
+        return new ScanFilterIndex(clients);
+    }
+
+    /**
+     * Returns whether the filters of this exact {@link ScanClient} instance are part of the index.
+     * Clients that are not indexed have to be matched by the caller.
+     */
+    boolean isIndexed(ScanClient client) {
+        return mIndexedClients.contains(client);
+    }
+
+    /** Returns the number of compiled filters. */
+    int getFilterCount() {
+        return mFilterCount;
+    }
+
+    /** Returns the number of filters that could not be keyed and are checked for every report. */
+    @VisibleForTesting
+    int getUnkeyedFilterCount() {
+        return mUnkeyed.size();
+    }
+
+    /**
+     * Finds every indexed client with a filter matching {@code result}. Like matching the
+     * filters of a client in order, the first filter of the client that matches decides how.
+     *
+     * @param originalAddress the identity address of the advertiser, or null if unknown
+     * @return scanner ids mapped to {@link #MATCH} or {@link #MATCH_ORIGINAL_ADDRESS}; clients
+     *     without a match are absent
+     */
+    SparseIntArray match(ScanResult result, String originalAddress) {
+        SparseIntArray matches = new SparseIntArray();
+        if (mFilterCount == 0) {
+            return matches;
+        }
+        // Position of the filter each match in matches comes from
+        SparseIntArray positions = new SparseIntArray();
+
+        BluetoothDevice device = result.getDevice();
+        if (device != null) {
+            verify(mByAddress.get(device.getAddress().toUpperCase()), result, null, matches,
+                    positions);
+        }
+        if (originalAddress != null) {
+            verify(mByAddress.get(originalAddress.toUpperCase()), result, originalAddress,
+                    matches, positions);
+        }
+
+        ScanRecord record = result.getScanRecord();
+        if (record != null) {
+            if (mByManufacturerId.size() > 0) {
+                SparseArray<byte[]> manufacturerData = record.getManufacturerSpecificData();
+                if (manufacturerData != null) {
+                    for (int i = 0; i < manufacturerData.size(); i++) {
+                        verify(mByManufacturerId.get(manufacturerData.keyAt(i)), result, null,
+                                matches, positions);
+                    }
+                }
+            }
+            if (!mByServiceDataUuid.isEmpty() && record.getServiceData() != null) {
+                for (ParcelUuid uuid : record.getServiceData().keySet()) {
+                    verify(mByServiceDataUuid.get(uuid), result, null, matches, positions);
+                }
+            }
+            verifyUuids(mByServiceUuid, record.getServiceUuids(), result, matches, positions);
+            verifyUuids(mBySolicitationUuid, record.getServiceSolicitationUuids(), result,
+                    matches, positions);
+        }
+
+        verify(mUnkeyed, result, null, matches, positions);
+        return matches;
+    }
+
+    private void addFilter(Entry entry) {
+        ScanFilter filter = entry.mFilter;
+        mFilterCount++;
+        if (filter.getDeviceAddress() != null) {
+            addTo(mByAddress, filter.getDeviceAddress().toUpperCase(), entry);
+        } else if (filter.getManufacturerId() >= 0) {
+            List<Entry> entries = mByManufacturerId.get(filter.getManufacturerId());
+            if (entries == null) {
+                entries = new ArrayList<>();
+                mByManufacturerId.put(filter.getManufacturerId(), entries);
+            }
+            entries.add(entry);
+        } else if (filter.getServiceDataUuid() != null) {
+            addTo(mByServiceDataUuid, filter.getServiceDataUuid(), entry);
+        } else if (filter.getServiceUuid() != null && filter.getServiceUuidMask() == null) {
+            addTo(mByServiceUuid, filter.getServiceUuid(), entry);
+        } else if (filter.getServiceSolicitationUuid() != null
+                && filter.getServiceSolicitationUuidMask() == null) {
+            addTo(mBySolicitationUuid, filter.getServiceSolicitationUuid(), entry);
+        } else {
+            mUnkeyed.add(entry);
+        }
+    }
+
+    private static <K> void addTo(Map<K, List<Entry>> map, K key, Entry entry) {
+        List<Entry> entries = map.get(key);
+        if (entries == null) {
+            entries = new ArrayList<>();
+            map.put(key, entries);
+        }
+        entries.add(entry);
+    }
+
+    private static void verifyUuids(Map<ParcelUuid, List<Entry>> index, List<ParcelUuid> uuids,
+            ScanResult result, SparseIntArray matches, SparseIntArray positions) {
+        if (index.isEmpty() || uuids == null) {
+            return;
+        }
+        for (ParcelUuid uuid : uuids) {
+            verify(index.get(uuid), result, null, matches, positions);
+        }
+    }
+
+    private static void verify(List<Entry> entries, ScanResult result, String originalAddress,
+            SparseIntArray matches, SparseIntArray positions) {
+        if (entries == null) {
+            return;
+        }
+        for (Entry entry : entries) {
+            int scannerId = entry.mClient.scannerId;
+            if (matches.get(scannerId) != 0 && positions.get(scannerId) <= entry.mPosition) {
+                // An earlier filter of the client already matched
+                continue;
+            }
+            int match = 0;
+            if (entry.mFilter.matches(result)) {
+                match = MATCH;
+            } else if (originalAddress != null
+                    && originalAddress.equalsIgnoreCase(entry.mFilter.getDeviceAddress())) {
+                match = MATCH_ORIGINAL_ADDRESS;
+            }
+            if (match != 0) {
+                matches.put(scannerId, match);
+                positions.put(scannerId, entry.mPosition);
+            }
+        }
+    }
+}
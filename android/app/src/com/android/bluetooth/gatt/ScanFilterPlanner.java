@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.ScanFilter;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Allocation of the offloaded (APCF) scan filter indices to the {@link ScanFilter}s of the scan
+ * clients.
+ *
+ * <p>Shareable filters, i.e. filters of clients whose results are delivered immediately and
+ * matched again in software against every client, take one controller entry per distinct filter
+ * no matter how many clients use it. When the exact filters of a client do not fit in the free
+ * entries anymore, its shareable filters are widened by dropping their manufacturer and service
+ * data patterns, so that e.g. the same manufacturer id with different data masks takes a single
+ * entry instead of falling back to the ALL_PASS filter. Other filters get an entry of their own.
+ *
+ * <p>The planner only does the bookkeeping, programming the controller is left to the caller.
+ */
+class ScanFilterPlanner {
+    /** An offloaded filter index the filters of a client were mapped to. */
+    static final class Assignment {
+        final int filterIndex;
+        final ScanFilter filter;
+        /** Whether the filter is not programmed in the controller yet. */
+        final boolean isNew;
+
+        Assignment(int filterIndex, ScanFilter filter, boolean isNew) {
+            this.filterIndex = filterIndex;
+            this.filter = filter;
+            this.isNew = isNew;
+        }
+    }
+
+    private static final class Slot {
+        final int mFilterIndex;
+        final ScanFilter mFilter;
+        final boolean mShared;
+        final boolean mWidened;
+        final Set<Integer> mScannerIds = new HashSet<>();
+
+        Slot(int filterIndex, ScanFilter filter, boolean shared, boolean widened) {
+            mFilterIndex = filterIndex;
+            mFilter = filter;
+            mShared = shared;
+            mWidened = widened;
+        }
+    }
+
+    @GuardedBy("this")
+    private final Deque<Integer> mFreeIndices = new ArrayDeque<>();
+    @GuardedBy("this")
+    private final Map<Integer, Slot> mSlotsByIndex = new TreeMap<>();
+    @GuardedBy("this")
+    private final Map<ScanFilter, Slot> mSharedSlots = new HashMap<>();
+    @GuardedBy("this")
+    private final Map<Integer, List<Slot>> mClientSlots = new HashMap<>();
+    @GuardedBy("this")
+    private int mCapacity;
+    @GuardedBy("this")
+    private int mWidenedClientCount;
+    @GuardedBy("this")
+    private int mAllPassFallbackCount;
+
+    /**
+     * Make the indices in [{@code firstIndex}, {@code maxFilters}) available, unless there
+     * already are indices to allocate from.
+     */
+    synchronized void init(int firstIndex, int maxFilters) {
+        if (!mFreeIndices.isEmpty() || !mSlotsByIndex.isEmpty()) {
+            return;
+        }
+        for (int i = firstIndex; i < maxFilters; ++i) {
+            mFreeIndices.add(i);
+        }
+        mCapacity = mFreeIndices.size();
+    }
+
+    /**
+     * Map the filters of a client to offloaded filter indices. The client must not hold any
+     * filter index, see {@link #release}.
+     *
+     * @param shareable whether the filters may share controller entries with other clients
+     * @return the filter indices of the client, or null if the filters do not fit and the
+     *     ALL_PASS filter must be used instead
+     */
+    synchronized List<Assignment> acquire(int scannerId, List<ScanFilter> filters,
+            boolean shareable) {
+        if (filters == null || filters.isEmpty()) {
+            return null;
+        }
+        // Filters of other clients get one entry per filter, as they are configured per client
+        Collection<ScanFilter> distinct = shareable ? new LinkedHashSet<>(filters) : filters;
+        Set<ScanFilter> widened = Collections.emptySet();
+        if (shareable && countNewSlots(distinct, true) > mFreeIndices.size()) {
+            Set<ScanFilter> widenedFilters = new LinkedHashSet<>();
+            widened = new HashSet<>();
+            for (ScanFilter filter : distinct) {
+                ScanFilter widenedFilter = widen(filter);
+                widenedFilters.add(widenedFilter);
+                if (widenedFilter != filter) {
+                    widened.add(widenedFilter);
+                }
+            }
+            distinct = widenedFilters;
+        }
+        if (countNewSlots(distinct, shareable) > mFreeIndices.size()) {
+            mAllPassFallbackCount++;
+            return null;
+        }
+        if (!widened.isEmpty()) {
+            mWidenedClientCount++;
+        }
+
+        List<Assignment> assignments = new ArrayList<>();
+        List<Slot> clientSlots = new ArrayList<>();
+        for (ScanFilter filter : distinct) {
+            Slot slot = shareable ? mSharedSlots.get(filter) : null;
+            boolean isNew = slot == null;
+            if (isNew) {
+                slot = new Slot(mFreeIndices.pop(), filter, shareable, widened.contains(filter));
+                mSlotsByIndex.put(slot.mFilterIndex, slot);
+                if (shareable) {
+                    mSharedSlots.put(filter, slot);
+                }
+            }
+            slot.mScannerIds.add(scannerId);
+            clientSlots.add(slot);
+            assignments.add(new Assignment(slot.mFilterIndex, filter, isNew));
+        }
+        mClientSlots.put(scannerId, clientSlots);
+        return assignments;
+    }
+
+    /**
+     * Release the filter indices of a client.
+     *
+     * @return the filter indices no other client uses anymore, to be removed from the controller
+     */
+    synchronized List<Integer> release(int scannerId) {
+        List<Slot> clientSlots = mClientSlots.remove(scannerId);
+        if (clientSlots == null) {
+            return Collections.emptyList();
+        }
+        List<Integer> freed = new ArrayList<>();
+        for (Slot slot : clientSlots) {
+            slot.mScannerIds.remove(scannerId);
+            if (!slot.mScannerIds.isEmpty()) {
+                continue;
+            }
+            mSlotsByIndex.remove(slot.mFilterIndex);
+            if (slot.mShared) {
+                mSharedSlots.remove(slot.mFilter);
+            }
+            mFreeIndices.push(slot.mFilterIndex);
+            freed.add(slot.mFilterIndex);
+        }
+        return freed;
+    }
+
+    @VisibleForTesting
+    synchronized int getFreeCount() {
+        return mFreeIndices.size();
+    }
+
+    @VisibleForTesting
+    synchronized int getClientCount() {
+        return mClientSlots.size();
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        int shared = 0;
+        for (Slot slot : mSlotsByIndex.values()) {
+            if (slot.mScannerIds.size() > 1) {
+                shared++;
+            }
+        }
+        sb.append("  Offloaded filters: " + mSlotsByIndex.size() + "/" + mCapacity + " used, "
+                + shared + " shared, clients: " + mClientSlots.size()
+                + ", widened clients: " + mWidenedClientCount
+                + ", ALL_PASS fallbacks: " + mAllPassFallbackCount + "\n");
+        for (Slot slot : mSlotsByIndex.values()) {
+            sb.append("    #" + slot.mFilterIndex + " scanners: " + slot.mScannerIds
+                    + (slot.mWidened ? " (widened) " : " ") + slot.mFilter + "\n");
+        }
+    }
+
+    @GuardedBy("this")
+    private int countNewSlots(Collection<ScanFilter> filters, boolean shareable) {
+        if (!shareable) {
+            return filters.size();
+        }
+        int count = 0;
+        for (ScanFilter filter : filters) {
+            if (!mSharedSlots.containsKey(filter)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a filter matching a superset of the advertisements matched by {@code filter}: the
+     * manufacturer and service data patterns are dropped while the manufacturer id and service
+     * data UUID are kept. Only valid for clients whose results are filtered again in software.
+     */
+    @VisibleForTesting
+    static ScanFilter widen(ScanFilter filter) {
+        boolean hasManufacturerData = filter.getManufacturerData() != null
+                && filter.getManufacturerData().length > 0;
+        boolean hasServiceData = filter.getServiceDataUuid() != null
+                && filter.getServiceData() != null && filter.getServiceData().length > 0;
+        // Advertising data type and transport block filters are rare enough to be kept as is
+        if ((!hasManufacturerData && !hasServiceData) || filter.getAdvertisingDataType() > 0
+                || filter.getTransportBlockFilter() != null) {
+            return filter;
+        }
+        ScanFilter.Builder builder = new ScanFilter.Builder().setDeviceName(filter.getDeviceName());
+        if (filter.getDeviceAddress() != null) {
+            if (filter.getIrk() != null) {
+                builder.setDeviceAddress(filter.getDeviceAddress(), filter.getAddressType(),
+                        filter.getIrk());
+            } else {
+                builder.setDeviceAddress(filter.getDeviceAddress(), filter.getAddressType());
+            }
+        }
+        if (filter.getServiceUuid() != null) {
+            builder.setServiceUuid(filter.getServiceUuid(), filter.getServiceUuidMask());
+        }
+        if (filter.getServiceSolicitationUuid() != null) {
+            builder.setServiceSolicitationUuid(filter.getServiceSolicitationUuid(),
+                    filter.getServiceSolicitationUuidMask());
+        }
+        if (filter.getManufacturerData() != null) {
+            builder.setManufacturerData(filter.getManufacturerId(), new byte[0]);
+        }
+        if (filter.getServiceDataUuid() != null && filter.getServiceData() != null) {
+            builder.setServiceData(filter.getServiceDataUuid(), new byte[0]);
+        }
+        return builder.build();
+    }
+}
@@ -55,13 +55,10 @@ import com.android.bluetooth.btservice.BluetoothAdapterProxy;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
-import java.util.ArrayDeque;
 import java.util.Collections;
-import java.util.Deque;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -133,6 +130,8 @@ public class ScanManager {
     private Set<ScanClient> mRegularScanClients;
     private Set<ScanClient> mBatchClients;
     private Set<ScanClient> mSuspendedScanClients;
+    // Compiled filters of mRegularScanClients, rebuilt whenever that queue changes.
+    private volatile ScanFilterIndex mScanFilterIndex = ScanFilterIndex.EMPTY;
     private SparseIntArray mPriorityMap = new SparseIntArray();
 
     private DisplayManager mDm;
@@ -208,6 +207,7 @@ public class ScanManager {
 
     void cleanup() {
         mRegularScanClients.clear();
+        mScanFilterIndex = ScanFilterIndex.EMPTY;
         mBatchClients.clear();
         mSuspendedScanClients.clear();
         mScanNative.cleanup();
@@ -264,6 +264,24 @@ public class ScanManager {
         return mRegularScanClients;
     }
 
+    /**
+     * Returns the compiled filter index of the regular scan queue.
+     */
+    ScanFilterIndex getScanFilterIndex() {
+        return mScanFilterIndex;
+    }
+
+    void dump(StringBuilder sb) {
+        mScanNative.dump(sb);
+    }
+
+    private void updateScanFilterIndex() {
+        mScanFilterIndex = ScanFilterIndex.build(mRegularScanClients);
+        if (DBG) {
+            Log.d(TAG, "updateScanFilterIndex() - filters=" + mScanFilterIndex.getFilterCount());
+        }
+    }
+
     /**
      * Returns the suspended scan queue.
      */
@@ -467,6 +485,7 @@ public class ScanManager {
                 updateScanModeBeforeStart(client);
                 updateScanModeConcurrency(client);
                 mRegularScanClients.add(client);
+                updateScanFilterIndex();
                 mScanNative.startRegularScan(client);
                 if (!mScanNative.isOpportunisticScanClient(client)) {
                     mScanNative.configureRegularScanParams();
@@ -966,10 +985,9 @@ public class ScanManager {
         // The logic is AND for each filter field.
         private static final int LIST_LOGIC_TYPE = 0x1111111;
         private static final int FILTER_LOGIC_TYPE = 1;
-        // Filter indices that are available to user. It's sad we need to maintain filter index.
-        private final Deque<Integer> mFilterIndexStack;
-        // Map of scannerId and Filter indices used by client.
-        private final Map<Integer, Deque<Integer>> mClientFilterIndexMap;
+        // Filter indices that are available to user and the ones used by each client, shared
+        // between clients with the same filters.
+        private final ScanFilterPlanner mFilterPlanner = new ScanFilterPlanner();
         // Keep track of the clients that uses ALL_PASS filters.
         private final Set<Integer> mAllPassRegularClients = new HashSet<>();
         private final Set<Integer> mAllPassBatchClients = new HashSet<>();
@@ -980,8 +998,6 @@ public class ScanManager {
 
         ScanNative() {
             mNativeInterface = GattObjectsFactory.getInstance().getScanNativeInterface();
-            mFilterIndexStack = new ArrayDeque<Integer>();
-            mClientFilterIndexMap = new HashMap<Integer, Deque<Integer>>();
 
             mAlarmManager = mService.getSystemService(AlarmManager.class);
             Intent batchIntent = new Intent(ACTION_REFRESH_BATCHED_SCAN, null);
@@ -1090,11 +1106,8 @@ public class ScanManager {
         }
 
         void startRegularScan(ScanClient client) {
-            if (isFilteringSupported() && mFilterIndexStack.isEmpty()
-                    && mClientFilterIndexMap.isEmpty()) {
-                initFilterIndexStack();
-            }
             if (isFilteringSupported()) {
+                initFilterIndexStack();
                 configureScanFilters(client);
             }
             // Start scan native only for the first client.
@@ -1122,7 +1135,7 @@ public class ScanManager {
         }
 
         void startBatchScan(ScanClient client) {
-            if (mFilterIndexStack.isEmpty() && isFilteringSupported()) {
+            if (isFilteringSupported()) {
                 initFilterIndexStack();
             }
             configureScanFilters(client);
@@ -1326,6 +1339,7 @@ public class ScanManager {
                 }
             }
             mRegularScanClients.remove(client);
+            updateScanFilterIndex();
             if (numRegularScanClients() == 0) {
                 if (DBG) {
                     Log.d(TAG, "stop gattClientScanNative");
@@ -1431,6 +1445,12 @@ public class ScanManager {
             setBatchAlarm();
         }
 
+        void dump(StringBuilder sb) {
+            mFilterPlanner.dump(sb);
+            sb.append("  ALL_PASS clients: regular " + mAllPassRegularClients.size() + ", batch "
+                    + mAllPassBatchClients.size() + "\n");
+        }
+
         void cleanup() {
             mAlarmManager.cancel(mBatchScanIntervalIntent);
             // Protect against multiple calls of cleanup.
@@ -1464,7 +1484,14 @@ public class ScanManager {
                 return;
             }
 
-            if (!shouldAddAllPassFilterToController(client, deliveryMode)) {
+            // Only clients whose results are delivered immediately are matched again against
+            // their own filters in software, so only their filter entries can be shared.
+            List<ScanFilterPlanner.Assignment> assignments = null;
+            if (client.filters != null && !client.filters.isEmpty()) {
+                assignments = mFilterPlanner.acquire(scannerId, client.filters,
+                        deliveryMode == DELIVERY_MODE_IMMEDIATE);
+            }
+            if (assignments == null && !shouldAddAllPassFilterToController(client, deliveryMode)) {
                 return;
             }
 
@@ -1472,7 +1499,7 @@ public class ScanManager {
             mNativeInterface.gattClientScanFilterEnable(scannerId, true);
             waitForCallback();
 
-            if (shouldUseAllPassFilter(client)) {
+            if (assignments == null) {
                 int filterIndex =
                         (deliveryMode == DELIVERY_MODE_BATCH) ? ALL_PASS_FILTER_INDEX_BATCH_SCAN
                                 : ALL_PASS_FILTER_INDEX_REGULAR_SCAN;
@@ -1482,12 +1509,15 @@ public class ScanManager {
                         0);
                 waitForCallback();
             } else {
-                Deque<Integer> clientFilterIndices = new ArrayDeque<Integer>();
-                for (ScanFilter filter : client.filters) {
+                for (ScanFilterPlanner.Assignment assignment : assignments) {
+                    if (!assignment.isNew) {
+                        // Already programmed for another client with the same filter
+                        continue;
+                    }
                     ScanFilterQueue queue = new ScanFilterQueue();
-                    queue.addScanFilter(filter);
+                    queue.addScanFilter(assignment.filter);
                     int featureSelection = queue.getFeatureSelection();
-                    int filterIndex = mFilterIndexStack.pop();
+                    int filterIndex = assignment.filterIndex;
 
                     resetCountDownLatch();
                     mNativeInterface.gattClientScanFilterAdd(scannerId, queue.toArray(),
@@ -1511,20 +1541,18 @@ public class ScanManager {
                     configureFilterParamter(scannerId, client, featureSelection, filterIndex,
                             trackEntries);
                     waitForCallback();
-                    clientFilterIndices.add(filterIndex);
                 }
-                mClientFilterIndexMap.put(scannerId, clientFilterIndices);
+                if (DBG) {
+                    Log.d(TAG, "configureScanFilters() - scannerId=" + scannerId + " uses "
+                            + assignments.size() + " filter indices, "
+                            + mFilterPlanner.getFreeCount() + " left");
+                }
             }
         }
 
-        // Check whether the filter should be added to controller.
-        // Note only on ALL_PASS filter should be added.
+        // Check whether the ALL_PASS filter should be added to controller, only once for all
+        // ALL_PASS clients.
         private boolean shouldAddAllPassFilterToController(ScanClient client, int deliveryMode) {
-            // Not an ALL_PASS client, need to add filter.
-            if (!shouldUseAllPassFilter(client)) {
-                return true;
-            }
-
             if (deliveryMode == DELIVERY_MODE_BATCH) {
                 mAllPassBatchClients.add(client.scannerId);
                 return mAllPassBatchClients.size() == 1;
@@ -1535,14 +1563,11 @@ public class ScanManager {
         }
 
         private void removeScanFilters(int scannerId) {
-            Deque<Integer> filterIndices = mClientFilterIndexMap.remove(scannerId);
-            if (filterIndices != null) {
-                mFilterIndexStack.addAll(filterIndices);
-                for (Integer filterIndex : filterIndices) {
-                    resetCountDownLatch();
-                    mNativeInterface.gattClientScanFilterParamDelete(scannerId, filterIndex);
-                    waitForCallback();
-                }
+            // Filters shared with other clients stay in the controller
+            for (int filterIndex : mFilterPlanner.release(scannerId)) {
+                resetCountDownLatch();
+                mNativeInterface.gattClientScanFilterParamDelete(scannerId, filterIndex);
+                waitForCallback();
             }
             // Remove if ALL_PASS filters are used.
             removeFilterIfExisits(mAllPassRegularClients, scannerId,
@@ -1589,17 +1614,6 @@ public class ScanManager {
             return -1;
         }
 
-        // Check if ALL_PASS filter should be used for the client.
-        private boolean shouldUseAllPassFilter(ScanClient client) {
-            if (client == null) {
-                return true;
-            }
-            if (client.filters == null || client.filters.isEmpty()) {
-                return true;
-            }
-            return client.filters.size() > mFilterIndexStack.size();
-        }
-
         private void initFilterIndexStack() {
             int maxFiltersSupported =
                     AdapterService.getAdapterService().getNumOfOffloadedScanFilterSupported();
@@ -1608,9 +1622,7 @@ public class ScanManager {
             // index 1 is reserved for ALL_PASS filter for regular scan apps.
             // index 2 is reserved for ALL_PASS filter for batch scan apps.
             // index 3 is reserved for BAP/CAP Announcements
-            for (int i = 4; i < maxFiltersSupported; ++i) {
-                mFilterIndexStack.add(i);
-            }
+            mFilterPlanner.init(4, maxFiltersSupported);
         }
 
         // Configure filter parameters.
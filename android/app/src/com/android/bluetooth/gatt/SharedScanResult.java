@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+
+/**
+ * Holds the parsed views of a single advertising report so that it can be handed to every
+ * matching {@link ScanClient} without re-parsing it per client.
+ *
+ * <p>Two views exist: the full (extended) advertising data, and the fixed-size legacy view that
+ * some applications expect. Each view is parsed at most once, and only when first requested.
+ * The returned {@link ScanResult} instances are shared between clients and must not be modified.
+ *
+ * <p>Not thread safe; an instance only lives for the dispatch of one report.
+ */
+class SharedScanResult {
+    // Some apps are used to fixed-size advertise data.
+    @VisibleForTesting
+    static final int LEGACY_ADV_DATA_LENGTH = 62;
+
+    private final BluetoothDevice mDevice;
+    private final int mEventType;
+    private final int mPrimaryPhy;
+    private final int mSecondaryPhy;
+    private final int mAdvertisingSid;
+    private final int mTxPower;
+    private final int mRssi;
+    private final int mPeriodicAdvInt;
+    private final byte[] mAdvData;
+    private final long mTimestampNanos;
+
+    private ScanResult mLegacyResult;
+    private ScanResult mExtendedResult;
+    private int mParseCount;
+
+    SharedScanResult(BluetoothDevice device, int eventType, int primaryPhy, int secondaryPhy,
+            int advertisingSid, int txPower, int rssi, int periodicAdvInt, byte[] advData,
+            long timestampNanos) {
+        mDevice = device;
+        mEventType = eventType;
+        mPrimaryPhy = primaryPhy;
+        mSecondaryPhy = secondaryPhy;
+        mAdvertisingSid = advertisingSid;
+        mTxPower = txPower;
+        mRssi = rssi;
+        mPeriodicAdvInt = periodicAdvInt;
+        mAdvData = advData;
+        mTimestampNanos = timestampNanos;
+    }
+
+    /**
+     * Returns the shared {@link ScanResult} for this report, parsing the requested view on first
+     * use.
+     *
+     * @param legacy whether the fixed-size legacy view of the advertising data is requested
+     */
+    ScanResult getResult(boolean legacy) {
+        if (legacy) {
+            if (mLegacyResult == null) {
+                mLegacyResult = buildResult(Arrays.copyOfRange(mAdvData, 0,
+                        LEGACY_ADV_DATA_LENGTH));
+            }
+            return mLegacyResult;
+        }
+        if (mExtendedResult == null) {
+            mExtendedResult = buildResult(mAdvData);
+        }
+        return mExtendedResult;
+    }
+
+    /** Returns how many times the advertising data has been parsed for this report. */
+    @VisibleForTesting
+    int getParseCount() {
+        return mParseCount;
+    }
+
+    private ScanResult buildResult(byte[] scanRecordData) {
+        mParseCount++;
+        ScanRecord scanRecord = ScanRecord.parseFromBytes(scanRecordData);
+        return new ScanResult(mDevice, mEventType, mPrimaryPhy, mSecondaryPhy, mAdvertisingSid,
+                mTxPower, mRssi, mPeriodicAdvInt, scanRecord, mTimestampNanos);
+    }
+}
@@ -29,7 +29,6 @@ import android.os.Bundle;
 import android.os.SystemProperties;
 import android.provider.CallLog.Calls;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
-import android.provider.ContactsContract.PhoneLookup;
 import android.telephony.PhoneNumberUtils;
 import android.util.Log;
 
@@ -40,6 +39,7 @@ import com.android.bluetooth.util.DevicePolicyUtils;
 import com.android.bluetooth.util.GsmAlphabet;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -101,6 +101,10 @@ public class AtPhonebook {
     final HashMap<String, PhonebookResult> mPhonebooks =
             new HashMap<String, PhonebookResult>(4);
 
+    // Names of the call log numbers, kept across the CPBR pages of a connection
+    @VisibleForTesting
+    final CallerIdResolver mCallerIdResolver;
+
     static final int TYPE_UNKNOWN = -1;
     static final int TYPE_READ = 0;
     static final int TYPE_SET = 1;
@@ -113,6 +117,7 @@ public class AtPhonebook {
             context.getString(R.string.pairing_ui_package));
         mContentResolver = context.getContentResolver();
         mNativeInterface = nativeInterface;
+        mCallerIdResolver = new CallerIdResolver(context, mContentResolver);
         mPhonebooks.put("DC", new PhonebookResult());  // dialled calls
         mPhonebooks.put("RC", new PhonebookResult());  // received calls
         mPhonebooks.put("MC", new PhonebookResult());  // missed calls
@@ -123,6 +128,7 @@ public class AtPhonebook {
 
     public void cleanup() {
         mPhonebooks.clear();
+        mCallerIdResolver.clear();
     }
 
     /** Returns the last dialled number, or null if no numbers have been called */
@@ -478,6 +484,7 @@ public class AtPhonebook {
         mCharacterSet = "UTF-8";
         mCpbrIndex1 = mCpbrIndex2 = -1;
         mCheckingAccessPermission = false;
+        mCallerIdResolver.clear();
     }
 
     @VisibleForTesting
@@ -545,28 +552,26 @@ public class AtPhonebook {
         // Process
         atCommandResult = HeadsetHalConstants.AT_RESPONSE_OK;
         int errorDetected = -1; // no error
-        pbr.cursor.moveToPosition(mCpbrIndex1 - 1);
         log("mCpbrIndex1 = " + mCpbrIndex1 + " and mCpbrIndex2 = " + mCpbrIndex2);
+        if (pbr.nameColumn == -1) {
+            // Call history has no names, resolve the numbers of the whole window at once
+            ArrayList<String> numbers = new ArrayList<>(mCpbrIndex2 - mCpbrIndex1 + 1);
+            pbr.cursor.moveToPosition(mCpbrIndex1 - 1);
+            for (int index = mCpbrIndex1; index <= mCpbrIndex2; index++) {
+                numbers.add(pbr.cursor.getString(pbr.numberColumn));
+                if (!pbr.cursor.moveToNext()) {
+                    break;
+                }
+            }
+            mCallerIdResolver.resolve(numbers);
+        }
+        pbr.cursor.moveToPosition(mCpbrIndex1 - 1);
         for (int index = mCpbrIndex1; index <= mCpbrIndex2; index++) {
             String number = pbr.cursor.getString(pbr.numberColumn);
             String name = null;
             int type = -1;
             if (pbr.nameColumn == -1 && number != null && number.length() > 0) {
-                // try caller id lookup
-                // TODO: This code is horribly inefficient. I saw it
-                // take 7 seconds to process 100 missed calls.
-                Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(mContentResolver,
-                        Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI, number),
-                        new String[]{
-                                PhoneLookup.DISPLAY_NAME, PhoneLookup.TYPE
-                        }, null, null, null);
-                if (c != null) {
-                    if (c.moveToFirst()) {
-                        name = c.getString(0);
-                        type = c.getInt(1);
-                    }
-                    c.close();
-                }
+                name = mCallerIdResolver.getName(number);
                 if (DBG && name == null) {
                     log("Caller ID lookup failed for " + number);
                 }
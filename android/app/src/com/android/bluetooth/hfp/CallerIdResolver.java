@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.hfp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.PhoneLookup;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.bluetooth.util.ContactNameCache;
+import com.android.bluetooth.util.DevicePolicyUtils;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves the contact names of call log numbers for the AT+CPBR call history phonebooks.
+ *
+ * <p>All numbers of a CPBR window are resolved together: they are matched against the contacts
+ * phone table with one query per {@link #MAX_NUMBERS_PER_QUERY} numbers, and the rows are joined
+ * back to the numbers through their normalized form. The numbers without an exact match are
+ * then looked up one by one through {@link PhoneLookup}, whose loose match also finds a contact
+ * stored without the area code of the call log number.
+ *
+ * <p>Results, including numbers without a contact, are cached until {@link #clear} or until the
+ * contacts change, so the following pages of the same download do not query the contacts again.
+ * Failed queries are not cached. Exact matches are also kept in {@link ContactNameCache}, apart
+ * from the ones of the other profiles which match numbers differently.
+ */
+class CallerIdResolver {
+    private static final String TAG = "BluetoothCallerIdResolver";
+    private static final boolean DBG = false;
+
+    // Each number is passed twice, keep well below the SQLite host parameter limit
+    @VisibleForTesting
+    static final int MAX_NUMBERS_PER_QUERY = 100;
+
+    private static final String[] PROJECTION = new String[]{
+            Phone.NUMBER, Phone.NORMALIZED_NUMBER, Phone.CONTACT_ID, Phone.DISPLAY_NAME
+    };
+
+    private final Context mContext;
+    private final ContentResolver mContentResolver;
+    private String mCountryIso;
+
+    // Call log number -> contact name, or null when no contact has this number
+    private final HashMap<String, String> mNames = new HashMap<>();
+    // ContactNameCache generation mNames was resolved in
+    private long mGeneration;
+    private int mQueryCount;
+
+    CallerIdResolver(Context context, ContentResolver contentResolver) {
+        mContext = context;
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Resolve the names of all {@code numbers} that are not cached yet.
+     */
+    void resolve(List<String> numbers) {
+        long generation = ContactNameCache.getGeneration();
+        if (generation != mGeneration) {
+            // A contact may have been added, renamed or removed
+            mNames.clear();
+            mGeneration = generation;
+        }
+
+        Set<String> pending = new LinkedHashSet<>();
+        Set<String> unmatched = new LinkedHashSet<>();
+        for (String number : numbers) {
+            if (TextUtils.isEmpty(number) || mNames.containsKey(number)) {
+                continue;
+            }
+            ContactNameCache.Contact contact =
+                    ContactNameCache.peek(ContactNameCache.LOOKUP_PHONE_NUMBER, number);
+            if (contact == null) {
+                pending.add(number);
+            } else if (contact.getName() != null) {
+                mNames.put(number, contact.getName());
+            } else {
+                unmatched.add(number);
+            }
+        }
+
+        List<String> chunk = new ArrayList<>(MAX_NUMBERS_PER_QUERY);
+        for (String number : pending) {
+            chunk.add(number);
+            if (chunk.size() == MAX_NUMBERS_PER_QUERY) {
+                resolveChunk(chunk, unmatched);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            resolveChunk(chunk, unmatched);
+        }
+
+        for (String number : unmatched) {
+            resolveLoosely(number);
+        }
+    }
+
+    /**
+     * Returns the cached contact name of {@code number}, or null if it has none or was not
+     * resolved.
+     */
+    String getName(String number) {
+        return number == null ? null : mNames.get(number);
+    }
+
+    /** Forget all resolved names, e.g. when the connection ends. */
+    void clear() {
+        mNames.clear();
+    }
+
+    @VisibleForTesting
+    int getQueryCount() {
+        return mQueryCount;
+    }
+
+    /**
+     * Resolve {@code numbers} by exact match, and add the ones without a contact to
+     * {@code unmatched}. Nothing is cached if the query fails.
+     */
+    private void resolveChunk(List<String> numbers, Set<String> unmatched) {
+        // Query by both the normalized and the raw form, contacts stored without a country code
+        // have no normalized number
+        Map<String, String> lookupKeys = new HashMap<>();
+        String[] selectionArgs = new String[numbers.size() * 2];
+        for (int i = 0; i < numbers.size(); i++) {
+            String number = numbers.get(i);
+            String key = getLookupKey(number);
+            lookupKeys.put(number, key);
+            selectionArgs[i] = key;
+            selectionArgs[numbers.size() + i] = number;
+        }
+        String placeholders = TextUtils.join(",", Collections.nCopies(numbers.size(), "?"));
+        String selection = Phone.NORMALIZED_NUMBER + " IN (" + placeholders + ") OR "
+                + Phone.NUMBER + " IN (" + placeholders + ")";
+
+        mQueryCount++;
+        long generation = ContactNameCache.getGeneration();
+        Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(mContentResolver,
+                DevicePolicyUtils.getEnterprisePhoneUri(mContext), PROJECTION, selection,
+                selectionArgs, null);
+        if (c == null) {
+            Log.w(TAG, "Caller ID query failed for " + numbers.size() + " numbers");
+            return;
+        }
+
+        // Hash join the contact rows with the numbers on their normalized form
+        Map<String, ContactNameCache.Contact> contactsByKey = new HashMap<>();
+        try {
+            int numberColumn = c.getColumnIndex(Phone.NUMBER);
+            int normalizedNumberColumn = c.getColumnIndex(Phone.NORMALIZED_NUMBER);
+            int contactIdColumn = c.getColumnIndex(Phone.CONTACT_ID);
+            int nameColumn = c.getColumnIndex(Phone.DISPLAY_NAME);
+            while (c.moveToNext()) {
+                String name = c.getString(nameColumn);
+                if (name == null) {
+                    continue;
+                }
+                // Without the contact id the name can still be shown, but not cached
+                ContactNameCache.Contact contact = new ContactNameCache.Contact(
+                        contactIdColumn == -1 ? -1 : c.getLong(contactIdColumn), name);
+                String normalizedNumber = c.getString(normalizedNumberColumn);
+                if (normalizedNumber != null) {
+                    contactsByKey.putIfAbsent(normalizedNumber, contact);
+                }
+                String number = c.getString(numberColumn);
+                if (number != null) {
+                    contactsByKey.putIfAbsent(getLookupKey(number), contact);
+                }
+            }
+        } finally {
+            c.close();
+        }
+
+        int resolved = 0;
+        for (String number : numbers) {
+            ContactNameCache.Contact contact = contactsByKey.get(lookupKeys.get(number));
+            if (contact != null) {
+                mNames.put(number, contact.getName());
+                resolved++;
+                if (!contact.exists()) {
+                    continue;
+                }
+            } else {
+                unmatched.add(number);
+                contact = ContactNameCache.Contact.NONE;
+            }
+            ContactNameCache.put(ContactNameCache.LOOKUP_PHONE_NUMBER, number, generation,
+                    contact);
+        }
+        if (DBG) {
+            Log.d(TAG, "Resolved " + resolved + " of " + numbers.size() + " numbers");
+        }
+    }
+
+    private void resolveLoosely(String number) {
+        mQueryCount++;
+        Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(mContentResolver,
+                Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI,
+                        Uri.encode(number)),
+                new String[]{PhoneLookup.DISPLAY_NAME}, null, null, null);
+        if (c == null) {
+            Log.w(TAG, "Caller ID lookup failed");
+            return;
+        }
+        try {
+            mNames.put(number, c.moveToFirst() ? c.getString(0) : null);
+        } finally {
+            c.close();
+        }
+    }
+
+    private String getLookupKey(String number) {
+        if (mCountryIso == null) {
+            mCountryIso = ContactNameCache.getCountryIso(mContext);
+        }
+        return ContactNameCache.normalizeNumber(number, mCountryIso);
+    }
+}
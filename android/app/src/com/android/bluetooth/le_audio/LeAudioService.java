@@ -206,6 +206,9 @@ public class LeAudioService extends ProfileService {
     private final Map<Integer, LeAudioGroupDescriptor> mGroupDescriptors = new LinkedHashMap<>();
     private final Map<BluetoothDevice, LeAudioDeviceDescriptor> mDeviceDescriptors =
             new LinkedHashMap<>();
+    // Group id -> group member devices, in mDeviceDescriptors order. Immutable, republished
+    // under mGroupLock whenever a device joins or leaves a group, and read without the lock.
+    private volatile Map<Integer, List<BluetoothDevice>> mGroupMembers = Collections.emptyMap();
 
     private BroadcastReceiver mBondStateChangedReceiver;
     private Handler mHandler = new Handler(Looper.getMainLooper());
@@ -280,6 +283,7 @@ public class LeAudioService extends ProfileService {
         synchronized (mGroupLock) {
             mDeviceDescriptors.clear();
             mGroupDescriptors.clear();
+            updateGroupMembers();
         }
 
         // Setup broadcast receivers
@@ -390,6 +394,7 @@ public class LeAudioService extends ProfileService {
 
             mDeviceDescriptors.clear();
             mGroupDescriptors.clear();
+            updateGroupMembers();
         }
 
         // Cleanup native interfaces
@@ -760,14 +765,7 @@ public class LeAudioService extends ProfileService {
             return result;
         }
 
-        synchronized (mGroupLock) {
-            for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry
-                    : mDeviceDescriptors.entrySet()) {
-                if (entry.getValue().mGroupId == groupId) {
-                    result.add(entry.getKey());
-                }
-            }
-        }
+        result.addAll(getGroupMembers(groupId));
         return result;
     }
 
@@ -784,15 +782,37 @@ public class LeAudioService extends ProfileService {
             return result;
         }
 
-        synchronized (mGroupLock) {
-            for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry
-                    : mDeviceDescriptors.entrySet()) {
-                if (entry.getValue().mGroupId == groupId) {
-                    result.add(entry.getKey());
-                }
+        result.addAll(getGroupMembers(groupId));
+        return result;
+    }
+
+    /**
+     * Returns the devices of the given group, from the published group index. The list is
+     * immutable, and safe to read without holding mGroupLock.
+     */
+    private List<BluetoothDevice> getGroupMembers(int groupId) {
+        return mGroupMembers.getOrDefault(groupId, Collections.emptyList());
+    }
+
+    /**
+     * Republish the group index, must be called after any change of the group id of a device
+     * descriptor or of the set of descriptors.
+     */
+    @GuardedBy("mGroupLock")
+    private void updateGroupMembers() {
+        Map<Integer, List<BluetoothDevice>> groupMembers = new HashMap<>();
+        for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry
+                : mDeviceDescriptors.entrySet()) {
+            int groupId = entry.getValue().mGroupId;
+            if (groupId == LE_AUDIO_GROUP_ID_INVALID) {
+                continue;
             }
+            groupMembers.computeIfAbsent(groupId, id -> new ArrayList<>()).add(entry.getKey());
         }
-        return result;
+        for (Map.Entry<Integer, List<BluetoothDevice>> entry : groupMembers.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        mGroupMembers = Collections.unmodifiableMap(groupMembers);
     }
 
     /**
@@ -989,8 +1009,9 @@ public class LeAudioService extends ProfileService {
             return null;
         }
         synchronized (mGroupLock) {
-            for (LeAudioDeviceDescriptor descriptor : mDeviceDescriptors.values()) {
-                if (!descriptor.mGroupId.equals(groupId)) {
+            for (BluetoothDevice device : getGroupMembers(groupId)) {
+                LeAudioDeviceDescriptor descriptor = mDeviceDescriptors.get(device);
+                if (descriptor == null) {
                     continue;
                 }
 
@@ -1496,18 +1517,11 @@ public class LeAudioService extends ProfileService {
 
         Integer setGroupId = descriptor.mGroupId;
 
-        for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry
-                : mDeviceDescriptors.entrySet()) {
-            BluetoothDevice storedDevice = entry.getKey();
-            descriptor = entry.getValue();
+        for (BluetoothDevice storedDevice : getGroupMembers(setGroupId)) {
             if (device.equals(storedDevice)) {
                 continue;
             }
 
-            if (!descriptor.mGroupId.equals(setGroupId)) {
-                continue;
-            }
-
             if (DBG) {
                 Log.d(TAG, "connect(): " + storedDevice);
             }
@@ -1675,11 +1689,9 @@ public class LeAudioService extends ProfileService {
                 return;
             }
 
-            for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry :
-                                                    mDeviceDescriptors.entrySet()) {
-                if (entry.getValue().mGroupId == groupId) {
-                    BluetoothDevice device = entry.getKey();
-                    LeAudioDeviceDescriptor deviceDescriptor = entry.getValue();
+            for (BluetoothDevice device : getGroupMembers(groupId)) {
+                LeAudioDeviceDescriptor deviceDescriptor = mDeviceDescriptors.get(device);
+                if (deviceDescriptor != null) {
                     Log.i(TAG, "updateInbandRingtoneForTheGroup, setting inband ringtone to: "
                                 + groupDescriptor.mInbandRingtoneEnabled + " for " + device
                                 + " " + deviceDescriptor.mDevInbandRingtoneEnabled);
@@ -2144,6 +2156,7 @@ public class LeAudioService extends ProfileService {
             }
 
             descriptor.mGroupId = LE_AUDIO_GROUP_ID_INVALID;
+            updateGroupMembers();
             descriptor.mSinkAudioLocation = BluetoothLeAudio.AUDIO_LOCATION_INVALID;
             descriptor.mDirection = AUDIO_DIRECTION_NONE;
 
@@ -2180,6 +2193,7 @@ public class LeAudioService extends ProfileService {
             descriptor.mStateMachine = null;
 
             mDeviceDescriptors.remove(device);
+            updateGroupMembers();
             if (!isScannerNeeded()) {
                 stopAudioServersBackgroundScan();
             }
@@ -2189,9 +2203,13 @@ public class LeAudioService extends ProfileService {
     @VisibleForTesting
     List<BluetoothDevice> getConnectedPeerDevices(int groupId) {
         List<BluetoothDevice> result = new ArrayList<>();
-        for (BluetoothDevice peerDevice : getConnectedDevices()) {
-            if (getGroupId(peerDevice) == groupId) {
-                result.add(peerDevice);
+        synchronized (mGroupLock) {
+            for (BluetoothDevice peerDevice : getGroupMembers(groupId)) {
+                LeAudioDeviceDescriptor descriptor = mDeviceDescriptors.get(peerDevice);
+                LeAudioStateMachine sm = descriptor == null ? null : descriptor.mStateMachine;
+                if (sm != null && sm.isConnected()) {
+                    result.add(sm.getDevice());
+                }
             }
         }
         return result;
@@ -2673,6 +2691,7 @@ public class LeAudioService extends ProfileService {
                 }
             }
             deviceDescriptor.mGroupId = groupId;
+            updateGroupMembers();
 
             notifyGroupNodeAdded(device, groupId);
         }
@@ -2728,15 +2747,9 @@ public class LeAudioService extends ProfileService {
                 return;
             }
             deviceDescriptor.mGroupId = LE_AUDIO_GROUP_ID_INVALID;
+            updateGroupMembers();
 
-            boolean isGroupEmpty = true;
-
-            for (LeAudioDeviceDescriptor descriptor : mDeviceDescriptors.values()) {
-                if (descriptor.mGroupId == groupId) {
-                    isGroupEmpty = false;
-                    break;
-                }
-            }
+            boolean isGroupEmpty = getGroupMembers(groupId).isEmpty();
 
             if (isGroupEmpty) {
                 /* Device is currently an active device. Group needs to be inactivated before
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.bluetooth.mapapi.BluetoothMapContract;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Schedules the message list rescans of {@link BluetoothMapContentObserver} for one message
+ * source.
+ *
+ * <p>A change notification is first handled with a delta scan, which only reads the rows above
+ * the high-water message id or the row named by the notification URI, so new messages are
+ * reported right away. Only a delta scan that read the single row named by the URI fully explains
+ * the change. Otherwise the notification may also stand for changes a delta scan cannot see, such
+ * as deleted messages or a changed read status, and a full rescan is scheduled
+ * {@link #FULL_RESCAN_DELAY_MS} later, so a burst of notifications costs a single pass over the
+ * message table.
+ *
+ * <p>As a safety net against changes the delta scans miss without noticing, a full rescan is also
+ * scheduled after {@link #MAX_DELTA_SCANS} delta scans or {@link #MAX_DELTA_SCAN_AGE_MS} since the
+ * last full rescan.
+ *
+ * <p>All methods must be called on the thread of the handler given to the constructor.
+ */
+class BluetoothMapChangeTracker {
+    private static final String TAG = "BluetoothMapChangeTracker";
+    private static final boolean D = BluetoothMapService.DEBUG;
+
+    @VisibleForTesting
+    static final long FULL_RESCAN_DELAY_MS = 2000;
+    @VisibleForTesting
+    static final int MAX_DELTA_SCANS = 50;
+    @VisibleForTesting
+    static final long MAX_DELTA_SCAN_AGE_MS = 10 * 60 * 1000;
+
+    /** Returned by {@link #getMessageId} for URIs not naming a single message. */
+    static final long NO_MESSAGE_ID = -1;
+
+    private final String mName;
+    private final Handler mHandler;
+    private final Runnable mFullRescan;
+    private final Runnable mScheduledRescan = this::runFullRescan;
+    private boolean mFullRescanPending;
+    private int mDeltaScansSinceFullRescan;
+    private long mLastFullRescanMs;
+
+    private int mDeltaScanCount;
+    private int mFullScanCount;
+    private long mMaxScanTimeMs;
+
+    BluetoothMapChangeTracker(String name, Handler handler, Runnable fullRescan) {
+        mName = name;
+        mHandler = handler;
+        mFullRescan = fullRescan;
+        // The message lists are fully read when the observer is registered
+        mLastFullRescanMs = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Account for a delta scan of {@code messageId} that read {@code rows} rows in
+     * {@code elapsedMs}. Unless the notification named a message and the delta scan read its row,
+     * the change may not be an insert the delta scan could fully see and a full rescan is
+     * scheduled. So is it when the last full rescan is too many delta scans or too long ago.
+     *
+     * @param messageId the message named by the notification URI, or {@link #NO_MESSAGE_ID}
+     */
+    void onDeltaScan(long messageId, int rows, long elapsedMs) {
+        onDeltaScan(messageId, rows, elapsedMs, SystemClock.elapsedRealtime());
+    }
+
+    @VisibleForTesting
+    void onDeltaScan(long messageId, int rows, long elapsedMs, long nowMs) {
+        mDeltaScanCount++;
+        mDeltaScansSinceFullRescan++;
+        recordScanTime(elapsedMs);
+        if (D) {
+            Log.d(TAG, mName + ": delta scan read " + rows + " rows in " + elapsedMs + " ms");
+        }
+        if (messageId == NO_MESSAGE_ID || rows != 1
+                || mDeltaScansSinceFullRescan >= MAX_DELTA_SCANS
+                || nowMs - mLastFullRescanMs >= MAX_DELTA_SCAN_AGE_MS) {
+            scheduleFullRescan();
+        }
+    }
+
+    /** Schedule a full rescan, unless one is already pending. */
+    void scheduleFullRescan() {
+        if (mFullRescanPending) {
+            return;
+        }
+        mFullRescanPending = true;
+        mHandler.postDelayed(mScheduledRescan, FULL_RESCAN_DELAY_MS);
+    }
+
+    boolean isFullRescanPending() {
+        return mFullRescanPending;
+    }
+
+    /** Drop a pending full rescan, e.g. when the observer is unregistered. */
+    void cancel() {
+        mHandler.removeCallbacks(mScheduledRescan);
+        mFullRescanPending = false;
+    }
+
+    int getDeltaScanCount() {
+        return mDeltaScanCount;
+    }
+
+    int getFullScanCount() {
+        return mFullScanCount;
+    }
+
+    @VisibleForTesting
+    void runFullRescan() {
+        mFullRescanPending = false;
+        long start = SystemClock.elapsedRealtime();
+        mFullRescan.run();
+        long elapsedMs = SystemClock.elapsedRealtime() - start;
+        mDeltaScansSinceFullRescan = 0;
+        mLastFullRescanMs = start;
+        mFullScanCount++;
+        recordScanTime(elapsedMs);
+        if (D) {
+            Log.d(TAG, mName + ": full rescan took " + elapsedMs + " ms (" + mDeltaScanCount
+                    + " delta scans, " + mFullScanCount + " full rescans, max "
+                    + mMaxScanTimeMs + " ms)");
+        }
+    }
+
+    private void recordScanTime(long elapsedMs) {
+        mMaxScanTimeMs = Math.max(mMaxScanTimeMs, elapsedMs);
+    }
+
+    /**
+     * Returns the highest message id in {@code msgList}, or -1 if it is empty. Used to seed the
+     * high-water mark of a message list that was restored from the MAS instance.
+     */
+    static long getMaxId(Map<Long, ?> msgList) {
+        long maxId = -1;
+        for (long id : msgList.keySet()) {
+            maxId = Math.max(maxId, id);
+        }
+        return maxId;
+    }
+
+    /**
+     * Returns the message id of an e-mail/IM provider URI of the form
+     * {@code .../Message/<id>}, or {@link #NO_MESSAGE_ID} if the URI does not name a single
+     * message.
+     */
+    static long getMessageId(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        int index = segments.indexOf(BluetoothMapContract.TABLE_MESSAGE);
+        if (index < 0 || index + 1 >= segments.size()) {
+            return NO_MESSAGE_ID;
+        }
+        try {
+            return Long.parseLong(segments.get(index + 1));
+        } catch (NumberFormatException e) {
+            return NO_MESSAGE_ID;
+        }
+    }
+}
@@ -44,6 +44,7 @@ import com.android.bluetooth.map.BluetoothMapUtils.TYPE;
 import com.android.bluetooth.map.BluetoothMapbMessageMime.MimePart;
 import com.android.bluetooth.mapapi.BluetoothMapContract;
 import com.android.bluetooth.mapapi.BluetoothMapContract.ConversationColumns;
+import com.android.bluetooth.util.ContactNameCache;
 import com.android.internal.annotations.VisibleForTesting;
 
 import com.google.android.mms.pdu.CharacterSets;
@@ -56,6 +57,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -1338,15 +1340,18 @@ public class BluetoothMapContent {
         return e;
     }
 
-    /* TODO: Change to use SmsMmsContacts.getContactNameFromPhone() with proper use of
-     *       caching. */
     public static String getContactNameFromPhone(String phone, ContentResolver resolver) {
-        String name = null;
         //Handle possible exception for empty phone address
         if (TextUtils.isEmpty(phone)) {
-            return name;
+            return null;
         }
+        ContactNameCache.Contact contact =
+                ContactNameCache.get(phone, number -> queryContactByPhone(number, resolver));
+        return contact == null ? null : contact.getName();
+    }
 
+    private static ContactNameCache.Contact queryContactByPhone(String phone,
+            ContentResolver resolver) {
         Uri uri =
                 Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI, Uri.encode(phone));
 
@@ -1357,19 +1362,20 @@ public class BluetoothMapContent {
         try {
             c = BluetoothMethodProxy.getInstance().contentResolverQuery(resolver, uri, projection,
                     selection, null, orderBy);
-            if (c != null) {
-                int colIndex = c.getColumnIndex(Contacts.DISPLAY_NAME);
-                if (c.getCount() >= 1) {
-                    c.moveToFirst();
-                    name = c.getString(colIndex);
-                }
+            if (c == null) {
+                return null;
             }
+            if (c.getCount() >= 1) {
+                c.moveToFirst();
+                return new ContactNameCache.Contact(c.getLong(c.getColumnIndex(Contacts._ID)),
+                        c.getString(c.getColumnIndex(Contacts.DISPLAY_NAME)));
+            }
+            return ContactNameCache.Contact.NONE;
         } finally {
             if (c != null) {
                 c.close();
             }
         }
-        return name;
     }
 
     private static final String[] RECIPIENT_ID_PROJECTION = {Threads.RECIPIENT_IDS};
@@ -2127,6 +2133,25 @@ public class BluetoothMapContent {
      */
     public BluetoothMapMessageListing msgListing(BluetoothMapFolderElement folderElement,
             BluetoothMapAppParams ap) {
+        return msgListing(folderElement, ap, false);
+    }
+
+    /**
+     * Get a listing of message in folder after applying filter.
+     *
+     * <p>The date ordered message cursors are merged, and only the elements inside the requested
+     * offset and count are kept. A streamed listing keeps the cursors open and only looks up the
+     * details of each element, such as the sender and recipient names, when it is encoded with
+     * {@link BluetoothMapMessageListing#encode(java.io.OutputStream, boolean, String)}. It must be
+     * closed with {@link BluetoothMapMessageListing#close()}.
+     *
+     * @param folderElement Must contain a valid folder string != null
+     * @param ap Parameters specifying message content and filters
+     * @param streamed whether the element details are looked up while encoding
+     * @return Listing object containing requested messages
+     */
+    public BluetoothMapMessageListing msgListing(BluetoothMapFolderElement folderElement,
+            BluetoothMapAppParams ap, boolean streamed) {
         if (D) {
             Log.d(TAG, "msgListing: messageType = " + ap.getFilterMessageType());
         }
@@ -2156,6 +2181,8 @@ public class BluetoothMapContent {
         Cursor mmsCursor = null;
         Cursor emailCursor = null;
         Cursor imCursor = null;
+        List<ListingSource> sources = new ArrayList<ListingSource>();
+        boolean keepCursorsOpen = false;
         String limit = "";
         int offsetNum = ap.getStartOffset();
         if (ap.getMaxListCount() > 0) {
@@ -2188,21 +2215,12 @@ public class BluetoothMapContent {
                             Sms.CONTENT_URI, SMS_PROJECTION, where, null,
                             Sms.DATE + " DESC" + limit);
                     if (smsCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         if (D) {
                             Log.d(TAG, "Found " + smsCursor.getCount() + " sms messages.");
                         }
                         fi.setSmsColumns(smsCursor);
-                        while (smsCursor.moveToNext()) {
-                            if (matchAddresses(smsCursor, fi, ap)) {
-                                if (V) {
-                                    BluetoothMapUtils.printCursor(smsCursor);
-                                }
-                                e = element(smsCursor, fi, ap);
-                                bmList.add(e);
-                            }
-                        }
+                        sources.add(new ListingSource(smsCursor, FilterInfo.TYPE_SMS, true));
                     }
                 }
             }
@@ -2231,21 +2249,12 @@ public class BluetoothMapContent {
                             Mms.CONTENT_URI, MMS_PROJECTION, where, null,
                             Mms.DATE + " DESC" + limit);
                     if (mmsCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         fi.setMmsColumns(mmsCursor);
                         if (D) {
                             Log.d(TAG, "Found " + mmsCursor.getCount() + " mms messages.");
                         }
-                        while (mmsCursor.moveToNext()) {
-                            if (matchAddresses(mmsCursor, fi, ap)) {
-                                if (V) {
-                                    BluetoothMapUtils.printCursor(mmsCursor);
-                                }
-                                e = element(mmsCursor, fi, ap);
-                                bmList.add(e);
-                            }
-                        }
+                        sources.add(new ListingSource(mmsCursor, FilterInfo.TYPE_MMS, true));
                     }
                 }
             }
@@ -2275,20 +2284,12 @@ public class BluetoothMapContent {
                             contentUri, BluetoothMapContract.BT_MESSAGE_PROJECTION, where, null,
                             BluetoothMapContract.MessageColumns.DATE + " DESC" + limit);
                     if (emailCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         fi.setEmailMessageColumns(emailCursor);
                         if (D) {
                             Log.d(TAG, "Found " + emailCursor.getCount() + " email messages.");
                         }
-                        while (emailCursor.moveToNext()) {
-                            if (V) {
-                                BluetoothMapUtils.printCursor(emailCursor);
-                            }
-                            e = element(emailCursor, fi, ap);
-                            bmList.add(e);
-                        }
-                        //   emailCursor.close();
+                        sources.add(new ListingSource(emailCursor, FilterInfo.TYPE_EMAIL, false));
                     }
                 }
             }
@@ -2317,82 +2318,29 @@ public class BluetoothMapContent {
                         contentUri, BluetoothMapContract.BT_INSTANT_MESSAGE_PROJECTION, where, null,
                         BluetoothMapContract.MessageColumns.DATE + " DESC" + limit);
                 if (imCursor != null) {
-                    BluetoothMapMessageListingElement e = null;
                     // store column index so we dont have to look them up anymore (optimization)
                     fi.setImMessageColumns(imCursor);
                     if (D) {
                         Log.d(TAG, "Found " + imCursor.getCount() + " im messages.");
                     }
-                    while (imCursor.moveToNext()) {
-                        if (V) {
-                            BluetoothMapUtils.printCursor(imCursor);
-                        }
-                        e = element(imCursor, fi, ap);
-                        bmList.add(e);
-                    }
+                    sources.add(new ListingSource(imCursor, FilterInfo.TYPE_IM, false));
                 }
             }
 
-            /* Enable this if post sorting and segmenting needed */
-            bmList.sort();
-            bmList.segment(ap.getMaxListCount(), offsetNum);
-            List<BluetoothMapMessageListingElement> list = bmList.getList();
-            int listSize = list.size();
-            Cursor tmpCursor = null;
-            for (int x = 0; x < listSize; x++) {
-                BluetoothMapMessageListingElement ele = list.get(x);
-                /* If OBEX "GET" request header includes "ParameterMask" with 'Type' NOT set,
-                 * then ele.getType() returns "null" even for a valid cursor.
-                 * Avoid NullPointerException in equals() check when 'mType' value is "null" */
-                TYPE tmpType = ele.getType();
-                if (smsCursor != null && ((TYPE.SMS_GSM).equals(tmpType) || (TYPE.SMS_CDMA).equals(
-                        tmpType))) {
-                    tmpCursor = smsCursor;
-                    fi.mMsgType = FilterInfo.TYPE_SMS;
-                } else if (mmsCursor != null && (TYPE.MMS).equals(tmpType)) {
-                    tmpCursor = mmsCursor;
-                    fi.mMsgType = FilterInfo.TYPE_MMS;
-                } else if (emailCursor != null && ((TYPE.EMAIL).equals(tmpType))) {
-                    tmpCursor = emailCursor;
-                    fi.mMsgType = FilterInfo.TYPE_EMAIL;
-                } else if (imCursor != null && ((TYPE.IM).equals(tmpType))) {
-                    tmpCursor = imCursor;
-                    fi.mMsgType = FilterInfo.TYPE_IM;
-                }
-                if (tmpCursor != null) {
-                    tmpCursor.moveToPosition(ele.getCursorIndex());
-                    setSenderAddressing(ele, tmpCursor, fi, ap);
-                    setSenderName(ele, tmpCursor, fi, ap);
-                    setRecipientAddressing(ele, tmpCursor, fi, ap);
-                    setRecipientName(ele, tmpCursor, fi, ap);
-                    setSubject(ele, tmpCursor, fi, ap);
-                    setSize(ele, tmpCursor, fi, ap);
-                    setText(ele, tmpCursor, fi, ap);
-                    setPriority(ele, tmpCursor, fi, ap);
-                    setSent(ele, tmpCursor, fi, ap);
-                    setProtected(ele, tmpCursor, fi, ap);
-                    setReceptionStatus(ele, ap);
-                    setAttachment(ele, tmpCursor, fi, ap);
-
-                    if (mMsgListingVersion > BluetoothMapUtils.MAP_MESSAGE_LISTING_FORMAT_V10) {
-                        setDeliveryStatus(ele, tmpCursor, fi, ap);
-                        setThreadId(ele, tmpCursor, fi, ap);
-                        setThreadName(ele, tmpCursor, fi, ap);
-                    }
+            mergeMsgListing(sources, fi, ap, ap.getMaxListCount(), offsetNum, bmList);
+            ListingElementFiller filler = new ListingElementFiller(smsCursor, mmsCursor,
+                    emailCursor, imCursor, fi, ap);
+            if (streamed) {
+                bmList.setElementFiller(filler);
+                keepCursorsOpen = true;
+            } else {
+                for (BluetoothMapMessageListingElement ele : bmList.getList()) {
+                    filler.fill(ele);
                 }
             }
         } finally {
-            if (emailCursor != null) {
-                emailCursor.close();
-            }
-            if (smsCursor != null) {
-                smsCursor.close();
-            }
-            if (mmsCursor != null) {
-                mmsCursor.close();
-            }
-            if (imCursor != null) {
-                imCursor.close();
+            if (!keepCursorsOpen) {
+                closeCursors(smsCursor, mmsCursor, emailCursor, imCursor);
             }
         }
 
@@ -2403,6 +2351,158 @@ public class BluetoothMapContent {
         return bmList;
     }
 
+    /** A date ordered message cursor of a message listing, see {@link #mergeMsgListing}. */
+    private static class ListingSource {
+        final Cursor mCursor;
+        final int mMsgType;
+        final boolean mMatchAddresses;
+        BluetoothMapMessageListingElement mHead;
+
+        ListingSource(Cursor cursor, int msgType, boolean matchAddresses) {
+            mCursor = cursor;
+            mMsgType = msgType;
+            mMatchAddresses = matchAddresses;
+        }
+    }
+
+    /**
+     * Merge the cursors of {@code sources}, which are ordered by descending date, into
+     * {@code bmList}. The first {@code offset} elements are skipped and at most {@code count} are
+     * added, or all if {@code count} is not positive. Elements with the same date are taken from
+     * the sources in order, like the stable sort of the concatenated cursors this replaces. The
+     * elements outside the window are only checked for being unread.
+     */
+    private void mergeMsgListing(List<ListingSource> sources, FilterInfo fi,
+            BluetoothMapAppParams ap, int count, int offset,
+            BluetoothMapMessageListing bmList) {
+        if (count <= 0) {
+            count = Integer.MAX_VALUE;
+        }
+        for (ListingSource source : sources) {
+            source.mHead = nextListingElement(source, fi, ap);
+        }
+        int index = 0;
+        while (true) {
+            ListingSource next = null;
+            for (ListingSource source : sources) {
+                if (source.mHead != null
+                        && (next == null || source.mHead.compareTo(next.mHead) < 0)) {
+                    next = source;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            if (index >= offset && bmList.getCount() < count) {
+                bmList.add(next.mHead);
+            } else if (!next.mHead.getReadBool()) {
+                bmList.setHasUnread();
+            }
+            index++;
+            if (bmList.getCount() >= count && bmList.hasUnread()) {
+                // Nothing left to learn from the remaining rows
+                break;
+            }
+            next.mHead = nextListingElement(next, fi, ap);
+        }
+    }
+
+    private BluetoothMapMessageListingElement nextListingElement(ListingSource source,
+            FilterInfo fi, BluetoothMapAppParams ap) {
+        fi.mMsgType = source.mMsgType;
+        while (source.mCursor.moveToNext()) {
+            if (!source.mMatchAddresses || matchAddresses(source.mCursor, fi, ap)) {
+                if (V) {
+                    BluetoothMapUtils.printCursor(source.mCursor);
+                }
+                return element(source.mCursor, fi, ap);
+            }
+        }
+        return null;
+    }
+
+    private static void closeCursors(Cursor... cursors) {
+        for (Cursor cursor : cursors) {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Looks up the details of message listing elements, which require contact lookups and are
+     * hence only done for the elements that are sent. Owns the cursors of the listing.
+     */
+    private class ListingElementFiller implements BluetoothMapMessageListing.ElementFiller {
+        private final Cursor mSmsCursor;
+        private final Cursor mMmsCursor;
+        private final Cursor mEmailCursor;
+        private final Cursor mImCursor;
+        private final FilterInfo mFilterInfo;
+        private final BluetoothMapAppParams mAppParams;
+
+        ListingElementFiller(Cursor smsCursor, Cursor mmsCursor, Cursor emailCursor,
+                Cursor imCursor, FilterInfo fi, BluetoothMapAppParams ap) {
+            mSmsCursor = smsCursor;
+            mMmsCursor = mmsCursor;
+            mEmailCursor = emailCursor;
+            mImCursor = imCursor;
+            mFilterInfo = fi;
+            mAppParams = ap;
+        }
+
+        @Override
+        public void fill(BluetoothMapMessageListingElement ele) {
+            FilterInfo fi = mFilterInfo;
+            BluetoothMapAppParams ap = mAppParams;
+            Cursor tmpCursor = null;
+            /* If OBEX "GET" request header includes "ParameterMask" with 'Type' NOT set,
+             * then ele.getType() returns "null" even for a valid cursor.
+             * Avoid NullPointerException in equals() check when 'mType' value is "null" */
+            TYPE tmpType = ele.getType();
+            if (mSmsCursor != null && ((TYPE.SMS_GSM).equals(tmpType)
+                    || (TYPE.SMS_CDMA).equals(tmpType))) {
+                tmpCursor = mSmsCursor;
+                fi.mMsgType = FilterInfo.TYPE_SMS;
+            } else if (mMmsCursor != null && (TYPE.MMS).equals(tmpType)) {
+                tmpCursor = mMmsCursor;
+                fi.mMsgType = FilterInfo.TYPE_MMS;
+            } else if (mEmailCursor != null && ((TYPE.EMAIL).equals(tmpType))) {
+                tmpCursor = mEmailCursor;
+                fi.mMsgType = FilterInfo.TYPE_EMAIL;
+            } else if (mImCursor != null && ((TYPE.IM).equals(tmpType))) {
+                tmpCursor = mImCursor;
+                fi.mMsgType = FilterInfo.TYPE_IM;
+            }
+            if (tmpCursor != null) {
+                tmpCursor.moveToPosition(ele.getCursorIndex());
+                setSenderAddressing(ele, tmpCursor, fi, ap);
+                setSenderName(ele, tmpCursor, fi, ap);
+                setRecipientAddressing(ele, tmpCursor, fi, ap);
+                setRecipientName(ele, tmpCursor, fi, ap);
+                setSubject(ele, tmpCursor, fi, ap);
+                setSize(ele, tmpCursor, fi, ap);
+                setText(ele, tmpCursor, fi, ap);
+                setPriority(ele, tmpCursor, fi, ap);
+                setSent(ele, tmpCursor, fi, ap);
+                setProtected(ele, tmpCursor, fi, ap);
+                setReceptionStatus(ele, ap);
+                setAttachment(ele, tmpCursor, fi, ap);
+
+                if (mMsgListingVersion > BluetoothMapUtils.MAP_MESSAGE_LISTING_FORMAT_V10) {
+                    setDeliveryStatus(ele, tmpCursor, fi, ap);
+                    setThreadId(ele, tmpCursor, fi, ap);
+                    setThreadName(ele, tmpCursor, fi, ap);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            closeCursors(mEmailCursor, mSmsCursor, mMmsCursor, mImCursor);
+        }
+    }
+
     /**
      * Get the size of the message listing
      * @param folderElement Must contain a valid folder string != null
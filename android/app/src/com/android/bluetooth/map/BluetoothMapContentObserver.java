@@ -37,6 +37,7 @@ import android.os.Message;
 import android.os.ParcelFileDescriptor;
 import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserManager;
 import android.provider.Telephony;
 import android.provider.Telephony.Mms;
@@ -481,7 +482,9 @@ public class BluetoothMapContentObserver {
         return smsType;
     }
 
-    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+    private final Handler mHandler = new Handler();
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
         @Override
         public void onChange(boolean selfChange) {
             onChange(selfChange, null);
@@ -916,6 +919,20 @@ public class BluetoothMapContentObserver {
 
     private Map<Long, Msg> mMsgListMsg = null;
 
+    /* Highest message ids read from the providers, -1 if not known yet. Change notifications only
+     * query the rows above these; see BluetoothMapChangeTracker. */
+    private long mSmsHighWaterId = -1;
+
+    private long mMmsHighWaterId = -1;
+
+    private long mMsgHighWaterId = -1;
+
+    private final BluetoothMapChangeTracker mSmsMmsChangeTracker =
+            new BluetoothMapChangeTracker("sms/mms", mHandler, this::rescanMsgListSmsMms);
+
+    private final BluetoothMapChangeTracker mMsgChangeTracker =
+            new BluetoothMapChangeTracker("msg", mHandler, this::rescanMsgListMsg);
+
     private Map<String, BluetoothMapConvoContactElement> mContactList = null;
 
     public int setNotificationRegistration(int notificationStatus) throws RemoteException {
@@ -1080,6 +1097,8 @@ public class BluetoothMapContentObserver {
         }
         mResolver.unregisterContentObserver(mObserver);
         mObserverRegistered = false;
+        mSmsMmsChangeTracker.cancel();
+        mMsgChangeTracker.cancel();
         if (mProviderClient != null) {
             mProviderClient.close();
             mProviderClient = null;
@@ -1424,34 +1443,67 @@ public class BluetoothMapContentObserver {
 
     @VisibleForTesting
     void handleMsgListChangesSms() {
+        scanMsgListSms(true);
+    }
+
+    /**
+     * Compare the SMS table with the SMS message list and send events for the differences.
+     *
+     * @param fullScan read the whole table and report messages that are gone as deleted. If
+     *     false, only the rows above {@link #mSmsHighWaterId} are read.
+     * @return the number of rows read
+     */
+    @VisibleForTesting
+    int scanMsgListSms(boolean fullScan) {
         if (V) {
-            Log.d(TAG, "handleMsgListChangesSms");
+            Log.d(TAG, "handleMsgListChangesSms fullScan=" + fullScan);
         }
 
-        HashMap<Long, Msg> msgListSms = new HashMap<Long, Msg>();
         boolean listChanged = false;
+        int rows = 0;
+        long maxId = -1;
 
         Cursor c;
         synchronized (getMsgListSms()) {
+            // A delta scan updates the current list in place
+            Map<Long, Msg> msgListSms = fullScan ? new HashMap<Long, Msg>() : getMsgListSms();
+            String selection = null;
+            String[] selectionArgs = null;
+            if (!fullScan) {
+                if (mSmsHighWaterId < 0) {
+                    mSmsHighWaterId = BluetoothMapChangeTracker.getMaxId(getMsgListSms());
+                }
+                selection = Sms._ID + " > ?";
+                selectionArgs = new String[] {Long.toString(mSmsHighWaterId)};
+            }
             if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT, null, null, null);
+                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT, selection, selectionArgs, null);
             } else {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT_EXT, null, null, null);
+                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT_EXT, selection, selectionArgs,
+                        null);
             }
             try {
                 if (c != null && c.moveToFirst()) {
+                    int idIndex = c.getColumnIndexOrThrow(Sms._ID);
+                    int typeIndex = c.getColumnIndex(Sms.TYPE);
+                    int threadIdIndex = c.getColumnIndex(Sms.THREAD_ID);
+                    int readIndex = c.getColumnIndex(Sms.READ);
+                    int dateIndex = c.getColumnIndex(Sms.DATE);
+                    int bodyIndex = c.getColumnIndex(Sms.BODY);
+                    int addressIndex = c.getColumnIndex(Sms.ADDRESS);
                     do {
-                        int idIndex = c.getColumnIndexOrThrow(Sms._ID);
+                        rows++;
                         if (c.isNull(idIndex)) {
                             Log.w(TAG, "handleMsgListChangesSms, ID is null");
                             continue;
                         }
                         long id = c.getLong(idIndex);
-                        int type = c.getInt(c.getColumnIndex(Sms.TYPE));
-                        int threadId = c.getInt(c.getColumnIndex(Sms.THREAD_ID));
-                        int read = c.getInt(c.getColumnIndex(Sms.READ));
+                        maxId = Math.max(maxId, id);
+                        int type = c.getInt(typeIndex);
+                        int threadId = c.getInt(threadIdIndex);
+                        int read = c.getInt(readIndex);
 
                         Msg msg = getMsgListSms().remove(id);
 
@@ -1467,7 +1519,7 @@ public class BluetoothMapContentObserver {
                             if (mTransmitEvents && // extract contact details only if needed
                                     mMapEventReportVersion
                                             > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                long timestamp = c.getLong(c.getColumnIndex(Sms.DATE));
+                                long timestamp = c.getLong(dateIndex);
                                 String date = BluetoothMapUtils.getDateTimeString(timestamp);
                                 if (BluetoothMapUtils.isDateTimeOlderThanOneYear(timestamp)) {
                                     // Skip sending message events older than one year
@@ -1475,14 +1527,14 @@ public class BluetoothMapContentObserver {
                                     msgListSms.remove(id);
                                     continue;
                                 }
-                                String subject = c.getString(c.getColumnIndex(Sms.BODY));
+                                String subject = c.getString(bodyIndex);
                                 if (subject == null) {
                                     subject = "";
                                 }
                                 String name = "";
                                 String phone = "";
                                 if (type == 1) { //inbox
-                                    phone = c.getString(c.getColumnIndex(Sms.ADDRESS));
+                                    phone = c.getString(addressIndex);
                                     if (phone != null && !phone.isEmpty()) {
                                         name = BluetoothMapContent.getContactNameFromPhone(phone,
                                                 mResolver);
@@ -1574,56 +1626,96 @@ public class BluetoothMapContentObserver {
                     c.close();
                 }
             }
-            String eventType = EVENT_TYPE_DELETE;
-            for (Msg msg : getMsgListSms().values()) {
-                // "old_folder" used only for MessageShift event
-                if (mMapEventReportVersion >= BluetoothMapUtils.MAP_EVENT_REPORT_V12) {
-                    eventType = EVENT_TYPE_REMOVED;
-                    if (V) Log.v(TAG," sent EVENT_TYPE_REMOVED");
+            if (fullScan) {
+                String eventType = EVENT_TYPE_DELETE;
+                for (Msg msg : getMsgListSms().values()) {
+                    // "old_folder" used only for MessageShift event
+                    if (mMapEventReportVersion >= BluetoothMapUtils.MAP_EVENT_REPORT_V12) {
+                        eventType = EVENT_TYPE_REMOVED;
+                        if (V) Log.v(TAG," sent EVENT_TYPE_REMOVED");
+                    }
+                    Event evt = new Event(eventType, msg.id, getSmsFolderName(msg.type), null,
+                            mSmsType);
+                    sendEvent(evt);
+                    listChanged = true;
                 }
-                Event evt = new Event(eventType, msg.id, getSmsFolderName(msg.type), null,
-                        mSmsType);
-                sendEvent(evt);
-                listChanged = true;
+                mSmsHighWaterId = maxId;
+            } else {
+                mSmsHighWaterId = Math.max(mSmsHighWaterId, maxId);
             }
 
             setMsgListSms(msgListSms, listChanged);
         }
+        return rows;
     }
 
     @VisibleForTesting
     void handleMsgListChangesMms() {
+        scanMsgListMms(true);
+    }
+
+    /**
+     * Compare the MMS table with the MMS message list and send events for the differences.
+     *
+     * @param fullScan read the whole table and report messages that are gone as deleted. If
+     *     false, only the rows above {@link #mMmsHighWaterId} are read.
+     * @return the number of rows read
+     */
+    @VisibleForTesting
+    int scanMsgListMms(boolean fullScan) {
         if (V) {
-            Log.d(TAG, "handleMsgListChangesMms");
+            Log.d(TAG, "handleMsgListChangesMms fullScan=" + fullScan);
         }
 
-        HashMap<Long, Msg> msgListMms = new HashMap<Long, Msg>();
         boolean listChanged = false;
+        int rows = 0;
+        long maxId = -1;
         Cursor c;
         synchronized (getMsgListMms()) {
+            // A delta scan updates the current list in place
+            Map<Long, Msg> msgListMms = fullScan ? new HashMap<Long, Msg>() : getMsgListMms();
+            String selection = null;
+            String[] selectionArgs = null;
+            if (!fullScan) {
+                if (mMmsHighWaterId < 0) {
+                    mMmsHighWaterId = BluetoothMapChangeTracker.getMaxId(getMsgListMms());
+                }
+                selection = Mms._ID + " > ?";
+                selectionArgs = new String[] {Long.toString(mMmsHighWaterId)};
+            }
             if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT, null, null, null);
+                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT, selection, selectionArgs, null);
             } else {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT_EXT, null, null, null);
+                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT_EXT, selection, selectionArgs,
+                        null);
             }
 
             try {
                 if (c != null && c.moveToFirst()) {
+                    int idIndex = c.getColumnIndexOrThrow(Mms._ID);
+                    int boxIndex = c.getColumnIndex(Mms.MESSAGE_BOX);
+                    int typeIndex = c.getColumnIndex(Mms.MESSAGE_TYPE);
+                    int threadIdIndex = c.getColumnIndex(Mms.THREAD_ID);
+                    int readIndex = c.getColumnIndex(Mms.READ);
+                    int dateIndex = c.getColumnIndex(Mms.DATE);
+                    int subjectIndex = c.getColumnIndex(Mms.SUBJECT);
+                    int priorityIndex = c.getColumnIndex(Mms.PRIORITY);
                     do {
-                        int idIndex = c.getColumnIndexOrThrow(Mms._ID);
+                        rows++;
                         if (c.isNull(idIndex)) {
                             Log.w(TAG, "handleMsgListChangesMms, ID is null");
                             continue;
                         }
                         long id = c.getLong(idIndex);
-                        int type = c.getInt(c.getColumnIndex(Mms.MESSAGE_BOX));
-                        int mtype = c.getInt(c.getColumnIndex(Mms.MESSAGE_TYPE));
-                        int threadId = c.getInt(c.getColumnIndex(Mms.THREAD_ID));
+                        maxId = Math.max(maxId, id);
+                        int type = c.getInt(boxIndex);
+                        int mtype = c.getInt(typeIndex);
+                        int threadId = c.getInt(threadIdIndex);
                         // TODO: Go through code to see if we have an issue with mismatch in types
                         //       for threadId. Seems to be a long in DB??
-                        int read = c.getInt(c.getColumnIndex(Mms.READ));
+                        int read = c.getInt(readIndex);
 
                         Msg msg = getMsgListMms().remove(id);
 
@@ -1646,15 +1738,14 @@ public class BluetoothMapContentObserver {
                                             != BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
                                 // MMS date field is in seconds
                                 long timestamp =
-                                        TimeUnit.SECONDS.toMillis(
-                                            c.getLong(c.getColumnIndex(Mms.DATE)));
+                                        TimeUnit.SECONDS.toMillis(c.getLong(dateIndex));
                                 String date = BluetoothMapUtils.getDateTimeString(timestamp);
                                 if (BluetoothMapUtils.isDateTimeOlderThanOneYear(timestamp)) {
                                     // Skip sending new message events older than one year
                                     msgListMms.remove(id);
                                     continue;
                                 }
-                                String subject = c.getString(c.getColumnIndex(Mms.SUBJECT));
+                                String subject = c.getString(subjectIndex);
                                 if (subject == null || subject.length() == 0) {
                                     /* Get subject from mms text body parts - if any exists */
                                     subject = BluetoothMapContent.getTextPartsMms(mResolver, id);
@@ -1662,7 +1753,7 @@ public class BluetoothMapContentObserver {
                                         subject = "";
                                     }
                                 }
-                                int tmpPri = c.getInt(c.getColumnIndex(Mms.PRIORITY));
+                                int tmpPri = c.getInt(priorityIndex);
                                 Log.d(TAG, "TEMP handleMsgListChangesMms, "
                                         + "newMessage 'read' state: " + read + "priority: "
                                         + tmpPri);
@@ -1759,15 +1850,21 @@ public class BluetoothMapContentObserver {
                     c.close();
                 }
             }
-            for (Msg msg : getMsgListMms().values()) {
-                // "old_folder" used only for MessageShift event
-                Event evt = new Event(EVENT_TYPE_DELETE, msg.id, getMmsFolderName(msg.type), null,
-                        TYPE.MMS);
-                sendEvent(evt);
-                listChanged = true;
+            if (fullScan) {
+                for (Msg msg : getMsgListMms().values()) {
+                    // "old_folder" used only for MessageShift event
+                    Event evt = new Event(EVENT_TYPE_DELETE, msg.id, getMmsFolderName(msg.type),
+                            null, TYPE.MMS);
+                    sendEvent(evt);
+                    listChanged = true;
+                }
+                mMmsHighWaterId = maxId;
+            } else {
+                mMmsHighWaterId = Math.max(mMmsHighWaterId, maxId);
             }
             setMsgListMms(msgListMms, listChanged);
         }
+        return rows;
     }
 
     @VisibleForTesting
@@ -1776,28 +1873,78 @@ public class BluetoothMapContentObserver {
             Log.v(TAG, "handleMsgListChangesMsg uri: " + uri.toString());
         }
 
-        // TODO: Change observer to handle accountId and message ID if present
+        scanMsgListMsg(BluetoothMapChangeTracker.NO_MESSAGE_ID, true);
+    }
+
+    /**
+     * Compare the message table of the account with the message list and send events for the
+     * differences.
+     *
+     * @param messageId if not {@link BluetoothMapChangeTracker#NO_MESSAGE_ID}, only read the row
+     *     of this message
+     * @param fullScan read the whole table and report messages that are gone as deleted. If
+     *     false and no message id is given, only the rows above {@link #mMsgHighWaterId} are
+     *     read.
+     * @return the number of rows read
+     */
+    @VisibleForTesting
+    int scanMsgListMsg(long messageId, boolean fullScan) throws RemoteException {
+        String selection = null;
+        String[] selectionArgs = null;
+        if (!fullScan) {
+            if (messageId != BluetoothMapChangeTracker.NO_MESSAGE_ID) {
+                selection = BluetoothMapContract.MessageColumns._ID + " = ?";
+                selectionArgs = new String[] {Long.toString(messageId)};
+            } else {
+                synchronized (getMsgListMsg()) {
+                    if (mMsgHighWaterId < 0) {
+                        mMsgHighWaterId = BluetoothMapChangeTracker.getMaxId(getMsgListMsg());
+                    }
+                    selection = BluetoothMapContract.MessageColumns._ID + " > ?";
+                    selectionArgs = new String[] {Long.toString(mMsgHighWaterId)};
+                }
+            }
+        }
 
-        HashMap<Long, Msg> msgList = new HashMap<Long, Msg>();
         Cursor c;
         boolean listChanged = false;
+        int rows = 0;
+        long maxId = -1;
         if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-            c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT, null, null, null);
+            c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT, selection,
+                    selectionArgs, null);
         } else if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
-            c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT_EXT, null, null, null);
+            c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT_EXT, selection,
+                    selectionArgs, null);
         } else {
-            c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT_EXT2, null, null, null);
+            c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT_EXT2, selection,
+                    selectionArgs, null);
         }
         synchronized (getMsgListMsg()) {
+            // A delta scan updates the current list in place
+            Map<Long, Msg> msgList = fullScan ? new HashMap<Long, Msg>() : getMsgListMsg();
             try {
                 if (c != null && c.moveToFirst()) {
+                    int idIndex = c.getColumnIndex(BluetoothMapContract.MessageColumns._ID);
+                    int folderIdIndex =
+                            c.getColumnIndex(BluetoothMapContract.MessageColumns.FOLDER_ID);
+                    int readIndex = c.getColumnIndex(BluetoothMapContract.MessageColumns.FLAG_READ);
+                    int dateIndex = c.getColumnIndex(BluetoothMapContract.MessageColumns.DATE);
+                    int subjectIndex =
+                            c.getColumnIndex(BluetoothMapContract.MessageColumns.SUBJECT);
+                    int fromIndex = c.getColumnIndex(BluetoothMapContract.MessageColumns.FROM_LIST);
+                    int priorityIndex = c.getColumnIndex(
+                            BluetoothMapContract.MessageColumns.FLAG_HIGH_PRIORITY);
+                    int threadIdIndex =
+                            c.getColumnIndex(BluetoothMapContract.MessageColumns.THREAD_ID);
+                    int threadNameIndex =
+                            c.getColumnIndex(BluetoothMapContract.MessageColumns.THREAD_NAME);
                     do {
-                        long id = c.getLong(
-                                c.getColumnIndex(BluetoothMapContract.MessageColumns._ID));
-                        int folderId = c.getInt(
-                                c.getColumnIndex(BluetoothMapContract.MessageColumns.FOLDER_ID));
-                        int readFlag = c.getInt(
-                                c.getColumnIndex(BluetoothMapContract.MessageColumns.FLAG_READ));
+                        rows++;
+                        long id = c.getLong(idIndex);
+                        maxId = Math.max(maxId, id);
+                        int folderId = c.getInt(folderIdIndex);
+                        int readFlag = c.getInt(readIndex);
                         Msg msg = getMsgListMsg().remove(id);
                         BluetoothMapFolderElement folderElement = mFolders.getFolderById(folderId);
                         String newFolder;
@@ -1817,17 +1964,12 @@ public class BluetoothMapContentObserver {
                             Event evt;
                             /* Incoming message from the network */
                             if (mMapEventReportVersion != BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                String date = BluetoothMapUtils.getDateTimeString(c.getLong(
-                                        c.getColumnIndex(
-                                                BluetoothMapContract.MessageColumns.DATE)));
-                                String subject = c.getString(c.getColumnIndex(
-                                        BluetoothMapContract.MessageColumns.SUBJECT));
-                                String address = c.getString(c.getColumnIndex(
-                                        BluetoothMapContract.MessageColumns.FROM_LIST));
+                                String date = BluetoothMapUtils.getDateTimeString(
+                                        c.getLong(dateIndex));
+                                String subject = c.getString(subjectIndex);
+                                String address = c.getString(fromIndex);
                                 String priority = "no";
-                                if (c.getInt(c.getColumnIndex(
-                                        BluetoothMapContract.MessageColumns.FLAG_HIGH_PRIORITY))
-                                        == 1) {
+                                if (c.getInt(priorityIndex) == 1) {
                                     priority = "yes";
                                 }
                                 if (mMapEventReportVersion
@@ -1835,10 +1977,8 @@ public class BluetoothMapContentObserver {
                                     evt = new Event(EVENT_TYPE_NEW, id, newFolder,
                                             mAccount.getType(), date, subject, address, priority);
                                 } else {
-                                    long threadId = c.getLong(c.getColumnIndex(
-                                            BluetoothMapContract.MessageColumns.THREAD_ID));
-                                    String threadName = c.getString(c.getColumnIndex(
-                                            BluetoothMapContract.MessageColumns.THREAD_NAME));
+                                    long threadId = c.getLong(threadIdIndex);
+                                    String threadName = c.getString(threadNameIndex);
                                     evt = new Event(EVENT_TYPE_NEW, id, newFolder,
                                             mAccount.getType(), date, subject, address, priority,
                                             threadId, threadName);
@@ -1924,43 +2064,51 @@ public class BluetoothMapContentObserver {
                     c.close();
                 }
             }
-            // For all messages no longer in the database send a delete notification
-            for (Msg msg : getMsgListMsg().values()) {
-                BluetoothMapFolderElement oldFolderElement = mFolders.getFolderById(msg.folderId);
-                String oldFolder;
-                listChanged = true;
-                if (oldFolderElement != null) {
-                    oldFolder = oldFolderElement.getFullPath();
-                } else {
-                    oldFolder = "unknown";
-                }
-                /* Some e-mail clients delete the message after sending, and creates a
-                 * new message in sent. We cannot track the message anymore, hence send both a
-                 * send success and delete message.
-                 */
-                if (msg.localInitiatedSend) {
-                    msg.localInitiatedSend = false;
-                    // If message is send with transparency don't set folder as message is deleted
-                    if (msg.transparent) {
-                        oldFolder = null;
+            if (fullScan) {
+                // For all messages no longer in the database send a delete notification
+                for (Msg msg : getMsgListMsg().values()) {
+                    BluetoothMapFolderElement oldFolderElement =
+                            mFolders.getFolderById(msg.folderId);
+                    String oldFolder;
+                    listChanged = true;
+                    if (oldFolderElement != null) {
+                        oldFolder = oldFolderElement.getFullPath();
+                    } else {
+                        oldFolder = "unknown";
                     }
-                    Event evt = new Event(EVENT_TYPE_SENDING_SUCCESS, msg.id, oldFolder, null,
-                            mAccount.getType());
-                    sendEvent(evt);
-                }
-                /* As this message deleted is only send on a real delete - don't set folder.
-                 *  - only send delete event if message is not sent with transparency
-                 */
-                if (!msg.transparent) {
+                    /* Some e-mail clients delete the message after sending, and creates a
+                     * new message in sent. We cannot track the message anymore, hence send both a
+                     * send success and delete message.
+                     */
+                    if (msg.localInitiatedSend) {
+                        msg.localInitiatedSend = false;
+                        // If message is send with transparency don't set folder as message is
+                        // deleted
+                        if (msg.transparent) {
+                            oldFolder = null;
+                        }
+                        Event evt = new Event(EVENT_TYPE_SENDING_SUCCESS, msg.id, oldFolder, null,
+                                mAccount.getType());
+                        sendEvent(evt);
+                    }
+                    /* As this message deleted is only send on a real delete - don't set folder.
+                     *  - only send delete event if message is not sent with transparency
+                     */
+                    if (!msg.transparent) {
 
-                    // "old_folder" used only for MessageShift event
-                    Event evt = new Event(EVENT_TYPE_DELETE, msg.id, oldFolder, null,
-                            mAccount.getType());
-                    sendEvent(evt);
+                        // "old_folder" used only for MessageShift event
+                        Event evt = new Event(EVENT_TYPE_DELETE, msg.id, oldFolder, null,
+                                mAccount.getType());
+                        sendEvent(evt);
+                    }
                 }
+                mMsgHighWaterId = maxId;
+            } else if (messageId == BluetoothMapChangeTracker.NO_MESSAGE_ID) {
+                mMsgHighWaterId = Math.max(mMsgHighWaterId, maxId);
             }
             setMsgListMsg(msgList, listChanged);
         }
+        return rows;
     }
 
     private void handleMsgListChanges(Uri uri) {
@@ -1970,18 +2118,47 @@ public class BluetoothMapContentObserver {
                     Log.d(TAG, "handleMsgListChanges: account type = " + mAccount.getType()
                             .toString());
                 }
-                handleMsgListChangesMsg(uri);
+                long start = SystemClock.elapsedRealtime();
+                long messageId = BluetoothMapChangeTracker.getMessageId(uri);
+                int rows = scanMsgListMsg(messageId, false);
+                mMsgChangeTracker.onDeltaScan(messageId, rows,
+                        SystemClock.elapsedRealtime() - start);
             } catch (RemoteException e) {
                 mMasInstance.restartObexServerSession();
                 Log.w(TAG, "Problems contacting the ContentProvider in mas Instance " + mMasId
                         + " restaring ObexServerSession");
             }
 
+        } else if (mEnableSmsMms) {
+            // The SMS/MMS changes are notified on MmsSms.CONTENT_URI, which never names the
+            // changed message, hence only new messages can be picked up by a delta scan and a
+            // full rescan always follows.
+            long start = SystemClock.elapsedRealtime();
+            int rows = scanMsgListSms(false) + scanMsgListMms(false);
+            mSmsMmsChangeTracker.onDeltaScan(BluetoothMapChangeTracker.NO_MESSAGE_ID, rows,
+                    SystemClock.elapsedRealtime() - start);
         }
-        // TODO: check to see if there could be problem with IM and SMS in one instance
-        if (mEnableSmsMms) {
-            handleMsgListChangesSms();
-            handleMsgListChangesMms();
+    }
+
+    /* Full rescans scheduled by the change trackers when a delta scan did not explain a change */
+    private void rescanMsgListSmsMms() {
+        if (!mObserverRegistered || !mEnableSmsMms) {
+            return;
+        }
+        handleMsgListChangesSms();
+        handleMsgListChangesMms();
+    }
+
+    private void rescanMsgListMsg() {
+        if (!mObserverRegistered || mAccount == null || mProviderClient == null) {
+            return;
+        }
+        try {
+            handleMsgListChangesMsg(mMessageUri);
+        } catch (RemoteException e) {
+            mMasInstance.restartObexServerSession();
+            Log.w(TAG, "Problems contacting the ContentProvider in mas Instance " + mMasId
+                    + " restaring ObexServerSession");
         }
     }
 
@@ -22,8 +22,9 @@ import com.android.bluetooth.Utils;
 
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -36,10 +37,36 @@ public class BluetoothMapMessageListing {
 
     private List<BluetoothMapMessageListingElement> mList;
 
+    private ElementFiller mElementFiller;
+
+    /**
+     * Completes the elements of a streamed listing right before they are encoded, see
+     * {@link BluetoothMapContent#msgListing(BluetoothMapFolderElement, BluetoothMapAppParams,
+     * boolean)}.
+     */
+    interface ElementFiller {
+        void fill(BluetoothMapMessageListingElement element);
+
+        /** Release the resources, e.g. cursors, used to fill the elements. */
+        void close();
+    }
+
     public BluetoothMapMessageListing() {
         mList = new ArrayList<BluetoothMapMessageListingElement>();
     }
 
+    void setElementFiller(ElementFiller filler) {
+        mElementFiller = filler;
+    }
+
+    /** Release the resources held by a streamed listing. Safe to call more than once. */
+    public void close() {
+        if (mElementFiller != null) {
+            mElementFiller.close();
+            mElementFiller = null;
+        }
+    }
+
     public void add(BluetoothMapMessageListingElement element) {
         mList.add(element);
         /* update info regarding whether the list contains unread messages */
@@ -67,6 +94,11 @@ public class BluetoothMapMessageListing {
         return mHasUnread;
     }
 
+    /** Note that the messages left out of the listing include unread messages. */
+    void setHasUnread() {
+        mHasUnread = true;
+    }
+
 
     /**
      *  returns the entire list as a list
@@ -90,36 +122,9 @@ public class BluetoothMapMessageListing {
     // TODO: Remove includeThreadId when MAP-IM is adopted
     public byte[] encode(boolean includeThreadId, String version)
             throws UnsupportedEncodingException {
-        StringWriter sw = new StringWriter();
-        boolean isBenzCarkit;
-
-        if (Utils.isInstrumentationTestMode()) {
-            isBenzCarkit = false;
-        } else {
-            isBenzCarkit = DeviceWorkArounds.addressStartsWith(
-                    BluetoothMapService.getRemoteDevice().getAddress(),
-                    DeviceWorkArounds.MERCEDES_BENZ_CARKIT);
-        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-            XmlSerializer xmlMsgElement = Xml.newSerializer();
-            xmlMsgElement.setOutput(sw);
-            if (isBenzCarkit) {
-                Log.d(TAG, "java_interop: Remote is Mercedes Benz, "
-                        + "using Xml Workaround.");
-                xmlMsgElement.text("\n");
-            } else {
-                xmlMsgElement.startDocument("UTF-8", true);
-                xmlMsgElement.setFeature(
-                        "http://xmlpull.org/v1/doc/features.html#indent-output", true);
-            }
-            xmlMsgElement.startTag(null, "MAP-msg-listing");
-            xmlMsgElement.attribute(null, "version", version);
-            // Do the XML encoding of list
-            for (BluetoothMapMessageListingElement element : mList) {
-                element.encode(xmlMsgElement, includeThreadId); // Append the list element
-            }
-            xmlMsgElement.endTag(null, "MAP-msg-listing");
-            xmlMsgElement.endDocument();
+            encode(out, includeThreadId, version);
         } catch (IllegalArgumentException e) {
             Log.w(TAG, e);
         } catch (IllegalStateException e) {
@@ -131,13 +136,70 @@ public class BluetoothMapMessageListing {
         if (!Utils.isInstrumentationTestMode() && DeviceWorkArounds.addressStartsWith(
                 BluetoothMapService.getRemoteDevice().getAddress(),
                 DeviceWorkArounds.BREZZA_ZDI_CARKIT)) {
-            return sw.toString()
+            return out.toString("UTF-8")
                     .replaceAll("&amp;", "&")
                     .replaceAll("&lt;", "<")
                     .replaceAll("&gt;", ">")
                     .getBytes("UTF-8");
         }
-        return sw.toString().getBytes("UTF-8");
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns false if the listing must be encoded into a byte array, because the XML needs to
+     * be patched for the remote device.
+     */
+    public static boolean isStreamingSupported() {
+        return Utils.isInstrumentationTestMode() || !DeviceWorkArounds.addressStartsWith(
+                BluetoothMapService.getRemoteDevice().getAddress(),
+                DeviceWorkArounds.BREZZA_ZDI_CARKIT);
+    }
+
+    /**
+     * Encode the list of BluetoothMapMessageListingElement(s) as UTF-8 formatted XML straight
+     * into {@code out}, completing each element right before it is written. The output is the
+     * same as {@link #encode(boolean, String)}, except for the remote devices for which
+     * {@link #isStreamingSupported()} is false.
+     *
+     * @param out the stream to write to, e.g. the OBEX body stream. It is not closed.
+     * @throws IOException if writing to {@code out} failed
+     * @throws IllegalArgumentException if the listing could not be encoded, part of it may
+     *         already be written to {@code out}
+     * @throws IllegalStateException if the listing could not be encoded, same as above
+     */
+    public void encode(OutputStream out, boolean includeThreadId, String version)
+            throws IOException {
+        boolean isBenzCarkit;
+
+        if (Utils.isInstrumentationTestMode()) {
+            isBenzCarkit = false;
+        } else {
+            isBenzCarkit = DeviceWorkArounds.addressStartsWith(
+                    BluetoothMapService.getRemoteDevice().getAddress(),
+                    DeviceWorkArounds.MERCEDES_BENZ_CARKIT);
+        }
+        XmlSerializer xmlMsgElement = Xml.newSerializer();
+        xmlMsgElement.setOutput(out, "UTF-8");
+        if (isBenzCarkit) {
+            Log.d(TAG, "java_interop: Remote is Mercedes Benz, "
+                    + "using Xml Workaround.");
+            xmlMsgElement.text("\n");
+        } else {
+            xmlMsgElement.startDocument("UTF-8", true);
+            xmlMsgElement.setFeature(
+                    "http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        }
+        xmlMsgElement.startTag(null, "MAP-msg-listing");
+        xmlMsgElement.attribute(null, "version", version);
+        for (BluetoothMapMessageListingElement element : mList) {
+            if (mElementFiller != null) {
+                mElementFiller.fill(element);
+            }
+            element.encode(xmlMsgElement, includeThreadId); // Append the list element
+        }
+        xmlMsgElement.endTag(null, "MAP-msg-listing");
+        xmlMsgElement.endDocument();
+        xmlMsgElement.flush();
     }
 
     public void sort() {
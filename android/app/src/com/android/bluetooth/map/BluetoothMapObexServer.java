@@ -39,6 +39,7 @@ import com.android.obex.Operation;
 import com.android.obex.ResponseCodes;
 import com.android.obex.ServerRequestHandler;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -1145,6 +1146,9 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         HeaderSet replyHeaders = new HeaderSet();
         BluetoothMapAppParams outAppParams = new BluetoothMapAppParams();
         BluetoothMapMessageListing outList;
+        // Listing written straight into the body stream, instead of being encoded into outBytes
+        BluetoothMapMessageListing streamedList = null;
+        String version = null;
         if (appParams == null) {
             appParams = new BluetoothMapAppParams();
             appParams.setMaxListCount(1024);
@@ -1190,10 +1194,13 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
 
             // Check to see if we only need to send the size - hence no need to encode.
             if (appParams.getMaxListCount() != 0) {
-                outList = mOutContent.msgListing(folderToList, appParams);
+                boolean streamed = BluetoothMapMessageListing.isStreamingSupported();
+                outList = mOutContent.msgListing(folderToList, appParams, streamed);
+                if (streamed) {
+                    streamedList = outList;
+                }
                 // Generate the byte stream
                 outAppParams.setMessageListingSize(outList.getCount());
-                String version;
                 if (0 < (mRemoteFeatureMask
                         & BluetoothMapUtils.MAP_FEATURE_MESSAGE_LISTING_FORMAT_V11_BIT)) {
                     version = BluetoothMapUtils.MAP_V11_STR;
@@ -1202,7 +1209,9 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                 }
                 /* This will only set the version, the bit must also be checked before adding any
                  * 1.1 bits to the listing. */
-                outBytes = outList.encode(mThreadIdSupport, version);
+                if (!streamed) {
+                    outBytes = outList.encode(mThreadIdSupport, version);
+                }
                 hasUnread = outList.hasUnread();
             } else {
                 listSize = mOutContent.msgListingSize(folderToList, appParams);
@@ -1236,6 +1245,9 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
             outStream = op.openOutputStream();
         } catch (IOException e) {
             Log.w(TAG, "sendMessageListingRsp: IOException - sending OBEX_HTTP_BAD_REQUEST", e);
+            if (streamedList != null) {
+                streamedList.close();
+            }
             if (outStream != null) {
                 try {
                     outStream.close();
@@ -1254,6 +1266,9 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         } catch (IllegalArgumentException e) {
             Log.w(TAG, "sendMessageListingRsp: IllegalArgumentException"
                     + " - sending OBEX_HTTP_BAD_REQUEST", e);
+            if (streamedList != null) {
+                streamedList.close();
+            }
             if (outStream != null) {
                 try {
                     outStream.close();
@@ -1265,7 +1280,33 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         }
 
         maxChunkSize = op.getMaxPacketSize(); // This must be called after setting the headers.
-        if (outBytes != null) {
+        if (streamedList != null) {
+            // The OBEX body stream splits the XML into packets as it is written
+            try {
+                streamedList.encode(new AbortableOutputStream(outStream), mThreadIdSupport,
+                        version);
+            } catch (IOException e) {
+                if (D) {
+                    Log.w(TAG, e);
+                }
+                // We were probably aborted or disconnected
+                if (!mIsAborted) {
+                    return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
+                }
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // Part of the listing may have been sent, fail it rather than end it early
+                Log.w(TAG, "sendMessageListingRsp: encoding failed"
+                        + " - sending OBEX_HTTP_INTERNAL_ERROR", e);
+                return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
+            } finally {
+                streamedList.close();
+                try {
+                    outStream.close();
+                } catch (IOException e) {
+                    if (D) Log.d(TAG, "", e);
+                }
+            }
+        } else if (outBytes != null) {
             try {
                 while (bytesWritten < outBytes.length && !mIsAborted) {
                     bytesToWrite = Math.min(maxChunkSize, outBytes.length - bytesWritten);
@@ -1901,4 +1942,32 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
     private static void logHeader(HeaderSet hs) {
         Log.v(TAG, hs.dump());
     }
+
+    /**
+     * Fails the writes once the operation is aborted, so that a streamed encoding stops instead
+     * of filling the rest of the body.
+     */
+    private class AbortableOutputStream extends FilterOutputStream {
+        AbortableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkAborted();
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkAborted();
+            out.write(b, off, len);
+        }
+
+        private void checkAborted() throws IOException {
+            if (mIsAborted) {
+                throw new IOException("Operation aborted");
+            }
+        }
+    }
 }
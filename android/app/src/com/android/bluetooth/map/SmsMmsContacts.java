@@ -27,6 +27,7 @@ import android.provider.Telephony.MmsSms;
 import android.util.Log;
 
 import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.bluetooth.util.ContactNameCache;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.Arrays;
@@ -182,6 +183,18 @@ public class SmsMmsContacts {
             return null;
         }
 
+        if (contactNameFilter == null) {
+            // Unfiltered lookups are shared with the other profiles
+            ContactNameCache.Contact cached = ContactNameCache.get(phone,
+                    number -> queryContact(number, resolver));
+            if (cached == null) {
+                return null;
+            }
+            contact = MapContact.create(cached.getId(), cached.getName());
+            mNames.put(phone, contact);
+            return cached.exists() ? contact : null;
+        }
+
         // TODO: Should we change to extract both formatted name, and display name?
 
         Uri uri =
@@ -214,4 +227,26 @@ public class SmsMmsContacts {
         }
         return contact;
     }
+
+    private static ContactNameCache.Contact queryContact(String phone, ContentResolver resolver) {
+        Uri uri =
+                Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI, Uri.encode(phone));
+        Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(resolver, uri,
+                CONTACT_PROJECTION, CONTACT_SEL_VISIBLE, null, null);
+        try {
+            if (c == null) {
+                return null;
+            }
+            if (c.getCount() >= 1) {
+                c.moveToFirst();
+                return new ContactNameCache.Contact(c.getLong(COL_CONTACT_ID),
+                        c.getString(COL_CONTACT_NAME));
+            }
+            return ContactNameCache.Contact.NONE;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
 }
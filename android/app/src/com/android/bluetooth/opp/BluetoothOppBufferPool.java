@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Small pool of OBEX packet sized transfer buffers shared by the OPP client and server sessions.
+ *
+ * <p>Buffers are handed out with the exact requested length, since callers read whole buffers
+ * at a time. The negotiated OBEX packet size rarely changes, so a handful of pooled buffers is
+ * enough to keep back to back transfers from allocating.
+ */
+final class BluetoothOppBufferPool {
+    @VisibleForTesting
+    static final int MAX_POOLED_BUFFERS = 4;
+
+    @GuardedBy("sBuffers")
+    private static final ArrayDeque<byte[]> sBuffers = new ArrayDeque<>();
+
+    private BluetoothOppBufferPool() {}
+
+    /** Returns a buffer of exactly {@code size} bytes, reusing a pooled one if possible. */
+    static byte[] acquire(int size) {
+        synchronized (sBuffers) {
+            Iterator<byte[]> it = sBuffers.iterator();
+            while (it.hasNext()) {
+                byte[] buffer = it.next();
+                if (buffer.length == size) {
+                    it.remove();
+                    return buffer;
+                }
+            }
+        }
+        return new byte[size];
+    }
+
+    /** Returns {@code buffer} to the pool. The oldest pooled buffer is dropped if it is full. */
+    static void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        synchronized (sBuffers) {
+            if (sBuffers.size() >= MAX_POOLED_BUFFERS) {
+                sBuffers.pollFirst();
+            }
+            sBuffers.addLast(buffer);
+        }
+    }
+
+    @VisibleForTesting
+    static void clear() {
+        synchronized (sBuffers) {
+            sBuffers.clear();
+        }
+    }
+}
@@ -54,7 +54,6 @@ import com.android.obex.ResponseCodes;
 
 import com.google.common.annotations.VisibleForTesting;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -395,6 +394,8 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
             ClientOperation putOperation = null;
             OutputStream outputStream = null;
             InputStream inputStream = null;
+            byte[] buffer = null;
+            BluetoothOppTransferStats stats = null;
             try {
                 synchronized (this) {
                     mWaitingForRemote = true;
@@ -456,15 +457,15 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
 
                 if (!error) {
                     int readLength = 0;
-                    long percent = 0;
-                    long prevPercent = 0;
                     boolean okToProceed = false;
                     long timestamp = 0;
                     long currentTime = 0;
-                    long prevTimestamp = SystemClock.elapsedRealtime();
                     int outputBufferSize = putOperation.getMaxPacketSize();
-                    byte[] buffer = new byte[outputBufferSize];
-                    BufferedInputStream a = new BufferedInputStream(fileInfo.mInputStream, 0x4000);
+                    buffer = BluetoothOppBufferPool.acquire(outputBufferSize);
+                    // Read straight from the file into the packet buffer. Each read is already a
+                    // full OBEX packet so an intermediate BufferedInputStream only adds a copy.
+                    InputStream a = fileInfo.mInputStream;
+                    stats = BluetoothOppTransferStats.start("Sent");
 
                     if (!mInterrupted && (position != fileInfo.mLength)) {
                         readLength = readFully(a, buffer, outputBufferSize);
@@ -478,6 +479,7 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
 
                         // first packet will block here
                         outputStream.write(buffer, 0, readLength);
+                        stats.addBytes(readLength);
 
                         position += readLength;
 
@@ -519,6 +521,7 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
 
                         readLength = a.read(buffer, 0, outputBufferSize);
                         outputStream.write(buffer, 0, readLength);
+                        stats.addBytes(readLength);
 
                         /* check remote abort */
                         responseCode = putOperation.getResponseCode();
@@ -537,18 +540,9 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                                         + " readLength " + readLength + " bytes took "
                                         + (currentTime - timestamp) + " ms");
                             }
-                            // Update the Progress Bar only if there is change in percentage
-                            // or once per a period to notify NFC of this transfer is still alive
-                            percent = position * 100 / fileInfo.mLength;
-                            if (percent > prevPercent
-                                    || currentTime - prevTimestamp > Constants.NFC_ALIVE_CHECK_MS) {
-                                updateValues = new ContentValues();
-                                updateValues.put(BluetoothShare.CURRENT_BYTES, position);
-                                mContext1.getContentResolver()
-                                        .update(contentUri, updateValues, null, null);
-                                prevPercent = percent;
-                                prevTimestamp = currentTime;
-                            }
+                            // Progress is published in memory; the provider is only written
+                            // once the transfer is over.
+                            BluetoothOppProgressChannel.publish(mInfo.mId, position);
                         }
                     }
 
@@ -587,6 +581,14 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                 } catch (IOException e) {
                     Log.e(TAG, "Error when closing output stream after send");
                 }
+                if (stats != null) {
+                    stats.finish();
+                }
+                BluetoothOppBufferPool.release(buffer);
+                // Persist the last published byte count even if the link dropped mid transfer,
+                // getResponseCode() below throws in that case.
+                BluetoothOppProgressChannel.finish(mContext1.getContentResolver(), contentUri,
+                        mInfo.mId);
 
                 // Close InputStream and remove SendFileInfo from map
                 BluetoothOppUtility.closeSendFileInfo(mInfo.mUri);
@@ -465,8 +465,6 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
         }
 
         long position = 0;
-        long percent;
-        long prevPercent = 0;
 
         if (!error) {
             try {
@@ -480,11 +478,11 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
 
         if (!error) {
             int outputBufferSize = op.getMaxPacketSize();
-            byte[] b = new byte[outputBufferSize];
+            byte[] b = BluetoothOppBufferPool.acquire(outputBufferSize);
+            BluetoothOppTransferStats stats = BluetoothOppTransferStats.start("Received");
             int readLength;
             long timestamp = 0;
             long currentTime;
-            long prevTimestamp = SystemClock.elapsedRealtime();
             try {
                 while ((!mInterrupted) && (position != fileInfo.mLength)) {
 
@@ -502,8 +500,8 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                     }
 
                     os.write(b, 0, readLength);
+                    stats.addBytes(readLength);
                     position += readLength;
-                    percent = position * 100 / fileInfo.mLength;
                     currentTime = SystemClock.elapsedRealtime();
 
                     if (V) {
@@ -512,18 +510,9 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                                         + " bytes took " + (currentTime - timestamp) + " ms");
                     }
 
-                    // Update the Progress Bar only if there is change in percentage
-                    // or once per a period to notify NFC of this transfer is still alive
-                    if (percent > prevPercent
-                            || currentTime - prevTimestamp > Constants.NFC_ALIVE_CHECK_MS) {
-                        ContentValues updateValues = new ContentValues();
-                        updateValues.put(BluetoothShare.CURRENT_BYTES, position);
-                        BluetoothMethodProxy.getInstance().contentResolverUpdate(
-                                mContext.getContentResolver(), contentUri, updateValues, null,
-                                null);
-                        prevPercent = percent;
-                        prevTimestamp = currentTime;
-                    }
+                    // Progress is published in memory; the provider is only written once the
+                    // transfer is over.
+                    BluetoothOppProgressChannel.publish(mInfo.mId, position);
                 }
             } catch (IOException e1) {
                 Log.e(TAG, "Error when receiving file: " + e1);
@@ -534,6 +523,11 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                     status = BluetoothShare.STATUS_OBEX_DATA_ERROR;
                 }
                 error = true;
+            } finally {
+                stats.finish();
+                BluetoothOppBufferPool.release(b);
+                BluetoothOppProgressChannel.finish(mContext.getContentResolver(), contentUri,
+                        mInfo.mId);
             }
         }
 
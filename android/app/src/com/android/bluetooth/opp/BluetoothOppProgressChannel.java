@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory progress of the running OPP transfers.
+ *
+ * <p>The OBEX sessions publish the transferred byte count after every packet. Readers such as
+ * {@link BluetoothOppNotification} take the live value from here instead of the
+ * {@link BluetoothShare#CURRENT_BYTES} column, and registered {@link Listener}s are told about
+ * progress at most once per {@link #PUBLISH_INTERVAL_MS} per transfer. The provider is only
+ * written once, when the transfer ends, so a sustained transfer does not turn into a stream of
+ * SQLite writes and full share table re-queries.
+ */
+class BluetoothOppProgressChannel {
+    private static final String TAG = "BtOppProgress";
+    private static final boolean V = Constants.VERBOSE;
+
+    @VisibleForTesting
+    static final long PUBLISH_INTERVAL_MS = 500;
+
+    /** Notified when the progress of a running transfer changed. */
+    interface Listener {
+        void onProgressChanged(int id, long currentBytes);
+    }
+
+    private static class Progress {
+        volatile long mCurrentBytes;
+        long mLastPublishTime;
+    }
+
+    private static final ConcurrentHashMap<Integer, Progress> sProgress =
+            new ConcurrentHashMap<>();
+    private static final CopyOnWriteArrayList<Listener> sListeners =
+            new CopyOnWriteArrayList<>();
+
+    private BluetoothOppProgressChannel() {}
+
+    static void registerListener(Listener listener) {
+        sListeners.addIfAbsent(listener);
+    }
+
+    static void unregisterListener(Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * Record that {@code currentBytes} of transfer {@code id} have been moved. Only called by the
+     * thread running the transfer.
+     */
+    static void publish(int id, long currentBytes) {
+        Progress progress = sProgress.computeIfAbsent(id, k -> new Progress());
+        progress.mCurrentBytes = currentBytes;
+        long now = SystemClock.elapsedRealtime();
+        if (now - progress.mLastPublishTime < PUBLISH_INTERVAL_MS) {
+            return;
+        }
+        progress.mLastPublishTime = now;
+        for (Listener listener : sListeners) {
+            listener.onProgressChanged(id, currentBytes);
+        }
+    }
+
+    /**
+     * Returns the live byte count of transfer {@code id}, or {@code storedBytes} if the transfer
+     * is not running.
+     */
+    static long getCurrentBytes(int id, long storedBytes) {
+        Progress progress = sProgress.get(id);
+        return progress == null ? storedBytes : progress.mCurrentBytes;
+    }
+
+    /**
+     * End transfer {@code id}: write its last published byte count to the provider and stop
+     * tracking it.
+     */
+    static void finish(ContentResolver resolver, Uri contentUri, int id) {
+        Progress progress = sProgress.remove(id);
+        if (progress == null) {
+            return;
+        }
+        if (V) {
+            Log.v(TAG, "finish id=" + id + " currentBytes=" + progress.mCurrentBytes);
+        }
+        ContentValues updateValues = new ContentValues();
+        updateValues.put(BluetoothShare.CURRENT_BYTES, progress.mCurrentBytes);
+        BluetoothMethodProxy.getInstance().contentResolverUpdate(resolver, contentUri,
+                updateValues, null, null);
+    }
+
+    @VisibleForTesting
+    static void clear() {
+        sProgress.clear();
+        sListeners.clear();
+    }
+}
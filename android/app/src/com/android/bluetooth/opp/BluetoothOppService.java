@@ -68,6 +68,7 @@ import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -128,6 +129,15 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
     /** Class to handle Notification Manager updates */
     private BluetoothOppNotification mNotifier;
 
+    /** Refreshes the notifications with live progress, which is not written to the provider */
+    private final BluetoothOppProgressChannel.Listener mProgressListener =
+            (id, currentBytes) -> {
+                BluetoothOppNotification notifier = mNotifier;
+                if (notifier != null) {
+                    notifier.updateNotification();
+                }
+            };
+
     private boolean mPendingUpdate;
 
     private UpdateThread mUpdateThread;
@@ -261,6 +271,7 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         getContentResolver().registerContentObserver(BluetoothShare.CONTENT_URI, true, mObserver);
         mNotifier = new BluetoothOppNotification(this);
         mNotifier.mNotificationMgr.cancelAll();
+        BluetoothOppProgressChannel.registerListener(mProgressListener);
         updateFromProvider();
         setBluetoothOppService(this);
         mAdapterService.notifyActivityAttributionInfo(
@@ -312,10 +323,19 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                 String dir = info.mDirection == BluetoothShare.DIRECTION_OUTBOUND ? " -> " : " <- ";
                 SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss", Locale.US);
                 Date date = new Date(info.mTimestamp);
-                println(sb, "  " + format.format(date) + dir + info.mCurrentBytes + "/"
+                long currentBytes =
+                        BluetoothOppProgressChannel.getCurrentBytes(info.mId, info.mCurrentBytes);
+                println(sb, "  " + format.format(date) + dir + currentBytes + "/"
                         + info.mTotalBytes);
             }
         }
+        List<String> recentTransfers = BluetoothOppTransferStats.getRecentTransfers();
+        if (!recentTransfers.isEmpty()) {
+            println(sb, "Recent transfers:");
+            for (String transfer : recentTransfers) {
+                println(sb, "  " + transfer);
+            }
+        }
     }
 
     /**
@@ -538,6 +558,7 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
     }
 
     private void unregisterReceivers() {
+        BluetoothOppProgressChannel.unregisterListener(mProgressListener);
         try {
             if (mObserver != null) {
                 getContentResolver().unregisterContentObserver(mObserver);
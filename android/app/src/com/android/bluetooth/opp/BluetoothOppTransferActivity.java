@@ -112,6 +112,14 @@ public class BluetoothOppTransferActivity extends AlertActivity
     /** Observer to get notified when the content observer's data changes */
     private BluetoothTransferContentObserver mObserver;
 
+    /** Listener for the live progress, which is not written to the provider while transferring */
+    private final BluetoothOppProgressChannel.Listener mProgressListener =
+            (id, currentBytes) -> {
+                if (mTransInfo != null && id == mTransInfo.mID) {
+                    runOnUiThread(this::updateProgressbar);
+                }
+            };
+
     // do not update button during activity creating, only update when db
     // changes after activity created
     private boolean mNeedUpdateButton = false;
@@ -158,6 +166,7 @@ public class BluetoothOppTransferActivity extends AlertActivity
             mObserver = new BluetoothTransferContentObserver();
             getContentResolver().registerContentObserver(BluetoothShare.CONTENT_URI, true,
                     mObserver);
+            BluetoothOppProgressChannel.registerListener(mProgressListener);
         }
 
         if (mWhichDialog != DIALOG_SEND_ONGOING && mWhichDialog != DIALOG_RECEIVE_ONGOING) {
@@ -180,6 +189,7 @@ public class BluetoothOppTransferActivity extends AlertActivity
         if (mObserver != null) {
             getContentResolver().unregisterContentObserver(mObserver);
         }
+        BluetoothOppProgressChannel.unregisterListener(mProgressListener);
         super.onDestroy();
     }
 
@@ -433,6 +443,7 @@ public class BluetoothOppTransferActivity extends AlertActivity
                 getContentResolver().unregisterContentObserver(mObserver);
                 mObserver = null;
             }
+            BluetoothOppProgressChannel.unregisterListener(mProgressListener);
             displayWhichDialog();
             updateButton();
             customizeViewContent();
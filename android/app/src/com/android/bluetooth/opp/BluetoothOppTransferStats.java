@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import com.google.common.collect.EvictingQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures the throughput, CPU cost and garbage collections of a single OPP file transfer.
+ *
+ * <p>A transfer is measured on the thread that moves its bytes. A summary of the most recent
+ * transfers is kept for {@link BluetoothOppService#dump}.
+ */
+class BluetoothOppTransferStats {
+    private static final String TAG = "BtOppTransferStats";
+    private static final int MAX_RECENT_TRANSFERS = 10;
+    private static final String GC_COUNT_STAT = "art.gc.gc-count";
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+    @GuardedBy("sRecentTransfers")
+    private static final EvictingQueue<String> sRecentTransfers =
+            EvictingQueue.create(MAX_RECENT_TRANSFERS);
+
+    private final String mDirection;
+    private final long mStartTimeMs;
+    private final long mStartCpuTimeMs;
+    private final long mStartGcCount;
+    private long mBytes;
+
+    private BluetoothOppTransferStats(String direction) {
+        mDirection = direction;
+        mStartTimeMs = SystemClock.elapsedRealtime();
+        mStartCpuTimeMs = SystemClock.currentThreadTimeMillis();
+        mStartGcCount = getGcCount();
+    }
+
+    /** Start measuring a transfer on the calling thread. */
+    static BluetoothOppTransferStats start(String direction) {
+        return new BluetoothOppTransferStats(direction);
+    }
+
+    /** Account for {@code count} bytes moved by the transfer. */
+    void addBytes(long count) {
+        mBytes += count;
+    }
+
+    /** Stop measuring, log and remember a summary of the transfer, and return it. */
+    String finish() {
+        long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - mStartTimeMs);
+        long cpuMs = SystemClock.currentThreadTimeMillis() - mStartCpuTimeMs;
+        long gcCount = getGcCount() - mStartGcCount;
+        String summary = format(mDirection, mBytes, elapsedMs, cpuMs, gcCount);
+        Log.i(TAG, summary);
+        synchronized (sRecentTransfers) {
+            sRecentTransfers.add(summary);
+        }
+        return summary;
+    }
+
+    @VisibleForTesting
+    static String format(String direction, long bytes, long elapsedMs, long cpuMs,
+            long gcCount) {
+        double mb = bytes / BYTES_PER_MB;
+        double mbPerSecond = mb * 1000 / elapsedMs;
+        double cpuMsPerMb = mb > 0 ? cpuMs / mb : 0;
+        return String.format(Locale.US,
+                "%s %d bytes in %d ms: %.2f MB/s, %.1f ms CPU/MB, %d GCs",
+                direction, bytes, elapsedMs, mbPerSecond, cpuMsPerMb, gcCount);
+    }
+
+    /** Returns the summaries of the most recent transfers, oldest first. */
+    static List<String> getRecentTransfers() {
+        synchronized (sRecentTransfers) {
+            return new ArrayList<>(sRecentTransfers);
+        }
+    }
+
+    private static long getGcCount() {
+        String count = Debug.getRuntimeStat(GC_COUNT_STAT);
+        if (count == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(count);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
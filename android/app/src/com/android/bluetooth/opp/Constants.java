@@ -203,9 +203,6 @@ public class Constants {
     /** Where we store received files */
     static final String DEFAULT_STORE_SUBDIR = "/bluetooth";
 
-    /** Notify NFC of the transfer progress periodically, or it will timeout after 20sec. */
-    static final int NFC_ALIVE_CHECK_MS = 10000;
-
     static final boolean DEBUG = true;
 
     static final boolean VERBOSE = false;
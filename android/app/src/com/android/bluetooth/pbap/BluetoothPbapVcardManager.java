@@ -780,14 +780,8 @@ public class BluetoothPbapVcardManager {
                     Log.v(TAG, "vCard from composer: " + vcard);
                 }
 
-                vcard = vcardfilter.apply(vcard, vcardType21);
-                vcard = stripTelephoneNumber(vcard);
-
-                if (V) {
-                    Log.v(TAG, "vCard after cleanup: " + vcard);
-                }
-
-                if (!buffer.writeVCard(vcard)) {
+                // Filtered and stripped while being written out
+                if (!buffer.writeVCard(vcard, vcardfilter, vcardType21, true)) {
                     // onEntryCreate() already emits error.
                     return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                 }
@@ -895,14 +889,8 @@ public class BluetoothPbapVcardManager {
                 Log.e(TAG, "vcard selector check pass");
 
                 if (needSendBody == NEED_SEND_BODY) {
-                    vcard = vcardfilter.apply(vcard, vcardType21);
-                    vcard = stripTelephoneNumber(vcard);
-
-                    if (V) {
-                        Log.v(TAG, "vCard after cleanup: " + vcard);
-                    }
-
-                    if (!buffer.writeVCard(vcard)) {
+                    // Filtered and stripped while being written out
+                    if (!buffer.writeVCard(vcard, vcardfilter, vcardType21, true)) {
                         // onEntryCreate() already emits error.
                         return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                     }
@@ -974,13 +962,11 @@ public class BluetoothPbapVcardManager {
                             Log.i(TAG, "Call Log may have been deleted during operation");
                             continue;
                         }
-                        vcard = vcardfilter.apply(vcard, vcardType21);
-
                         if (V) {
                             Log.v(TAG, "Vcard Entry:");
                             Log.v(TAG, vcard);
                         }
-                        buffer.writeVCard(vcard);
+                        buffer.writeVCard(vcard, vcardfilter, vcardType21, false);
                     }
                 } else {
                     if (vcard == null) {
@@ -1017,35 +1003,44 @@ public class BluetoothPbapVcardManager {
     public String stripTelephoneNumber(String vCard) {
         String separator = System.getProperty("line.separator");
         String[] attr = vCard.split(separator);
-        String stripedVCard = "";
+        StringBuilder stripedVCard = new StringBuilder(vCard.length());
         for (int i = 0; i < attr.length; i++) {
-            if (attr[i].startsWith("TEL")) {
-                String[] vTagAndTel = attr[i].split(":", 2);
-                int telLenBefore = vTagAndTel[1].length();
-                // Remove '-', '(', ')' or ' ' from TEL number
-                vTagAndTel[1] = vTagAndTel[1].replace("-", "")
-                                             .replace("(", "")
-                                             .replace(")", "")
-                                             .replace(" ", "");
-                if (vTagAndTel[1].length() < telLenBefore) {
-                    if (V) {
-                        Log.v(TAG, "Fixing vCard TEL to " + vTagAndTel[1]);
-                    }
-                    attr[i] = new StringBuilder().append(vTagAndTel[0]).append(":")
-                                                 .append(vTagAndTel[1]).toString();
-                }
+            if (!attr[i].isEmpty()) {
+                stripedVCard.append(stripTelephoneNumberLine(attr[i])).append(separator);
             }
         }
+        if (V) {
+            Log.v(TAG, "vCard with stripped telephone no.: " + stripedVCard);
+        }
+        return stripedVCard.toString();
+    }
 
-        for (int i = 0; i < attr.length; i++) {
-            if (!attr[i].isEmpty()) {
-                stripedVCard = stripedVCard.concat(attr[i] + separator);
+    /**
+     * Remove '-', '(', ')' and ' ' from the number of a TEL property line. Other lines are
+     * returned unchanged.
+     */
+    static String stripTelephoneNumberLine(String line) {
+        int colon = line.indexOf(':');
+        if (!line.startsWith("TEL") || colon < 0) {
+            return line;
+        }
+        StringBuilder stripped = null;
+        for (int i = colon + 1; i < line.length(); i++) {
+            char c = line.charAt(i);
+            boolean isFormatting = c == '-' || c == '(' || c == ')' || c == ' ';
+            if (isFormatting && stripped == null) {
+                stripped = new StringBuilder(line.length()).append(line, 0, i);
+            } else if (!isFormatting && stripped != null) {
+                stripped.append(c);
             }
         }
+        if (stripped == null) {
+            return line;
+        }
         if (V) {
-            Log.v(TAG, "vCard with stripped telephone no.: " + stripedVCard);
+            Log.v(TAG, "Fixing vCard TEL to " + stripped.substring(colon + 1));
         }
-        return stripedVCard;
+        return stripped.toString();
     }
 
     public static class VCardFilter {
@@ -1104,47 +1099,62 @@ public class BluetoothPbapVcardManager {
             return isFilteredIn(FilterBit.PHOTO, false);
         }
 
+        /** Returns false if the filter keeps every property, so vCards can be sent as is. */
+        boolean hasFilter() {
+            return mFilter != null;
+        }
+
         public String apply(String vCard, boolean vCardType21) {
             if (mFilter == null) {
                 return vCard;
             }
             String[] lines = vCard.split(SEPARATOR);
-            StringBuilder filteredVCard = new StringBuilder();
+            StringBuilder filteredVCard = new StringBuilder(vCard.length());
             boolean filteredIn = false;
 
             for (String line : lines) {
-                // Check whether the current property is changing (ignoring multi-line properties)
-                // and determine if the current property is filtered in.
-                if (!Character.isWhitespace(line.charAt(0)) && !line.startsWith("=")) {
-                    String currentProp = line.split("[;:]")[0];
-                    filteredIn = true;
-
-                    for (FilterBit bit : FilterBit.values()) {
-                        if (bit.prop.equals(currentProp)) {
-                            filteredIn = isFilteredIn(bit, vCardType21);
-                            break;
-                        }
-                    }
-
-                    // Since PBAP does not have filter bits for IM and SIP,
-                    // exclude them by default. Easiest way is to exclude all
-                    // X- fields, except date time....
-                    if (currentProp.startsWith("X-")) {
-                        filteredIn = false;
-                        if (currentProp.equals("X-IRMC-CALL-DATETIME")) {
-                            filteredIn = true;
-                        }
-                    }
+                if (isPropertyStart(line)) {
+                    filteredIn = isPropertyFilteredIn(line, vCardType21);
                 }
 
                 // Build filtered vCard
                 if (filteredIn) {
-                    filteredVCard.append(line + SEPARATOR);
+                    filteredVCard.append(line).append(SEPARATOR);
                 }
             }
 
             return filteredVCard.toString();
         }
+
+        /**
+         * Returns true if the line starts a property, and false if it continues the previous
+         * multi-line property.
+         */
+        static boolean isPropertyStart(String line) {
+            return !Character.isWhitespace(line.charAt(0)) && !line.startsWith("=");
+        }
+
+        /** Returns true if the property started by {@code line} is filtered in. */
+        boolean isPropertyFilteredIn(String line, boolean vCardType21) {
+            int end = 0;
+            while (end < line.length() && line.charAt(end) != ';' && line.charAt(end) != ':') {
+                end++;
+            }
+            String currentProp = line.substring(0, end);
+
+            // Since PBAP does not have filter bits for IM and SIP,
+            // exclude them by default. Easiest way is to exclude all
+            // X- fields, except date time....
+            if (currentProp.startsWith("X-")) {
+                return currentProp.equals(FilterBit.DATETIME.prop);
+            }
+            for (FilterBit bit : FilterBit.values()) {
+                if (bit.prop.equals(currentProp)) {
+                    return isFilteredIn(bit, vCardType21);
+                }
+            }
+            return true;
+        }
     }
 
     @VisibleForTesting
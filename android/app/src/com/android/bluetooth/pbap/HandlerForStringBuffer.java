@@ -18,21 +18,38 @@ package com.android.bluetooth.pbap;
 
 import android.util.Log;
 
+import com.android.bluetooth.pbap.BluetoothPbapVcardManager.VCardFilter;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.obex.Operation;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Handler to emit vCards to PCE.
  */
 public class HandlerForStringBuffer {
     private static final String TAG = "HandlerForStringBuffer";
+    private static final String SEPARATOR = System.getProperty("line.separator");
+
+    // vCards are encoded into the output stream through a buffer of this size, so the memory
+    // used to send a phonebook does not depend on the size of its vCards (e.g. their photos)
+    @VisibleForTesting
+    static final int ENCODE_BUFFER_SIZE = 4096;
 
     private final Operation mOperation;
     private final String mOwnerVCard;
 
     private OutputStream mOutputStream;
+    private final CharsetEncoder mEncoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer mEncodeBuffer = ByteBuffer.allocate(ENCODE_BUFFER_SIZE);
 
     public HandlerForStringBuffer(Operation op, String ownerVCard) {
         mOperation = op;
@@ -67,6 +84,76 @@ public class HandlerForStringBuffer {
         return false;
     }
 
+    /**
+     * Write a vCard, leaving out the properties excluded by {@code filter} and, if
+     * {@code stripTelephoneNumbers} is set, the formatting characters of telephone numbers.
+     *
+     * <p>This is equivalent to writing the result of {@link VCardFilter#apply} and
+     * {@link BluetoothPbapVcardManager#stripTelephoneNumber}, but the vCard is filtered and
+     * encoded line by line instead of copying it into intermediate strings and byte arrays.
+     */
+    public boolean writeVCard(String vCard, VCardFilter filter, boolean vCardType21,
+            boolean stripTelephoneNumbers) {
+        if (vCard == null) {
+            return false;
+        }
+        try {
+            if (!filter.hasFilter() && !stripTelephoneNumbers) {
+                encode(vCard);
+            } else {
+                boolean filteredIn = false;
+                int start = 0;
+                while (start < vCard.length()) {
+                    int end = vCard.indexOf(SEPARATOR, start);
+                    if (end < 0) {
+                        end = vCard.length();
+                    }
+                    String line = vCard.substring(start, end);
+                    start = end + SEPARATOR.length();
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    if (filter.hasFilter() && VCardFilter.isPropertyStart(line)) {
+                        filteredIn = filter.isPropertyFilteredIn(line, vCardType21);
+                    }
+                    if (filter.hasFilter() && !filteredIn) {
+                        continue;
+                    }
+                    if (stripTelephoneNumbers) {
+                        line = BluetoothPbapVcardManager.stripTelephoneNumberLine(line);
+                    }
+                    encode(line);
+                    encode(SEPARATOR);
+                }
+            }
+            flush();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "write failed", e);
+        }
+        mEncodeBuffer.clear();
+        return false;
+    }
+
+    private void encode(String s) throws IOException {
+        CharBuffer in = CharBuffer.wrap(s);
+        mEncoder.reset();
+        // Malformed input is replaced, so encoding only stops early when the buffer is full
+        while (mEncoder.encode(in, mEncodeBuffer, true).isOverflow()) {
+            flush();
+        }
+        while (mEncoder.flush(mEncodeBuffer).isOverflow()) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (mEncodeBuffer.position() > 0) {
+            mOutputStream.write(mEncodeBuffer.array(), 0, mEncodeBuffer.position());
+            mEncodeBuffer.clear();
+        }
+    }
+
     public void terminate() {
         boolean result = BluetoothPbapObexServer.closeStream(mOutputStream, mOperation);
         if (BluetoothPbapService.VERBOSE) {
@@ -387,6 +387,7 @@ class PbapClientConnectionHandler extends Handler {
 
     @VisibleForTesting
     void downloadContacts(String path) {
+        PbapContactsInserter inserter = null;
         try {
             PhonebookPullRequest processor =
                     new PhonebookPullRequest(mPbapClientStateMachine.getContext(),
@@ -409,6 +410,8 @@ class PbapClientConnectionHandler extends Handler {
                 numberOfContactsRemaining -= 1;
             }
 
+            // Insert each batch in the background while the next one is pulled.
+            inserter = new PbapContactsInserter(processor);
             while ((numberOfContactsRemaining > 0) && (startOffset <= UPPER_LIMIT)) {
                 int numberOfContactsToDownload =
                         Math.min(Math.min(DEFAULT_BATCH_SIZE, numberOfContactsRemaining),
@@ -425,8 +428,7 @@ class PbapClientConnectionHandler extends Handler {
                         v.setStarred(true);
                     }
                 }
-                processor.setResults(vcards);
-                processor.onPullComplete();
+                inserter.submit(vcards);
 
                 startOffset += numberOfContactsToDownload;
                 numberOfContactsRemaining -= numberOfContactsToDownload;
@@ -436,6 +438,14 @@ class PbapClientConnectionHandler extends Handler {
             }
         } catch (IOException e) {
             Log.w(TAG, "Download contacts failure" + e.toString());
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Download contacts interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            if (inserter != null) {
+                // Wait for the batches downloaded so far to be inserted.
+                inserter.close();
+            }
         }
     }
 
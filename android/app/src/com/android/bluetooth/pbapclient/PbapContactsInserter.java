@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.pbapclient;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.vcard.VCardEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Inserts the batches of a phonebook download into the contacts provider on a background thread,
+ * so the next batch can be pulled from the PSE while the previous one is being inserted.
+ *
+ * <p>At most {@link #MAX_PENDING_BATCHES} downloaded batches wait for the inserter; {@link #submit}
+ * blocks when it falls behind, so a fast PSE cannot make us buffer the whole phonebook.
+ */
+class PbapContactsInserter {
+    private static final String TAG = "PbapContactsInserter";
+    private static final boolean DBG = Utils.DBG;
+
+    @VisibleForTesting
+    static final int MAX_PENDING_BATCHES = 2;
+    // How long an interrupted close() waits for the insert in progress to stop
+    @VisibleForTesting
+    static final long INTERRUPT_JOIN_TIMEOUT_MS = 2000;
+
+    // Queued after the last batch to tell the inserter thread to exit.
+    private static final List<VCardEntry> END_OF_DOWNLOAD = new ArrayList<>();
+
+    private final PullRequest mProcessor;
+    private final BlockingQueue<List<VCardEntry>> mQueue =
+            new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+    private final Thread mThread;
+    private final long mStartTimeMs;
+    private volatile int mInsertedCount;
+
+    PbapContactsInserter(PullRequest processor) {
+        mProcessor = processor;
+        mStartTimeMs = SystemClock.elapsedRealtime();
+        mThread = new Thread(this::insertBatches, TAG);
+        mThread.start();
+    }
+
+    /** Queue a downloaded batch for insertion, waiting while the queue is full. */
+    void submit(List<VCardEntry> batch) throws InterruptedException {
+        mQueue.put(batch);
+    }
+
+    /**
+     * Wait until every submitted batch is inserted. If the calling thread is interrupted, the
+     * batches still waiting are dropped and the insert in progress is interrupted instead, which
+     * is waited for up to {@link #INTERRUPT_JOIN_TIMEOUT_MS} so that the caller can clean up the
+     * account without racing with it. The interrupt status of the caller is kept.
+     */
+    void close() {
+        try {
+            if (!Thread.currentThread().isInterrupted()) {
+                mQueue.put(END_OF_DOWNLOAD);
+                mThread.join();
+                if (DBG) {
+                    long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - mStartTimeMs);
+                    Log.d(TAG, "Downloaded and inserted " + mInsertedCount + " contacts in "
+                            + elapsedMs + " ms, " + (mInsertedCount * 1000L / elapsedMs)
+                            + " contacts/s");
+                }
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.w(TAG, "Download interrupted, dropping " + mQueue.size() + " pending batches");
+        mQueue.clear();
+        mThread.interrupt();
+        // join() would return right away with the caller's interrupt status set
+        Thread.interrupted();
+        try {
+            mThread.join(INTERRUPT_JOIN_TIMEOUT_MS);
+            if (mThread.isAlive()) {
+                Log.w(TAG, "Inserter did not stop within " + INTERRUPT_JOIN_TIMEOUT_MS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while waiting for the inserter to stop");
+        } finally {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @VisibleForTesting
+    boolean isAlive() {
+        return mThread.isAlive();
+    }
+
+    @VisibleForTesting
+    int getInsertedCount() {
+        return mInsertedCount;
+    }
+
+    private void insertBatches() {
+        try {
+            while (true) {
+                List<VCardEntry> batch = mQueue.take();
+                if (batch == END_OF_DOWNLOAD) {
+                    return;
+                }
+                mProcessor.setResults(batch);
+                mProcessor.onPullComplete();
+                mInsertedCount += batch.size();
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Inserter interrupted");
+        }
+    }
+}
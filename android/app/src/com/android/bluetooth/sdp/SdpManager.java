@@ -29,14 +29,24 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.ParcelUuid;
 import android.os.Parcelable;
+import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.util.Log;
+import android.util.Pair;
 
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AbstractionLayer;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.internal.annotations.VisibleForTesting;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class SdpManager {
 
@@ -53,12 +63,21 @@ public class SdpManager {
     public static final byte PBAP_REPO_FAVORITES = 0x01 << 3;
 
     /* Variables to keep track of ongoing and queued search requests.
-     * mTrackerLock must be held, when using/changing sSdpSearchTracker
-     * and mSearchInProgress. */
+     * mTrackerLock must be held, when using/changing sSdpSearchTracker,
+     * sSdpRecordCache and mSearchInProgress. */
     static SdpSearchTracker sSdpSearchTracker;
     static boolean sSearchInProgress = false;
     static final Object TRACKER_LOCK = new Object();
 
+    /* Results of completed searches, see SdpRecordCache. */
+    static SdpRecordCache sSdpRecordCache;
+
+    // How long the records of a search are reused for repeated searches while the device stays
+    // connected. 0 disables the cache.
+    private static final String RECORD_CACHE_MS_PROPERTY = "persist.bluetooth.sdp.record_cache_ms";
+    private static final int DEFAULT_RECORD_CACHE_MS = 60000;
+    private static final int MAX_CACHED_SEARCHES = 64;
+
     /* The timeout to wait for reply from native. Should never fire. */
     private static final int SDP_INTENT_DELAY = 11000;
     private static final int MESSAGE_SDP_INTENT = 2;
@@ -106,15 +125,19 @@ public class SdpManager {
     /* Inner class used for wrapping sdp search instance data */
     private class SdpSearchInstance {
         private final BluetoothDevice mDevice;
+        private final String mIdentityAddress;
         private final ParcelUuid mUuid;
         private int mStatus = 0;
         private boolean mSearching;
+        private boolean mTimedOut;
+        private final ArrayList<Parcelable> mRecords = new ArrayList<>();
 
         /* TODO: If we change the API to use another mechanism than intents for
          *       delivering the results, this would be the place to keep a list
          *       of the objects to deliver the results to. */
         SdpSearchInstance(int status, BluetoothDevice device, ParcelUuid uuid) {
             this.mDevice = device;
+            this.mIdentityAddress = resolveIdentityAddress(device.getAddress());
             this.mUuid = uuid;
             this.mStatus = status;
             mSearching = true;
@@ -124,6 +147,10 @@ public class SdpManager {
             return mDevice;
         }
 
+        String getIdentityAddress() {
+            return mIdentityAddress;
+        }
+
         public ParcelUuid getUuid() {
             return mUuid;
         }
@@ -152,65 +179,168 @@ public class SdpManager {
         public boolean isSearching() {
             return mSearching;
         }
+
+        void setTimedOut() {
+            mTimedOut = true;
+        }
+
+        boolean isTimedOut() {
+            return mTimedOut;
+        }
+
+        void addRecord(Parcelable record) {
+            mRecords.add(record);
+        }
+
+        List<Parcelable> getRecords() {
+            return mRecords;
+        }
     }
 
 
-    /* We wrap the ArrayList class to decorate with functionality to
-     * find an instance based on UUID AND device address.
-     * As we use a mix of byte[] and object instances, this is more
-     * efficient than implementing comparable. */
+    /* Returns the key of a search for the given identity address and UUID. */
+    private static Pair<String, ParcelUuid> getSearchKey(String identityAddress,
+            ParcelUuid uuid) {
+        return new Pair<>(identityAddress, uuid);
+    }
+
+    /* Returns the identity address of a device address, used to match searches. */
+    private static String resolveIdentityAddress(String address) {
+        String identityAddress = sAdapterService.getIdentityAddress(address);
+        return identityAddress != null ? identityAddress : address;
+    }
+
+    /* Keeps the queued searches in one lane per device, and starts them by taking turns
+     * between the devices, so a device with many UUIDs to search does not hold back the
+     * profiles of the other devices connecting at the same time. The native stack only runs
+     * one search at a time, so only the head of one lane is ever in progress.
+     * Searches are indexed by identity address and UUID for the record callbacks. */
     class SdpSearchTracker {
-        private final ArrayList<SdpSearchInstance> mList = new ArrayList<SdpSearchInstance>();
+        private final HashMap<Pair<String, ParcelUuid>, SdpSearchInstance> mSearches =
+                new HashMap<>();
+        private final LinkedHashMap<String, ArrayDeque<SdpSearchInstance>> mLanes =
+                new LinkedHashMap<>();
 
         void clear() {
-            mList.clear();
+            mSearches.clear();
+            mLanes.clear();
         }
 
         boolean add(SdpSearchInstance inst) {
-            return mList.add(inst);
+            String address = inst.getIdentityAddress();
+            // A search being completed keeps getting its records until it is removed
+            mSearches.putIfAbsent(getSearchKey(address, inst.getUuid()), inst);
+            return mLanes.computeIfAbsent(address, k -> new ArrayDeque<>()).add(inst);
         }
 
         boolean remove(SdpSearchInstance inst) {
-            return mList.remove(inst);
+            String address = inst.getIdentityAddress();
+            ArrayDeque<SdpSearchInstance> lane = mLanes.get(address);
+            if (lane == null || !lane.remove(inst)) {
+                return false;
+            }
+            Pair<String, ParcelUuid> key = getSearchKey(address, inst.getUuid());
+            if (mSearches.remove(key, inst)) {
+                for (SdpSearchInstance queued : lane) {
+                    if (queued.getUuid().equals(inst.getUuid())) {
+                        mSearches.put(key, queued);
+                        break;
+                    }
+                }
+            }
+            // Back of the turn order, after the other devices waiting to be searched
+            mLanes.remove(address);
+            if (!lane.isEmpty()) {
+                mLanes.put(address, lane);
+            }
+            return true;
         }
 
         SdpSearchInstance getNext() {
-            if (mList.size() > 0) {
-                return mList.get(0);
-            }
-            return null;
+            Iterator<ArrayDeque<SdpSearchInstance>> lanes = mLanes.values().iterator();
+            return lanes.hasNext() ? lanes.next().peek() : null;
         }
 
         SdpSearchInstance getSearchInstance(byte[] address, byte[] uuidBytes) {
-            String addressString = Utils.getAddressStringFromByte(address);
-            addressString = sAdapterService.getIdentityAddress(addressString);
+            String addressString =
+                    resolveIdentityAddress(Utils.getAddressStringFromByte(address));
             ParcelUuid uuid = Utils.byteArrayToUuid(uuidBytes)[0];
-            for (SdpSearchInstance inst : mList) {
-                String instAddressString =
-                        sAdapterService.getIdentityAddress(inst.getDevice().getAddress());
-                if (instAddressString.equals(addressString) && inst.getUuid().equals(uuid)) {
-                    return inst;
-                }
-            }
-            return null;
+            return mSearches.get(getSearchKey(addressString, uuid));
         }
 
         boolean isSearching(BluetoothDevice device, ParcelUuid uuid) {
-            String addressString = sAdapterService.getIdentityAddress(device.getAddress());
-            for (SdpSearchInstance inst : mList) {
-                String instAddressString =
-                        sAdapterService.getIdentityAddress(inst.getDevice().getAddress());
-                if (instAddressString.equals(addressString) && inst.getUuid().equals(uuid)) {
-                    return inst.isSearching();
-                }
-            }
-            return false;
+            SdpSearchInstance inst = mSearches.get(
+                    getSearchKey(resolveIdentityAddress(device.getAddress()), uuid));
+            return inst != null && inst.isSearching();
         }
     }
 
+    /* Records found by the last successful search of each identity address and UUID. The
+     * records are reused while the device stays connected, so the profiles of a device searching
+     * the same UUID again do not wait for the radio. Entries expire after a while, since remote
+     * devices may still update their records (e.g. when the user enables a profile), and are
+     * dropped when the device disconnects or its bond state changes. */
+    @VisibleForTesting
+    static class SdpRecordCache {
+        private static class Entry {
+            final List<Parcelable> mRecords;
+            final long mFoundAtMs;
+
+            Entry(List<Parcelable> records, long foundAtMs) {
+                mRecords = records;
+                mFoundAtMs = foundAtMs;
+            }
+        }
+
+        private final int mMaxAgeMs;
+        private final LinkedHashMap<Pair<String, ParcelUuid>, Entry> mEntries =
+                new LinkedHashMap<Pair<String, ParcelUuid>, Entry>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(
+                            Map.Entry<Pair<String, ParcelUuid>, Entry> eldest) {
+                        return size() > MAX_CACHED_SEARCHES;
+                    }
+                };
+
+        SdpRecordCache(int maxAgeMs) {
+            mMaxAgeMs = maxAgeMs;
+        }
+
+        void put(String identityAddress, ParcelUuid uuid, List<Parcelable> records) {
+            if (mMaxAgeMs <= 0 || records.isEmpty()) {
+                return;
+            }
+            mEntries.put(getSearchKey(identityAddress, uuid),
+                    new Entry(new ArrayList<>(records), SystemClock.elapsedRealtime()));
+        }
+
+        /* Returns the cached records, or null if the search has to be run. */
+        List<Parcelable> get(String identityAddress, ParcelUuid uuid) {
+            Pair<String, ParcelUuid> key = getSearchKey(identityAddress, uuid);
+            Entry entry = mEntries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (SystemClock.elapsedRealtime() - entry.mFoundAtMs > mMaxAgeMs) {
+                mEntries.remove(key);
+                return null;
+            }
+            return entry.mRecords;
+        }
+
+        void invalidate(String identityAddress) {
+            mEntries.keySet().removeIf(key -> key.first.equals(identityAddress));
+        }
+
+        void clear() {
+            mEntries.clear();
+        }
+    }
 
     private SdpManager(AdapterService adapterService) {
         sSdpSearchTracker = new SdpSearchTracker();
+        sSdpRecordCache = new SdpRecordCache(SystemProperties.getInt(RECORD_CACHE_MS_PROPERTY,
+                DEFAULT_RECORD_CACHE_MS));
         sAdapterService = adapterService;
         initializeNative();
         sNativeAvailable = true;
@@ -230,6 +360,7 @@ public class SdpManager {
         if (sSdpSearchTracker != null) {
             synchronized (TRACKER_LOCK) {
                 sSdpSearchTracker.clear();
+                sSdpRecordCache.clear();
             }
         }
 
@@ -444,6 +575,18 @@ public class SdpManager {
                 return;
             }
 
+            List<Parcelable> records =
+                    sSdpRecordCache.get(resolveIdentityAddress(device.getAddress()), uuid);
+            if (records != null) {
+                if (D) {
+                    Log.d(TAG, "Using cached records for UUID: " + uuid);
+                }
+                for (Parcelable record : records) {
+                    sendSdpRecordIntent(device, uuid, AbstractionLayer.BT_STATUS_SUCCESS, record);
+                }
+                return;
+            }
+
             SdpSearchInstance inst = new SdpSearchInstance(0, device, uuid);
             sSdpSearchTracker.add(inst); // Queue the request
 
@@ -475,32 +618,54 @@ public class SdpManager {
         }
     }
 
+    /**
+     * Drop the cached records of a device, as its records may change once it disconnects or
+     * its bond state changes.
+     */
+    public void invalidateRecords(BluetoothDevice device) {
+        synchronized (TRACKER_LOCK) {
+            sSdpRecordCache.invalidate(resolveIdentityAddress(device.getAddress()));
+        }
+    }
+
     /* Caller must hold the mTrackerLock */
     private void sendSdpIntent(SdpSearchInstance inst, Parcelable record, boolean moreResults) {
 
         inst.stopSearch();
 
+        if (record != null && inst.getStatus() == AbstractionLayer.BT_STATUS_SUCCESS) {
+            inst.addRecord(record);
+        }
+        sendSdpRecordIntent(inst.getDevice(), inst.getUuid(), inst.getStatus(), record);
+
+        if (!moreResults) {
+            if (inst.getStatus() == AbstractionLayer.BT_STATUS_SUCCESS && !inst.isTimedOut()) {
+                sSdpRecordCache.put(inst.getIdentityAddress(), inst.getUuid(),
+                        inst.getRecords());
+            }
+            //Remove the outstanding UUID request
+            sSdpSearchTracker.remove(inst);
+            sSearchInProgress = false;
+            startSearch();
+        }
+    }
+
+    private void sendSdpRecordIntent(BluetoothDevice device, ParcelUuid uuid, int status,
+            Parcelable record) {
         Intent intent = new Intent(BluetoothDevice.ACTION_SDP_RECORD);
 
-        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, inst.getDevice());
-        intent.putExtra(BluetoothDevice.EXTRA_SDP_SEARCH_STATUS, inst.getStatus());
+        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
+        intent.putExtra(BluetoothDevice.EXTRA_SDP_SEARCH_STATUS, status);
         if (record != null) {
             intent.putExtra(BluetoothDevice.EXTRA_SDP_RECORD, record);
         }
-        intent.putExtra(BluetoothDevice.EXTRA_UUID, inst.getUuid());
+        intent.putExtra(BluetoothDevice.EXTRA_UUID, uuid);
         /* TODO:  BLUETOOTH_ADMIN_PERM was private... change to callback interface.
          * Keep in mind that the MAP client needs to use this as well,
          * hence to make it call-backs, the MAP client profile needs to be
          * part of the Bluetooth APK. */
         Utils.sendBroadcast(sAdapterService, intent, BLUETOOTH_CONNECT,
                 Utils.getTempAllowlistBroadcastOptions());
-
-        if (!moreResults) {
-            //Remove the outstanding UUID request
-            sSdpSearchTracker.remove(inst);
-            sSearchInProgress = false;
-            startSearch();
-        }
     }
 
     private final Handler mHandler = new Handler() {
@@ -511,6 +676,7 @@ public class SdpManager {
                     SdpSearchInstance msgObj = (SdpSearchInstance) msg.obj;
                     Log.w(TAG, "Search timedout for UUID " + msgObj.getUuid());
                     synchronized (TRACKER_LOCK) {
+                        msgObj.setTimedOut();
                         sendSdpIntent(msgObj, null, false);
                     }
                     break;
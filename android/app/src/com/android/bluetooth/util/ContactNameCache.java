@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.provider.ContactsContract;
+import android.telephony.PhoneNumberUtils;
+import android.telephony.TelephonyManager;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Process wide cache of the contacts matching phone numbers, shared by the profiles that show
+ * contact names for numbers (MAP message listings, HFP call history phonebooks).
+ *
+ * <p>Entries are keyed by the E.164 form of the number, so the differently formatted numbers of
+ * the SMS, MMS and call log providers share an entry. Numbers without a contact are cached too.
+ * The whole cache is dropped on any change of the contacts provider.
+ *
+ * <p>Entries are only shared between callers that look numbers up the same way: a contact found
+ * by one lookup is not necessarily found by another (loose or exact match, visible contacts
+ * only or not), so each lookup has its own entries, see {@link #LOOKUP_PHONE_LOOKUP} and
+ * {@link #LOOKUP_PHONE_NUMBER}.
+ *
+ * <p>Caching is only enabled between {@link #init} and {@link #cleanup}, while the contacts are
+ * observed. Otherwise every lookup goes to the contacts provider.
+ */
+public class ContactNameCache {
+    private static final String TAG = "BluetoothContactNameCache";
+    private static final boolean DBG = false;
+
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 1000;
+
+    /**
+     * Loose match through {@link ContactsContract.PhoneLookup}, visible contacts only. Used by
+     * the methods without a lookup argument.
+     */
+    public static final String LOOKUP_PHONE_LOOKUP = "PhoneLookup";
+    /** Exact match of the number or normalized number of the contacts phone table. */
+    public static final String LOOKUP_PHONE_NUMBER = "PhoneNumber";
+
+    /** A contact matching a phone number. */
+    public static final class Contact {
+        /** Cached for numbers without a contact. */
+        public static final Contact NONE = new Contact(-1, null);
+
+        private final long mId;
+        private final String mName;
+
+        public Contact(long id, String name) {
+            mId = id;
+            mName = name;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        /** Returns the display name of the contact, or null for {@link #NONE}. */
+        public String getName() {
+            return mName;
+        }
+
+        public boolean exists() {
+            return mId >= 0;
+        }
+    }
+
+    private static final Object INSTANCE_LOCK = new Object();
+    @GuardedBy("INSTANCE_LOCK")
+    private static ContactNameCache sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final String mCountryIso;
+    private final LruCache<String, Contact> mContacts = new LruCache<>(MAX_ENTRIES);
+    private final ContentObserver mContactsObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+        }
+    };
+
+    private final Object mLock = new Object();
+    // Bumped on every invalidation, to drop lookups that raced with a contacts change
+    @GuardedBy("mLock")
+    private long mGeneration;
+    @GuardedBy("mLock")
+    private int mInvalidations;
+
+    @VisibleForTesting
+    ContactNameCache(Context context) {
+        mContentResolver = context.getContentResolver();
+        mCountryIso = getCountryIso(context);
+    }
+
+    /** Start caching, and observing the contacts. */
+    public static void init(Context context) {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance != null) {
+                return;
+            }
+            ContactNameCache cache = new ContactNameCache(context);
+            try {
+                cache.mContentResolver.registerContentObserver(ContactsContract.AUTHORITY_URI,
+                        true, cache.mContactsObserver);
+            } catch (SecurityException e) {
+                // Without change notifications the cache could serve stale names
+                Log.w(TAG, "Cannot observe contacts, caching disabled", e);
+                return;
+            }
+            sInstance = cache;
+        }
+    }
+
+    /** Stop caching and drop all entries. */
+    public static void cleanup() {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                return;
+            }
+            sInstance.mContentResolver.unregisterContentObserver(sInstance.mContactsObserver);
+            sInstance.mContacts.evictAll();
+            sInstance = null;
+        }
+    }
+
+    @VisibleForTesting
+    static void setInstanceForTesting(ContactNameCache instance) {
+        synchronized (INSTANCE_LOCK) {
+            sInstance = instance;
+        }
+    }
+
+    private static ContactNameCache getInstance() {
+        synchronized (INSTANCE_LOCK) {
+            return sInstance;
+        }
+    }
+
+    /**
+     * Returns the contact of {@code number}, using {@code loader} to look it up in the contacts
+     * provider if it is not cached. The loader returns {@link Contact#NONE} if there is no such
+     * contact, or null if the lookup failed; failures are not cached.
+     */
+    public static Contact get(String number, Function<String, Contact> loader) {
+        ContactNameCache cache = getInstance();
+        if (cache == null || TextUtils.isEmpty(number)) {
+            return loader.apply(number);
+        }
+        return cache.getOrLoad(number, loader);
+    }
+
+    /**
+     * Returns the cached contact of {@code number}, or null if it is not cached. Used together
+     * with {@link #getGeneration} and {@link #put} by callers that look up many numbers at once.
+     */
+    public static Contact peek(String number) {
+        return peek(LOOKUP_PHONE_LOOKUP, number);
+    }
+
+    /** Same as {@link #peek(String)}, for the entries of {@code lookup}. */
+    public static Contact peek(String lookup, String number) {
+        ContactNameCache cache = getInstance();
+        if (cache == null || TextUtils.isEmpty(number)) {
+            return null;
+        }
+        return cache.mContacts.get(cache.getKey(lookup, number));
+    }
+
+    /** Returns the generation to pass to {@link #put} for a lookup that starts now. */
+    public static long getGeneration() {
+        ContactNameCache cache = getInstance();
+        if (cache == null) {
+            return 0;
+        }
+        synchronized (cache.mLock) {
+            return cache.mGeneration;
+        }
+    }
+
+    /**
+     * Cache the contact of {@code number}, looked up since {@code generation} was returned by
+     * {@link #getGeneration}. Dropped if the contacts changed meanwhile.
+     */
+    public static void put(String number, long generation, Contact contact) {
+        put(LOOKUP_PHONE_LOOKUP, number, generation, contact);
+    }
+
+    /** Same as {@link #put(String, long, Contact)}, for the entries of {@code lookup}. */
+    public static void put(String lookup, String number, long generation, Contact contact) {
+        ContactNameCache cache = getInstance();
+        if (cache == null || TextUtils.isEmpty(number) || contact == null) {
+            return;
+        }
+        cache.putIfCurrent(cache.getKey(lookup, number), generation, contact);
+    }
+
+    /** Append hit rate counters for dumpsys. */
+    public static void dump(StringBuilder sb) {
+        ContactNameCache cache = getInstance();
+        sb.append("\nContactNameCache:\n");
+        if (cache == null) {
+            sb.append("  disabled\n");
+            return;
+        }
+        int hits = cache.mContacts.hitCount();
+        int misses = cache.mContacts.missCount();
+        int lookups = hits + misses;
+        synchronized (cache.mLock) {
+            sb.append("  entries: " + cache.mContacts.size() + "/" + MAX_ENTRIES
+                    + ", hits: " + hits + ", misses: " + misses
+                    + ", hit rate: " + (lookups == 0 ? 0 : hits * 100 / lookups) + "%"
+                    + ", evictions: " + cache.mContacts.evictionCount()
+                    + ", invalidations: " + cache.mInvalidations + "\n");
+        }
+    }
+
+    @VisibleForTesting
+    Contact getOrLoad(String number, Function<String, Contact> loader) {
+        String key = getKey(number);
+        Contact contact = mContacts.get(key);
+        if (contact != null) {
+            return contact;
+        }
+        long generation;
+        synchronized (mLock) {
+            generation = mGeneration;
+        }
+        contact = loader.apply(number);
+        if (contact != null) {
+            putIfCurrent(key, generation, contact);
+        }
+        return contact;
+    }
+
+    @VisibleForTesting
+    void invalidate() {
+        synchronized (mLock) {
+            mGeneration++;
+            mInvalidations++;
+            mContacts.evictAll();
+        }
+        if (DBG) {
+            Log.d(TAG, "Contacts changed, cache dropped");
+        }
+    }
+
+    private void putIfCurrent(String key, long generation, Contact contact) {
+        synchronized (mLock) {
+            if (generation == mGeneration) {
+                mContacts.put(key, contact);
+            }
+        }
+    }
+
+    /**
+     * Returns the E.164 form of {@code number}, its dialable digits if it has none, or the
+     * address itself if it is not a phone number at all (e.g. an e-mail address).
+     */
+    public static String normalizeNumber(String number, String countryIso) {
+        String e164 = PhoneNumberUtils.formatNumberToE164(number, countryIso);
+        if (e164 != null) {
+            return e164;
+        }
+        String stripped = PhoneNumberUtils.stripSeparators(number);
+        return PhoneNumberUtils.isGlobalPhoneNumber(stripped) ? stripped : number;
+    }
+
+    @VisibleForTesting
+    String getKey(String number) {
+        return getKey(LOOKUP_PHONE_LOOKUP, number);
+    }
+
+    private String getKey(String lookup, String number) {
+        String key = normalizeNumber(number, mCountryIso);
+        return LOOKUP_PHONE_LOOKUP.equals(lookup) ? key : lookup + ":" + key;
+    }
+
+    /** Returns the upper case ISO country code to normalize the numbers of this device with. */
+    public static String getCountryIso(Context context) {
+        TelephonyManager telephonyManager = context.getSystemService(TelephonyManager.class);
+        String countryIso = null;
+        if (telephonyManager != null) {
+            countryIso = telephonyManager.getNetworkCountryIso();
+            if (TextUtils.isEmpty(countryIso)) {
+                countryIso = telephonyManager.getSimCountryIso();
+            }
+        }
+        if (TextUtils.isEmpty(countryIso)) {
+            countryIso = Locale.getDefault().getCountry();
+        }
+        return countryIso.toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.audio_util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BrowseCacheTest {
+    private static List<ListItem> getFolderList(String prefix, int count) {
+        List<ListItem> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            list.add(new ListItem(new Folder(prefix + i, false, "Folder " + i)));
+        }
+        return list;
+    }
+
+    @Test
+    public void put_thenGet_returnsSharedImmutableListing() {
+        BrowseCache cache = new BrowseCache();
+        List<ListItem> items = getFolderList("01a", 3);
+
+        List<ListItem> listing = cache.put("com.example", "01root", items);
+
+        assertThat(cache.get("com.example", "01root")).isSameInstanceAs(listing);
+        assertThat(listing).containsExactlyElementsIn(items).inOrder();
+        assertThrows(UnsupportedOperationException.class,
+                () -> listing.add(new ListItem(new Folder("01b", false, "b"))));
+        assertThat(cache.get("com.example", "01other")).isNull();
+        assertThat(cache.get("com.other", "01root")).isNull();
+    }
+
+    @Test
+    public void invalidate_dropsOnlyListingsOfThePackage() {
+        BrowseCache cache = new BrowseCache();
+        cache.put("com.example", "01root", getFolderList("01a", 1));
+        cache.put("com.example", "01a0", getFolderList("01b", 1));
+        cache.put("com.other", "02root", getFolderList("02a", 1));
+
+        cache.invalidate("com.example");
+
+        assertThat(cache.get("com.example", "01root")).isNull();
+        assertThat(cache.get("com.example", "01a0")).isNull();
+        assertThat(cache.get("com.other", "02root")).isNotNull();
+    }
+
+    @Test
+    public void put_overByteBudget_evictsLeastRecentlyUsed() {
+        int listingSize = BrowseCache.estimateSize(getFolderList("01a", 10));
+        BrowseCache cache = new BrowseCache(2 * listingSize);
+        cache.put("com.example", "01x", getFolderList("01a", 10));
+        cache.put("com.example", "01y", getFolderList("01b", 10));
+        cache.get("com.example", "01x");
+
+        cache.put("com.example", "01z", getFolderList("01c", 10));
+
+        assertThat(cache.get("com.example", "01x")).isNotNull();
+        assertThat(cache.get("com.example", "01y")).isNull();
+        assertThat(cache.get("com.example", "01z")).isNotNull();
+        assertThat(cache.sizeBytes()).isAtMost(2 * listingSize);
+    }
+
+    @Test
+    public void put_listingLargerThanBudget_notKept() {
+        BrowseCache cache = new BrowseCache(BrowseCache.estimateSize(getFolderList("01a", 10)));
+
+        List<ListItem> listing = cache.put("com.example", "01big", getFolderList("01a", 100));
+
+        assertThat(listing).hasSize(100);
+        assertThat(cache.get("com.example", "01big")).isNull();
+        assertThat(cache.sizeBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void estimateSize_growsWithStrings() {
+        List<ListItem> shortNames = new ArrayList<>();
+        shortNames.add(new ListItem(new Folder("01a", false, "a")));
+        List<ListItem> longNames = new ArrayList<>();
+        longNames.add(new ListItem(new Folder("01a", false, "a much longer folder title")));
+
+        assertThat(BrowseCache.estimateSize(longNames))
+                .isGreaterThan(BrowseCache.estimateSize(shortNames));
+    }
+}
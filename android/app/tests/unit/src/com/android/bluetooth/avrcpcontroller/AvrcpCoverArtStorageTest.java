@@ -36,6 +36,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
 import java.io.InputStream;
 
 /**
@@ -333,11 +334,84 @@ public final class AvrcpCoverArtStorageTest {
     @Test
     public void toString_returnsDeviceInfo() {
         String expectedString =
-                "CoverArtStorage:\n" + "  " + mDevice1 + " (" + 1 + "):" + "\n    "
-                        + mHandle1 + "\n";
+                "CoverArtStorage:\n" + "    Memory: " + mImage1.getAllocationByteCount() + "/"
+                        + AvrcpCoverArtStorage.DEFAULT_MEMORY_CACHE_BYTES
+                        + " bytes, memory hits: 0, disk hits: 0, misses: 0, evictions: 0,"
+                        + " spill failures: 0\n"
+                        + "  " + mDevice1 + " (" + 1 + "):" + "\n    "
+                        + mHandle1 + " (memory)\n";
 
         mAvrcpCoverArtStorage.addImage(mDevice1, mHandle1, mImage1);
 
         Assert.assertEquals(expectedString, mAvrcpCoverArtStorage.toString());
     }
+
+    @Test
+    public void addImageOverBudget_leastRecentlyUsedImageSpilledToDisk() {
+        mAvrcpCoverArtStorage = new AvrcpCoverArtStorage(mTargetContext,
+                2 * mImage1.getAllocationByteCount());
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle1, mImage1);
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle2, mImage1);
+        Assert.assertNull(mAvrcpCoverArtStorage.getSpilledImageFile(mDevice1, mHandle1));
+
+        mAvrcpCoverArtStorage.addImage(mDevice2, mHandle1, mImage1);
+
+        Assert.assertEquals(1, mAvrcpCoverArtStorage.getEvictionCount());
+        Assert.assertTrue(mAvrcpCoverArtStorage.doesImageExist(mDevice1, mHandle1));
+        File file = mAvrcpCoverArtStorage.getSpilledImageFile(mDevice1, mHandle1);
+        Assert.assertNotNull(file);
+        Assert.assertTrue(file.exists());
+        Assert.assertNull(mAvrcpCoverArtStorage.getSpilledImageFile(mDevice1, mHandle2));
+    }
+
+    @Test
+    public void getSpilledImage_decodedFromDisk() {
+        mAvrcpCoverArtStorage = new AvrcpCoverArtStorage(mTargetContext,
+                mImage1.getAllocationByteCount());
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle1, mImage1);
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle2, mImage1);
+
+        assertImageSame(mImage1, mDevice1, mHandle1);
+
+        Assert.assertEquals(1, mAvrcpCoverArtStorage.getDiskHitCount());
+        // Reading it back brought it into memory, evicting the other image
+        assertImageSame(mImage1, mDevice1, mHandle1);
+        Assert.assertEquals(1, mAvrcpCoverArtStorage.getMemoryHitCount());
+        Assert.assertNotNull(mAvrcpCoverArtStorage.getSpilledImageFile(mDevice1, mHandle2));
+    }
+
+    @Test
+    public void evictedAgain_spilledFileNotRewritten() {
+        mAvrcpCoverArtStorage = new AvrcpCoverArtStorage(mTargetContext,
+                mImage1.getAllocationByteCount());
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle1, mImage1);
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle2, mImage1);
+        File file = mAvrcpCoverArtStorage.getSpilledImageFile(mDevice1, mHandle1);
+        Assert.assertNotNull(file);
+        Assert.assertTrue(file.setLastModified(0));
+
+        // Bring it back into memory, then evict it again
+        assertImageSame(mImage1, mDevice1, mHandle1);
+        mAvrcpCoverArtStorage.addImage(mDevice2, mHandle1, mImage1);
+
+        Assert.assertEquals(3, mAvrcpCoverArtStorage.getEvictionCount());
+        Assert.assertEquals(file, mAvrcpCoverArtStorage.getSpilledImageFile(mDevice1, mHandle1));
+        Assert.assertEquals(0, file.lastModified());
+    }
+
+    @Test
+    public void removeImagesForDevice_spilledImagesDeleted() {
+        mAvrcpCoverArtStorage = new AvrcpCoverArtStorage(mTargetContext,
+                mImage1.getAllocationByteCount());
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle1, mImage1);
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle2, mImage1);
+        File file = mAvrcpCoverArtStorage.getSpilledImageFile(mDevice1, mHandle1);
+        Assert.assertNotNull(file);
+
+        mAvrcpCoverArtStorage.removeImagesForDevice(mDevice1);
+
+        Assert.assertFalse(mAvrcpCoverArtStorage.doesImageExist(mDevice1, mHandle1));
+        Assert.assertNull(mAvrcpCoverArtStorage.getImage(mDevice1, mHandle1));
+        Assert.assertFalse(file.exists());
+    }
 }
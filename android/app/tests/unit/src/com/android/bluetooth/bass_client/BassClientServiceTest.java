@@ -996,4 +996,12 @@ public class BassClientServiceTest {
         assertThat(devices.contains(mCurrentDevice)).isTrue();
         assertThat(devices.contains(mCurrentDevice1)).isTrue();
     }
+
+    @Test
+    public void testGetPaSyncSlots_invalidValuesSanitized() {
+        int defaultSlots = BassClientService.getPaSyncSlots(0);
+        assertThat(defaultSlots).isGreaterThan(0);
+        assertThat(BassClientService.getPaSyncSlots(-1)).isEqualTo(defaultSlots);
+        assertThat(BassClientService.getPaSyncSlots(2)).isEqualTo(2);
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.bass_client;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanResult;
+
+import com.android.bluetooth.TestUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class BassSourceDiscoveryTest {
+    private final BassSourceDiscovery mDiscovery = new BassSourceDiscovery();
+
+    private static ScanResult getScanResult(int index, int rssi) {
+        BluetoothDevice device =
+                TestUtils.getTestDevice(BluetoothAdapter.getDefaultAdapter(), index);
+        return new ScanResult(device, null, rssi, 0);
+    }
+
+    @Test
+    public void update_sameBroadcastId_deduplicated() {
+        assertThat(mDiscovery.update(1, getScanResult(1, -60), false, false, 0)).isTrue();
+        assertThat(mDiscovery.update(1, getScanResult(1, -50), false, false, 100)).isFalse();
+
+        assertThat(mDiscovery.size()).isEqualTo(1);
+        assertThat(mDiscovery.pollBest(2, 100).get(0).getRssi()).isEqualTo(-50);
+    }
+
+    @Test
+    public void pollBest_ranksPublicNamedThenRssi() {
+        ScanResult weak = getScanResult(1, -90);
+        ScanResult strong = getScanResult(2, -40);
+        ScanResult named = getScanResult(3, -80);
+        ScanResult publicBroadcast = getScanResult(4, -85);
+        mDiscovery.update(1, weak, false, false, 0);
+        mDiscovery.update(2, strong, false, false, 0);
+        mDiscovery.update(3, named, false, true, 0);
+        mDiscovery.update(4, publicBroadcast, true, false, 0);
+
+        assertThat(mDiscovery.pollBest(3, 0))
+                .containsExactly(publicBroadcast, named, strong).inOrder();
+        assertThat(mDiscovery.pollBest(3, 0)).containsExactly(weak);
+        assertThat(mDiscovery.hasPending()).isFalse();
+    }
+
+    @Test
+    public void pollBest_staleSourcesLast() {
+        ScanResult stale = getScanResult(1, -40);
+        ScanResult recent = getScanResult(2, -90);
+        mDiscovery.update(1, stale, true, true, 0);
+        mDiscovery.update(2, recent, false, false, BassSourceDiscovery.RECENTLY_SEEN_MS + 1);
+
+        List<ScanResult> best = mDiscovery.pollBest(1, BassSourceDiscovery.RECENTLY_SEEN_MS + 1);
+
+        assertThat(best).containsExactly(recent);
+    }
+
+    @Test
+    public void update_manySources_evictsLeastRecentlySeen() {
+        for (int id = 0; id <= BassSourceDiscovery.MAX_SOURCES; id++) {
+            mDiscovery.update(id, getScanResult(id, -60), false, false, id);
+            if (id > 0) {
+                // Source 0 keeps being seen
+                mDiscovery.update(0, getScanResult(0, -60), false, false, id);
+            }
+        }
+
+        assertThat(mDiscovery.size()).isEqualTo(BassSourceDiscovery.MAX_SOURCES);
+        assertThat(mDiscovery.update(0, getScanResult(0, -60), false, false, 100)).isFalse();
+        assertThat(mDiscovery.update(1, getScanResult(1, -60), false, false, 100)).isTrue();
+    }
+
+    @Test
+    public void isStable_afterAllSelectedAndNoNewSource() {
+        mDiscovery.clear(0);
+        mDiscovery.update(1, getScanResult(1, -60), false, false, 1000);
+        assertThat(mDiscovery.isStable(1000 + BassSourceDiscovery.STABLE_PERIOD_MS)).isFalse();
+
+        mDiscovery.pollBest(1, 1000);
+
+        assertThat(mDiscovery.isStable(1000 + BassSourceDiscovery.STABLE_PERIOD_MS - 1)).isFalse();
+        assertThat(mDiscovery.isStable(1000 + BassSourceDiscovery.STABLE_PERIOD_MS)).isTrue();
+    }
+}
@@ -18,14 +18,18 @@ package com.android.bluetooth.btservice;
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.content.Context;
+import android.content.Intent;
 import android.os.HandlerThread;
 
 import androidx.test.InstrumentationRegistry;
@@ -37,9 +41,13 @@ import com.android.bluetooth.Utils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
+
 @MediumTest
 @RunWith(AndroidJUnit4.class)
 public class AdapterPropertiesTest {
@@ -108,4 +116,50 @@ public class AdapterPropertiesTest {
         assertThat(mAdapterProperties.getBondedDevices()[0].getAddress())
                 .isEqualTo(Utils.getAddressStringFromByte(TEST_BT_ADDR_BYTES_2));
     }
+
+    @Test
+    public void getBondedDevices_sharedUntilBondStateChange() {
+        mRemoteDevices.reset();
+        mRemoteDevices.addDeviceProperties(TEST_BT_ADDR_BYTES);
+        BluetoothDevice device = mRemoteDevices.getDevice(TEST_BT_ADDR_BYTES);
+        BluetoothDevice[] empty = mAdapterProperties.getBondedDevices();
+        assertThat(mAdapterProperties.getBondedDevices()).isSameInstanceAs(empty);
+
+        mAdapterProperties.onBondStateChanged(device, BluetoothDevice.BOND_BONDED);
+
+        BluetoothDevice[] bonded = mAdapterProperties.getBondedDevices();
+        assertThat(bonded).asList().containsExactly(device);
+        assertThat(mAdapterProperties.getBondedDevices()).isSameInstanceAs(bonded);
+        assertThat(mAdapterProperties.isBonded(device.getAddress())).isTrue();
+
+        mAdapterProperties.onBondStateChanged(device, BluetoothDevice.BOND_NONE);
+
+        assertThat(mAdapterProperties.getBondedDevices()).isEmpty();
+        assertThat(mAdapterProperties.isBonded(device.getAddress())).isFalse();
+    }
+
+    @Test
+    public void discoveryStopped_flushesPendingDeviceFoundBeforeFinished() {
+        ArrayList<DiscoveringPackage> packages = new ArrayList<>();
+        packages.add(new DiscoveringPackage("com.android.test", null, false));
+        when(mAdapterService.getDiscoveringPackages()).thenReturn(packages);
+        mRemoteDevices.mDeviceFoundCoalesceWindowMs = 60000;
+        mRemoteDevices.addDeviceProperties(TEST_BT_ADDR_BYTES);
+        mRemoteDevices.deviceFoundCallback(TEST_BT_ADDR_BYTES);
+        verify(mAdapterService, times(0)).sendBroadcastMultiplePermissions(any(), any(), any());
+
+        mAdapterProperties.discoveryStateChangeCallback(AbstractionLayer.BT_DISCOVERY_STOPPED);
+
+        ArgumentCaptor<Intent> foundIntent = ArgumentCaptor.forClass(Intent.class);
+        ArgumentCaptor<Intent> finishedIntent = ArgumentCaptor.forClass(Intent.class);
+        InOrder order = inOrder(mAdapterService);
+        order.verify(mAdapterService).sendBroadcastMultiplePermissions(foundIntent.capture(),
+                any(), any());
+        order.verify(mAdapterService).clearDiscoveringPackages();
+        order.verify(mAdapterService).sendBroadcast(finishedIntent.capture(), anyString(),
+                any());
+        assertThat(foundIntent.getValue().getAction()).isEqualTo(BluetoothDevice.ACTION_FOUND);
+        assertThat(finishedIntent.getValue().getAction())
+                .isEqualTo(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+    }
 }
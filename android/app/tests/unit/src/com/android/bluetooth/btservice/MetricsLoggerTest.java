@@ -388,6 +388,37 @@ public class MetricsLoggerTest {
         Assert.assertTrue(mTestableMetricsLogger.mTestableDeviceNames.isEmpty());
 
     }
+
+    @Test
+    public void testDeviceNameUploading_longestMatchWins() {
+        BloomFilter<byte[]> bloomFilter = BloomFilter.create(Funnels.byteArrayFunnel(), 100, 1e-6);
+        bloomFilter.put(MetricsLogger.getSha256("pixel"));
+        bloomFilter.put(MetricsLogger.getSha256("pixel7"));
+        bloomFilter.put(MetricsLogger.getSha256("bose"));
+        mTestableMetricsLogger.setBloomfilter(bloomFilter);
+
+        Assert.assertTrue(
+                mTestableMetricsLogger.logSanitizedBluetoothDeviceName(1, "Bose Pixel 7"));
+
+        Assert.assertEquals(1, mTestableMetricsLogger.mTestableDeviceNames.size());
+        Assert.assertEquals(1,
+                mTestableMetricsLogger.mTestableDeviceNames.get("pixel7").intValue());
+    }
+
+    @Test
+    public void testDeviceNameUploading_equallyLongMatches_firstWins() {
+        BloomFilter<byte[]> bloomFilter = BloomFilter.create(Funnels.byteArrayFunnel(), 100, 1e-6);
+        bloomFilter.put(MetricsLogger.getSha256("tesla"));
+        bloomFilter.put(MetricsLogger.getSha256("volvo"));
+        mTestableMetricsLogger.setBloomfilter(bloomFilter);
+
+        mTestableMetricsLogger.logSanitizedBluetoothDeviceName(1, "my tesla or volvo");
+
+        Assert.assertEquals(1, mTestableMetricsLogger.mTestableDeviceNames.size());
+        Assert.assertEquals(1,
+                mTestableMetricsLogger.mTestableDeviceNames.get("tesla").intValue());
+    }
+
     private void initTestingBloomfitler() {
         byte[] bloomfilterData = DeviceBloomfilterGenerator.hexStringToByteArray(
                 DeviceBloomfilterGenerator.BLOOM_FILTER_DEFAULT);
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.Utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class RemoteDeviceTableTest {
+    private static final int MAX_ENTRIES = 200;
+
+    private static class Entry {
+        final boolean mBonded;
+
+        Entry(boolean bonded) {
+            mBonded = bonded;
+        }
+    }
+
+    private final RemoteDeviceTable<Entry> mTable =
+            new RemoteDeviceTable<>(MAX_ENTRIES, entry -> entry.mBonded);
+
+    @Test
+    public void toKey_byteAndStringAddressesMatch() {
+        String address = "00:11:22:AA:bb:FF";
+        long key = RemoteDeviceTable.toKey(address);
+
+        assertThat(key).isEqualTo(0x001122AABBFFL);
+        assertThat(RemoteDeviceTable.toKey(Utils.getBytesFromAddress(address))).isEqualTo(key);
+    }
+
+    @Test
+    public void toKey_invalidAddress() {
+        assertThat(RemoteDeviceTable.toKey((String) null)).isEqualTo(RemoteDeviceTable.INVALID_KEY);
+        assertThat(RemoteDeviceTable.toKey("00:11:22:33:44")).isEqualTo(
+                RemoteDeviceTable.INVALID_KEY);
+        assertThat(RemoteDeviceTable.toKey("00-11-22-33-44-55")).isEqualTo(
+                RemoteDeviceTable.INVALID_KEY);
+        assertThat(RemoteDeviceTable.toKey(new byte[5])).isEqualTo(RemoteDeviceTable.INVALID_KEY);
+    }
+
+    @Test
+    public void put_existingKey_replacesWithoutEviction() {
+        Entry first = new Entry(false);
+        Entry second = new Entry(false);
+
+        assertThat(mTable.put(1, first)).isNull();
+        assertThat(mTable.put(1, second)).isSameInstanceAs(first);
+
+        assertThat(mTable.get(1)).isSameInstanceAs(second);
+        assertThat(mTable.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void put_overLimit_evictsOldestUnpinnedEntry() {
+        for (long key = 0; key <= MAX_ENTRIES; key++) {
+            mTable.put(key, new Entry(false));
+        }
+
+        assertThat(mTable.get(0)).isNull();
+        assertThat(mTable.get(1)).isNotNull();
+        assertThat(mTable.size()).isEqualTo(MAX_ENTRIES);
+    }
+
+    @Test
+    public void put_overLimit_keepsPinnedEntry() {
+        Entry bonded = new Entry(true);
+        mTable.put(0, bonded);
+        for (long key = 1; key <= MAX_ENTRIES; key++) {
+            mTable.put(key, new Entry(false));
+        }
+
+        assertThat(mTable.get(0)).isSameInstanceAs(bonded);
+        assertThat(mTable.size()).isEqualTo(MAX_ENTRIES + 1);
+    }
+
+    @Test
+    public void discovery_ofManyDevices_staysBounded() {
+        int bondedCount = 5;
+        for (long key = 0; key < bondedCount; key++) {
+            mTable.put(key, new Entry(true));
+        }
+
+        // A crowded inquiry finding 2000 devices, each reported a few times
+        for (int round = 0; round < 3; round++) {
+            for (long key = bondedCount; key < bondedCount + 2000; key++) {
+                if (mTable.get(key) == null) {
+                    mTable.put(key, new Entry(false));
+                }
+            }
+        }
+
+        assertThat(mTable.size()).isAtMost(MAX_ENTRIES + bondedCount);
+        for (long key = 0; key < bondedCount; key++) {
+            assertThat(mTable.get(key)).isNotNull();
+        }
+        assertThat(mTable.get(bondedCount + 1999)).isNotNull();
+    }
+
+    @Test
+    public void clear_removesEntriesAndEvictionOrder() {
+        mTable.put(1, new Entry(false));
+        mTable.clear();
+
+        assertThat(mTable.size()).isEqualTo(0);
+        for (long key = 2; key < 2 + MAX_ENTRIES; key++) {
+            mTable.put(key, new Entry(false));
+        }
+        assertThat(mTable.size()).isEqualTo(MAX_ENTRIES);
+    }
+}
@@ -635,6 +635,60 @@ public class RemoteDevicesTest {
                 .getHfAudioPolicyForRemoteAg());
     }
 
+    @Test
+    public void testDeviceFoundCallback_coalesced_sendsLatestPropertiesOnce() {
+        ArrayList<DiscoveringPackage> packages = new ArrayList<>();
+        packages.add(new DiscoveringPackage("com.android.test", null, false));
+        when(mAdapterService.getDiscoveringPackages()).thenReturn(packages);
+        mRemoteDevices.mDeviceFoundCoalesceWindowMs = 100;
+        byte[] address = Utils.getBytesFromAddress(TEST_BT_ADDR_1);
+        mRemoteDevices.addDeviceProperties(address);
+
+        // A device reported repeatedly during inquiry, and renamed in between
+        mRemoteDevices.deviceFoundCallback(address);
+        mRemoteDevices.devicePropertyChangedCallback(address,
+                new int[] {AbstractionLayer.BT_PROPERTY_BDNAME}, new byte[][] {"Name".getBytes()});
+        mRemoteDevices.deviceFoundCallback(address);
+        verify(mAdapterService, never()).sendBroadcastMultiplePermissions(any(), any(), any());
+        verify(mAdapterService, never()).sendBroadcast(any(), anyString(), any());
+
+        Message msg = mTestLooperManager.next();
+        Assert.assertNotNull(msg);
+        mTestLooperManager.execute(msg);
+
+        verify(mAdapterService).sendBroadcastMultiplePermissions(mIntentArgument.capture(),
+                any(), any());
+        Intent intent = mIntentArgument.getValue();
+        Assert.assertEquals(BluetoothDevice.ACTION_FOUND, intent.getAction());
+        Assert.assertEquals(mDevice1, intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE));
+        Assert.assertEquals("Name", intent.getStringExtra(BluetoothDevice.EXTRA_NAME));
+    }
+
+    @Test
+    public void testDeviceFoundCallback_notCoalescedByDefault() {
+        ArrayList<DiscoveringPackage> packages = new ArrayList<>();
+        packages.add(new DiscoveringPackage("com.android.test", null, false));
+        when(mAdapterService.getDiscoveringPackages()).thenReturn(packages);
+        mRemoteDevices.mDeviceFoundCoalesceWindowMs = 0;
+        byte[] address = Utils.getBytesFromAddress(TEST_BT_ADDR_1);
+        mRemoteDevices.addDeviceProperties(address);
+
+        mRemoteDevices.deviceFoundCallback(address);
+        mRemoteDevices.deviceFoundCallback(address);
+
+        verify(mAdapterService, times(2)).sendBroadcastMultiplePermissions(any(), any(), any());
+    }
+
+    @Test
+    public void testGetMaxDeviceQueueSize_invalidValuesSanitized() {
+        int defaultSize = RemoteDevices.getMaxDeviceQueueSize(0);
+        Assert.assertTrue(defaultSize > 0);
+        Assert.assertEquals(defaultSize, RemoteDevices.getMaxDeviceQueueSize(-1));
+        Assert.assertEquals(500, RemoteDevices.getMaxDeviceQueueSize(500));
+        Assert.assertEquals(RemoteDevices.MAX_DEVICE_QUEUE_SIZE_LIMIT,
+                RemoteDevices.getMaxDeviceQueueSize(Integer.MAX_VALUE));
+    }
+
     private static void verifyBatteryLevelChangedIntent(BluetoothDevice device, int batteryLevel,
             ArgumentCaptor<Intent> intentArgument) {
         verifyBatteryLevelChangedIntent(device, batteryLevel, intentArgument.getValue());
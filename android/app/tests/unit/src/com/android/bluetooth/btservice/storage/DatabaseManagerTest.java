@@ -61,6 +61,7 @@ import org.mockito.MockitoAnnotations;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @MediumTest
 @RunWith(AndroidJUnit4.class)
@@ -107,9 +108,12 @@ public final class DatabaseManagerTest {
         when(mAdapterService.getPackageManager()).thenReturn(
                 InstrumentationRegistry.getTargetContext().getPackageManager());
         mDatabaseManager = new DatabaseManager(mAdapterService);
+        // Write through immediately so each test observes its updates after the looper runs.
+        mDatabaseManager.setFlushDelayMillis(0);
 
         BluetoothDevice[] bondedDevices = {mTestDevice};
         doReturn(bondedDevices).when(mAdapterService).getBondedDevices();
+        doReturn(true).when(mAdapterService).isBonded(TEST_BT_ADDR);
         doNothing().when(mAdapterService).metadataChanged(
                 anyString(), anyInt(), any(byte[].class));
 
@@ -237,6 +241,73 @@ public final class DatabaseManagerTest {
                 badValue, BluetoothA2dp.OPTIONAL_CODECS_PREF_UNKNOWN);
     }
 
+    @Test
+    public void testUpdateDatabase_coalescesWritesPerDevice() {
+        mDatabaseManager.setFlushDelayMillis(TimeUnit.HOURS.toMillis(1));
+
+        Assert.assertTrue(mDatabaseManager.setProfileConnectionPolicy(mTestDevice,
+                BluetoothProfile.HEADSET, BluetoothProfile.CONNECTION_POLICY_ALLOWED));
+        Assert.assertTrue(mDatabaseManager.setProfileConnectionPolicy(mTestDevice,
+                BluetoothProfile.A2DP, BluetoothProfile.CONNECTION_POLICY_ALLOWED));
+        Assert.assertTrue(mDatabaseManager.setCustomMeta(mTestDevice, 0, TEST_BYTE_ARRAY));
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+
+        // Nothing is written before the flush delay expires
+        Assert.assertEquals(0, mDatabase.load().size());
+
+        mDatabaseManager.flushPendingUpdates();
+
+        List<Metadata> list = mDatabase.load();
+        Assert.assertEquals(1, list.size());
+        Metadata checkData = list.get(0);
+        Assert.assertEquals(TEST_BT_ADDR, checkData.getAddress());
+        Assert.assertEquals(BluetoothProfile.CONNECTION_POLICY_ALLOWED,
+                checkData.getProfileConnectionPolicy(BluetoothProfile.HEADSET));
+        Assert.assertEquals(BluetoothProfile.CONNECTION_POLICY_ALLOWED,
+                checkData.getProfileConnectionPolicy(BluetoothProfile.A2DP));
+        Assert.assertArrayEquals(TEST_BYTE_ARRAY, checkData.getCustomizedMeta(0));
+
+        mDatabaseManager.factoryReset();
+        mDatabaseManager.mMetadataCache.clear();
+        // Wait for clear database
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+    }
+
+    @Test
+    public void testDeleteDatabase_dropsPendingWrite() {
+        mDatabaseManager.setFlushDelayMillis(TimeUnit.HOURS.toMillis(1));
+
+        Assert.assertTrue(mDatabaseManager.setCustomMeta(mTestDevice, 0, TEST_BYTE_ARRAY));
+        mDatabaseManager.deleteDatabase(mDatabaseManager.mMetadataCache.get(TEST_BT_ADDR));
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+        mDatabaseManager.flushPendingUpdates();
+
+        Assert.assertEquals(0, mDatabase.load().size());
+
+        mDatabaseManager.factoryReset();
+        mDatabaseManager.mMetadataCache.clear();
+        // Wait for clear database
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+    }
+
+    @Test
+    public void testCleanup_flushesPendingWrites() {
+        mDatabaseManager.setFlushDelayMillis(TimeUnit.HOURS.toMillis(1));
+
+        Assert.assertTrue(mDatabaseManager.setCustomMeta(mTestDevice, 0, TEST_BYTE_ARRAY));
+        mDatabaseManager.cleanup();
+
+        List<Metadata> list = mDatabase.load();
+        Assert.assertEquals(1, list.size());
+        Assert.assertArrayEquals(TEST_BYTE_ARRAY, list.get(0).getCustomizedMeta(0));
+
+        restartDatabaseManagerHelper();
+        mDatabaseManager.factoryReset();
+        mDatabaseManager.mMetadataCache.clear();
+        // Wait for clear database
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+    }
+
     @Test
     public void testRemoveUnusedMetadata_WithSingleBondedDevice() {
         // Insert two devices to database and cache, only mTestDevice is
@@ -303,6 +374,9 @@ public final class DatabaseManagerTest {
                 .getRemoteDevice(OTHER_BT_ADDR2);
         BluetoothDevice[] bondedDevices = {otherDevice1, otherDevice2};
         doReturn(bondedDevices).when(mAdapterService).getBondedDevices();
+        doReturn(false).when(mAdapterService).isBonded(TEST_BT_ADDR);
+        doReturn(true).when(mAdapterService).isBonded(OTHER_BT_ADDR1);
+        doReturn(true).when(mAdapterService).isBonded(OTHER_BT_ADDR2);
 
         mDatabaseManager.removeUnusedMetadata();
         TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
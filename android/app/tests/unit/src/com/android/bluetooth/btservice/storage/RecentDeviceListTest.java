@@ -0,0 +1,122 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice.storage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothDevice;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Test cases for {@link RecentDeviceList}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class RecentDeviceListTest {
+    private static final String ADDR_1 = "00:01:02:03:04:05";
+    private static final String ADDR_2 = "00:01:02:03:04:06";
+    private static final String ADDR_3 = "00:01:02:03:04:07";
+
+    @Test
+    public void moveToFront_ordersByRecency() {
+        RecentDeviceList list = new RecentDeviceList();
+
+        list.moveToFront(ADDR_1);
+        list.moveToFront(ADDR_2);
+        list.moveToFront(ADDR_3);
+        list.moveToFront(ADDR_1);
+
+        assertThat(addresses(list.getDevices())).containsExactly(ADDR_1, ADDR_3, ADDR_2)
+                .inOrder();
+    }
+
+    @Test
+    public void moveToBack_keepsLoadOrder() {
+        RecentDeviceList list = new RecentDeviceList();
+
+        list.moveToBack(ADDR_3);
+        list.moveToBack(ADDR_2);
+        list.moveToBack(ADDR_1);
+
+        assertThat(addresses(list.getDevices())).containsExactly(ADDR_3, ADDR_2, ADDR_1)
+                .inOrder();
+    }
+
+    @Test
+    public void remove_relinksNeighbours() {
+        RecentDeviceList list = new RecentDeviceList();
+        list.moveToFront(ADDR_1);
+        list.moveToFront(ADDR_2);
+        list.moveToFront(ADDR_3);
+
+        list.remove(ADDR_2);
+        assertThat(addresses(list.getDevices())).containsExactly(ADDR_3, ADDR_1).inOrder();
+
+        list.remove(ADDR_3);
+        list.remove(ADDR_1);
+        assertThat(list.size()).isEqualTo(0);
+        assertThat(list.getDevices()).isEmpty();
+
+        list.moveToFront(ADDR_2);
+        assertThat(addresses(list.getDevices())).containsExactly(ADDR_2);
+    }
+
+    @Test
+    public void moveToFront_ignoresInvalidAddress() {
+        RecentDeviceList list = new RecentDeviceList();
+
+        list.moveToFront("LocalStorage");
+
+        assertThat(list.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void getDevices_reusesDeviceInstances() {
+        RecentDeviceList list = new RecentDeviceList();
+        list.moveToFront(ADDR_1);
+
+        BluetoothDevice device = list.getDevices().get(0);
+        list.moveToFront(ADDR_2);
+        list.moveToFront(ADDR_1);
+
+        assertThat(list.getDevices().get(0)).isSameInstanceAs(device);
+    }
+
+    @Test
+    public void findFirst_returnsMostRecentMatch() {
+        RecentDeviceList list = new RecentDeviceList();
+        list.moveToFront(ADDR_1);
+        list.moveToFront(ADDR_2);
+        list.moveToFront(ADDR_3);
+
+        assertThat(list.findFirst(address -> !address.equals(ADDR_3)).getAddress())
+                .isEqualTo(ADDR_2);
+        assertThat(list.findFirst(address -> false)).isNull();
+    }
+
+    private static List<String> addresses(List<BluetoothDevice> devices) {
+        return devices.stream().map(BluetoothDevice::getAddress).collect(Collectors.toList());
+    }
+}
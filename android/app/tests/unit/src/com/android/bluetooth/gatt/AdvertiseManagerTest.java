@@ -22,6 +22,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import android.bluetooth.le.AdvertiseData;
@@ -155,4 +156,87 @@ public class AdvertiseManagerTest {
 
         verify(mAdvertiserMap).setPeriodicAdvertisingData(mAdvertiserId, periodicData);
     }
+
+    @Test
+    public void onAdvertisingSetStarted_indexedByAdvertiserId() throws Exception {
+        int advertiserId = 5;
+
+        mAdvertiseManager.onAdvertisingSetStarted(mAdvertiserId, advertiserId, 0, 0);
+
+        assertThat(mAdvertiseManager.findAdvertiser(mAdvertiserId)).isNull();
+        assertThat(mAdvertiseManager.findAdvertiser(advertiserId).callback)
+                .isSameInstanceAs(mCallback);
+        mAdvertiseManager.stopAdvertisingSet(mCallback);
+        assertThat(mAdvertiseManager.findAdvertiser(advertiserId)).isNull();
+    }
+
+    @Test
+    public void advertisingData_whileUpdatePending_coalesced() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mAdvertiseManager.setAdvertisingData(mAdvertiserId,
+                    new AdvertiseData.Builder().addManufacturerData(0x00E0, new byte[] {(byte) i})
+                            .build());
+        }
+
+        mAdvertiseManager.onAdvertisingDataSet(mAdvertiserId, 0);
+        verify(mCallback).onAdvertisingDataSet(mAdvertiserId, 0);
+
+        // The two updates requested meanwhile were sent as one
+        mAdvertiseManager.onAdvertisingDataSet(mAdvertiserId, 0);
+        verify(mCallback, times(3)).onAdvertisingDataSet(mAdvertiserId, 0);
+    }
+
+    @Test
+    public void dataUpdate_coalescesUntilComplete() {
+        AdvertiseManager.DataUpdate update = new AdvertiseManager.DataUpdate();
+        byte[] second = new byte[] {2};
+        byte[] third = new byte[] {3};
+
+        assertThat(update.request(new byte[] {1}, 0))
+                .isNotEqualTo(AdvertiseManager.DataUpdate.NOT_SENT);
+        assertThat(update.request(second, 10)).isEqualTo(AdvertiseManager.DataUpdate.NOT_SENT);
+        assertThat(update.request(third, 20)).isEqualTo(AdvertiseManager.DataUpdate.NOT_SENT);
+
+        AdvertiseManager.DataUpdate.Completion completion = update.complete(30);
+        assertThat(completion.requests).isEqualTo(1);
+        assertThat(completion.latencyMs).isEqualTo(30);
+        assertThat(completion.next).isSameInstanceAs(third);
+        assertThat(completion.nextSendId).isNotEqualTo(AdvertiseManager.DataUpdate.NOT_SENT);
+
+        completion = update.complete(45);
+        assertThat(completion.requests).isEqualTo(2);
+        assertThat(completion.latencyMs).isEqualTo(15);
+        assertThat(completion.next).isNull();
+    }
+
+    @Test
+    public void dataUpdate_timeOut_failsSendAndSendsPendingData() {
+        AdvertiseManager.DataUpdate update = new AdvertiseManager.DataUpdate();
+        byte[] second = new byte[] {2};
+        long timeout = AdvertiseManager.DataUpdate.TIMEOUT_MS;
+
+        int firstId = update.request(new byte[] {1}, 0);
+        assertThat(update.request(second, 10)).isEqualTo(AdvertiseManager.DataUpdate.NOT_SENT);
+
+        // The stack never reports the first update done
+        AdvertiseManager.DataUpdate.Completion completion = update.timeOut(firstId, timeout);
+        assertThat(completion.requests).isEqualTo(1);
+        assertThat(completion.latencyMs).isEqualTo(-1);
+        assertThat(completion.next).isSameInstanceAs(second);
+        int secondId = completion.nextSendId;
+        assertThat(secondId).isNotEqualTo(firstId);
+
+        // A stale timeout does not fail the update sent since
+        assertThat(update.timeOut(firstId, timeout + 5)).isNull();
+
+        completion = update.complete(timeout + 20);
+        assertThat(completion.requests).isEqualTo(1);
+        assertThat(completion.latencyMs).isEqualTo(20);
+        assertThat(update.timeOut(secondId, 2 * timeout)).isNull();
+
+        // Nothing in flight anymore, a late completion is ignored
+        completion = update.complete(timeout + 30);
+        assertThat(completion.requests).isEqualTo(0);
+        assertThat(completion.latencyMs).isEqualTo(-1);
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.bluetooth.le.ScanResult;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link BatchScanReportReader}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BatchScanReportReaderTest {
+    private static final long NOW_NANOS = TimeUnit.SECONDS.toNanos(1000);
+
+    // Address 06:05:04:03:02:01, rssi -60, 20 * 50 ms ago, manufacturer 0x00E0 data {0x01} in
+    // the advertising packet and a short local name in the scan response.
+    private static final byte[] FULL_RECORD = new byte[] {
+            0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x00, 0x00, -60, 0x14, 0x00,
+            0x05, 0x04, (byte) 0xFF, (byte) 0xE0, 0x00, 0x01,
+            0x03, 0x02, 0x08, 0x41};
+
+    @Test
+    public void next_fullRecords_decodedInOrder() {
+        byte[] data = new byte[2 * FULL_RECORD.length];
+        System.arraycopy(FULL_RECORD, 0, data, 0, FULL_RECORD.length);
+        System.arraycopy(FULL_RECORD, 0, data, FULL_RECORD.length, FULL_RECORD.length);
+        data[FULL_RECORD.length] = 0x11;
+        BatchScanReportReader reader = new BatchScanReportReader(false, 2, data, NOW_NANOS);
+
+        ScanResult first = reader.next();
+        ScanResult second = reader.next();
+
+        assertThat(reader.hasNext()).isFalse();
+        assertThat(first.getDevice().getAddress()).isEqualTo("06:05:04:03:02:01");
+        assertThat(second.getDevice().getAddress()).isEqualTo("06:05:04:03:02:11");
+        assertThat(first.getRssi()).isEqualTo(-60);
+        assertThat(first.getTimestampNanos())
+                .isEqualTo(NOW_NANOS - TimeUnit.MILLISECONDS.toNanos(1000));
+        assertThat(first.getScanRecord().getManufacturerSpecificData(0x00E0))
+                .isEqualTo(new byte[] {0x01});
+        assertThat(first.getScanRecord().getDeviceName()).isEqualTo("A");
+    }
+
+    @Test
+    public void next_truncatedRecords_limitedToNumRecords() {
+        byte[] data = new byte[3 * BatchScanReportReader.TRUNCATED_RECORD_SIZE];
+        data[5] = 0x02;
+        BatchScanReportReader reader = new BatchScanReportReader(true, 2, data, NOW_NANOS);
+
+        assertThat(reader.next().getDevice().getAddress()).isEqualTo("02:00:00:00:00:00");
+        assertThat(reader.next().getScanRecord().getBytes()).isEmpty();
+        assertThat(reader.hasNext()).isFalse();
+        assertThrows(NoSuchElementException.class, reader::next);
+    }
+
+    @Test
+    public void hasNext_incompleteRecord_stops() {
+        byte[] data = new byte[FULL_RECORD.length + 12];
+        System.arraycopy(FULL_RECORD, 0, data, 0, FULL_RECORD.length);
+        // Advertising packet length pointing past the end of the report
+        data[FULL_RECORD.length + 11] = 0x1F;
+        BatchScanReportReader reader = new BatchScanReportReader(false, 2, data, NOW_NANOS);
+
+        assertThat(reader.hasNext()).isTrue();
+        reader.next();
+        assertThat(reader.hasNext()).isFalse();
+    }
+
+    @Test
+    public void parseTimestampNanos_littleEndian() {
+        assertThat(BatchScanReportReader.parseTimestampNanos(new byte[] {0, -54, 7}, 1))
+                .isEqualTo(99700000000L);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.IPeriodicAdvertisingCallback;
+import android.bluetooth.le.PeriodicAdvertisingReport;
+import android.bluetooth.le.ScanResult;
+import android.os.IBinder;
+import android.os.RemoteException;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.TestUtils;
+import com.android.bluetooth.btservice.AdapterService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Test cases for {@link PeriodicScanManager}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PeriodicScanManagerTest {
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final int SID = 3;
+    private static final int SYNC_HANDLE = 0x200;
+
+    @Mock private AdapterService mAdapterService;
+    @Mock private IPeriodicAdvertisingCallback mCallback;
+    @Mock private IPeriodicAdvertisingCallback mOtherCallback;
+    @Mock private IBinder mBinder;
+    @Mock private IBinder mOtherBinder;
+
+    private PeriodicScanManager mPeriodicScanManager;
+    private ScanResult mScanResult;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        TestUtils.setAdapterService(mAdapterService);
+
+        doReturn(mBinder).when(mCallback).asBinder();
+        doReturn(mOtherBinder).when(mOtherCallback).asBinder();
+        doNothing().when(mBinder).linkToDeath(any(), eq(0));
+        doNothing().when(mOtherBinder).linkToDeath(any(), eq(0));
+
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(ADDRESS);
+        mScanResult = new ScanResult(device, 0, 1, 0, SID, 0, -60, 0, null, 0);
+        mPeriodicScanManager = new PeriodicScanManager(mAdapterService);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.clearAdapterService(mAdapterService);
+    }
+
+    private void startSharedSync() throws Exception {
+        mPeriodicScanManager.startSync(mScanResult, 0, 100, mCallback);
+        int regId = PeriodicScanManager.sTempRegistrationId;
+        mPeriodicScanManager.startSync(mScanResult, 0, 100, mOtherCallback);
+        assertThat(mPeriodicScanManager.getSyncs(regId)).hasLength(2);
+
+        mPeriodicScanManager.onSyncStarted(regId, SYNC_HANDLE, SID, 0, ADDRESS, 1, 100, 0);
+
+        assertThat(mPeriodicScanManager.getSyncs(regId)).isEmpty();
+        assertThat(mPeriodicScanManager.getSyncs(SYNC_HANDLE)).hasLength(2);
+    }
+
+    @Test
+    public void onSyncReport_dispatchedToAllSyncsOfHandle() throws Exception {
+        startSharedSync();
+
+        mPeriodicScanManager.onSyncReport(SYNC_HANDLE, 0, -60, 0, new byte[0]);
+
+        ArgumentCaptor<PeriodicAdvertisingReport> report =
+                ArgumentCaptor.forClass(PeriodicAdvertisingReport.class);
+        verify(mCallback).onPeriodicAdvertisingReport(report.capture());
+        verify(mOtherCallback).onPeriodicAdvertisingReport(report.capture());
+        assertThat(report.getAllValues().get(0).getSyncHandle()).isEqualTo(SYNC_HANDLE);
+
+        StringBuilder sb = new StringBuilder();
+        mPeriodicScanManager.dump(sb);
+        assertThat(sb.toString()).contains("callbacks: 2, reports: 1");
+    }
+
+    @Test
+    public void onSyncStarted_deadClient_otherClientStillGetsReports() throws Exception {
+        doThrow(new RemoteException()).when(mCallback).onSyncEstablished(anyInt(), any(),
+                anyInt(), anyInt(), anyInt(), anyInt());
+        startSharedSync();
+
+        mPeriodicScanManager.onSyncReport(SYNC_HANDLE, 0, -60, 0, new byte[0]);
+
+        verify(mOtherCallback).onSyncEstablished(eq(SYNC_HANDLE), any(), eq(SID), anyInt(),
+                anyInt(), eq(0));
+        verify(mOtherCallback).onPeriodicAdvertisingReport(any());
+    }
+
+    @Test
+    public void onSyncReport_otherHandle_notDispatched() throws Exception {
+        startSharedSync();
+
+        mPeriodicScanManager.onSyncReport(SYNC_HANDLE + 1, 0, -60, 0, new byte[0]);
+
+        verify(mCallback, never()).onPeriodicAdvertisingReport(any());
+    }
+
+    @Test
+    public void onSyncLost_removesSyncsOfHandle() throws Exception {
+        startSharedSync();
+
+        mPeriodicScanManager.onSyncLost(SYNC_HANDLE);
+
+        verify(mCallback).onSyncLost(SYNC_HANDLE);
+        verify(mOtherCallback).onSyncLost(SYNC_HANDLE);
+        assertThat(mPeriodicScanManager.getSyncs(SYNC_HANDLE)).isEmpty();
+        mPeriodicScanManager.onBigInfoReport(SYNC_HANDLE, false);
+        verify(mCallback, never()).onBigInfoAdvertisingReport(anyInt(), anyBoolean());
+    }
+
+    @Test
+    public void stopSync_keepsSyncOfOtherCallback() throws Exception {
+        startSharedSync();
+
+        mPeriodicScanManager.stopSync(mCallback);
+        mPeriodicScanManager.onBigInfoReport(SYNC_HANDLE, true);
+
+        assertThat(mPeriodicScanManager.getSyncs(SYNC_HANDLE)).hasLength(1);
+        verify(mCallback, never()).onBigInfoAdvertisingReport(anyInt(), anyBoolean());
+        verify(mOtherCallback).onBigInfoAdvertisingReport(SYNC_HANDLE, true);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+import android.util.SparseIntArray;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test cases for {@link ScanFilterIndex}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterIndexTest {
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final String ORIGINAL_ADDRESS = "AA:BB:CC:DD:EE:FF";
+    private static final ParcelUuid FAST_PAIR_UUID =
+            ParcelUuid.fromString("0000FE2C-0000-1000-8000-00805F9B34FB");
+
+    // Flags, 16-bit service UUID 0xFE2C, manufacturer 0x00E0 data {0x01, 0x02}.
+    private static final byte[] ADV_DATA = new byte[] {
+            0x02, 0x01, 0x06,
+            0x03, 0x03, 0x2C, (byte) 0xFE,
+            0x05, (byte) 0xFF, (byte) 0xE0, 0x00, 0x01, 0x02};
+
+    @Test
+    public void match_keyedFilters() {
+        List<ScanClient> clients = new ArrayList<>();
+        clients.add(newClient(1, new ScanFilter.Builder().setServiceUuid(FAST_PAIR_UUID).build()));
+        clients.add(newClient(2, new ScanFilter.Builder()
+                .setManufacturerData(0x00E0, new byte[] {0x01}).build()));
+        clients.add(newClient(3, new ScanFilter.Builder()
+                .setManufacturerData(0x00E0, new byte[] {0x02}).build()));
+        clients.add(newClient(4, new ScanFilter.Builder().setDeviceAddress(ADDRESS).build()));
+        clients.add(newClient(5, new ScanFilter.Builder()
+                .setDeviceAddress("11:22:33:44:55:66").build()));
+        ScanFilterIndex index = ScanFilterIndex.build(clients);
+
+        SparseIntArray matches = index.match(newResult(), null);
+
+        assertThat(index.getFilterCount()).isEqualTo(5);
+        assertThat(index.getUnkeyedFilterCount()).isEqualTo(0);
+        assertThat(matches.get(1)).isEqualTo(ScanFilterIndex.MATCH);
+        assertThat(matches.get(2)).isEqualTo(ScanFilterIndex.MATCH);
+        assertThat(matches.indexOfKey(3)).isLessThan(0);
+        assertThat(matches.get(4)).isEqualTo(ScanFilterIndex.MATCH);
+        assertThat(matches.indexOfKey(5)).isLessThan(0);
+    }
+
+    @Test
+    public void match_unkeyedFilterIsAlwaysVerified() {
+        List<ScanClient> clients = new ArrayList<>();
+        clients.add(newClient(1, new ScanFilter.Builder()
+                .setServiceUuid(FAST_PAIR_UUID,
+                        ParcelUuid.fromString("0000FFFF-0000-0000-0000-000000000000"))
+                .build()));
+        ScanFilterIndex index = ScanFilterIndex.build(clients);
+
+        assertThat(index.getUnkeyedFilterCount()).isEqualTo(1);
+        assertThat(index.match(newResult(), null).get(1)).isEqualTo(ScanFilterIndex.MATCH);
+    }
+
+    @Test
+    public void match_originalAddress() {
+        List<ScanClient> clients = new ArrayList<>();
+        clients.add(newClient(1, new ScanFilter.Builder()
+                .setDeviceAddress(ORIGINAL_ADDRESS).build()));
+        ScanFilterIndex index = ScanFilterIndex.build(clients);
+
+        assertThat(index.match(newResult(), null).indexOfKey(1)).isLessThan(0);
+        assertThat(index.match(newResult(), ORIGINAL_ADDRESS.toLowerCase()).get(1))
+                .isEqualTo(ScanFilterIndex.MATCH_ORIGINAL_ADDRESS);
+    }
+
+    @Test
+    public void match_bothMatchTypes_firstFilterOfClientWins() {
+        ScanFilter originalAddressFilter =
+                new ScanFilter.Builder().setDeviceAddress(ORIGINAL_ADDRESS).build();
+        ScanFilter uuidFilter = new ScanFilter.Builder().setServiceUuid(FAST_PAIR_UUID).build();
+        List<ScanClient> clients = new ArrayList<>();
+        clients.add(newClient(1, originalAddressFilter, uuidFilter));
+        clients.add(newClient(2, uuidFilter, originalAddressFilter));
+        ScanFilterIndex index = ScanFilterIndex.build(clients);
+
+        SparseIntArray matches = index.match(newResult(), ORIGINAL_ADDRESS);
+
+        assertThat(matches.get(1)).isEqualTo(ScanFilterIndex.MATCH_ORIGINAL_ADDRESS);
+        assertThat(matches.get(2)).isEqualTo(ScanFilterIndex.MATCH);
+    }
+
+    @Test
+    public void isIndexed_onlyClientsWithFilters() {
+        ScanClient filtered = newClient(1, new ScanFilter.Builder()
+                .setServiceUuid(FAST_PAIR_UUID).build());
+        ScanClient unfiltered = new ScanClient(2, new ScanSettings.Builder().build(), null);
+        List<ScanClient> clients = new ArrayList<>();
+        clients.add(filtered);
+        clients.add(unfiltered);
+
+        ScanFilterIndex index = ScanFilterIndex.build(clients);
+
+        assertThat(index.isIndexed(filtered)).isTrue();
+        assertThat(index.isIndexed(unfiltered)).isFalse();
+        // A restarted scan creates a new client instance that is not indexed yet.
+        assertThat(index.isIndexed(newClient(1, null))).isFalse();
+        assertThat(ScanFilterIndex.EMPTY.isIndexed(filtered)).isFalse();
+    }
+
+    private static ScanClient newClient(int scannerId, ScanFilter filter) {
+        List<ScanFilter> filters = new ArrayList<>();
+        if (filter != null) {
+            filters.add(filter);
+        }
+        return new ScanClient(scannerId, new ScanSettings.Builder().build(), filters);
+    }
+
+    private static ScanClient newClient(int scannerId, ScanFilter... filters) {
+        return new ScanClient(scannerId, new ScanSettings.Builder().build(),
+                new ArrayList<>(Arrays.asList(filters)));
+    }
+
+    private static ScanResult newResult() {
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(ADDRESS);
+        return new ScanResult(device, ScanRecord.parseFromBytes(ADV_DATA), -54, 0L);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.ScanFilter;
+import android.os.ParcelUuid;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test cases for {@link ScanFilterPlanner}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterPlannerTest {
+    private static final ParcelUuid FAST_PAIR_UUID =
+            ParcelUuid.fromString("0000FE2C-0000-1000-8000-00805F9B34FB");
+    private static final int MANUFACTURER_ID = 0x00E0;
+
+    private final ScanFilterPlanner mPlanner = new ScanFilterPlanner();
+
+    private static ScanFilter getUuidFilter() {
+        return new ScanFilter.Builder().setServiceUuid(FAST_PAIR_UUID).build();
+    }
+
+    private static ScanFilter getManufacturerFilter(byte data) {
+        return new ScanFilter.Builder()
+                .setManufacturerData(MANUFACTURER_ID, new byte[] {data}, new byte[] {0x0F})
+                .build();
+    }
+
+    @Test
+    public void acquire_sameFilters_shareIndex() {
+        mPlanner.init(4, 6);
+
+        List<ScanFilterPlanner.Assignment> first =
+                mPlanner.acquire(1, Arrays.asList(getUuidFilter()), true);
+        List<ScanFilterPlanner.Assignment> second =
+                mPlanner.acquire(2, Arrays.asList(getUuidFilter(), getUuidFilter()), true);
+
+        assertThat(first).hasSize(1);
+        assertThat(first.get(0).isNew).isTrue();
+        assertThat(second).hasSize(1);
+        assertThat(second.get(0).isNew).isFalse();
+        assertThat(second.get(0).filterIndex).isEqualTo(first.get(0).filterIndex);
+        assertThat(mPlanner.getFreeCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void release_sharedIndex_freedByLastClient() {
+        mPlanner.init(4, 6);
+        int filterIndex = mPlanner.acquire(1, Arrays.asList(getUuidFilter()), true)
+                .get(0).filterIndex;
+        mPlanner.acquire(2, Arrays.asList(getUuidFilter()), true);
+
+        assertThat(mPlanner.release(1)).isEmpty();
+        assertThat(mPlanner.release(2)).containsExactly(filterIndex);
+        assertThat(mPlanner.release(2)).isEmpty();
+        assertThat(mPlanner.getFreeCount()).isEqualTo(2);
+        assertThat(mPlanner.getClientCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void acquire_notShareable_getsOwnIndices() {
+        mPlanner.init(4, 7);
+        mPlanner.acquire(1, Arrays.asList(getUuidFilter()), true);
+
+        List<ScanFilterPlanner.Assignment> assignments =
+                mPlanner.acquire(2, Arrays.asList(getUuidFilter(), getUuidFilter()), false);
+
+        assertThat(assignments).hasSize(2);
+        assertThat(assignments.get(0).isNew).isTrue();
+        assertThat(assignments.get(1).isNew).isTrue();
+        assertThat(mPlanner.getFreeCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void acquire_notEnoughIndices_widensManufacturerData() {
+        mPlanner.init(4, 6);
+        mPlanner.acquire(1, Arrays.asList(getUuidFilter()), true);
+
+        List<ScanFilterPlanner.Assignment> assignments = mPlanner.acquire(2,
+                Arrays.asList(getManufacturerFilter((byte) 1), getManufacturerFilter((byte) 2)),
+                true);
+
+        assertThat(assignments).hasSize(1);
+        ScanFilter filter = assignments.get(0).filter;
+        assertThat(filter.getManufacturerId()).isEqualTo(MANUFACTURER_ID);
+        assertThat(filter.getManufacturerData()).isEmpty();
+        assertThat(filter.getManufacturerDataMask()).isNull();
+
+        StringBuilder sb = new StringBuilder();
+        mPlanner.dump(sb);
+        assertThat(sb.toString()).contains("2/2 used, 0 shared, clients: 2, widened clients: 1");
+    }
+
+    @Test
+    public void acquire_tooManyFilters_returnsNull() {
+        mPlanner.init(4, 5);
+
+        assertThat(mPlanner.acquire(1,
+                Arrays.asList(getUuidFilter(), getManufacturerFilter((byte) 1)), false)).isNull();
+        assertThat(mPlanner.acquire(2, null, true)).isNull();
+        assertThat(mPlanner.getFreeCount()).isEqualTo(1);
+        assertThat(mPlanner.getClientCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void widen_keepsFiltersWithoutData() {
+        ScanFilter filter = getUuidFilter();
+
+        assertThat(ScanFilterPlanner.widen(filter)).isSameInstanceAs(filter);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanResult;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link SharedScanResult}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SharedScanResultTest {
+    private static final byte[] ADV_DATA = new byte[] {
+            0x02, 0x01, 0x06, 0x05, (byte) 0xFF, (byte) 0xE0, 0x00, 0x01, 0x02};
+
+    private BluetoothDevice mDevice;
+
+    @Before
+    public void setUp() {
+        mDevice = BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05");
+    }
+
+    @Test
+    public void noResultRequested_doesNotParse() {
+        SharedScanResult shared = newSharedScanResult();
+
+        assertThat(shared.getParseCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void getResult_manyClients_parsesEachViewOnce() {
+        SharedScanResult shared = newSharedScanResult();
+
+        ScanResult extended = shared.getResult(false);
+        ScanResult legacy = shared.getResult(true);
+        for (int i = 0; i < 30; i++) {
+            assertThat(shared.getResult(false)).isSameInstanceAs(extended);
+            assertThat(shared.getResult(true)).isSameInstanceAs(legacy);
+        }
+
+        assertThat(shared.getParseCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void getResult_legacy_padsToFixedSize() {
+        SharedScanResult shared = newSharedScanResult();
+
+        ScanResult legacy = shared.getResult(true);
+        ScanResult extended = shared.getResult(false);
+
+        assertThat(legacy.getScanRecord().getBytes())
+                .hasLength(SharedScanResult.LEGACY_ADV_DATA_LENGTH);
+        assertThat(extended.getScanRecord().getBytes()).isEqualTo(ADV_DATA);
+        assertThat(legacy.getScanRecord().getManufacturerSpecificData(0x00E0))
+                .isEqualTo(new byte[] {0x01, 0x02});
+        assertThat(legacy.getDevice()).isEqualTo(mDevice);
+        assertThat(legacy.getRssi()).isEqualTo(-54);
+    }
+
+    private SharedScanResult newSharedScanResult() {
+        return new SharedScanResult(mDevice, 0x1b, 1, 0, 0xff, 127, -54, 0, ADV_DATA, 0L);
+    }
+}
@@ -18,6 +18,7 @@ package com.android.bluetooth.hfp;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doReturn;
@@ -30,8 +31,11 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
 import android.provider.CallLog;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.PhoneLookup;
 import android.telephony.PhoneNumberUtils;
 
 import androidx.test.InstrumentationRegistry;
@@ -265,12 +269,11 @@ public class AtPhonebookTest {
         doReturn(mockCursorOne).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(),
                 any(), any());
 
-        Cursor mockCursorTwo = mock(Cursor.class);
-        when(mockCursorTwo.moveToFirst()).thenReturn(true);
+        MatrixCursor contactsCursor = new MatrixCursor(
+                new String[]{Phone.NUMBER, Phone.NORMALIZED_NUMBER, Phone.DISPLAY_NAME});
         String name = "k".repeat(30);
-        when(mockCursorTwo.getString(0)).thenReturn(name);
-        when(mockCursorTwo.getInt(1)).thenReturn(1);
-        doReturn(mockCursorTwo).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(),
+        contactsCursor.addRow(new Object[]{number, null, name});
+        doReturn(contactsCursor).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(),
                 any(), any(), any());
 
         mAtPhonebook.mCurrentPhonebook = "RC";
@@ -286,6 +289,115 @@ public class AtPhonebookTest {
         verify(mNativeInterface).atResponseString(mTestDevice, expected);
     }
 
+    @Test
+    public void processCpbrCommand_withCallHistory_resolvesNamesOncePerConnection() {
+        MatrixCursor callsCursor = new MatrixCursor(new String[]{CallLog.Calls._ID,
+                CallLog.Calls.NUMBER, CallLog.Calls.NUMBER_PRESENTATION});
+        callsCursor.addRow(new Object[]{1, "5550100", CallLog.Calls.PRESENTATION_ALLOWED});
+        callsCursor.addRow(new Object[]{2, "5550101", CallLog.Calls.PRESENTATION_ALLOWED});
+        callsCursor.addRow(new Object[]{3, "5550100", CallLog.Calls.PRESENTATION_ALLOWED});
+        doReturn(callsCursor).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(),
+                any(), any());
+        MatrixCursor contactsCursor = new MatrixCursor(
+                new String[]{Phone.NUMBER, Phone.NORMALIZED_NUMBER, Phone.DISPLAY_NAME});
+        contactsCursor.addRow(new Object[]{"5550100", null, "Alice"});
+        doReturn(contactsCursor).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(),
+                any(), any(), any());
+        doReturn(new MatrixCursor(new String[]{PhoneLookup.DISPLAY_NAME}))
+                .when(mHfpMethodProxy).contentResolverQuery(any(), argThat(this::isPhoneLookup),
+                        any(), any(), any(), any());
+
+        mAtPhonebook.mCurrentPhonebook = "MC";
+        mAtPhonebook.mCpbrIndex1 = 1;
+        mAtPhonebook.mCpbrIndex2 = 3;
+        mAtPhonebook.processCpbrCommand(mTestDevice);
+
+        // One query for the whole window, and a loose lookup of the number it did not match
+        assertThat(mAtPhonebook.mCallerIdResolver.getQueryCount()).isEqualTo(2);
+        String toa = Integer.toString(PhoneNumberUtils.toaFromString("5550100"));
+        verify(mNativeInterface).atResponseString(mTestDevice,
+                "+CPBR: 1,\"5550100\"," + toa + ",\"Alice\"\r\n\r\n");
+        verify(mNativeInterface).atResponseString(mTestDevice,
+                "+CPBR: 2,\"5550101\"," + toa + ",\"\"\r\n\r\n");
+        verify(mNativeInterface).atResponseString(mTestDevice,
+                "+CPBR: 3,\"5550100\"," + toa + ",\"Alice\"\r\n\r\n");
+
+        // The next page of the same connection reuses the resolved names
+        callsCursor = new MatrixCursor(new String[]{CallLog.Calls._ID,
+                CallLog.Calls.NUMBER, CallLog.Calls.NUMBER_PRESENTATION});
+        callsCursor.addRow(new Object[]{1, "5550101", CallLog.Calls.PRESENTATION_ALLOWED});
+        doReturn(callsCursor).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(),
+                any(), any());
+        mAtPhonebook.mCpbrIndex1 = 1;
+        mAtPhonebook.mCpbrIndex2 = 1;
+        mAtPhonebook.processCpbrCommand(mTestDevice);
+        assertThat(mAtPhonebook.mCallerIdResolver.getQueryCount()).isEqualTo(2);
+
+        mAtPhonebook.resetAtState();
+        assertThat(mAtPhonebook.mCallerIdResolver.getName("5550100")).isNull();
+    }
+
+    @Test
+    public void processCpbrCommand_withCallHistory_fallsBackToLooseMatch() {
+        MatrixCursor callsCursor = new MatrixCursor(new String[]{CallLog.Calls._ID,
+                CallLog.Calls.NUMBER, CallLog.Calls.NUMBER_PRESENTATION});
+        callsCursor.addRow(new Object[]{1, "5550100", CallLog.Calls.PRESENTATION_ALLOWED});
+        doReturn(callsCursor).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(),
+                any(), any());
+        doReturn(new MatrixCursor(
+                new String[]{Phone.NUMBER, Phone.NORMALIZED_NUMBER, Phone.DISPLAY_NAME}))
+                .when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(),
+                        any());
+        MatrixCursor lookupCursor = new MatrixCursor(new String[]{PhoneLookup.DISPLAY_NAME});
+        lookupCursor.addRow(new Object[]{"Bob"});
+        doReturn(lookupCursor).when(mHfpMethodProxy).contentResolverQuery(any(),
+                argThat(this::isPhoneLookup), any(), any(), any(), any());
+
+        mAtPhonebook.mCurrentPhonebook = "RC";
+        mAtPhonebook.mCpbrIndex1 = 1;
+        mAtPhonebook.mCpbrIndex2 = 1;
+        mAtPhonebook.processCpbrCommand(mTestDevice);
+
+        String toa = Integer.toString(PhoneNumberUtils.toaFromString("5550100"));
+        verify(mNativeInterface).atResponseString(mTestDevice,
+                "+CPBR: 1,\"5550100\"," + toa + ",\"Bob\"\r\n\r\n");
+    }
+
+    @Test
+    public void processCpbrCommand_withCallHistory_failedQueryIsNotCached() {
+        MatrixCursor callsCursor = new MatrixCursor(new String[]{CallLog.Calls._ID,
+                CallLog.Calls.NUMBER, CallLog.Calls.NUMBER_PRESENTATION});
+        callsCursor.addRow(new Object[]{1, "5550100", CallLog.Calls.PRESENTATION_ALLOWED});
+        doReturn(callsCursor).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(),
+                any(), any());
+        doReturn(null).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
+
+        mAtPhonebook.mCurrentPhonebook = "RC";
+        mAtPhonebook.mCpbrIndex1 = 1;
+        mAtPhonebook.mCpbrIndex2 = 1;
+        mAtPhonebook.processCpbrCommand(mTestDevice);
+        assertThat(mAtPhonebook.mCallerIdResolver.getQueryCount()).isEqualTo(1);
+
+        // The next page queries again once the contacts provider answers
+        MatrixCursor contactsCursor = new MatrixCursor(
+                new String[]{Phone.NUMBER, Phone.NORMALIZED_NUMBER, Phone.DISPLAY_NAME});
+        contactsCursor.addRow(new Object[]{"5550100", null, "Alice"});
+        doReturn(contactsCursor).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(),
+                any(), any(), any());
+        callsCursor = new MatrixCursor(new String[]{CallLog.Calls._ID,
+                CallLog.Calls.NUMBER, CallLog.Calls.NUMBER_PRESENTATION});
+        callsCursor.addRow(new Object[]{1, "5550100", CallLog.Calls.PRESENTATION_ALLOWED});
+        doReturn(callsCursor).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(),
+                any(), any());
+        mAtPhonebook.processCpbrCommand(mTestDevice);
+
+        assertThat(mAtPhonebook.mCallerIdResolver.getQueryCount()).isEqualTo(2);
+        String toa = Integer.toString(PhoneNumberUtils.toaFromString("5550100"));
+        verify(mNativeInterface).atResponseString(mTestDevice,
+                "+CPBR: 1,\"5550100\"," + toa + ",\"Alice\"\r\n\r\n");
+    }
+
     @Test
     public void setCpbrIndex() {
         int index = 1;
@@ -311,4 +423,9 @@ public class AtPhonebookTest {
         assertThat(AtPhonebook.getPhoneType(Phone.TYPE_FAX_WORK)).isEqualTo("F");
         assertThat(AtPhonebook.getPhoneType(Phone.TYPE_CUSTOM)).isEqualTo("O");
     }
-}
\ No newline at end of file
+
+    private boolean isPhoneLookup(Uri uri) {
+        return uri != null && uri.toString().startsWith(
+                PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI.toString());
+    }
+}
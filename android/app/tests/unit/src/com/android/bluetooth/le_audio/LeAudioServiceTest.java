@@ -1841,6 +1841,31 @@ public class LeAudioServiceTest {
         assertThat(secondGroupDevicesById.equals(secondGroupDevicesByDevice)).isTrue();
     }
 
+    @Test
+    public void testGetGroupDevices_followsGroupNodeChanges() {
+        int groupId = 1;
+
+        doReturn(true).when(mNativeInterface).connectLeAudio(any(BluetoothDevice.class));
+        connectTestDevice(mLeftDevice, groupId);
+        connectTestDevice(mRightDevice, groupId);
+        assertThat(mService.getGroupDevices(groupId))
+                .containsExactly(mLeftDevice, mRightDevice);
+        assertThat(mService.getConnectedPeerDevices(groupId))
+                .containsExactly(mLeftDevice, mRightDevice);
+
+        // Returned lists are copies, callers may modify them
+        mService.getGroupDevices(groupId).clear();
+        assertThat(mService.getGroupDevices(groupId)).hasSize(2);
+
+        generateGroupNodeRemoved(mRightDevice, groupId);
+        assertThat(mService.getGroupDevices(groupId)).containsExactly(mLeftDevice);
+        assertThat(mService.getGroupDevices(mRightDevice)).isEmpty();
+
+        generateGroupNodeAdded(mRightDevice, groupId);
+        assertThat(mService.getGroupDevices(mRightDevice))
+                .containsExactly(mLeftDevice, mRightDevice);
+    }
+
     /**
      * Tests that {@link LeAudioService#sendPreferredAudioProfileChangeToAudioFramework()} sends
      * requests to the audio framework for each active LEA device.
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothMapChangeTrackerTest {
+    private static final long MESSAGE_ID = 23;
+
+    private BluetoothMapChangeTracker mTracker;
+    private int mFullRescanCount;
+
+    @Before
+    public void setUp() {
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+        mTracker = new BluetoothMapChangeTracker("test", new Handler(Looper.myLooper()),
+                () -> mFullRescanCount++);
+    }
+
+    @After
+    public void tearDown() {
+        mTracker.cancel();
+    }
+
+    @Test
+    public void onDeltaScan_withNamedRow_doesNotScheduleFullRescan() {
+        mTracker.onDeltaScan(MESSAGE_ID, 1, 0);
+
+        assertThat(mTracker.isFullRescanPending()).isFalse();
+        assertThat(mTracker.getDeltaScanCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void onDeltaScan_withoutNamedRow_schedulesFullRescan() {
+        // New rows above the high-water mark do not explain other changes of the notification
+        mTracker.onDeltaScan(BluetoothMapChangeTracker.NO_MESSAGE_ID, 1, 0);
+
+        assertThat(mTracker.isFullRescanPending()).isTrue();
+    }
+
+    @Test
+    public void onDeltaScan_withoutRows_schedulesSingleFullRescan() {
+        mTracker.onDeltaScan(MESSAGE_ID, 0, 0);
+        mTracker.onDeltaScan(MESSAGE_ID, 0, 0);
+        assertThat(mTracker.isFullRescanPending()).isTrue();
+
+        mTracker.runFullRescan();
+
+        assertThat(mTracker.isFullRescanPending()).isFalse();
+        assertThat(mFullRescanCount).isEqualTo(1);
+        assertThat(mTracker.getFullScanCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void onDeltaScan_manyDeltaScans_schedulesFullRescan() {
+        long now = SystemClock.elapsedRealtime();
+        for (int i = 0; i < BluetoothMapChangeTracker.MAX_DELTA_SCANS - 1; i++) {
+            mTracker.onDeltaScan(MESSAGE_ID, 1, 0, now);
+        }
+        assertThat(mTracker.isFullRescanPending()).isFalse();
+
+        mTracker.onDeltaScan(MESSAGE_ID, 1, 0, now);
+        assertThat(mTracker.isFullRescanPending()).isTrue();
+
+        // The count starts over after the full rescan
+        mTracker.runFullRescan();
+        mTracker.onDeltaScan(MESSAGE_ID, 1, 0, now);
+        assertThat(mTracker.isFullRescanPending()).isFalse();
+    }
+
+    @Test
+    public void onDeltaScan_lastFullRescanTooOld_schedulesFullRescan() {
+        long now = SystemClock.elapsedRealtime();
+        mTracker.onDeltaScan(MESSAGE_ID, 1, 0, now);
+        assertThat(mTracker.isFullRescanPending()).isFalse();
+
+        mTracker.onDeltaScan(MESSAGE_ID, 1, 0,
+                now + BluetoothMapChangeTracker.MAX_DELTA_SCAN_AGE_MS);
+
+        assertThat(mTracker.isFullRescanPending()).isTrue();
+    }
+
+    @Test
+    public void cancel_dropsPendingFullRescan() {
+        mTracker.onDeltaScan(MESSAGE_ID, 0, 0);
+
+        mTracker.cancel();
+
+        assertThat(mTracker.isFullRescanPending()).isFalse();
+    }
+
+    @Test
+    public void getMaxId() {
+        Map<Long, Object> msgList = new HashMap<>();
+        assertThat(BluetoothMapChangeTracker.getMaxId(msgList)).isEqualTo(-1);
+
+        msgList.put(7L, null);
+        msgList.put(42L, null);
+        msgList.put(3L, null);
+        assertThat(BluetoothMapChangeTracker.getMaxId(msgList)).isEqualTo(42);
+    }
+
+    @Test
+    public void getMessageId() {
+        assertThat(BluetoothMapChangeTracker.getMessageId(
+                Uri.parse("content://com.example.email/1/Message/23"))).isEqualTo(23);
+        assertThat(BluetoothMapChangeTracker.getMessageId(
+                Uri.parse("content://com.example.email/1/Message")))
+                .isEqualTo(BluetoothMapChangeTracker.NO_MESSAGE_ID);
+        assertThat(BluetoothMapChangeTracker.getMessageId(Uri.parse("content://mms-sms/")))
+                .isEqualTo(BluetoothMapChangeTracker.NO_MESSAGE_ID);
+    }
+}
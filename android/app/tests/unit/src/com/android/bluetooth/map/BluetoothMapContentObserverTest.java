@@ -1953,4 +1953,52 @@ public class BluetoothMapContentObserverTest {
                 "msg").addFolder(folderName);
         subFolder.setFolderId(folderId);
     }
+
+    @Test
+    public void scanMsgListSms_deltaScan_onlyReadsNewerRowsAndKeepsExistingMessages() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {Sms._ID, Sms.TYPE, Sms.THREAD_ID,
+                Sms.READ});
+        cursor.addRow(new Object[] {TEST_HANDLE_TWO, TEST_SMS_TYPE_ALL, TEST_THREAD_ID,
+                TEST_READ_FLAG_ONE});
+        doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
+
+        Map<Long, BluetoothMapContentObserver.Msg> map = new HashMap<>();
+        BluetoothMapContentObserver.Msg msg = new BluetoothMapContentObserver.Msg(TEST_HANDLE_ONE,
+                TEST_SMS_TYPE_ALL, TEST_THREAD_ID, TEST_READ_FLAG_ONE);
+        map.put(TEST_HANDLE_ONE, msg);
+        mObserver.setMsgListSms(map, true);
+        mObserver.mMapEventReportVersion = BluetoothMapUtils.MAP_EVENT_REPORT_V10;
+
+        Assert.assertEquals(1, mObserver.scanMsgListSms(false));
+
+        verify(mMapMethodProxy).contentResolverQuery(any(), eq(Sms.CONTENT_URI), any(),
+                eq(Sms._ID + " > ?"), eq(new String[] {Long.toString(TEST_HANDLE_ONE)}), any());
+        // A delta scan cannot see deleted messages, hence keeps the messages it did not read
+        Assert.assertEquals(mObserver.getMsgListSms().get(TEST_HANDLE_ONE), msg);
+        Assert.assertEquals(mObserver.getMsgListSms().get(TEST_HANDLE_TWO).id, TEST_HANDLE_TWO);
+    }
+
+    @Test
+    public void scanMsgListMsg_withMessageId_onlyReadsThatMessage() throws Exception {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                BluetoothMapContract.MessageColumns._ID,
+                BluetoothMapContract.MessageColumns.FOLDER_ID,
+                BluetoothMapContract.MessageColumns.FLAG_READ});
+        when(mProviderClient.query(any(), any(), any(), any(), any())).thenReturn(cursor);
+
+        Map<Long, BluetoothMapContentObserver.Msg> map = new HashMap<>();
+        map.put(TEST_HANDLE_ONE, new BluetoothMapContentObserver.Msg(TEST_HANDLE_ONE,
+                TEST_INBOX_FOLDER_ID, TEST_READ_FLAG_ONE));
+        mObserver.setMsgListMsg(map, true);
+        mObserver.mMapEventReportVersion = BluetoothMapUtils.MAP_EVENT_REPORT_V10;
+
+        Assert.assertEquals(0, mObserver.scanMsgListMsg(TEST_HANDLE_ONE, false));
+
+        verify(mProviderClient).query(any(), any(),
+                eq(BluetoothMapContract.MessageColumns._ID + " = ?"),
+                eq(new String[] {Long.toString(TEST_HANDLE_ONE)}), any());
+        // The message is only reported as deleted by the full rescan that follows
+        Assert.assertTrue(mObserver.getMsgListMsg().containsKey(TEST_HANDLE_ONE));
+    }
 }
@@ -61,6 +61,7 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
@@ -1235,6 +1236,46 @@ public class BluetoothMapContentTest {
         assertThat(smsElement.getDeliveryStatus()).isEqualTo(TEST_DELIVERY_STATE);
     }
 
+    @Test
+    public void msgListing_streamed_looksUpDetailsWhileEncoding() throws Exception {
+        when(mParams.getParameterMask()).thenReturn(
+                (long) BluetoothMapAppParams.INVALID_VALUE_PARAMETER);
+        int noMms = BluetoothMapAppParams.FILTER_NO_MMS;
+        when(mParams.getFilterMessageType()).thenReturn(noMms);
+        when(mParams.getMaxListCount()).thenReturn(1);
+        when(mParams.getStartOffset()).thenReturn(0);
+
+        mCurrentFolder.setHasSmsMmsContent(true);
+        mCurrentFolder.setFolderId(TEST_ID);
+        mContent.mMsgListingVersion = BluetoothMapUtils.MAP_MESSAGE_LISTING_FORMAT_V11;
+
+        MatrixCursor smsCursor = new MatrixCursor(new String[] {BaseColumns._ID, Telephony.Sms.TYPE,
+                Telephony.Sms.READ, Telephony.Sms.BODY, Telephony.Sms.ADDRESS, Telephony.Sms.DATE,
+                Telephony.Sms.THREAD_ID, ContactsContract.Contacts.DISPLAY_NAME});
+        smsCursor.addRow(new Object[] {TEST_ID, TEST_SENT_NO, TEST_READ_TRUE, TEST_SUBJECT,
+                TEST_ADDRESS, TEST_DATE_SMS, TEST_THREAD_ID, TEST_PHONE_NAME});
+        doReturn(smsCursor).when(mMapMethodProxy).contentResolverQuery(any(), any(),
+                eq(BluetoothMapContent.SMS_PROJECTION), any(), any(), any());
+        MatrixCursor contactCursor = new MatrixCursor(new String[] {ContactsContract.Contacts._ID,
+                ContactsContract.Contacts.DISPLAY_NAME});
+        contactCursor.addRow(new Object[] {TEST_ID, TEST_PHONE_NAME});
+        doReturn(contactCursor).when(mMapMethodProxy).contentResolverQuery(any(), any(),
+                eq(new String[] {ContactsContract.Contacts._ID,
+                        ContactsContract.Contacts.DISPLAY_NAME}), any(), any(), any());
+
+        BluetoothMapMessageListing listing = mContent.msgListing(mCurrentFolder, mParams, true);
+        assertThat(listing.getCount()).isEqualTo(1);
+        BluetoothMapMessageListingElement smsElement = listing.getList().get(0);
+        assertThat(smsElement.getSenderName()).isNull();
+
+        listing.encode(new ByteArrayOutputStream(), false, BluetoothMapUtils.MAP_V11_STR);
+        assertThat(smsElement.getSenderName()).isEqualTo(TEST_PHONE_NAME);
+        assertThat(smsCursor.isClosed()).isFalse();
+
+        listing.close();
+        assertThat(smsCursor.isClosed()).isTrue();
+    }
+
     @Test
     public void msgListing_withMmsCursorOnly() {
         when(mParams.getParameterMask()).thenReturn(
@@ -18,6 +18,8 @@ package com.android.bluetooth.map;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.junit.Assert.assertThrows;
+
 import android.util.Xml;
 
 import androidx.test.runner.AndroidJUnit4;
@@ -31,12 +33,15 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 
 @RunWith(AndroidJUnit4.class)
 public class BluetoothMapMessageListingTest {
@@ -136,6 +141,58 @@ public class BluetoothMapMessageListingTest {
         assertThat(listing.getList().get(1).getReadBool()).isTrue();
     }
 
+    @Test
+    public void encodeToStream_matchesByteArrayEncoding() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        mListing.encode(out, false, TEST_VERSION);
+
+        assertThat(out.toByteArray()).isEqualTo(mListing.encode(false, TEST_VERSION));
+    }
+
+    @Test
+    public void encodeToStream_fillsEachElementBeforeEncodingIt() throws Exception {
+        List<BluetoothMapMessageListingElement> filled = new ArrayList<>();
+        int[] closeCount = new int[1];
+        mListing.setElementFiller(new BluetoothMapMessageListing.ElementFiller() {
+            @Override
+            public void fill(BluetoothMapMessageListingElement element) {
+                element.setSenderName("sender");
+                filled.add(element);
+            }
+
+            @Override
+            public void close() {
+                closeCount[0]++;
+            }
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mListing.encode(out, false, TEST_VERSION);
+        mListing.close();
+        mListing.close();
+
+        assertThat(filled).containsExactlyElementsIn(mListing.getList()).inOrder();
+        assertThat(out.toString("UTF-8")).contains("sender_name=\"sender\"");
+        assertThat(closeCount[0]).isEqualTo(1);
+    }
+
+    @Test
+    public void encodeToStream_whenEncodingFails_throws() throws Exception {
+        mListing.setElementFiller(new BluetoothMapMessageListing.ElementFiller() {
+            @Override
+            public void fill(BluetoothMapMessageListingElement element) {
+                throw new IllegalStateException("cursor closed");
+            }
+
+            @Override
+            public void close() {}
+        });
+
+        assertThrows(IllegalStateException.class,
+                () -> mListing.encode(new ByteArrayOutputStream(), false, TEST_VERSION));
+    }
+
     /**
      * Decodes the encoded xml document then append the BluetoothMapMessageListingElements to the
      * given BluetoothMapMessageListing object.
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppBufferPoolTest {
+
+    @Before
+    public void setUp() {
+        BluetoothOppBufferPool.clear();
+    }
+
+    @After
+    public void tearDown() {
+        BluetoothOppBufferPool.clear();
+    }
+
+    @Test
+    public void acquire_returnsExactSize() {
+        assertThat(BluetoothOppBufferPool.acquire(1000)).hasLength(1000);
+    }
+
+    @Test
+    public void acquire_afterRelease_reusesBuffer() {
+        byte[] buffer = BluetoothOppBufferPool.acquire(1000);
+        BluetoothOppBufferPool.release(buffer);
+
+        assertThat(BluetoothOppBufferPool.acquire(1000)).isSameInstanceAs(buffer);
+        assertThat(BluetoothOppBufferPool.acquire(1000)).isNotSameInstanceAs(buffer);
+    }
+
+    @Test
+    public void acquire_differentSize_allocatesNewBuffer() {
+        byte[] buffer = BluetoothOppBufferPool.acquire(1000);
+        BluetoothOppBufferPool.release(buffer);
+
+        assertThat(BluetoothOppBufferPool.acquire(2000)).isNotSameInstanceAs(buffer);
+    }
+
+    @Test
+    public void release_whenFull_dropsOldestBuffer() {
+        byte[] oldest = BluetoothOppBufferPool.acquire(1);
+        BluetoothOppBufferPool.release(oldest);
+        for (int i = 0; i < BluetoothOppBufferPool.MAX_POOLED_BUFFERS; i++) {
+            BluetoothOppBufferPool.release(new byte[2]);
+        }
+
+        assertThat(BluetoothOppBufferPool.acquire(1)).isNotSameInstanceAs(oldest);
+    }
+}
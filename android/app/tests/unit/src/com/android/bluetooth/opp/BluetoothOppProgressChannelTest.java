@@ -0,0 +1,122 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppProgressChannelTest {
+    private static final int ID = 42;
+
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    BluetoothMethodProxy mMethodProxy;
+    @Mock
+    BluetoothOppProgressChannel.Listener mListener;
+    @Mock
+    ContentResolver mContentResolver;
+
+    @Before
+    public void setUp() {
+        BluetoothMethodProxy.setInstanceForTesting(mMethodProxy);
+        BluetoothOppProgressChannel.clear();
+    }
+
+    @After
+    public void tearDown() {
+        BluetoothOppProgressChannel.clear();
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void getCurrentBytes_notRunning_returnsStoredBytes() {
+        assertThat(BluetoothOppProgressChannel.getCurrentBytes(ID, 7)).isEqualTo(7);
+    }
+
+    @Test
+    public void publish_updatesLiveBytesOnEveryCall() {
+        BluetoothOppProgressChannel.publish(ID, 100);
+        BluetoothOppProgressChannel.publish(ID, 200);
+
+        assertThat(BluetoothOppProgressChannel.getCurrentBytes(ID, 0)).isEqualTo(200);
+    }
+
+    @Test
+    public void publish_throttlesListenerNotifications() {
+        BluetoothOppProgressChannel.registerListener(mListener);
+
+        for (int i = 1; i <= 100; i++) {
+            BluetoothOppProgressChannel.publish(ID, i);
+        }
+
+        verify(mListener).onProgressChanged(ID, 1);
+        verify(mListener, times(1)).onProgressChanged(eq(ID), any(Long.class));
+    }
+
+    @Test
+    public void unregisterListener_stopsNotifications() {
+        BluetoothOppProgressChannel.registerListener(mListener);
+        BluetoothOppProgressChannel.unregisterListener(mListener);
+
+        BluetoothOppProgressChannel.publish(ID, 1);
+
+        verify(mListener, never()).onProgressChanged(eq(ID), any(Long.class));
+    }
+
+    @Test
+    public void finish_writesLastProgressOnce() {
+        Uri uri = Uri.parse(BluetoothShare.CONTENT_URI + "/" + ID);
+        BluetoothOppProgressChannel.publish(ID, 100);
+        BluetoothOppProgressChannel.publish(ID, 300);
+
+        BluetoothOppProgressChannel.finish(mContentResolver, uri, ID);
+        BluetoothOppProgressChannel.finish(mContentResolver, uri, ID);
+
+        verify(mMethodProxy).contentResolverUpdate(eq(mContentResolver), eq(uri),
+                argThat(values -> values.getAsLong(BluetoothShare.CURRENT_BYTES) == 300),
+                isNull(), isNull());
+        assertThat(BluetoothOppProgressChannel.getCurrentBytes(ID, 5)).isEqualTo(5);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppTransferStatsTest {
+
+    @Test
+    public void format_reportsThroughputCpuAndGc() {
+        String summary = BluetoothOppTransferStats.format("Sent", 4 * 1024 * 1024, 2000, 100, 3);
+
+        assertThat(summary).isEqualTo(
+                "Sent 4194304 bytes in 2000 ms: 2.00 MB/s, 25.0 ms CPU/MB, 3 GCs");
+    }
+
+    @Test
+    public void format_noBytes_doesNotDivideByZero() {
+        String summary = BluetoothOppTransferStats.format("Received", 0, 1, 0, 0);
+
+        assertThat(summary).isEqualTo("Received 0 bytes in 1 ms: 0.00 MB/s, 0.0 ms CPU/MB, 0 GCs");
+    }
+
+    @Test
+    public void finish_addsToRecentTransfers() {
+        BluetoothOppTransferStats stats = BluetoothOppTransferStats.start("Sent");
+        stats.addBytes(1024);
+
+        String summary = stats.finish();
+
+        assertThat(summary).startsWith("Sent 1024 bytes");
+        assertThat(BluetoothOppTransferStats.getRecentTransfers()).contains(summary);
+    }
+}
@@ -20,13 +20,16 @@ import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import androidx.test.filters.SmallTest;
 import androidx.test.runner.AndroidJUnit4;
 
+import com.android.bluetooth.pbap.BluetoothPbapVcardManager.VCardFilter;
 import com.android.obex.Operation;
 
 import org.junit.Before;
@@ -35,8 +38,10 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
 @SmallTest
 @RunWith(AndroidJUnit4.class)
@@ -115,6 +120,51 @@ public class HandlerForStringBufferTest {
         assertThat(buffer.writeVCard(newVCard)).isFalse();
     }
 
+    @Test
+    public void writeVCard_withFilter_writesFilteredAndStrippedVCard() throws Exception {
+        final String separator = System.getProperty("line.separator");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        when(mOperation.openOutputStream()).thenReturn(outputStream);
+        HandlerForStringBuffer buffer = new HandlerForStringBuffer(mOperation, /*ownerVcard=*/null);
+        buffer.init();
+
+        String vCard = "BEGIN:VCARD" + separator
+                + "FN:Test Full Name \u00e9" + separator
+                + "EMAIL:android@android.com" + separator
+                + "TEL;CELL:+1-(588)-328-382" + separator
+                + "X-SIP:android" + separator
+                + "END:VCARD" + separator;
+        byte[] emailExcludeFilter = new byte[] {(byte) 0xFE, (byte) 0xFF};
+        VCardFilter filter = new VCardFilter(emailExcludeFilter);
+
+        assertThat(buffer.writeVCard(vCard, filter, /*vCardType21=*/ true,
+                /*stripTelephoneNumbers=*/ true)).isTrue();
+
+        String expectedVCard = "BEGIN:VCARD" + separator
+                + "FN:Test Full Name \u00e9" + separator
+                + "TEL;CELL:+1588328382" + separator
+                + "END:VCARD" + separator;
+        assertThat(new String(outputStream.toByteArray(), StandardCharsets.UTF_8))
+                .isEqualTo(expectedVCard);
+    }
+
+    @Test
+    public void writeVCard_largerThanEncodeBuffer_writtenInChunks() throws Exception {
+        HandlerForStringBuffer buffer = new HandlerForStringBuffer(mOperation, /*ownerVcard=*/null);
+        buffer.init();
+
+        StringBuilder vCard = new StringBuilder();
+        while (vCard.length() < 3 * HandlerForStringBuffer.ENCODE_BUFFER_SIZE) {
+            vCard.append("PHOTO;ENCODING=BASE64:QUJDREVGR0hJSktMTU5PUFFSU1RVVldYWVo=\n");
+        }
+
+        assertThat(buffer.writeVCard(vCard.toString(), new VCardFilter(null),
+                /*vCardType21=*/ true, /*stripTelephoneNumbers=*/ false)).isTrue();
+        verify(mOutputStream, times(3)).write(any(byte[].class), eq(0),
+                eq(HandlerForStringBuffer.ENCODE_BUFFER_SIZE));
+        verify(mOutputStream, never()).write(any(byte[].class));
+    }
+
     @Test
     public void terminate() throws Exception {
         String ownerVcard = "testOwnerVcard";
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.vcard.VCardEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PbapContactsInserterTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private static class FakePullRequest extends PullRequest {
+        final List<List<VCardEntry>> mInserted = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch mInsertStarted = new CountDownLatch(1);
+        final CountDownLatch mReleaseInsert = new CountDownLatch(1);
+
+        @Override
+        public void onPullComplete() {
+            mInsertStarted.countDown();
+            try {
+                mReleaseInsert.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            mInserted.add(mEntries);
+        }
+    }
+
+    private static List<VCardEntry> createBatch(int size) {
+        List<VCardEntry> batch = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            batch.add(new VCardEntry());
+        }
+        return batch;
+    }
+
+    @Test
+    public void submit_doesNotWaitForInsertInProgress() throws Exception {
+        FakePullRequest processor = new FakePullRequest();
+        PbapContactsInserter inserter = new PbapContactsInserter(processor);
+        List<VCardEntry> first = createBatch(3);
+        inserter.submit(first);
+        assertThat(processor.mInsertStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+
+        // The first batch is being inserted, the next ones are queued behind it.
+        List<List<VCardEntry>> queued = new ArrayList<>();
+        for (int i = 0; i < PbapContactsInserter.MAX_PENDING_BATCHES; i++) {
+            List<VCardEntry> batch = createBatch(2);
+            queued.add(batch);
+            inserter.submit(batch);
+        }
+        assertThat(processor.mInserted).isEmpty();
+
+        processor.mReleaseInsert.countDown();
+        inserter.close();
+
+        assertThat(processor.mInserted).hasSize(1 + PbapContactsInserter.MAX_PENDING_BATCHES);
+        assertThat(processor.mInserted.get(0)).isSameInstanceAs(first);
+        for (int i = 0; i < queued.size(); i++) {
+            assertThat(processor.mInserted.get(i + 1)).isSameInstanceAs(queued.get(i));
+        }
+        assertThat(inserter.getInsertedCount())
+                .isEqualTo(3 + 2 * PbapContactsInserter.MAX_PENDING_BATCHES);
+    }
+
+    @Test
+    public void close_whenInterrupted_dropsPendingBatches() throws Exception {
+        FakePullRequest processor = new FakePullRequest();
+        PbapContactsInserter inserter = new PbapContactsInserter(processor);
+        inserter.submit(createBatch(1));
+        assertThat(processor.mInsertStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+        inserter.submit(createBatch(1));
+
+        Thread.currentThread().interrupt();
+        try {
+            inserter.close();
+        } finally {
+            assertThat(Thread.interrupted()).isTrue();
+        }
+
+        // The insert in progress was stopped before close() returned
+        assertThat(inserter.isAlive()).isFalse();
+        assertThat(processor.mInserted).isEmpty();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.sdp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothUuid;
+import android.bluetooth.SdpDipRecord;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Looper;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.TestUtils;
+import com.android.bluetooth.Utils;
+import com.android.bluetooth.btservice.AbstractionLayer;
+import com.android.bluetooth.btservice.AdapterService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SdpManagerTest {
+    // DIP uuid in bytes
+    private static final byte[] DIP_UUID =
+            {0, 0, 18, 0, 0, 0, 16, 0, -128, 0, 0, -128, 95, -101, 52, -5};
+
+    private SdpManager mSdpManager;
+    private BluetoothDevice mTestDevice;
+
+    @Mock private AdapterService mAdapterService;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        TestUtils.setAdapterService(mAdapterService);
+        doReturn("00:01:02:03:04:05").when(mAdapterService).getIdentityAddress("00:01:02:03:04:05");
+
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        mSdpManager = SdpManager.init(mAdapterService);
+        mTestDevice = BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.clearAdapterService(mAdapterService);
+    }
+
+    private void sendDipRecord(int vendorId, boolean moreResults) {
+        mSdpManager.sdpDipRecordFoundCallback(AbstractionLayer.BT_STATUS_SUCCESS,
+                Utils.getByteAddress(mTestDevice), DIP_UUID, 0x0103, vendorId, 1, 0x1234, 0x0100,
+                true, moreResults);
+    }
+
+    private List<Intent> verifySdpIntents(int count) {
+        ArgumentCaptor<Intent> intentArgument = ArgumentCaptor.forClass(Intent.class);
+        verify(mAdapterService, times(count)).sendBroadcast(intentArgument.capture(), any(),
+                any(Bundle.class));
+        return intentArgument.getAllValues();
+    }
+
+    @Test
+    public void sdpSearch_repeated_answeredFromCache() {
+        mSdpManager.sdpSearch(mTestDevice, BluetoothUuid.DIP);
+        sendDipRecord(0x18d1, true);
+        sendDipRecord(0x18d2, false);
+        verifySdpIntents(2);
+
+        mSdpManager.sdpSearch(mTestDevice, BluetoothUuid.DIP);
+
+        List<Intent> intents = verifySdpIntents(4);
+        for (int i = 0; i < 2; i++) {
+            Intent intent = intents.get(2 + i);
+            assertThat(intent.getAction()).isEqualTo(BluetoothDevice.ACTION_SDP_RECORD);
+            assertThat((BluetoothDevice) intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE))
+                    .isEqualTo(mTestDevice);
+            assertThat(intent.getIntExtra(BluetoothDevice.EXTRA_SDP_SEARCH_STATUS, -1))
+                    .isEqualTo(AbstractionLayer.BT_STATUS_SUCCESS);
+            SdpDipRecord record = intent.getParcelableExtra(BluetoothDevice.EXTRA_SDP_RECORD);
+            assertThat(record.getVendorId()).isEqualTo(0x18d1 + i);
+        }
+    }
+
+    @Test
+    public void sdpSearch_afterInvalidateRecords_searchesAgain() {
+        mSdpManager.sdpSearch(mTestDevice, BluetoothUuid.DIP);
+        sendDipRecord(0x18d1, false);
+        verifySdpIntents(1);
+
+        mSdpManager.invalidateRecords(mTestDevice);
+        mSdpManager.sdpSearch(mTestDevice, BluetoothUuid.DIP);
+
+        // Nothing is sent until the search completes
+        verifySdpIntents(1);
+        sendDipRecord(0x18d2, false);
+        SdpDipRecord record = verifySdpIntents(2).get(1)
+                .getParcelableExtra(BluetoothDevice.EXTRA_SDP_RECORD);
+        assertThat(record.getVendorId()).isEqualTo(0x18d2);
+    }
+
+    @Test
+    public void sdpSearch_failedSearch_notCached() {
+        mSdpManager.sdpSearch(mTestDevice, BluetoothUuid.DIP);
+        mSdpManager.sdpDipRecordFoundCallback(AbstractionLayer.BT_STATUS_FAIL,
+                Utils.getByteAddress(mTestDevice), DIP_UUID, 0, 0, 0, 0, 0, false, false);
+        verifySdpIntents(1);
+
+        mSdpManager.sdpSearch(mTestDevice, BluetoothUuid.DIP);
+
+        verifySdpIntents(1);
+        sendDipRecord(0x18d1, false);
+        verifySdpIntents(2);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ContactNameCacheTest {
+    private static final String NUMBER = "+1 650-555-0100";
+    private static final ContactNameCache.Contact CONTACT =
+            new ContactNameCache.Contact(7, "Alice");
+
+    private ContactNameCache mCache;
+    private final AtomicInteger mLoadCount = new AtomicInteger();
+    private final Function<String, ContactNameCache.Contact> mLoader = number -> {
+        mLoadCount.incrementAndGet();
+        return CONTACT;
+    };
+
+    @Before
+    public void setUp() {
+        mCache = new ContactNameCache(InstrumentationRegistry.getTargetContext());
+        ContactNameCache.setInstanceForTesting(mCache);
+    }
+
+    @After
+    public void tearDown() {
+        ContactNameCache.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void get_differentlyFormattedNumbers_shareEntry() {
+        assertThat(ContactNameCache.get(NUMBER, mLoader)).isSameInstanceAs(CONTACT);
+        assertThat(ContactNameCache.get("+16505550100", mLoader)).isSameInstanceAs(CONTACT);
+
+        assertThat(mLoadCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_withoutInstance_alwaysLoads() {
+        ContactNameCache.setInstanceForTesting(null);
+
+        ContactNameCache.get(NUMBER, mLoader);
+        ContactNameCache.get(NUMBER, mLoader);
+
+        assertThat(mLoadCount.get()).isEqualTo(2);
+        assertThat(ContactNameCache.peek(NUMBER)).isNull();
+    }
+
+    @Test
+    public void get_failedLookup_notCached() {
+        assertThat(ContactNameCache.get(NUMBER, number -> null)).isNull();
+
+        assertThat(ContactNameCache.peek(NUMBER)).isNull();
+    }
+
+    @Test
+    public void get_noContact_cached() {
+        ContactNameCache.get(NUMBER, number -> ContactNameCache.Contact.NONE);
+
+        ContactNameCache.Contact contact = ContactNameCache.peek(NUMBER);
+        assertThat(contact.exists()).isFalse();
+        assertThat(contact.getName()).isNull();
+    }
+
+    @Test
+    public void invalidate_dropsEntriesAndStalePuts() {
+        long generation = ContactNameCache.getGeneration();
+        ContactNameCache.get(NUMBER, mLoader);
+
+        mCache.invalidate();
+        ContactNameCache.put("+16505550101", generation, CONTACT);
+
+        assertThat(ContactNameCache.peek(NUMBER)).isNull();
+        assertThat(ContactNameCache.peek("+16505550101")).isNull();
+        ContactNameCache.put("+16505550101", ContactNameCache.getGeneration(), CONTACT);
+        assertThat(ContactNameCache.peek("+16505550101")).isSameInstanceAs(CONTACT);
+    }
+
+    @Test
+    public void put_otherLookup_notSharedWithPhoneLookup() {
+        ContactNameCache.put(ContactNameCache.LOOKUP_PHONE_NUMBER, NUMBER,
+                ContactNameCache.getGeneration(), ContactNameCache.Contact.NONE);
+
+        assertThat(ContactNameCache.peek(NUMBER)).isNull();
+        assertThat(ContactNameCache.get(NUMBER, mLoader)).isSameInstanceAs(CONTACT);
+        assertThat(ContactNameCache.peek(ContactNameCache.LOOKUP_PHONE_NUMBER, NUMBER).exists())
+                .isFalse();
+    }
+
+    @Test
+    public void normalizeNumber_keepsNonPhoneAddresses() {
+        assertThat(ContactNameCache.normalizeNumber("alice@example.com", "US"))
+                .isEqualTo("alice@example.com");
+        assertThat(ContactNameCache.normalizeNumber("555-0100", "US")).isEqualTo("5550100");
+    }
+
+    @Test
+    public void dump_reportsHitRate() {
+        ContactNameCache.get(NUMBER, mLoader);
+        ContactNameCache.get(NUMBER, mLoader);
+        StringBuilder sb = new StringBuilder();
+
+        ContactNameCache.dump(sb);
+
+        assertThat(sb.toString()).contains("hits: 1, misses: 1, hit rate: 50%");
+    }
+}